@@ -0,0 +1,54 @@
+package com.smartlife.tuotuotiemeijiacarimplibrary
+
+import com.example.tuotuotie_car_interface_library.CarPropertyListener
+import com.example.tuotuotie_car_interface_library.CarPropertySource
+import mega.car.MegaCarProperty
+import mega.car.hardware.CarPropertyValue
+import mega.car.hardware.property.CarPropertyManager
+import timber.log.Timber
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 美佳车机属性数据源
+ * 美佳属性只按ID读写，区域统一为0
+ */
+class MegaCarPropertySource(
+    private val carProperty: MegaCarProperty
+) : CarPropertySource {
+
+    companion object {
+        private const val TAG = "MegaCarPropertySource"
+    }
+
+    private val callbacks = ConcurrentHashMap<Int, CarPropertyManager.CarPropertyEventCallback>()
+
+    override fun readInt(propertyId: Int, areaId: Int): Int? = try {
+        carProperty.getIntProp(propertyId)
+    } catch (e: Exception) {
+        Timber.tag(TAG).e(e, "读取属性失败: 0x${propertyId.toString(16)}")
+        null
+    }
+
+    override fun readFloat(propertyId: Int, areaId: Int): Float? = try {
+        carProperty.getFloatProp(propertyId)
+    } catch (e: Exception) {
+        Timber.tag(TAG).e(e, "读取属性失败: 0x${propertyId.toString(16)}")
+        null
+    }
+
+    override fun subscribe(propertyId: Int, listener: CarPropertyListener) {
+        val callback = object : CarPropertyManager.CarPropertyEventCallback {
+            override fun onChangeEvent(value: CarPropertyValue<*>) {
+                listener.onPropertyChanged(value.propertyId, 0, value.value)
+            }
+
+            override fun onErrorEvent(propertyId: Int, areaId: Int) {}
+        }
+        callbacks[propertyId] = callback
+        carProperty.registerCallback(callback, setOf(propertyId))
+    }
+
+    override fun unsubscribe(propertyId: Int) {
+        callbacks.remove(propertyId)?.let { carProperty.unregisterCallback(it, setOf(propertyId)) }
+    }
+}
@@ -4,13 +4,18 @@ import android.car.VehicleAreaType
 import android.car.hardware.cabin.CarCabinManager
 import android.content.Context
 import com.android.car.internal.util.TextUtils
+import com.example.tuotuotie_car_interface_library.CarPropertyCache
 import com.example.tuotuotie_car_interface_library.ICarFunctionExecutor
 import com.mega.nexus.os.MegaSystemProperties
 import com.mine.baselibrary.ActionNameProvider
 import com.mine.baselibrary.BidirectionalAction
 import com.mine.baselibrary.BoundaryCheckResult
 import com.mine.baselibrary.BoundaryChecker
+import com.mine.baselibrary.CoalescingActionEngine
+import com.mine.baselibrary.CoalescingExecutor
 import com.mine.baselibrary.Executor
+import com.mine.baselibrary.PropertyConfirmation
+import com.mine.baselibrary.RateLimitProfile
 import com.mine.baselibrary.ReactiveFlowHandler
 import com.mine.baselibrary.ResourceChecker
 import com.mine.baselibrary.constants.CarPlatformConstants
@@ -30,6 +35,7 @@ import mega.car.Signal.GW_288_BDCRIRECHILDLOCKSTS
 import mega.car.hardware.CarPropertyValue
 import timber.log.Timber
 import javax.inject.Inject
+import javax.inject.Provider
 import javax.inject.Singleton
 
 
@@ -39,7 +45,8 @@ import javax.inject.Singleton
  */
 @Singleton
 class MeiJiaCarFunctionExecutor @Inject constructor(
-    @ApplicationContext private val context: Context
+    @ApplicationContext private val context: Context,
+    private val propertyCacheProvider: Provider<CarPropertyCache>
 ) : ICarFunctionExecutor {
 
 
@@ -50,6 +57,21 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
     }
     
     private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    // 空调调节后等属性上报新值再提示，不再固定等待1秒后读取
+    private val confirmation = PropertyConfirmation()
+
+    // 车机属性缓存，按键时从内存取当前值，不再每次同步读取；与其他使用方共用同一实例
+    private val propertyCache: CarPropertyCache by lazy {
+        propertyCacheProvider.get().also { cache ->
+            // 缓存的订阅同时用于确认，每个属性只向车机服务订阅一次
+            for (propertyId in CACHED_PROPERTIES) {
+                cache.subscribe(propertyId) { id, areaId, value ->
+                    confirmation.onPropertyChanged(id, areaId, value)
+                }
+            }
+        }
+    }
     
     // 温度控制 Flow 延迟响应相关
     private enum class TemperatureAction : BidirectionalAction {
@@ -160,15 +182,16 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
             },
             getCurrentValue = {
                 // 将 Float 温度值乘以 10 转换为 Int
-                mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTLEFT)?.let { (it * 10).toInt() }
+                propertyCache.getFloat(ID_TEMPERATURE_FRONTLEFT)?.let { (it * 10).toInt() }
             },
-            maxRequestsPerPeriod = 5
+            // 执行器等到温度确认后才返回，按设置到确认的延迟调整频率
+            rateLimitProfile = RateLimitProfile.Adaptive()
         )
     }
     
-    // 温度控制 Flow 处理器（副驾）
-    private val temperatureHandler2: ReactiveFlowHandler<TemperatureAction2> by lazy {
-        ReactiveFlowHandler(
+    // 温度控制处理器（副驾），等待期间的同向操作合并为一次设置目标温度
+    private val temperatureHandler2: CoalescingActionEngine<TemperatureAction2> by lazy {
+        CoalescingActionEngine(
             context = context,
             tag = TAG,
             boundaryChecker = object : BoundaryChecker<TemperatureAction2> {
@@ -197,13 +220,24 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
                     }
                 }
             },
-            executor = object : Executor<TemperatureAction2> {
+            executor = object : CoalescingExecutor<TemperatureAction2> {
                 override suspend fun execute(action: TemperatureAction2) {
                     when (action) {
                         TemperatureAction2.DECREASE -> executeDecreaseACTemperature2()
                         TemperatureAction2.INCREASE -> executeIncreaseACTemperature2()
                     }
                 }
+
+                override suspend fun executeSteps(action: TemperatureAction2, steps: Int) {
+                    if (steps == 1) {
+                        execute(action)
+                        return
+                    }
+                    adjustTemperatureBy(
+                        ID_TEMPERATURE_FRONTRIGHT, "副驾",
+                        if (action == TemperatureAction2.INCREASE) steps else -steps
+                    )
+                }
             },
             resourceChecker = object : ResourceChecker {
                 override suspend fun check(): Boolean {
@@ -223,7 +257,12 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
             },
             getCurrentValue = {
                 // 将 Float 温度值乘以 10 转换为 Int
-                mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTRIGHT)?.let { (it * 10).toInt() }
+                propertyCache.getFloat(ID_TEMPERATURE_FRONTRIGHT)?.let { (it * 10).toInt() }
+            },
+            // 当前值是温度 * 10，每步 0.5 度
+            valueStep = { action ->
+                val step = (temperatureStep * 10).toInt()
+                if (action == TemperatureAction2.INCREASE) step else -step
             },
             maxRequestsPerPeriod = 5
         )
@@ -291,7 +330,7 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
                 }
             },
             getCurrentValue = {
-                mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
+                propertyCache.getInt(ID_BLW_LEVEL_FRONT)
             }
         )
     }
@@ -414,6 +453,22 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
         private const val ID_Ambient_Light_Color=0x800004f
         //座舱氛围灯开关
         private const val ID_Ambient_Light_Switch=0x8000008
+
+        // 订阅变化、从缓存读取的属性
+        private val CACHED_PROPERTIES = intArrayOf(
+            ID_TEMPERATURE_FRONTLEFT,
+            ID_TEMPERATURE_FRONTRIGHT,
+            ID_BLW_LEVEL_FRONT,
+            ID_Ambient_Light_Color,
+            ID_Ambient_Light_Switch
+        )
+
+        // 风量档位序列，0x9 不使用，0xA/0xB 对应9/10档
+        private val FAN_LEVELS = intArrayOf(0x1, 0x2, 0x3, 0x4, 0x5, 0x6, 0x7, 0x8, 0xA, 0xB)
+
+        // 老板键多步合并时每步的按住时间和上限
+        private const val SEAT_HOLD_PER_STEP_MS = 250L
+        private const val SEAT_HOLD_MAX_MS = 2000L
     }
 
     init {
@@ -431,28 +486,29 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
         Timber.tag(TAG).d("开始执行空调温度降低（主驾）")
         try {
             // 获取当前主驾温度
-            val currentTemp = mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTLEFT)
+            val currentTemp = propertyCache.getFloat(ID_TEMPERATURE_FRONTLEFT)
             Timber.tag(TAG).w("当前空调温度: $currentTemp°C")
             
             // 计算新温度，不低于最小值
             val newTemp = maxOf((currentTemp ?: minTemperature) - temperatureStep, minTemperature)
             
             // 设置新温度
-            mCarProperty.setFloatProp(ID_TEMPERATURE_FRONTLEFT, newTemp)
-            
-            coroutineScope.launch {
-                delay(1000)
-                val nextTemp = mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTLEFT)
-                // 显示toast提示
-                ToastUtilOverApplication().showToast(
-                    context, if (nextTemp != null && nextTemp <= minTemperature) {
-                        "主驾空调温度已调到最低"
-                    } else {
-                        "主驾空调温度已调低到${nextTemp ?: newTemp}度"
-                    }
-                )
-                Timber.tag(TAG).d("current temperature is ${nextTemp ?: newTemp}")
+            val expectation = confirmation.setAndExpect(ID_TEMPERATURE_FRONTLEFT, predicate = { it == newTemp }) {
+                propertyCache.invalidate(ID_TEMPERATURE_FRONTLEFT)
+                mCarProperty.setFloatProp(ID_TEMPERATURE_FRONTLEFT, newTemp)
             }
+            
+            // 等属性上报新值再返回，自适应限流按这段延迟调整频率；超时再主动读取
+            val nextTemp = expectation.await() as? Float ?: mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTLEFT)
+            // 显示toast提示
+            ToastUtilOverApplication().showToast(
+                context, if (nextTemp != null && nextTemp <= minTemperature) {
+                    "主驾空调温度已调到最低"
+                } else {
+                    "主驾空调温度已调低到${nextTemp ?: newTemp}度"
+                }
+            )
+            Timber.tag(TAG).d("current temperature is ${nextTemp ?: newTemp}")
         } catch (e: Exception) {
             Timber.tag(TAG).e(e, "降低空调温度失败")
         }
@@ -465,28 +521,29 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
         Timber.tag(TAG).d("开始执行空调温度升高（主驾）")
         try {
             // 获取当前主驾温度
-            val currentTemp = mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTLEFT)
+            val currentTemp = propertyCache.getFloat(ID_TEMPERATURE_FRONTLEFT)
             Timber.tag(TAG).w("当前空调温度: $currentTemp°C")
 
             // 计算新温度，不超过最大值
             val newTemp = minOf((currentTemp ?: minTemperature) + temperatureStep, maxTemperature)
 
             // 设置新温度
-            mCarProperty.setFloatProp(ID_TEMPERATURE_FRONTLEFT, newTemp)
-
-            coroutineScope.launch {
-                delay(1000)
-                val nextTemp = mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTLEFT)
-                // 显示toast提示
-                ToastUtilOverApplication().showToast(
-                    context, if (nextTemp != null && nextTemp >= 32.5) {
-                        "主驾空调温度已调到最高"
-                    } else {
-                        "主驾空调温度已调高到${nextTemp ?: newTemp}度"
-                    }
-                )
-                Timber.tag(TAG).d("current temperature is ${nextTemp ?: newTemp}")
+            val expectation = confirmation.setAndExpect(ID_TEMPERATURE_FRONTLEFT, predicate = { it == newTemp }) {
+                propertyCache.invalidate(ID_TEMPERATURE_FRONTLEFT)
+                mCarProperty.setFloatProp(ID_TEMPERATURE_FRONTLEFT, newTemp)
             }
+
+            // 等属性上报新值再返回，自适应限流按这段延迟调整频率；超时再主动读取
+            val nextTemp = expectation.await() as? Float ?: mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTLEFT)
+            // 显示toast提示
+            ToastUtilOverApplication().showToast(
+                context, if (nextTemp != null && nextTemp >= 32.5) {
+                    "主驾空调温度已调到最高"
+                } else {
+                    "主驾空调温度已调高到${nextTemp ?: newTemp}度"
+                }
+            )
+            Timber.tag(TAG).d("current temperature is ${nextTemp ?: newTemp}")
         } catch (e: Exception) {
             Timber.tag(TAG).e(e, "提高空调温度失败")
         }
@@ -499,18 +556,21 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
         Timber.tag(TAG).d("开始执行空调温度降低（副驾）")
         try {
             // 获取当前副驾温度
-            val currentTemp = mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTRIGHT)
+            val currentTemp = propertyCache.getFloat(ID_TEMPERATURE_FRONTRIGHT)
             Timber.tag(TAG).w("当前空调温度: $currentTemp°C")
             
             // 计算新温度，不低于最小值
             val newTemp = maxOf((currentTemp ?: minTemperature) - temperatureStep, minTemperature)
             
             // 设置新温度
-            mCarProperty.setFloatProp(ID_TEMPERATURE_FRONTRIGHT, newTemp)
+            val expectation = confirmation.setAndExpect(ID_TEMPERATURE_FRONTRIGHT, predicate = { it == newTemp }) {
+                propertyCache.invalidate(ID_TEMPERATURE_FRONTRIGHT)
+                mCarProperty.setFloatProp(ID_TEMPERATURE_FRONTRIGHT, newTemp)
+            }
             
             coroutineScope.launch {
-                delay(1000)
-                val nextTemp = mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTRIGHT)
+                // 等属性上报新值，超时再主动读取
+                val nextTemp = expectation.await() as? Float ?: mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTRIGHT)
                 // 显示toast提示
                 ToastUtilOverApplication().showToast(
                     context, if (nextTemp != null && nextTemp <= minTemperature) {
@@ -533,18 +593,21 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
         Timber.tag(TAG).d("开始执行空调温度升高（副驾）")
         try {
             // 获取当前副驾温度
-            val currentTemp = mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTRIGHT)
+            val currentTemp = propertyCache.getFloat(ID_TEMPERATURE_FRONTRIGHT)
             Timber.tag(TAG).w("当前空调温度: $currentTemp°C")
 
             // 计算新温度，不超过最大值
             val newTemp = minOf((currentTemp ?: minTemperature) + temperatureStep, maxTemperature)
 
             // 设置新温度
-            mCarProperty.setFloatProp(ID_TEMPERATURE_FRONTRIGHT, newTemp)
+            val expectation = confirmation.setAndExpect(ID_TEMPERATURE_FRONTRIGHT, predicate = { it == newTemp }) {
+                propertyCache.invalidate(ID_TEMPERATURE_FRONTRIGHT)
+                mCarProperty.setFloatProp(ID_TEMPERATURE_FRONTRIGHT, newTemp)
+            }
 
             coroutineScope.launch {
-                delay(1000)
-                val nextTemp = mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTRIGHT)
+                // 等属性上报新值，超时再主动读取
+                val nextTemp = expectation.await() as? Float ?: mCarProperty.getFloatProp(ID_TEMPERATURE_FRONTRIGHT)
                 // 显示toast提示
                 ToastUtilOverApplication().showToast(
                     context, if (nextTemp != null && nextTemp >= 32.5) {
@@ -566,7 +629,7 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
     private suspend fun executeDecreaseFanSpeed() {
         Timber.tag(TAG).d("开始执行风量减少")
         try {
-            val currentSpeed = mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
+            val currentSpeed = propertyCache.getInt(ID_BLW_LEVEL_FRONT) ?: mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
             Timber.tag(TAG).w("当前空调风量: $currentSpeed")
 
             // 边界检查：如果风量小于1，直接返回
@@ -582,34 +645,18 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
                 return
             }
 
-            val newSpeed = when (currentSpeed) {
-                0x1 -> 0x0
-                0x2 -> 0x1
-                0x3 -> 0x2
-                0x4 -> 0x3
-                0x5 -> 0x4
-                0x6 -> 0x5
-                0x7 -> 0x6
-                0x8 -> 0x9
-                0xA -> 0x9
-                0xB -> 0xC
-                else -> 0x00
-            }
-
-            if (newSpeed != 0) {
-                if (newSpeed != 0x9) {
-                    // 计算新风量，不低于最小值
-                    val newSpeed2 = maxOf(currentSpeed - 1, minFanSpeed)
-                    mCarProperty.setIntProp(ID_BLW_LEVEL_FRONT, newSpeed2)
-                } else {
-                    val newSpeed2 = maxOf(currentSpeed - 2, minFanSpeed)
-                    mCarProperty.setIntProp(ID_BLW_LEVEL_FRONT, newSpeed2)
-                }
+            // 按档位序列降一档（跳过不使用的0x9），等上报到这个目标值
+            val currentIndex = FAN_LEVELS.indexOfLast { it <= currentSpeed }.coerceAtLeast(1)
+            val newSpeed = FAN_LEVELS[currentIndex - 1]
+
+            val expectation = confirmation.setAndExpect(ID_BLW_LEVEL_FRONT, predicate = { it == newSpeed }) {
+                propertyCache.invalidate(ID_BLW_LEVEL_FRONT)
+                mCarProperty.setIntProp(ID_BLW_LEVEL_FRONT, newSpeed)
             }
 
             coroutineScope.launch {
-                delay(1000)
-                val nextFanLevel = mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
+                // 等属性上报新值，超时再主动读取
+                val nextFanLevel = expectation.await() as? Int ?: mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
                 // 显示toast提示
                 val mode1Desc = when (nextFanLevel) {
                     0x0 -> "已关闭"
@@ -639,7 +686,7 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
     private suspend fun executeIncreaseFanSpeed() {
         Timber.tag(TAG).d("开始执行风量增加")
         try {
-            val currentSpeed = mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
+            val currentSpeed = propertyCache.getInt(ID_BLW_LEVEL_FRONT) ?: mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
             Timber.tag(TAG).w("当前空调风量: $currentSpeed")
 
             // 边界检查：如果已经是最大风量，直接返回
@@ -648,32 +695,25 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
                 return
             }
 
-            val newSpeed = when (currentSpeed) {
-                0x1 -> 0x2
-                0x2 -> 0x3
-                0x3 -> 0x4
-                0x4 -> 0x5
-                0x5 -> 0x6
-                0x6 -> 0x7
-                0x7 -> 0x8
-                0x8 -> 0x9
-                0xA -> 0x9
-                0xB -> 0x9
-                else -> 0x01
+            // 按档位序列升一档（跳过不使用的0x9），关闭时从1档开始，等上报到这个目标值
+            val newSpeed = if (currentSpeed < 1) {
+                FAN_LEVELS.first()
+            } else {
+                FAN_LEVELS[minOf(FAN_LEVELS.indexOfLast { it <= currentSpeed } + 1, FAN_LEVELS.lastIndex)]
+            }
+            if (newSpeed == currentSpeed) {
+                Timber.tag(TAG).d("风量已是最大值，无法再增加")
+                return
             }
 
-            if (newSpeed != 0x9) {
-                // 计算新风量，不超过最大值
-                val newSpeed2 = minOf(currentSpeed + 1, newSpeed)
-                mCarProperty.setIntProp(ID_BLW_LEVEL_FRONT, newSpeed2)
-            } else {
-                val newSpeed2 = minOf(currentSpeed + 2, newSpeed)
-                mCarProperty.setIntProp(ID_BLW_LEVEL_FRONT, newSpeed2)
+            val expectation = confirmation.setAndExpect(ID_BLW_LEVEL_FRONT, predicate = { it == newSpeed }) {
+                propertyCache.invalidate(ID_BLW_LEVEL_FRONT)
+                mCarProperty.setIntProp(ID_BLW_LEVEL_FRONT, newSpeed)
             }
 
             coroutineScope.launch {
-                delay(1000)
-                val nextFanLevel = mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
+                // 等属性上报新值，超时再主动读取
+                val nextFanLevel = expectation.await() as? Int ?: mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
                 // 显示toast提示
                 val mode1Desc = when (nextFanLevel) {
                     0x1 -> "1"
@@ -754,7 +794,7 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
         Timber.tag(TAG).w("前排空调开关")
         try {
 
-            val currentSpeed = mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
+            val currentSpeed = propertyCache.getInt(ID_BLW_LEVEL_FRONT) ?: mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
 
             Timber.tag(TAG).w("空调风扇速度: $currentSpeed")
 
@@ -1692,9 +1732,7 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
      */
     override fun increaseACTemperature2() {
         Timber.tag(TAG).d("收到increaseACTemperature2请求")
-        coroutineScope.launch {
-            temperatureHandler2.emit(TemperatureAction2.INCREASE)
-        }
+        temperatureHandler2.emit(TemperatureAction2.INCREASE)
     }
     
     /**
@@ -1720,9 +1758,7 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
      */
     override fun decreaseACTemperature2() {
         Timber.tag(TAG).d("收到decreaseACTemperature2请求")
-        coroutineScope.launch {
-            temperatureHandler2.emit(TemperatureAction2.DECREASE)
-        }
+        temperatureHandler2.emit(TemperatureAction2.DECREASE)
     }
 
     /**
@@ -1751,6 +1787,168 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
         fanSpeedHandler.emit(FanSpeedAction.DECREASE)
     }
 
+    /**
+     * 按步数调节主驾空调温度，单步仍走防抖处理器，多步直接写一次目标温度
+     */
+    override suspend fun adjustACTemperature(steps: Int) {
+        when {
+            steps == 1 -> increaseACTemperature()
+            steps == -1 -> decreaseACTemperature()
+            steps != 0 -> adjustTemperatureBy(ID_TEMPERATURE_FRONTLEFT, "主驾", steps)
+        }
+    }
+
+    /**
+     * 按步数调节副驾空调温度，单步仍走防抖处理器，多步直接写一次目标温度
+     */
+    override suspend fun adjustACTemperature2(steps: Int) {
+        when {
+            steps == 1 -> increaseACTemperature2()
+            steps == -1 -> decreaseACTemperature2()
+            steps != 0 -> adjustTemperatureBy(ID_TEMPERATURE_FRONTRIGHT, "副驾", steps)
+        }
+    }
+
+    /**
+     * 按步数调节空调风量，单步仍走防抖处理器，多步直接写一次目标档位
+     */
+    override suspend fun adjustFanSpeed(steps: Int) {
+        when {
+            steps == 1 -> increaseFanSpeed()
+            steps == -1 -> decreaseFanSpeed()
+            steps != 0 -> adjustFanSpeedBy(steps)
+        }
+    }
+
+    /**
+     * 按步数移动副驾座椅，多步合并为一次按下，按住时间随步数延长
+     */
+    override suspend fun adjustPassengerPosition(steps: Int) {
+        when {
+            steps == 1 -> increasePassengerPoistion()
+            steps == -1 -> decreasePassengerPoistion()
+            steps != 0 -> movePassengerSeat(steps)
+        }
+    }
+
+    /**
+     * 当前温度加减 steps 个步进后夹到范围内，只设置一次
+     */
+    private suspend fun adjustTemperatureBy(propertyId: Int, seatName: String, steps: Int) {
+        Timber.tag(TAG).d("开始按步数调节${seatName}空调温度: $steps")
+        try {
+            val currentTemp = propertyCache.getFloat(propertyId) ?: mCarProperty.getFloatProp(propertyId)
+            Timber.tag(TAG).w("当前空调温度: $currentTemp°C")
+
+            val newTemp = ((currentTemp ?: minTemperature) + steps * temperatureStep)
+                .coerceIn(minTemperature, maxTemperature)
+            if (newTemp == currentTemp) {
+                ToastUtilOverApplication().showToast(
+                    context, if (steps > 0) "${seatName}空调温度已调到最高" else "${seatName}空调温度已调到最低"
+                )
+                return
+            }
+
+            val expectation = confirmation.setAndExpect(propertyId, predicate = { it == newTemp }) {
+                propertyCache.invalidate(propertyId)
+                mCarProperty.setFloatProp(propertyId, newTemp)
+            }
+
+            coroutineScope.launch {
+                // 等属性上报新值，超时再主动读取
+                val nextTemp = expectation.await() as? Float ?: mCarProperty.getFloatProp(propertyId)
+                ToastUtilOverApplication().showToast(
+                    context, when {
+                        steps > 0 && nextTemp != null && nextTemp >= maxTemperature -> "${seatName}空调温度已调到最高"
+                        steps < 0 && nextTemp != null && nextTemp <= minTemperature -> "${seatName}空调温度已调到最低"
+                        steps > 0 -> "${seatName}空调温度已调高到${nextTemp ?: newTemp}度"
+                        else -> "${seatName}空调温度已调低到${nextTemp ?: newTemp}度"
+                    }
+                )
+                Timber.tag(TAG).d("current temperature is ${nextTemp ?: newTemp}")
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "按步数调节${seatName}空调温度失败")
+        }
+    }
+
+    /**
+     * 在档位序列中移动 steps 档后只设置一次；减到1档以下与单步相同，关闭空调
+     */
+    private suspend fun adjustFanSpeedBy(steps: Int) {
+        Timber.tag(TAG).d("开始按步数调节风量: $steps")
+        try {
+            val currentSpeed = propertyCache.getInt(ID_BLW_LEVEL_FRONT) ?: mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
+            Timber.tag(TAG).w("当前空调风量: $currentSpeed")
+
+            val newSpeed = if (currentSpeed < 1) {
+                if (steps < 0) {
+                    ToastUtilOverApplication().showToast(context, "空调已关闭")
+                    return
+                }
+                FAN_LEVELS[minOf(steps, FAN_LEVELS.size) - 1]
+            } else {
+                // 不在序列中的值按不超过它的最高档位计
+                val currentIndex = FAN_LEVELS.indexOfLast { it <= currentSpeed }.coerceAtLeast(0)
+                val newIndex = currentIndex + steps
+                if (newIndex < 0) {
+                    Timber.tag(TAG).d("风量减到1档以下，直接关闭空调")
+                    mCarProperty.setIntProp(ID_WHOLE_CABIN_AIR_CD_FRONT, 0)
+                    return
+                }
+                FAN_LEVELS[minOf(newIndex, FAN_LEVELS.lastIndex)]
+            }
+            if (newSpeed == currentSpeed) {
+                ToastUtilOverApplication().showToast(context, "空调风量已调到最大，无法再增加")
+                return
+            }
+
+            val expectation = confirmation.setAndExpect(ID_BLW_LEVEL_FRONT, predicate = { it == newSpeed }) {
+                propertyCache.invalidate(ID_BLW_LEVEL_FRONT)
+                mCarProperty.setIntProp(ID_BLW_LEVEL_FRONT, newSpeed)
+            }
+
+            coroutineScope.launch {
+                // 等属性上报新值，超时再主动读取
+                val nextFanLevel = expectation.await() as? Int ?: mCarProperty.getIntProp(ID_BLW_LEVEL_FRONT)
+                val levelDesc = FAN_LEVELS.indexOf(nextFanLevel).let { if (it >= 0) "${it + 1}" else "未知" }
+                ToastUtilOverApplication().showToast(
+                    context, if (steps > 0) "空调风量已调高到$levelDesc" else "空调风量已调低到$levelDesc"
+                )
+                Timber.tag(TAG).d("current fan level is $nextFanLevel")
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "按步数调节空调风量失败")
+        }
+    }
+
+    /**
+     * 美佳车型座椅只能按下/松开，多步按一次并延长按住时间
+     */
+    private suspend fun movePassengerSeat(steps: Int) {
+        Timber.tag(TAG).d("开始按步数移动副驾座椅: $steps")
+        // extension=3 表示后移，extension=2 表示前移
+        val extension = if (steps > 0) 3 else 2
+        try {
+            val carPropertyValue = CarPropertyValue(ID_SEAT_POSITION_FRONTRIGHT, 1)
+            carPropertyValue.setExtension(extension)
+            mCarProperty.setRawProp(carPropertyValue)
+
+            delay(minOf(SEAT_HOLD_PER_STEP_MS * kotlin.math.abs(steps), SEAT_HOLD_MAX_MS))
+
+            val carPropertyValue2 = CarPropertyValue(ID_SEAT_POSITION_FRONTRIGHT, 0)
+            carPropertyValue2.setExtension(extension)
+            mCarProperty.setRawProp(carPropertyValue2)
+
+            ToastUtilOverApplication().showToast(
+                context, if (steps > 0) "已向后移动副驾座椅" else "已向前移动副驾座椅"
+            )
+            Timber.tag(TAG).d("movePassengerSeat 执行完成")
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "按步数移动副驾座椅失败")
+        }
+    }
+
     /**
      * 调节空调吹风方向
      * 
@@ -2138,7 +2336,7 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
     override fun getAmbientLightColor(): Int {
         Timber.tag(TAG).w("开始获取氛围灯颜色")
         try {
-            val value= mCarProperty.getIntProp(ID_Ambient_Light_Color)
+            val value= propertyCache.getInt(ID_Ambient_Light_Color) ?: -1
             return value
             }   catch (e: Exception){
             e.printStackTrace()
@@ -2150,7 +2348,7 @@ class MeiJiaCarFunctionExecutor @Inject constructor(
     override fun getAtmosphereLightSwtich():Int {
         Timber.tag(TAG).w("开始获取座舱氛围灯开关状态")
         try {
-            val currentSwitch = mCarProperty.getIntProp(ID_Ambient_Light_Switch)
+            val currentSwitch = propertyCache.getInt(ID_Ambient_Light_Switch) ?: -1
             return currentSwitch
             Timber.tag(TAG).w("舱氛围灯开关: $currentSwitch")
         } catch (e: Exception) {
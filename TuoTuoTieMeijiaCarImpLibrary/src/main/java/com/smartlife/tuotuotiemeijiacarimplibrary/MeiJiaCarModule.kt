@@ -1,13 +1,16 @@
 package com.smartlife.tuotuotiemeijiacarimplibrary
 
+import com.example.tuotuotie_car_interface_library.CarPropertyCache
 import com.example.tuotuotie_car_interface_library.ICarFunctionExecutor
 import com.example.tuotuotie_car_interface_library.ICarMediaExecutor
 import com.example.tuotuotie_car_interface_library.IDisplayMKStatus
 import com.example.tuotuotie_car_interface_library.IFunctionConfigCheck
 import dagger.Binds
 import dagger.Module
+import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.components.SingletonComponent
+import mega.car.MegaCarProperty
 import javax.inject.Singleton
 
 @Module
@@ -29,4 +32,22 @@ abstract class MeiJiaCarModule {
     @Binds
     @Singleton
     abstract fun bindCarMediaExecutor(impl: MeiJiaCarMediaExecutor): ICarMediaExecutor
+
+    companion object {
+        /**
+         * 美佳车机属性缓存，各使用方共用一份；车机服务重新连上后清空缓存
+         */
+        @Provides
+        @Singleton
+        fun provideCarPropertyCache(): CarPropertyCache {
+            val carProperty = MegaCarProperty.getInstance()
+            return CarPropertyCache(MegaCarPropertySource(carProperty)).also { cache ->
+                carProperty.setOnCarServiceStatusChangeListener { connected ->
+                    if (connected) {
+                        cache.invalidateAll()
+                    }
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
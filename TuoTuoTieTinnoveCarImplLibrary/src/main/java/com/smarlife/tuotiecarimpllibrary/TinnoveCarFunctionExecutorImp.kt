@@ -11,12 +11,14 @@ import android.car.hardware.hvac.CarHvacManager
 import android.content.Context
 import android.util.Log
 import com.android.car.internal.util.TextUtils
+import com.example.tuotuotie_car_interface_library.CarPropertyCache
 import com.example.tuotuotie_car_interface_library.ICarFunctionExecutor
 import com.mine.baselibrary.ActionNameProvider
 import com.mine.baselibrary.BidirectionalAction
 import com.mine.baselibrary.BoundaryCheckResult
 import com.mine.baselibrary.BoundaryChecker
 import com.mine.baselibrary.Executor
+import com.mine.baselibrary.PropertyConfirmation
 import com.mine.baselibrary.ReactiveFlowHandler
 import com.mine.baselibrary.ResourceChecker
 import com.mine.baselibrary.window.ToastUtilOverApplication
@@ -24,7 +26,6 @@ import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
-import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import timber.log.Timber
 import javax.inject.Inject
@@ -33,7 +34,12 @@ import kotlin.concurrent.thread
 
 
 @Singleton
-class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext private val context: Context) : ICarFunctionExecutor {
+class TinnoveCarFunctionExecutorImp @Inject constructor(
+    @ApplicationContext private val context: Context,
+    private val propertySource: TinnoveHvacPropertySource,
+    // 车机属性缓存，与其他使用方共用同一实例
+    private val propertyCache: CarPropertyCache
+) : ICarFunctionExecutor {
     private var mCarHvacManager: CarHvacManager? = null
     private var mCarCabinManager: CarCabinManager? = null
 
@@ -47,7 +53,25 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
     private var lastInitTime: Long = 0L
     private val INIT_INTERVAL_MS = 6000L // 6秒限制
 
+    // 按步数调节时的范围与步长，与单步调节一致
+    private val MIN_TEMPERATURE = 17.5f
+    private val MAX_TEMPERATURE = 32.5f
+    private val TEMPERATURE_STEP = 0.5f
+    private val MAX_FAN_LEVEL = 8
+    private val MIN_SEAT_POSITION = 1
+    private val MAX_SEAT_POSITION = 201
+    private val SEAT_POSITION_STEP = 20
+
     private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    // 空调调节后等属性上报新值再提示，不再固定等待1秒后读取
+    private val confirmation = PropertyConfirmation()
+
+    // 订阅变化、从缓存读取的空调属性
+    private val CACHED_PROPERTIES = intArrayOf(
+        CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+        CarHvacManager.ID_HVAC_FAN_SPEED_ACK
+    )
     
     // Flow 延迟响应相关
     private enum class PassengerPositionAction : BidirectionalAction {
@@ -207,7 +231,7 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
                 }
             },
             getCurrentValue = {
-                mCarHvacManager?.getIntProperty(
+                propertyCache.getInt(
                     CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
                     VehicleAreaSeat.SEAT_ROW_FRONT
                 )
@@ -271,7 +295,7 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
             },
             getCurrentValue = {
                 // 将 Float 温度值乘以 10 转换为 Int
-                mCarHvacManager?.getFloatProperty(
+                propertyCache.getFloat(
                     CarHvacManager.ID_ZONED_TEMP_SETPOINT,
                     VehicleAreaSeat.SEAT_MAIN_DRIVER
                 )?.let { (it * 10).toInt() }
@@ -281,6 +305,12 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
     }
     
     init {
+        // 缓存的订阅同时用于确认，每个属性只订阅一次
+        for (propertyId in CACHED_PROPERTIES) {
+            propertyCache.subscribe(propertyId) { id, areaId, value ->
+                confirmation.onPropertyChanged(id, areaId, value)
+            }
+        }
         init()
         // 初始化 Flow 处理器（通过 lazy 初始化）
         passengerPositionHandler
@@ -290,7 +320,8 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
 
     // Car属性工具类
     private val carPropertyUtils: VirtualCarUtils by lazy {
-        VirtualCarUtils(context)
+        // 虚拟车服务重连后缓存的值不再可信
+        VirtualCarUtils(context) { propertyCache.invalidateAll() }
     }
 
     /**
@@ -314,6 +345,9 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
                         Timber.tag(TAG).d("Car服务连接成功")
                         try {
                             mCarHvacManager = car.getCarManager(Car.HVAC_SERVICE) as? CarHvacManager
+                            // 回调只挂在当前的管理器上，服务重连后缓存的值不再可信
+                            propertySource.attach(mCarHvacManager)
+                            propertyCache.invalidateAll()
                             mCarCabinManager =
                                 car.getCarManager(Car.CABIN_SERVICE) as? CarCabinManager
                             mCarClusterInteractionManager =
@@ -329,6 +363,8 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
                         }
                     } else {
                         Timber.tag(TAG).e("Car服务连接失败")
+                        propertySource.attach(null)
+                        propertyCache.invalidateAll()
                     }
                 }
             } catch (e: Throwable) {
@@ -1078,7 +1114,10 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
             return
         }
         mCarHvacManager?.let { carHvacManager ->
-            val fanLevel = carHvacManager.getIntProperty(
+            val fanLevel = propertyCache.getInt(
+                CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
+                VehicleAreaSeat.SEAT_ROW_FRONT
+            ) ?: carHvacManager.getIntProperty(
                 CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
                 VehicleAreaSeat.SEAT_ROW_FRONT
             )
@@ -1103,20 +1142,28 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
                 return
             }
 
-            carHvacManager.setIntProperty(
-                CarHvacManager.ID_HVAC_FAN_SPEED_ADJUST,
+            // 风量是相对调节，按当前档位算出这一步的目标档位，等上报到目标值
+            val targetLevel = fanLevel - 1
+            val expectation = confirmation.setAndExpect(
+                CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
                 VehicleAreaSeat.SEAT_ROW_FRONT,
-                0xAA
-            )
+                predicate = { it == targetLevel }
+            ) {
+                propertyCache.invalidate(CarHvacManager.ID_HVAC_FAN_SPEED_ACK, VehicleAreaSeat.SEAT_ROW_FRONT)
+                carHvacManager.setIntProperty(
+                    CarHvacManager.ID_HVAC_FAN_SPEED_ADJUST,
+                    VehicleAreaSeat.SEAT_ROW_FRONT,
+                    0xAA
+                )
+            }
             Timber.tag(TAG).d("风量减少设置完成 (0xAA)")
 
 
 
 
             coroutineScope.launch {
-                delay(1000)
-
-                val nextFanLevel = carHvacManager.getIntProperty(
+                // 等属性上报新值，超时再主动读取
+                val nextFanLevel = expectation.await() as? Int ?: carHvacManager.getIntProperty(
                     CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
                     VehicleAreaSeat.SEAT_ROW_FRONT
                 )
@@ -1141,7 +1188,10 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
         }
         mCarHvacManager?.let { carHvacManager ->
 
-            val fanLevel = carHvacManager.getIntProperty(
+            val fanLevel = propertyCache.getInt(
+                CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
+                VehicleAreaSeat.SEAT_ROW_FRONT
+            ) ?: carHvacManager.getIntProperty(
                 CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
                 VehicleAreaSeat.SEAT_ROW_FRONT
             )
@@ -1152,15 +1202,24 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
                 return
             }
 
-            carHvacManager.setIntProperty(
-                CarHvacManager.ID_HVAC_FAN_SPEED_ADJUST,
-                VehicleAreaSeat.SEAT_ROW_FRONT, 0xBB
-            )
+            // 风量是相对调节，按当前档位算出这一步的目标档位，等上报到目标值
+            val targetLevel = (fanLevel + 1).coerceIn(1, MAX_FAN_LEVEL)
+            val expectation = confirmation.setAndExpect(
+                CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
+                VehicleAreaSeat.SEAT_ROW_FRONT,
+                predicate = { it == targetLevel }
+            ) {
+                propertyCache.invalidate(CarHvacManager.ID_HVAC_FAN_SPEED_ACK, VehicleAreaSeat.SEAT_ROW_FRONT)
+                carHvacManager.setIntProperty(
+                    CarHvacManager.ID_HVAC_FAN_SPEED_ADJUST,
+                    VehicleAreaSeat.SEAT_ROW_FRONT, 0xBB
+                )
+            }
             Timber.tag(TAG).d("风量增加设置完成 (0xBB)")
 
             coroutineScope.launch {
-                delay(1000)
-                val nextFanLevel = carHvacManager.getIntProperty(
+                // 等属性上报新值，超时再主动读取
+                val nextFanLevel = expectation.await() as? Int ?: carHvacManager.getIntProperty(
                     CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
                     VehicleAreaSeat.SEAT_ROW_FRONT
                 )
@@ -1193,16 +1252,32 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
             return
         }
         mCarHvacManager?.let { carHvacManager ->
-            carHvacManager.setIntProperty(
-                CarHvacManager.ID_HVAC_TEMPERATURE_ADJUST,
-                VehicleAreaSeat.SEAT_MAIN_DRIVER,
-                0x0
+            // 温度是相对调节，按当前值算出这一步的目标温度，等上报到目标值
+            val currentTemp = propertyCache.getFloat(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER
+            ) ?: carHvacManager.getFloatProperty(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER
             )
+            val targetTemp = (currentTemp - TEMPERATURE_STEP).coerceAtLeast(MIN_TEMPERATURE)
+            val expectation = confirmation.setAndExpect(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER,
+                predicate = { it == targetTemp }
+            ) {
+                propertyCache.invalidate(CarHvacManager.ID_ZONED_TEMP_SETPOINT, VehicleAreaSeat.SEAT_MAIN_DRIVER)
+                carHvacManager.setIntProperty(
+                    CarHvacManager.ID_HVAC_TEMPERATURE_ADJUST,
+                    VehicleAreaSeat.SEAT_MAIN_DRIVER,
+                    0x0
+                )
+            }
             Timber.tag(TAG).d("空调温度降低设置完成 (0x0)")
 
             coroutineScope.launch {
-                delay(1000)
-                val nextTemp = carHvacManager.getFloatProperty(
+                // 等属性上报新值，超时再主动读取
+                val nextTemp = expectation.await() as? Float ?: carHvacManager.getFloatProperty(
                     CarHvacManager.ID_ZONED_TEMP_SETPOINT,
                     VehicleAreaSeat.SEAT_MAIN_DRIVER,
                 )
@@ -1230,16 +1305,32 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
             return
         }
         mCarHvacManager?.let { carHvacManager ->
-            carHvacManager.setIntProperty(
-                CarHvacManager.ID_HVAC_TEMPERATURE_ADJUST,
-                VehicleAreaSeat.SEAT_MAIN_DRIVER,
-                0x1
+            // 温度是相对调节，按当前值算出这一步的目标温度，等上报到目标值
+            val currentTemp = propertyCache.getFloat(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER
+            ) ?: carHvacManager.getFloatProperty(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER
             )
+            val targetTemp = (currentTemp + TEMPERATURE_STEP).coerceAtMost(MAX_TEMPERATURE)
+            val expectation = confirmation.setAndExpect(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER,
+                predicate = { it == targetTemp }
+            ) {
+                propertyCache.invalidate(CarHvacManager.ID_ZONED_TEMP_SETPOINT, VehicleAreaSeat.SEAT_MAIN_DRIVER)
+                carHvacManager.setIntProperty(
+                    CarHvacManager.ID_HVAC_TEMPERATURE_ADJUST,
+                    VehicleAreaSeat.SEAT_MAIN_DRIVER,
+                    0x1
+                )
+            }
             Timber.tag(TAG).d("空调温度升高设置完成 (0x1)")
 
             coroutineScope.launch {
-                delay(1000)
-                val nextTemp = carHvacManager.getFloatProperty(
+                // 等属性上报新值，超时再主动读取
+                val nextTemp = expectation.await() as? Float ?: carHvacManager.getFloatProperty(
                     CarHvacManager.ID_ZONED_TEMP_SETPOINT,
                     VehicleAreaSeat.SEAT_MAIN_DRIVER,
                 )
@@ -1279,6 +1370,190 @@ class TinnoveCarFunctionExecutorImp @Inject constructor(@ApplicationContext priv
         temperatureHandler.emit(TemperatureAction.INCREASE)
     }
 
+    /**
+     * 按步数调节空调温度，单步仍走防抖处理器，多步直接写一次目标温度
+     */
+    override suspend fun adjustACTemperature(steps: Int) {
+        when {
+            steps == 1 -> increaseACTemperature()
+            steps == -1 -> decreaseACTemperature()
+            steps != 0 -> adjustACTemperatureBy(steps)
+        }
+    }
+
+    /**
+     * 按步数调节风量，单步仍走防抖处理器，多步直接写一次目标档位
+     */
+    override suspend fun adjustFanSpeed(steps: Int) {
+        when {
+            steps == 1 -> increaseFanSpeed()
+            steps == -1 -> decreaseFanSpeed()
+            steps != 0 -> adjustFanSpeedBy(steps)
+        }
+    }
+
+    /**
+     * 按步数移动副驾座椅，单步仍走防抖处理器，多步直接写一次目标位置
+     */
+    override suspend fun adjustPassengerPosition(steps: Int) {
+        when {
+            steps == 1 -> increasePassengerPoistion()
+            steps == -1 -> decreasePassengerPoistion()
+            steps != 0 -> movePassengerPositionBy(steps)
+        }
+    }
+
+    /**
+     * 当前温度加减 steps 个步进后夹到范围内，只设置一次
+     */
+    private fun adjustACTemperatureBy(steps: Int) {
+        Timber.tag(TAG).d("开始按步数调节空调温度: $steps")
+        if (!checkAndReconnectHvacManager()) {
+            return
+        }
+        val carHvacManager = mCarHvacManager ?: return
+        try {
+            val currentTemp = propertyCache.getFloat(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER
+            ) ?: carHvacManager.getFloatProperty(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER
+            )
+            val newTemp = (currentTemp + steps * TEMPERATURE_STEP).coerceIn(MIN_TEMPERATURE, MAX_TEMPERATURE)
+            if (newTemp == currentTemp) {
+                ToastUtilOverApplication().showToast(
+                    context, if (steps > 0) "空调温度已调到最高" else "空调温度已调到最低"
+                )
+                return
+            }
+
+            val expectation = confirmation.setAndExpect(
+                CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                VehicleAreaSeat.SEAT_MAIN_DRIVER,
+                predicate = { it == newTemp }
+            ) {
+                propertyCache.invalidate(CarHvacManager.ID_ZONED_TEMP_SETPOINT, VehicleAreaSeat.SEAT_MAIN_DRIVER)
+                carPropertyUtils.setACTemperature(newTemp)
+            }
+            Timber.tag(TAG).d("空调温度设置完成 ($newTemp)")
+
+            coroutineScope.launch {
+                // 等属性上报新值，超时再主动读取
+                val nextTemp = expectation.await() as? Float ?: carHvacManager.getFloatProperty(
+                    CarHvacManager.ID_ZONED_TEMP_SETPOINT,
+                    VehicleAreaSeat.SEAT_MAIN_DRIVER,
+                )
+                ToastUtilOverApplication().showToast(
+                    context, when {
+                        steps > 0 && nextTemp >= MAX_TEMPERATURE -> "空调温度已调到最高"
+                        steps < 0 && nextTemp <= MIN_TEMPERATURE -> "空调温度已调到最低"
+                        steps > 0 -> "空调温度已调高到${nextTemp}度"
+                        else -> "空调温度已调低到${nextTemp}度"
+                    }
+                )
+                Timber.tag(TAG).d("current tempurature is $nextTemp")
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "按步数调节空调温度失败")
+        }
+    }
+
+    /**
+     * 当前档位加减 steps 档后夹到范围内，只设置一次；减到1档以下与单步相同，关闭空调
+     */
+    private fun adjustFanSpeedBy(steps: Int) {
+        Timber.tag(TAG).d("开始按步数调节风量: $steps")
+        if (!checkAndReconnectHvacManager()) {
+            return
+        }
+        val carHvacManager = mCarHvacManager ?: return
+        try {
+            val fanLevel = propertyCache.getInt(
+                CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
+                VehicleAreaSeat.SEAT_ROW_FRONT
+            ) ?: carHvacManager.getIntProperty(
+                CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
+                VehicleAreaSeat.SEAT_ROW_FRONT
+            )
+            if (steps < 0 && fanLevel < 1) {
+                Timber.tag(TAG).d("风量已是最小值，无法再减少")
+                return
+            }
+            val newLevel = fanLevel + steps
+            if (newLevel < 1) {
+                Timber.tag(TAG).d("风量减到1档以下，直接关闭空调")
+                carPropertyUtils.setAirCdFront(0x01)
+                return
+            }
+            val targetLevel = minOf(newLevel, MAX_FAN_LEVEL)
+            if (targetLevel == fanLevel) {
+                Timber.tag(TAG).d("风量已是最大值，无法再增加")
+                return
+            }
+
+            val expectation = confirmation.setAndExpect(
+                CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
+                VehicleAreaSeat.SEAT_ROW_FRONT,
+                predicate = { it == targetLevel }
+            ) {
+                propertyCache.invalidate(CarHvacManager.ID_HVAC_FAN_SPEED_ACK, VehicleAreaSeat.SEAT_ROW_FRONT)
+                carPropertyUtils.setFanSpeed(targetLevel)
+            }
+            Timber.tag(TAG).d("风量设置完成 ($targetLevel)")
+
+            coroutineScope.launch {
+                // 等属性上报新值，超时再主动读取
+                val nextFanLevel = expectation.await() as? Int ?: carHvacManager.getIntProperty(
+                    CarHvacManager.ID_HVAC_FAN_SPEED_ACK,
+                    VehicleAreaSeat.SEAT_ROW_FRONT
+                )
+                ToastUtilOverApplication().showToast(
+                    context, if (steps > 0) "空调风量已调高到${nextFanLevel}档" else "空调风量已调低到${nextFanLevel}档"
+                )
+                Timber.tag(TAG).d("current fan level is $nextFanLevel")
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "按步数调节风量失败")
+        }
+    }
+
+    /**
+     * 当前位置加减 steps 个步长后夹到范围内，只设置一次
+     */
+    private fun movePassengerPositionBy(steps: Int) {
+        Timber.tag(TAG).d("开始按步数移动副驾座椅: $steps")
+        if (!checkAndReconnectCabinManager()) {
+            return
+        }
+        val carCabinManager = mCarCabinManager ?: return
+        try {
+            val currentPosition = carCabinManager.getIntProperty(
+                CarCabinManager.ID_BODY_SEAT_PSM_SET,
+                0x00
+            )
+            val nextPosition = (currentPosition + steps * SEAT_POSITION_STEP)
+                .coerceIn(MIN_SEAT_POSITION, MAX_SEAT_POSITION)
+            if (nextPosition == currentPosition) {
+                ToastUtilOverApplication().showToast(
+                    context, if (steps > 0) "副驾座椅已在最后，无法再向后移动" else "副驾座椅已在最前，无法再向前移动"
+                )
+                return
+            }
+            carCabinManager.setIntProperty(
+                CarCabinManager.ID_BODY_SEAT_PSM_SET,
+                0x00,
+                nextPosition
+            )
+            ToastUtilOverApplication().showToast(
+                context, if (steps > 0) "已向后移动副驾座椅" else "已向前移动副驾座椅"
+            )
+            Timber.tag(TAG).d("movePassengerPositionBy set to $nextPosition")
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "按步数移动副驾座椅失败")
+        }
+    }
+
     // 实现MeiJiaCarFunctionExecutor中特有的方法
 
     /**
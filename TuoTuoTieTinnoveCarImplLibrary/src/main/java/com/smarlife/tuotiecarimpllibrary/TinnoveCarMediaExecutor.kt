@@ -186,6 +186,29 @@ class TinnoveCarMediaExecutor@Inject constructor(
         }
     }
 
+    /**
+     * 按步数调节音量，只读写一次音量组
+     */
+    override fun adjustVolume(steps: Int) {
+        Timber.tag(TAG).w("调节车载音量: $steps")
+        if (steps == 0) return
+        try {
+            val carAudio = carAudioManager ?: return
+            val mediaGroupId = carAudio.getVolumeGroupIdForUsage(audioZoneId, 1)
+            val currentVolume = carAudio.getGroupVolume(this.audioZoneId, mediaGroupId)
+            val maxVolume = carAudio.getGroupMaxVolume(this.audioZoneId, mediaGroupId)
+            val targetVolume = (currentVolume + steps).coerceIn(0, maxVolume)
+            if (targetVolume != currentVolume) {
+                carAudio.setGroupVolume(this.audioZoneId, mediaGroupId, targetVolume, 4097)
+                Timber.tag(TAG).w("车载音量已调节：$targetVolume/$maxVolume")
+            } else {
+                Timber.tag(TAG).w("车载音量已达边界：$currentVolume/$maxVolume")
+            }
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "调节车载音量失败: ${e.message}")
+        }
+    }
+
     /**
      * 播放下一首
      */
@@ -1,6 +1,7 @@
 package com.smarlife.tuotiecarimpllibrary
 
 import android.content.Context
+import com.example.tuotuotie_car_interface_library.CarPropertyCache
 import com.example.tuotuotie_car_interface_library.IFunctionConfigCheck
 import com.example.tuotuotie_car_interface_library.IDisplayMKStatus
 import com.example.tuotuotie_car_interface_library.ICarFunctionExecutor
@@ -42,5 +43,14 @@ abstract class TinnoveCarModule {
         fun provideTinnoveCarConfig(@ApplicationContext context: Context): TinnoveCarConfig {
             return TinnoveCarConfig(context)
         }
+
+        /**
+         * 梧桐车机属性缓存，各使用方共用一份
+         */
+        @Provides
+        @Singleton
+        fun provideCarPropertyCache(source: TinnoveHvacPropertySource): CarPropertyCache {
+            return CarPropertyCache(source)
+        }
     }
 }
@@ -0,0 +1,79 @@
+package com.smarlife.tuotiecarimpllibrary
+
+import android.car.hardware.CarPropertyValue
+import android.car.hardware.hvac.CarHvacManager
+import com.example.tuotuotie_car_interface_library.CarPropertyListener
+import com.example.tuotuotie_car_interface_library.CarPropertySource
+import timber.log.Timber
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * 梧桐车机空调属性数据源
+ * CarHvacManager 随 Car 服务重连而变化，由执行器在连接成功后通过 [attach] 挂上；
+ * 只向管理器注册一个回调，按属性ID分发给订阅者
+ */
+@Singleton
+class TinnoveHvacPropertySource @Inject constructor() : CarPropertySource {
+
+    companion object {
+        private const val TAG = "TinnoveHvacPropertySource"
+    }
+
+    @Volatile
+    private var carHvacManager: CarHvacManager? = null
+
+    private val listeners = ConcurrentHashMap<Int, CarPropertyListener>()
+
+    private val hvacCallback = object : CarHvacManager.CarHvacEventCallback {
+        override fun onChangeEvent(value: CarPropertyValue<*>) {
+            listeners[value.propertyId]?.onPropertyChanged(value.propertyId, value.areaId, value.value)
+        }
+
+        override fun onErrorEvent(propertyId: Int, areaId: Int) {}
+    }
+
+    /**
+     * 换到新的管理器：先从旧的上取下回调，避免重复注册；传 null 表示服务已断开
+     */
+    @Synchronized
+    fun attach(manager: CarHvacManager?) {
+        carHvacManager?.let {
+            try {
+                it.unregisterCallback(hvacCallback)
+            } catch (e: Exception) {
+                // 服务断开时管理器可能已失效，异常直接忽略
+                Timber.tag(TAG).w("取消注册空调回调失败: ${e.message}")
+            }
+        }
+        carHvacManager = manager
+        try {
+            manager?.registerCallback(hvacCallback)
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "注册空调回调失败")
+        }
+    }
+
+    override fun readInt(propertyId: Int, areaId: Int): Int? = try {
+        carHvacManager?.getIntProperty(propertyId, areaId)
+    } catch (e: Exception) {
+        Timber.tag(TAG).e(e, "读取属性失败: 0x${propertyId.toString(16)}")
+        null
+    }
+
+    override fun readFloat(propertyId: Int, areaId: Int): Float? = try {
+        carHvacManager?.getFloatProperty(propertyId, areaId)
+    } catch (e: Exception) {
+        Timber.tag(TAG).e(e, "读取属性失败: 0x${propertyId.toString(16)}")
+        null
+    }
+
+    override fun subscribe(propertyId: Int, listener: CarPropertyListener) {
+        listeners[propertyId] = listener
+    }
+
+    override fun unsubscribe(propertyId: Int) {
+        listeners.remove(propertyId)
+    }
+}
@@ -49,7 +49,17 @@ public class VirtualCarUtils {
      */
     private String mVin = null;
 
+    /**
+     * 虚拟车服务连接成功（含重连）后的回调，使用方在这里清空属性缓存
+     */
+    private final Runnable mServiceReadyCallback;
+
     public VirtualCarUtils(Context context) {
+        this(context, null);
+    }
+
+    public VirtualCarUtils(Context context, Runnable serviceReadyCallback) {
+        mServiceReadyCallback = serviceReadyCallback;
         initVirtual(context);
     }
 
@@ -104,6 +114,9 @@ public class VirtualCarUtils {
             } catch (VirtualCarException e) {
                 e.printStackTrace();
             }
+            if (mServiceReadyCallback != null) {
+                mServiceReadyCallback.run();
+            }
         }
 
         @Override
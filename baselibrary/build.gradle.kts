@@ -81,6 +81,11 @@ android {
         viewBinding = true
         buildConfig = true
     }
+
+    // 单元测试中 android.jar 的方法返回默认值，不抛出 not mocked 异常
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 // 使用 doLast 重命名 AAR 文件
@@ -0,0 +1,308 @@
+package com.mine.baselibrary
+
+import android.content.Context
+import android.os.SystemClock
+import com.mine.baselibrary.window.ToastUtilOverApplication
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import timber.log.Timber
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * 可合并执行的执行器
+ */
+interface CoalescingExecutor<TAction> : Executor<TAction> {
+    /**
+     * 一次执行多次同向操作，例如直接设置目标值
+     * @param action 操作类型
+     * @param steps 合并的操作次数，至少为1
+     */
+    suspend fun executeSteps(action: TAction, steps: Int)
+}
+
+/**
+ * 无锁的操作处理引擎，接口与 [ReactiveFlowHandler] 相同
+ *
+ * - 状态机：只有一个处理协程，用 CAS 在空闲/运行之间切换，不使用 Mutex
+ * - 限流：令牌桶，突发最多 maxRequestsPerPeriod 个请求，之后每 periodMs / maxRequestsPerPeriod 恢复一个
+ * - 合并：同一操作在等待期间累计次数；收到反向操作时取消还没执行的操作，反向操作不受限流
+ * - 每次取出一个操作累计的全部次数，按当前值逐步做边界检查，越界的部分直接丢弃
+ * - 执行器实现了 [CoalescingExecutor] 时一批只调用一次（例如直接设置目标值），否则在这一批内逐次调用 execute
+ * - 两批之间至少间隔 minIntervalMs
+ * - 统计：排队等待、执行耗时、丢弃和取消次数，见 [metrics]
+ *
+ * @param TAction 操作类型，必须实现 BidirectionalAction 接口
+ * @param context Context 用于显示 Toast
+ * @param tag 日志标签
+ * @param executor 执行器
+ * @param resourceChecker 资源检查器
+ * @param actionNameProvider 操作名称提供者
+ * @param boundaryChecker 边界检查器（可选，如果启用边界检查则必须提供）
+ * @param getCurrentValue 获取当前值的函数（可选，如果启用边界检查则必须提供）
+ * @param valueStep 每执行一次当前值的变化量，带符号（可选，如果启用边界检查则必须提供）
+ * @param enableBoundaryCheck 是否启用边界检查，默认 true
+ * @param minIntervalMs 两次执行的最小间隔（毫秒），默认 500ms
+ * @param maxRequestsPerPeriod 每个周期最多的请求数，默认 3
+ * @param periodMs 限流周期（毫秒），默认 1000ms
+ * @param clock 时钟（毫秒），默认开机时间，单元测试可替换
+ */
+class CoalescingActionEngine<TAction : BidirectionalAction>(
+    private val context: Context,
+    private val tag: String,
+    private val executor: Executor<TAction>,
+    private val resourceChecker: ResourceChecker,
+    private val actionNameProvider: ActionNameProvider<TAction>,
+    private val boundaryChecker: BoundaryChecker<TAction>? = null,
+    private val getCurrentValue: (suspend () -> Int?)? = null,
+    private val valueStep: ((TAction) -> Int)? = null,
+    private val enableBoundaryCheck: Boolean = true,
+    private val minIntervalMs: Long = 500L,
+    private val maxRequestsPerPeriod: Int = 3,
+    private val periodMs: Long = 1000L,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+    /**
+     * 统计快照
+     * @param droppedByRateLimit 被限流丢弃的请求数
+     * @param droppedByCheck 因资源不可用、取不到当前值或边界检查失败而丢弃的操作次数
+     * @param cancelledByOpposite 被反向操作取消的操作次数
+     */
+    data class Metrics(
+        val emitted: Long,
+        val coalesced: Long,
+        val executedBatches: Long,
+        val executedSteps: Long,
+        val droppedByRateLimit: Long,
+        val droppedByCheck: Long,
+        val cancelledByOpposite: Long,
+        val totalQueueWaitMs: Long,
+        val maxQueueWaitMs: Long,
+        val totalExecutionMs: Long,
+        val maxExecutionMs: Long
+    )
+
+    /**
+     * 等待执行的操作，不可修改，通过 ConcurrentHashMap 的原子操作替换
+     * @param steps 累计次数
+     * @param firstEmitAt 最早一次请求的时间，用于统计排队等待
+     */
+    private class Pending(val steps: Int, val firstEmitAt: Long)
+
+    private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val pending = ConcurrentHashMap<TAction, Pending>()
+    private val state = AtomicInteger(STATE_IDLE)
+    private val mergesSteps = executor is CoalescingExecutor<*>
+
+    // 令牌桶，按 GCRA 实现：记录理论到达时间，不需要定时补充令牌
+    private val emissionIntervalMs = maxOf(1L, periodMs / maxRequestsPerPeriod)
+    private val burstToleranceMs = periodMs - emissionIntervalMs
+    private val theoreticalArrival = AtomicLong(0L)
+
+    // 只在处理协程中读写
+    private var lastExecuteTime = 0L
+
+    private val emitted = LongAdder()
+    private val coalesced = LongAdder()
+    private val executedBatches = LongAdder()
+    private val executedSteps = LongAdder()
+    private val droppedByRateLimit = LongAdder()
+    private val droppedByCheck = LongAdder()
+    private val cancelledByOpposite = LongAdder()
+    private val totalQueueWaitMs = LongAdder()
+    private val maxQueueWaitMs = AtomicLong()
+    private val totalExecutionMs = LongAdder()
+    private val maxExecutionMs = AtomicLong()
+
+    init {
+        // 验证参数：如果启用边界检查，则必须提供 boundaryChecker 和 getCurrentValue
+        if (enableBoundaryCheck) {
+            require(boundaryChecker != null) { "启用边界检查时必须提供 boundaryChecker" }
+            require(getCurrentValue != null) { "启用边界检查时必须提供 getCurrentValue" }
+            require(valueStep != null) { "启用边界检查时必须提供 valueStep" }
+        }
+        require(maxRequestsPerPeriod > 0) { "maxRequestsPerPeriod 必须大于0" }
+    }
+
+    /**
+     * 提交操作，不会挂起，可以在任意线程调用
+     */
+    fun emit(action: TAction) {
+        emitted.increment()
+        val now = clock()
+        val actionName = actionNameProvider.getActionName(action)
+        val cancelled = cancelOpposite(action)
+        if (cancelled > 0) {
+            cancelledByOpposite.add(cancelled.toLong())
+            Timber.tag(tag).d("收到反向操作（$actionName），取消等待中的 $cancelled 次操作")
+        } else if (!tryAcquire(now)) {
+            droppedByRateLimit.increment()
+            Timber.tag(tag).w("限流拒绝$actionName 操作")
+            return
+        }
+        pending.compute(action) { _, old ->
+            if (old == null) {
+                Pending(1, now)
+            } else {
+                coalesced.increment()
+                Pending(old.steps + 1, old.firstEmitAt)
+            }
+        }
+        schedule()
+    }
+
+    fun metrics(): Metrics = Metrics(
+        emitted = emitted.sum(),
+        coalesced = coalesced.sum(),
+        executedBatches = executedBatches.sum(),
+        executedSteps = executedSteps.sum(),
+        droppedByRateLimit = droppedByRateLimit.sum(),
+        droppedByCheck = droppedByCheck.sum(),
+        cancelledByOpposite = cancelledByOpposite.sum(),
+        totalQueueWaitMs = totalQueueWaitMs.sum(),
+        maxQueueWaitMs = maxQueueWaitMs.get(),
+        totalExecutionMs = totalExecutionMs.sum(),
+        maxExecutionMs = maxExecutionMs.get()
+    )
+
+    /**
+     * 取消等待中的反向操作
+     * @return 取消的操作次数
+     */
+    private fun cancelOpposite(action: TAction): Int {
+        var cancelled = 0
+        for (queued in pending.keys) {
+            if (queued != action && action.isOpposite(queued)) {
+                cancelled += pending.remove(queued)?.steps ?: 0
+            }
+        }
+        return cancelled
+    }
+
+    private fun tryAcquire(now: Long): Boolean {
+        while (true) {
+            val arrival = theoreticalArrival.get()
+            val base = maxOf(arrival, now)
+            if (base - now > burstToleranceMs) {
+                return false
+            }
+            if (theoreticalArrival.compareAndSet(arrival, base + emissionIntervalMs)) {
+                return true
+            }
+        }
+    }
+
+    private fun schedule() {
+        if (state.compareAndSet(STATE_IDLE, STATE_RUNNING)) {
+            coroutineScope.launch { drain() }
+        }
+    }
+
+    private suspend fun drain() {
+        while (true) {
+            while (true) {
+                val action = pending.keys.firstOrNull() ?: break
+                // 先等够执行间隔再取出，等待期间到达的同向操作会合并，反向操作会取消它
+                val waitMs = minIntervalMs - (clock() - lastExecuteTime)
+                if (waitMs > 0) {
+                    delay(waitMs)
+                }
+                val batch = pending.remove(action) ?: continue
+                process(action, batch)
+            }
+            state.set(STATE_IDLE)
+            // 释放后再检查一次，避免漏掉释放前刚提交的操作
+            if (pending.isEmpty() || !state.compareAndSet(STATE_IDLE, STATE_RUNNING)) {
+                return
+            }
+        }
+    }
+
+    private suspend fun process(action: TAction, batch: Pending) {
+        val startAt = clock()
+        recordMax(maxQueueWaitMs, totalQueueWaitMs, startAt - batch.firstEmitAt)
+        val actionName = actionNameProvider.getActionName(action)
+        try {
+            if (!resourceChecker.check()) {
+                Timber.tag(tag).e("${resourceChecker.getResourceName()}为空，无法执行操作")
+                droppedByCheck.add(batch.steps.toLong())
+                return
+            }
+            val steps = checkBoundary(action, batch.steps)
+            if (steps == 0) {
+                // 已到边界，同向的后续操作也不会通过，一起丢弃，避免重复提示
+                val dropped = batch.steps + (pending.remove(action)?.steps ?: 0)
+                droppedByCheck.add(dropped.toLong())
+                return
+            }
+            if (steps < batch.steps) {
+                Timber.tag(tag).d("$actionName 操作 ${batch.steps} 次会越界，只执行 $steps 次")
+                droppedByCheck.add((batch.steps - steps).toLong())
+            }
+            Timber.tag(tag).d("执行$actionName 操作 $steps 次")
+            if (mergesSteps) {
+                @Suppress("UNCHECKED_CAST")
+                (executor as CoalescingExecutor<TAction>).executeSteps(action, steps)
+            } else {
+                repeat(steps) { executor.execute(action) }
+            }
+            executedBatches.increment()
+            executedSteps.add(steps.toLong())
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Timber.tag(tag).e(e, "执行$actionName 操作失败")
+        } finally {
+            lastExecuteTime = clock()
+            recordMax(maxExecutionMs, totalExecutionMs, lastExecuteTime - startAt)
+        }
+    }
+
+    /**
+     * 从当前值开始逐步检查，直到某一步越界
+     * @return 可以执行的次数，0 表示第一步就越界
+     */
+    private suspend fun checkBoundary(action: TAction, steps: Int): Int {
+        if (!enableBoundaryCheck) {
+            return steps
+        }
+        val currentValue = getCurrentValue?.invoke()
+        if (currentValue == null) {
+            Timber.tag(tag).e("无法获取当前值，跳过操作")
+            return 0
+        }
+        val checker = boundaryChecker ?: return steps
+        val delta = valueStep?.invoke(action) ?: 0
+        var allowed = 0
+        while (allowed < steps) {
+            val boundaryResult = checker.checkBoundary(action, currentValue + allowed * delta)
+            if (!boundaryResult.shouldAllow) {
+                if (allowed == 0) {
+                    boundaryResult.toastMessage?.let { message ->
+                        ToastUtilOverApplication().showToast(context, message)
+                    }
+                    Timber.tag(tag).d("边界检查失败，不执行操作")
+                }
+                break
+            }
+            allowed++
+        }
+        return allowed
+    }
+
+    private fun recordMax(max: AtomicLong, total: LongAdder, valueMs: Long) {
+        total.add(valueMs)
+        max.accumulateAndGet(valueMs) { a, b -> maxOf(a, b) }
+    }
+
+    private companion object {
+        const val STATE_IDLE = 0
+        const val STATE_RUNNING = 1
+    }
+}
@@ -0,0 +1,105 @@
+package com.mine.baselibrary
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 属性值确认
+ *
+ * 设置属性后不再固定等待再读取，而是等属性变化回调上报目标值：
+ * 1. 设置前调用 [expect] 登记要等的属性和条件，避免回调在登记前就到达；也可以用 [setAndExpect] 把登记和设置放在一起
+ * 2. 平台的属性变化回调里调用 [onPropertyChanged]
+ * 3. 调用 [Expectation.await] 挂起到条件满足，超时返回 null，由调用方回退为主动读取
+ */
+class PropertyConfirmation {
+
+    /**
+     * 一次等待
+     */
+    inner class Expectation internal constructor(
+        private val propertyId: Int,
+        private val areaId: Int?,
+        private val predicate: (Any?) -> Boolean
+    ) {
+        private val deferred = CompletableDeferred<Any?>()
+
+        internal fun offer(propertyId: Int, areaId: Int, value: Any?) {
+            if (propertyId == this.propertyId && (this.areaId == null || this.areaId == areaId)
+                && predicate(value)
+            ) {
+                deferred.complete(value)
+            }
+        }
+
+        /**
+         * 等待确认
+         * @param timeoutMs 超时时间（毫秒）
+         * @return 上报的值，超时返回 null
+         */
+        suspend fun await(timeoutMs: Long = DEFAULT_TIMEOUT_MS): Any? {
+            try {
+                return withTimeoutOrNull(timeoutMs) { deferred.await() }
+            } finally {
+                expectations.remove(this)
+            }
+        }
+
+        /**
+         * 不再等待，例如设置失败时
+         */
+        fun cancel() {
+            expectations.remove(this)
+            deferred.cancel()
+        }
+    }
+
+    private val expectations = CopyOnWriteArrayList<Expectation>()
+
+    /**
+     * 登记要等待的属性值，必须在设置属性之前调用
+     * @param propertyId 属性ID
+     * @param areaId 区域ID，null 表示不限
+     * @param predicate 上报的值满足该条件时确认
+     */
+    fun expect(propertyId: Int, areaId: Int? = null, predicate: (Any?) -> Boolean): Expectation {
+        return Expectation(propertyId, areaId, predicate).also { expectations.add(it) }
+    }
+
+    /**
+     * 登记等待后执行设置，设置抛出异常时取消等待再抛出，不会留下没人等的登记
+     * @param set 设置属性
+     */
+    inline fun setAndExpect(
+        propertyId: Int,
+        areaId: Int? = null,
+        noinline predicate: (Any?) -> Boolean,
+        set: () -> Unit
+    ): Expectation {
+        val expectation = expect(propertyId, areaId, predicate)
+        try {
+            set()
+        } catch (e: Throwable) {
+            expectation.cancel()
+            throw e
+        }
+        return expectation
+    }
+
+    /**
+     * 属性变化回调，可以在任意线程调用
+     */
+    fun onPropertyChanged(propertyId: Int, areaId: Int, value: Any?) {
+        if (expectations.isEmpty()) {
+            return
+        }
+        for (expectation in expectations) {
+            expectation.offer(propertyId, areaId, value)
+        }
+    }
+
+    companion object {
+        /** 默认超时，与原来固定等待的时间相同 */
+        const val DEFAULT_TIMEOUT_MS = 1000L
+    }
+}
@@ -0,0 +1,98 @@
+package com.mine.baselibrary
+
+import timber.log.Timber
+import kotlin.math.floor
+
+/**
+ * 限流配置
+ */
+sealed class RateLimitProfile {
+    /**
+     * 固定频率，按最慢的车机服务调好的默认值
+     * @param minIntervalMs 最小执行间隔（毫秒）
+     * @param maxRequestsPerPeriod 每个周期最多的请求数
+     */
+    data class Fixed(
+        val minIntervalMs: Long = 500L,
+        val maxRequestsPerPeriod: Int = 3
+    ) : RateLimitProfile()
+
+    /**
+     * 自适应频率：按实测的执行延迟加性增、乘性减调整允许的频率
+     *
+     * 延迟是执行器从发出设置到返回的时间，执行器等到数值确认后再返回时就是设置到确认的延迟。
+     * @param minIntervalMs 最快时的执行间隔（毫秒）
+     * @param maxIntervalMs 最慢时的执行间隔（毫秒）
+     * @param initialIntervalMs 初始执行间隔（毫秒）
+     * @param targetLatencyMs 平滑后的延迟不超过该值时提高频率，超过时频率减半
+     * @param increasePerSecond 每次延迟正常时增加的频率（次/秒）
+     */
+    data class Adaptive(
+        val minIntervalMs: Long = 150L,
+        val maxIntervalMs: Long = 1000L,
+        val initialIntervalMs: Long = 500L,
+        val targetLatencyMs: Long = 300L,
+        val increasePerSecond: Double = 0.25
+    ) : RateLimitProfile() {
+        init {
+            require(minIntervalMs in 1..maxIntervalMs) { "minIntervalMs 必须在 1 到 maxIntervalMs 之间" }
+            require(initialIntervalMs in minIntervalMs..maxIntervalMs) { "initialIntervalMs 超出范围" }
+        }
+    }
+}
+
+/**
+ * 自适应限流的状态，一个实例对应一类操作（一个处理器）
+ */
+class AdaptiveRateController(
+    private val profile: RateLimitProfile.Adaptive,
+    private val tag: String
+) {
+    private val minRate = 1000.0 / profile.maxIntervalMs
+    private val maxRate = 1000.0 / profile.minIntervalMs
+
+    @Volatile
+    private var ratePerSecond = 1000.0 / profile.initialIntervalMs
+    // 延迟的指数加权平均，-1 表示还没有样本
+    private var smoothedLatencyMs = -1.0
+
+    /**
+     * 当前的最小执行间隔（毫秒）
+     */
+    val minIntervalMs: Long
+        get() = (1000.0 / ratePerSecond).toLong()
+
+    /**
+     * 当前每个周期最多的请求数
+     * @param periodMs 周期（毫秒）
+     */
+    fun maxRequestsPerPeriod(periodMs: Long): Int =
+        maxOf(1, floor(ratePerSecond * periodMs / 1000.0).toInt())
+
+    /**
+     * 记录一次执行
+     * @param latencyMs 执行耗时
+     * @param success 执行是否成功，失败按拥塞处理
+     */
+    @Synchronized
+    fun onSample(latencyMs: Long, success: Boolean) {
+        smoothedLatencyMs = if (smoothedLatencyMs < 0) {
+            latencyMs.toDouble()
+        } else {
+            smoothedLatencyMs + LATENCY_ALPHA * (latencyMs - smoothedLatencyMs)
+        }
+        val oldRate = ratePerSecond
+        ratePerSecond = if (success && smoothedLatencyMs <= profile.targetLatencyMs) {
+            minOf(maxRate, oldRate + profile.increasePerSecond)
+        } else {
+            maxOf(minRate, oldRate / 2)
+        }
+        if (ratePerSecond != oldRate) {
+            Timber.tag(tag).d("自适应限流: 延迟${latencyMs}ms(平均${smoothedLatencyMs.toLong()}ms), success=$success, 执行间隔 ${minIntervalMs}ms")
+        }
+    }
+
+    private companion object {
+        const val LATENCY_ALPHA = 0.3
+    }
+}
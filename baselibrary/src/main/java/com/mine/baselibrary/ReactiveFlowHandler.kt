@@ -3,6 +3,7 @@ package com.mine.baselibrary
 import android.content.Context
 import com.mine.baselibrary.window.ToastUtilOverApplication
 import timber.log.Timber
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
@@ -97,6 +98,8 @@ interface BidirectionalAction {
  * @param getCurrentValue 获取当前值的函数（可选，如果启用边界检查则必须提供）
  * @param enableBoundaryCheck 是否启用边界检查，默认 true
  * @param minIntervalMs 最小执行间隔（毫秒），默认 500ms
+ * @param maxRequestsPerPeriod 每个周期最多的请求数，默认 3
+ * @param rateLimitProfile 限流配置，默认按 minIntervalMs 和 maxRequestsPerPeriod 固定频率
  */
 class ReactiveFlowHandler<TAction : BidirectionalAction>(
     private val context: Context,
@@ -107,9 +110,9 @@ class ReactiveFlowHandler<TAction : BidirectionalAction>(
     private val boundaryChecker: BoundaryChecker<TAction>? = null,
     private val getCurrentValue: (suspend () -> Int?)? = null,
     private val enableBoundaryCheck: Boolean = true,
-    private val minIntervalMs: Long = 500L,
-    private val maxRequestsPerPeriod: Int = 3 // 每个周期最多3个请求
-
+    minIntervalMs: Long = 500L,
+    maxRequestsPerPeriod: Int = 3, // 每个周期最多3个请求
+    private val rateLimitProfile: RateLimitProfile = RateLimitProfile.Fixed(minIntervalMs, maxRequestsPerPeriod)
 ) {
     private val flow = MutableSharedFlow<TAction>(replay = 0, extraBufferCapacity = 64)
     private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
@@ -130,6 +133,11 @@ class ReactiveFlowHandler<TAction : BidirectionalAction>(
     private val requestMutex = Mutex()
     private val cooldownPeriodMs: Long = 1000L // 冷却期：1秒内无新请求才重置
 
+    // 自适应限流，固定频率时为 null
+    private val adaptiveRate = (rateLimitProfile as? RateLimitProfile.Adaptive)?.let {
+        AdaptiveRateController(it, tag)
+    }
+
     init {
         // 验证参数：如果启用边界检查，则必须提供 boundaryChecker 和 getCurrentValue
         if (enableBoundaryCheck) {
@@ -139,6 +147,16 @@ class ReactiveFlowHandler<TAction : BidirectionalAction>(
         setupFlow()
     }
     
+    private fun currentMinIntervalMs(): Long = when (rateLimitProfile) {
+        is RateLimitProfile.Fixed -> rateLimitProfile.minIntervalMs
+        is RateLimitProfile.Adaptive -> adaptiveRate!!.minIntervalMs
+    }
+
+    private fun currentMaxRequestsPerPeriod(): Int = when (rateLimitProfile) {
+        is RateLimitProfile.Fixed -> rateLimitProfile.maxRequestsPerPeriod
+        is RateLimitProfile.Adaptive -> adaptiveRate!!.maxRequestsPerPeriod(cooldownPeriodMs)
+    }
+
     /**
      * 设置 Flow 处理管道
      */
@@ -275,6 +293,7 @@ class ReactiveFlowHandler<TAction : BidirectionalAction>(
         // 限流检查：冷却期模式（前3个请求通过，之后拒绝，1秒无新请求后重置）
         requestMutex.withLock {
             val currentTime = System.currentTimeMillis()
+            val maxRequestsPerPeriod = currentMaxRequestsPerPeriod()
             val timeSinceLastRequest = currentTime - lastRequestTime
             
             // 如果距离最后一次请求超过冷却期，重置计数器
@@ -320,6 +339,7 @@ class ReactiveFlowHandler<TAction : BidirectionalAction>(
     private suspend fun handleWithDelay(action: TAction) {
         executeMutex.withLock {
             val currentTime = System.currentTimeMillis()
+            val minIntervalMs = currentMinIntervalMs()
             val timeSinceLastExecute = currentTime - lastExecuteTime
             
             val actionName = actionNameProvider.getActionName(action)
@@ -333,8 +353,18 @@ class ReactiveFlowHandler<TAction : BidirectionalAction>(
                 Timber.tag(tag).d("距离上次执行已${timeSinceLastExecute}ms，立即执行$actionName 操作")
             }
             
-            // 执行实际操作
-            executor.execute(action)
+            // 执行实际操作，自适应模式下记录执行耗时
+            // 执行器要等属性确认后再返回，耗时才是设置到确认的延迟；发出设置就返回时耗时接近0，频率会一直升高
+            val executeStart = System.currentTimeMillis()
+            try {
+                executor.execute(action)
+                adaptiveRate?.onSample(System.currentTimeMillis() - executeStart, true)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                adaptiveRate?.onSample(System.currentTimeMillis() - executeStart, false)
+                throw e
+            }
             
             // 更新上次执行时间
             lastExecuteTime = System.currentTimeMillis()
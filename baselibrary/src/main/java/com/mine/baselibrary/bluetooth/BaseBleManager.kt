@@ -26,17 +26,16 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
-import kotlinx.coroutines.TimeoutCancellationException
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.sync.Semaphore
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import kotlinx.coroutines.withTimeout
 import timber.log.Timber
 import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
@@ -55,6 +54,27 @@ const val DELAY_SEND = 1000L
  */
 private const val DELAY_TIMEOUT = 3000L
 
+/**
+ * 带过滤器扫描超过该时间仍没有任何结果时，去掉过滤器重新扫描，
+ * 防止设备广播内容与过滤器不一致导致永远扫不到
+ */
+private const val SCAN_FILTER_FALLBACK_MS = 10_000L
+
+/**
+ * 默认ATT MTU，未协商时有效负载为 23 - 3 = 20 字节
+ */
+const val DEFAULT_ATT_MTU = 23
+
+/**
+ * 需要大包写入的设备可以在[BaseBleManagerIml.requestMtuSize]中返回的MTU
+ */
+const val HIGH_THROUGHPUT_MTU = 158
+
+/**
+ * 高吞吐写入模式下每个设备允许排队未确认的无响应写入数量
+ */
+private const val PIPELINED_WRITE_CREDITS = 8
+
 /**
  * 蓝牙管理器实现类，提供BLE设备的扫描、连接、通信等功能
  */
@@ -84,13 +104,50 @@ abstract class BaseBleManagerIml(
      */
     abstract fun isRssiMonitoringEnabled(): Boolean
 
+    /**
+     * 是否启用高吞吐写入模式
+     * 启用后允许通过[writeCharacteristicPipelined]以无响应方式连续写入
+     * @return 启用返回true，默认返回false
+     */
+    open fun isHighThroughputWriteEnabled(): Boolean = false
+
+    /**
+     * 服务发现完成后请求的MTU
+     * 现有设备的命令都不超过20字节，默认不协商，与原来注释掉 requestMtu 的行为一致；
+     * 单条命令超过20字节的设备类型重写此方法，例如返回[HIGH_THROUGHPUT_MTU]
+     * @return 请求的MTU，返回0表示不协商
+     */
+    open fun requestMtuSize(): Int = 0
+
+    /**
+     * 设备断开后回收子类按设备保存的状态，如子类自己的事件总线
+     * @param deviceAddress 设备MAC地址
+     */
+    protected open fun onDeviceReleased(deviceAddress: String) {}
+
+    /**
+     * 扫描阶段对应的扫描参数
+     */
+    open fun scanProfile(phase: ScanPhase): ScanProfile = ScanProfile.of(phase)
+
+    /**
+     * 下发给蓝牙控制器的扫描过滤器，不匹配的广播不会唤醒应用，多个过滤器之间为或关系
+     * 默认按主服务UUID过滤，设备广播中不带主服务UUID时 [SCAN_FILTER_FALLBACK_MS] 后自动去掉过滤器
+     * @return 过滤器列表，返回空列表表示不过滤，全部在 [onAcceptScanResult] 中筛选
+     */
+    open fun buildScanFilters(phase: ScanPhase): List<ScanFilter> = listOf(
+        ScanFilter.Builder()
+            .setServiceUuid(ParcelUuid(mainServiceUUID))
+            .build()
+    )
+
     /**
      * 扫描结果
      */
     abstract fun onAcceptScanResult(result: ScanResult)
 
     /**
-     * gatt 连上后验证设备是否具有所有必需的服务和特征
+     * gatt 连上后验证设备是否具有所有必需的服务和特征，只检查不写入；通知特征在验证通过后由基类启用
      * @param gatt 蓝牙GATT连接
      * @return 验证成功返回true，否则返回false
      */
@@ -148,26 +205,37 @@ abstract class BaseBleManagerIml(
     /** 存储设备地址到GATT连接的映射 */
     val deviceGattMap = ConcurrentHashMap<String, BluetoothGatt>()
 
+    /** 按设备串行执行的GATT操作队列 */
+    val gattOperationQueue = GattOperationQueue(coroutineScope) { deviceGattMap[it] }
+
     /** 扫描状态流 */
     val scanStateFlow = MutableStateFlow<ScanState>(ScanState.NotScanning)
 
-    /** 设备事件流 */
-    val deviceEventsFlow = MutableSharedFlow<DeviceEvent>(replay = 0)
+    /** 设备事件总线，按设备有序投递，GATT回调中直接发布 */
+    val deviceEventBus = DeviceEventBus<DeviceEvent>(coroutineScope, { it.device.address }, BleEventLanes::of)
 
 
     /** 断开连接请求事件流 */
     private val disconnectRequestEventsFlow = MutableSharedFlow<DisconnectRequestEvent>(replay = 0)
 
-    /** 扫描结果列表 */
-    val scanResults = mutableSetOf<BluetoothDevice>()
+    /** 本次扫描发现的设备，按地址去重，保持发现顺序 */
+    private val scanResults = LinkedHashMap<String, BluetoothDevice>()
+
+    /** 尚未发出的新设备，每批扫描结果结束时合并发出 */
+    private val pendingScanDevices = ArrayList<BluetoothDevice>()
+
+    /** 当前扫描阶段 */
+    @Volatile
+    var currentScanPhase = ScanPhase.PAIRING
+        private set
+
+    /** 配对扫描时过滤器无结果的降级任务 */
+    private var scanFilterFallbackJob: Job? = null
 
 
     /** 存储连接操作的异步结果 */
     private val connectionResults = ConcurrentHashMap<String, CompletableDeferred<Boolean>>()
 
-    /** 存储写入特征回调结果 */
-    val writeCallbacks = ConcurrentHashMap<String, CompletableDeferred<Boolean>>()
-
     /** 存储已成功连接并发现服务的设备信息 */
     private val discoveredServicesCache = ConcurrentHashMap<String, Boolean>()
 
@@ -190,8 +258,11 @@ abstract class BaseBleManagerIml(
     /** 存储RSSI监控任务 */
     private val rssiMonitoringJobs = ConcurrentHashMap<String, Job>()
 
-    /** 存储RSSI读取结果回调 */
-    private val rssiReadCallbacks = ConcurrentHashMap<String, CompletableDeferred<Int>>()
+    /** 存储每个设备协商后的MTU */
+    private val deviceMtuMap = ConcurrentHashMap<String, Int>()
+
+    /** 每个设备无响应写入的信用额度，onCharacteristicWrite 回调后归还 */
+    private val writeCredits = ConcurrentHashMap<String, Semaphore>()
 
     /**
      * 初始化蓝牙管理器
@@ -207,7 +278,7 @@ abstract class BaseBleManagerIml(
      * 扫描结果通过 scanStateFlow 流发布
      */
     @RequiresPermission(Manifest.permission.BLUETOOTH_SCAN)
-    override fun startScan() {
+    override fun startScan(phase: ScanPhase) {
         // 检查蓝牙是否启用
         if (!bluetoothAdapter.isEnabled) {
             Log.e(TAG, "蓝牙未开启")
@@ -228,32 +299,46 @@ abstract class BaseBleManagerIml(
 
 
         // 清空之前的扫描结果
-        scanResults.clear()
+        synchronized(scanResults) {
+            scanResults.clear()
+            pendingScanDevices.clear()
+        }
+        currentScanPhase = phase
         coroutineScope.launch{
             scanStateFlow.emit(ScanState.Scanning)
         }
 
-        // 设置扫描参数 - 低延迟模式提高扫描速度
+        val profile = scanProfile(phase)
+        // 控制器支持时批量上报，减少应用被唤醒的次数
+        val reportDelayMs = if (bluetoothAdapter.isOffloadedScanBatchingSupported) profile.reportDelayMs else 0L
         val scanSettings = ScanSettings.Builder()
-            .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+            .setScanMode(profile.scanMode)
+            .setReportDelay(reportDelayMs)
             .build()
 
-        val filters = mutableListOf<ScanFilter>()
-        // 创建MAC地址过滤器
-        val scanFilter: ScanFilter = ScanFilter.Builder()
-            .setServiceUuid(ParcelUuid.fromString(mainServiceUUID.toString())) // 替换为目标设备的MAC地址
-            .build()
-        // 将过滤器添加到列表
-        filters.add(scanFilter)
+        // 过滤器由控制器执行，是否硬件卸载取决于芯片
+        val filters = buildScanFilters(phase)
 
         // 开始扫描
         try {
+            scanFilterFallbackJob?.cancel()
             bluetoothAdapter.bluetoothLeScanner.startScan(
-                null, // 不使用过滤器，在回调中根据设备名称前缀筛选
+                filters,
                 scanSettings,
                 scanCallback
             )
-            Timber.tag(TAG).w("开始扫描BLE设备")
+            Timber.tag(TAG).w("开始扫描BLE设备: $phase, 过滤器${filters.size}个, scanMode=${profile.scanMode}, reportDelay=${reportDelayMs}ms, 硬件过滤=${bluetoothAdapter.isOffloadedFilteringSupported}")
+            // 只在配对时降级：回连时设备不在附近、过滤扫描没有结果是常态，去掉过滤器会让每次后台回连都变成全量扫描
+            if (phase == ScanPhase.PAIRING && filters.isNotEmpty()) {
+                scanFilterFallbackJob = coroutineScope.launch {
+                    delay(SCAN_FILTER_FALLBACK_MS)
+                    if (synchronized(scanResults) { scanResults.isEmpty() }) {
+                        Timber.tag(TAG).w("过滤器扫描${SCAN_FILTER_FALLBACK_MS}ms无结果，去掉过滤器重新扫描")
+                        bluetoothAdapter.bluetoothLeScanner?.stopScan(scanCallback)
+                        bluetoothAdapter.bluetoothLeScanner?.startScan(null, scanSettings, scanCallback)
+                    }
+                }
+            }
         } catch (e: Exception) {
             coroutineScope.launch{
                 scanStateFlow.emit(ScanState.ScanFailed("扫描启动失败: ${e.message}"))
@@ -262,6 +347,32 @@ abstract class BaseBleManagerIml(
         }
     }
 
+    /**
+     * 记录扫描到的目标设备，在 [onAcceptScanResult] 中调用
+     * 同一设备只记录一次，新设备在本批扫描结果处理完后通过 [ScanState.ScanDelta] 发出
+     * @return 新发现的设备返回true
+     */
+    fun acceptScannedDevice(device: BluetoothDevice): Boolean = synchronized(scanResults) {
+        if (scanResults.containsKey(device.address)) return false
+        scanResults[device.address] = device
+        pendingScanDevices.add(device)
+        true
+    }
+
+    /**
+     * 发出本批新发现的设备，没有新设备时不发出
+     */
+    private fun flushScanDelta() {
+        val delta = synchronized(scanResults) {
+            if (pendingScanDevices.isEmpty()) return
+            val added = pendingScanDevices.toList()
+            pendingScanDevices.clear()
+            ScanState.ScanDelta(added, scanResults.values.toList())
+        }
+        Timber.tag(TAG).w("新发现设备${delta.added.size}个, 共${delta.devices.size}个")
+        scanStateFlow.value = delta
+    }
+
 
     /**
      * 停止BLE设备扫描
@@ -269,6 +380,9 @@ abstract class BaseBleManagerIml(
     @RequiresPermission(Manifest.permission.BLUETOOTH_SCAN)
     override fun stopScan() {
         try {
+            scanFilterFallbackJob?.cancel()
+            // 先取出控制器中缓存的批量结果，避免停止时丢失
+            bluetoothAdapter.bluetoothLeScanner?.flushPendingScanResults(scanCallback)
             bluetoothAdapter.bluetoothLeScanner?.stopScan(scanCallback)
             coroutineScope.launch {
                 scanStateFlow.emit(ScanState.NotScanning)
@@ -289,12 +403,13 @@ abstract class BaseBleManagerIml(
     /**
      * 连接到BLE设备
      * @param device 要连接的蓝牙设备
+     * @param autoConnect 是否以后台方式连接
      * @return 连接成功返回true，否则返回false
      */
-    override suspend fun connect(device: BluetoothDevice): Boolean = withContext(Dispatchers.IO) {
+    override suspend fun connect(device: BluetoothDevice, autoConnect: Boolean): Boolean = withContext(Dispatchers.IO) {
         // 检查蓝牙连接权限
         if (!hasBluetoothPermission()) {
-            deviceEventsFlow.emit(DeviceEvent.ConnectionFailed(device, "缺少蓝牙连接权限"))
+            deviceEventBus.publish(DeviceEvent.ConnectionFailed(device, "缺少蓝牙连接权限"))
             Timber.tag(TAG).e("连接失败: 缺少蓝牙连接权限")
             return@withContext false
         }
@@ -314,8 +429,8 @@ abstract class BaseBleManagerIml(
             // 判断是否是重连
             val isReconnecting = discoveredServicesCache[device.address] == true
 
-            // 重连场景使用autoConnect=true可能导致连接延迟，这里统一使用false以保证低延迟
-            val autoConnect = false
+            // 前台连接使用autoConnect=false以保证低延迟；
+            // 后台连接使用autoConnect=true，由控制器在设备广播时以低占空比扫描并自动连上，无需应用轮询
 
             // 创建新连接
             Timber.tag(TAG)
@@ -326,7 +441,7 @@ abstract class BaseBleManagerIml(
             true
 
         } catch (e: Exception) {
-            deviceEventsFlow.emit(DeviceEvent.ConnectionFailed(device, "连接失败"))
+            deviceEventBus.publish(DeviceEvent.ConnectionFailed(device, "连接失败"))
             Timber.tag(TAG).e(e, "连接过程中发生异常: ${device.address}")
             return@withContext false
         }
@@ -380,7 +495,9 @@ abstract class BaseBleManagerIml(
      * 获取设备事件流
      * @return 设备事件共享流
      */
-    override fun getDeviceEvents(): SharedFlow<DeviceEvent> = deviceEventsFlow
+    override fun getDeviceEvents(): SharedFlow<DeviceEvent> = deviceEventBus.events
+
+    override fun getDeviceEventStats(): DeviceEventBusStats = deviceEventBus.stats()
 
 
     /**
@@ -408,14 +525,16 @@ abstract class BaseBleManagerIml(
 
         deviceGattMap.clear()
         connectionResults.clear()
-        writeCallbacks.clear()
+        gattOperationQueue.clearAll()
         discoveredServicesCache.clear()
         deviceCharacteristics.clear()
+        deviceMtuMap.clear()
+        writeCredits.clear()
+        deviceEventBus.releaseAll()
 
         authenticationResults.clear()
         lastProcessedNotification.clear()
         lastServiceDiscoveryTime.clear()
-        rssiReadCallbacks.clear()
         Timber.tag(TAG).w("蓝牙管理器已关闭")
     }
 
@@ -429,16 +548,18 @@ abstract class BaseBleManagerIml(
         @SuppressLint("NewApi")
         override fun onScanResult(callbackType: Int, result: ScanResult) {
             onAcceptScanResult(result)
+            flushScanDelta()
         }
 
         /**
-         * 收到批量扫描结果
+         * 收到批量扫描结果，整批处理完只发出一次增量
          */
         override fun onBatchScanResults(results: MutableList<ScanResult>) {
-            Timber.tag(TAG).w("收到批量扫描结果: ${results.size}个")
+            Timber.tag(TAG).d("收到批量扫描结果: ${results.size}个")
             for (result in results) {
-                onScanResult(0, result)
+                onAcceptScanResult(result)
             }
+            flushScanDelta()
         }
 
         /**
@@ -497,13 +618,18 @@ abstract class BaseBleManagerIml(
                             if (services.isNotEmpty()) {
                                 // 有服务缓存，验证必要服务和特征
                                 if (validateRequiredServices(gatt)) {
+                                    // 协商MTU
+                                    requestMtu(gatt)
+
                                     // 快速读取电池电量
                                     readBatteryLevel(gatt)
 
                                     // 发送连接成功事件
                                     coroutineScope.launch {
+                                        // 通知启用成功才算连接成功
+                                        if (!enableNotificationOrFail(gatt)) return@launch
                                         Timber.tag(TAG).i("发送连接成功")
-                                        deviceEventsFlow.emit(DeviceEvent.Connected(device))
+                                        deviceEventBus.publish(DeviceEvent.Connected(device))
                                         // 直接标记连接成功，不等待服务发现回调
                                         completeConnectionWithSuccess(device.address)
                                     }
@@ -538,6 +664,12 @@ abstract class BaseBleManagerIml(
                     // 停止RSSI监控
                     stopRssiMonitoring(device)
 
+                    // 未完成的GATT操作全部以失败结束
+                    gattOperationQueue.clear(device.address)
+                    deviceMtuMap.remove(device.address)
+                    // 断开时还占着信用的写入不会再归还到下一次连接
+                    writeCredits.remove(device.address)
+
                     // 从管理映射中移除，关闭GATT连接
                     deviceGattMap.remove(device.address)
                     gatt.close()
@@ -545,10 +677,10 @@ abstract class BaseBleManagerIml(
                     // 如果断开时正在等待连接结果，则标记为失败
                     completeConnectionWithFailure(device.address, "设备断开连接")
 
-                    // 发送断开连接事件
-                    coroutineScope.launch {
-                        deviceEventsFlow.emit(DeviceEvent.Disconnected(device))
-                    }
+                    // 发送断开连接事件，投递完后回收该设备的事件队列
+                    deviceEventBus.publish(DeviceEvent.Disconnected(device))
+                    deviceEventBus.release(device.address)
+                    onDeviceReleased(device.address)
                 }
             }
         }
@@ -604,9 +736,15 @@ abstract class BaseBleManagerIml(
                     // 缓存服务特征映射
                     cacheDeviceCharacteristics(gatt)
 
+                    // 协商MTU，排在鉴权写入之前
+                    requestMtu(gatt)
+
 
                     // 执行设备鉴权
                     coroutineScope.launch {
+                        // 鉴权应答走通知，先等通知启用成功
+                        if (!enableNotificationOrFail(gatt)) return@launch
+
                         // 检查是否需要进行鉴权
                         val enableAuth = authIsEnable()
 
@@ -617,8 +755,8 @@ abstract class BaseBleManagerIml(
 
                             if (authSuccess) {
                                 // 鉴权成功，发送连接成功事件
-                                deviceEventsFlow.emit(DeviceEvent.Connected(device))
-                                deviceEventsFlow.emit(DeviceEvent.AuthSuccess(device))
+                                deviceEventBus.publish(DeviceEvent.Connected(device))
+                                deviceEventBus.publish(DeviceEvent.AuthSuccess(device))
                                 // 标记连接成功
                                 completeConnectionWithSuccess(device.address)
                                 //延迟发送，首次连接蓝牙，需要延迟发送数据才能成功
@@ -638,7 +776,7 @@ abstract class BaseBleManagerIml(
                             } else {
                                 // 鉴权失败，断开连接
                                 Timber.tag(TAG).e("设备鉴权失败，断开连接: ${device.address}")
-                                deviceEventsFlow.emit(
+                                deviceEventBus.publish(
                                     DeviceEvent.AuthFailed(
                                         device,
                                         "设备鉴权失败"
@@ -655,7 +793,7 @@ abstract class BaseBleManagerIml(
                         } else {
                             // 未开启鉴权，直接标记连接成功
                             Timber.tag(TAG).w("鉴权已禁用，跳过设备鉴权: ${device.address}")
-                            deviceEventsFlow.emit(DeviceEvent.Connected(device))
+                            deviceEventBus.publish(DeviceEvent.Connected(device))
                             completeConnectionWithSuccess(device.address)
                             //延迟发送，首次连接蓝牙，需要延迟发送数据才能成功
                             Thread.sleep(DELAY_SEND)
@@ -676,14 +814,12 @@ abstract class BaseBleManagerIml(
                 } else {
                     // 设备缺少必要服务，断开连接
                     Timber.tag(TAG).e("设备缺少必要的服务或特征: ${device.address}")
-                    coroutineScope.launch {
-                        deviceEventsFlow.emit(
-                            DeviceEvent.ConnectionFailed(
-                                device,
-                                "设备缺少必要的服务或特征"
-                            )
+                    deviceEventBus.publish(
+                        DeviceEvent.ConnectionFailed(
+                            device,
+                            "设备缺少必要的服务或特征"
                         )
-                    }
+                    )
 
                     try {
                         gatt.disconnect()
@@ -694,9 +830,7 @@ abstract class BaseBleManagerIml(
                 }
             } else {
                 Timber.tag(TAG).e("服务发现失败: $status")
-                coroutineScope.launch {
-                    deviceEventsFlow.emit(DeviceEvent.ConnectionFailed(device, "服务发现失败"))
-                }
+                deviceEventBus.publish(DeviceEvent.ConnectionFailed(device, "服务发现失败"))
 
                 completeConnectionWithFailure(device.address, "服务发现失败")
             }
@@ -711,13 +845,16 @@ abstract class BaseBleManagerIml(
             descriptor: BluetoothGattDescriptor,
             status: Int
         ) {
+            gattOperationQueue.onDescriptorWrite(
+                gatt.device.address,
+                descriptor.characteristic.uuid,
+                status
+            )
             if (descriptor.uuid == CLIENT_CHARACTERISTIC_CONFIG_UUID) {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     Timber.tag(TAG).w("通知描述符写入成功: ${descriptor.characteristic.uuid}")
                     // 通知配置成功，设备准备就绪
-                    coroutineScope.launch {
-                        deviceEventsFlow.emit(DeviceEvent.DeviceReady(gatt.device))
-                    }
+                    deviceEventBus.publish(DeviceEvent.DeviceReady(gatt.device))
                 } else {
                     Timber.tag(TAG)
                         .e("通知描述符写入失败: ${descriptor.characteristic.uuid}, 状态码: $status")
@@ -748,6 +885,12 @@ abstract class BaseBleManagerIml(
             characteristic: BluetoothGattCharacteristic,
             status: Int
         ) {
+            gattOperationQueue.onCharacteristicRead(
+                gatt.device.address,
+                characteristic.uuid,
+                characteristic.value,
+                status
+            )
             onAcceptCharacteristicRead(status, characteristic, gatt)
         }
 
@@ -760,16 +903,8 @@ abstract class BaseBleManagerIml(
             characteristic: BluetoothGattCharacteristic,
             status: Int
         ) {
-            val uuid = characteristic.uuid.toString()
-            Timber.tag(TAG).w("特征写入完成: $uuid, 状态: $status，uuid:${writeCallbacks[uuid]}")
-
-            writeCallbacks[uuid]?.let { deferred ->
-                if (!deferred.isCompleted) {
-                    Timber.tag(TAG).w("特征写入完成: writeCallbacks to complete")
-                    deferred.complete(status == BluetoothGatt.GATT_SUCCESS)
-                }
-                writeCallbacks.remove(uuid)
-            }
+            Timber.tag(TAG).w("特征写入完成: ${gatt.device.address} ${characteristic.uuid}, 状态: $status")
+            gattOperationQueue.onCharacteristicWrite(gatt.device.address, characteristic.uuid, status)
         }
 
         /**
@@ -781,32 +916,21 @@ abstract class BaseBleManagerIml(
 
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Timber.tag(TAG).d("读取RSSI成功: ${deviceAddress}, RSSI=$rssi dBm")
-
-
-                // 完成RSSI读取回调
-                rssiReadCallbacks[deviceAddress]?.let { deferred ->
-                    if (!deferred.isCompleted) {
-                        deferred.complete(rssi)
-                    }
-                    rssiReadCallbacks.remove(deviceAddress)
-                }
             } else {
                 Timber.tag(TAG).e("读取RSSI失败: ${deviceAddress}, 状态码: $status")
-
-                // 读取失败，返回错误值
-                rssiReadCallbacks[deviceAddress]?.let { deferred ->
-                    if (!deferred.isCompleted) {
-                        deferred.completeExceptionally(Exception("读取RSSI失败: status=$status"))
-                    }
-                    rssiReadCallbacks.remove(deviceAddress)
-                }
             }
+
+            // 完成RSSI读取操作
+            gattOperationQueue.onReadRemoteRssi(deviceAddress, rssi, status)
         }
 
-//        override fun onMtuChanged(gatt: BluetoothGatt?, mtu: Int, status: Int) {
-//            super.onMtuChanged(gatt, mtu, status)
-//            Timber.tag(TAG).w("ATT MTU changed to $mtu, 状态: ${status == BluetoothGatt.GATT_SUCCESS}")
-//        }
+        /**
+         * MTU协商完成回调
+         */
+        override fun onMtuChanged(gatt: BluetoothGatt, mtu: Int, status: Int) {
+            Timber.tag(TAG).w("ATT MTU changed to $mtu, 状态: ${status == BluetoothGatt.GATT_SUCCESS}")
+            gattOperationQueue.onMtuChanged(gatt.device.address, mtu, status)
+        }
     }
 
 
@@ -828,13 +952,13 @@ abstract class BaseBleManagerIml(
 
 
     /**
-     * 启用特征的通知功能
+     * 启用特征的通知功能，等待CCCD描述符写入完成
      * @param gatt GATT连接
      * @param characteristic 需要启用通知的特征
-     * @return 成功返回true，否则返回false
+     * @return 描述符写入成功返回true，本地启用失败、找不到描述符、写入失败或超时返回false
      */
     @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-    fun enableCharacteristicNotification(
+    suspend fun enableCharacteristicNotification(
         gatt: BluetoothGatt,
         characteristic: BluetoothGattCharacteristic
     ): Boolean {
@@ -850,15 +974,40 @@ abstract class BaseBleManagerIml(
             return false
         }
 
-        // 3. 写入描述符，启用通知
-        descriptor.value = BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
-        if (!gatt.writeDescriptor(descriptor)) {
-            Timber.tag(TAG).e("写入通知描述符失败: ${characteristic.uuid}")
-            return false
-        }
+        // 3. 写入描述符，启用通知，进入GATT操作队列避免与其他读写冲突
+        val success = gattOperationQueue.execute(
+            gatt.device.address,
+            GattOperation.WriteDescriptor(
+                descriptor,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE,
+                DELAY_TIMEOUT
+            )
+        )
 
-        Timber.tag(TAG).w("已请求启用通知特征: ${characteristic.uuid}")
-        return true
+        Timber.tag(TAG).w("启用通知特征: ${characteristic.uuid}, result:$success")
+        return success
+    }
+
+    /**
+     * 启用主服务的通知特征，失败时断开连接并标记连接失败
+     * @return 启用成功返回true
+     */
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    private suspend fun enableNotificationOrFail(gatt: BluetoothGatt): Boolean {
+        val device = gatt.device
+        val characteristic = gatt.getService(mainServiceUUID)?.getCharacteristic(characteristicNotifyUuid)
+        if (characteristic != null && enableCharacteristicNotification(gatt, characteristic)) {
+            return true
+        }
+        Timber.tag(TAG).e("无法启用通知特征，断开连接: ${device.address}")
+        deviceEventBus.publish(DeviceEvent.ConnectionFailed(device, "无法启用通知特征"))
+        try {
+            gatt.disconnect()
+        } catch (e: DeadObjectException) {
+            Timber.tag(TAG).w("启用通知失败时发现连接已失效: ${device.address}")
+        }
+        completeConnectionWithFailure(device.address, "无法启用通知特征")
+        return false
     }
 
     /**
@@ -906,12 +1055,16 @@ abstract class BaseBleManagerIml(
             return
         }
 
-        gatt.readCharacteristic(batteryCharacteristic)
+        gattOperationQueue.enqueue(
+            gatt.device.address,
+            GattOperation.ReadCharacteristic(batteryCharacteristic, DELAY_TIMEOUT)
+        )
     }
 
 
     /**
      * 带超时保护的写入特征
+     * 写入请求进入设备的GATT操作队列，与该设备的其他操作串行执行
      * @param gatt GATT连接
      * @param characteristic 要写入的特征
      * @param value 写入的数据
@@ -924,90 +1077,136 @@ abstract class BaseBleManagerIml(
         value: ByteArray,
         timeoutMs: Long = DELAY_TIMEOUT,
         tagMsg: String = ""
-    ): Boolean = withContext(Dispatchers.IO) {
-        val uuid = characteristic.uuid.toString()
-        val result = CompletableDeferred<Boolean>()
-
-        // 保存回调
-        writeCallbacks[uuid] = result
-
-        Timber.tag(TAG).e("$tagMsg 写入特征值: $uuid --$result")
-
-        // 设置超时
-        val timeoutJob = coroutineScope.launch {
-            delay(timeoutMs)
-            if (!result.isCompleted) {
-                result.complete(false)
-                writeCallbacks.remove(uuid)
-                Timber.tag(TAG).e("$tagMsg 写入特征超时: $uuid")
-            }
-        }
-        // 执行写入
-        characteristic.value = value
-        val writeStarted = gatt.writeCharacteristic(characteristic)
-
-        if (!writeStarted) {
-            timeoutJob.cancel()
-            writeCallbacks.remove(uuid)
-            Timber.tag(TAG).e("$tagMsg 启动写入失败: $uuid")
-            return@withContext false
-        } else {
-            Timber.tag(TAG).e("$tagMsg 启动写入成功: $uuid")
+    ): Boolean {
+        val address = gatt.device.address
+        Timber.tag(TAG).e("$tagMsg 写入特征值: $address ${characteristic.uuid}")
+
+        val success = gattOperationQueue.execute(
+            address,
+            GattOperation.WriteCharacteristic(characteristic, value, timeoutMs = timeoutMs)
+        )
+        Timber.tag(TAG).e("$tagMsg 写入完成: $address ${characteristic.uuid}, result:$success")
+        return success
+    }
+
+
+    /**
+     * 以无响应方式写入特征（高吞吐写入模式）
+     *
+     * 写入进入设备的GATT操作队列，队列发出无响应写入后不等回调就发下一包，多包同时在途；
+     * 拆分的多包先全部入队，再一起等待结果。
+     * 每个设备最多 [PIPELINED_WRITE_CREDITS] 个在途写入，onCharacteristicWrite 回调归还信用，
+     * 信用耗尽时调用方挂起等待，实现基于信用的流控。超过MTU有效负载的数据会拆分成多包写入。
+     * 信用在断开连接或关闭时丢弃，下一次连接重新分配。
+     * 未启用高吞吐模式或特征不支持无响应写入时，退化为[writeCharacteristicWithTimeout]
+     * @param gatt GATT连接
+     * @param characteristic 要写入的特征
+     * @param value 写入的数据
+     * @return 所有分包都写入成功返回true，任一分包失败、超时或期间断开返回false
+     */
+    suspend fun writeCharacteristicPipelined(
+        gatt: BluetoothGatt,
+        characteristic: BluetoothGattCharacteristic,
+        value: ByteArray,
+        tagMsg: String = ""
+    ): Boolean {
+        val supportNoResponse = characteristic.properties and
+                BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE != 0
+        if (!isHighThroughputWriteEnabled() || !supportNoResponse) {
+            return writeCharacteristicWithTimeout(gatt, characteristic, value, tagMsg = tagMsg)
         }
 
-        // 等待写入完成或超时
-        val success = result.await()
-        Timber.tag(TAG).e("$tagMsg 等待写入完成或超时: $uuid,result:$success")
-        timeoutJob.cancel()
+        val address = gatt.device.address
+        if (deviceGattMap[address] == null) {
+            Timber.tag(TAG).e("$tagMsg 无响应写入失败: 设备未连接 $address")
+            return false
+        }
 
-        return@withContext success
+        val credits = writeCredits.computeIfAbsent(address) { Semaphore(PIPELINED_WRITE_CREDITS) }
+        val payloadSize = getMaxWritePayload(address)
+        val operations = ArrayList<GattOperation>()
+        var offset = 0
+        while (offset < value.size) {
+            val end = minOf(offset + payloadSize, value.size)
+            val chunk = if (offset == 0 && end == value.size) value else value.copyOfRange(offset, end)
+            credits.acquire()
+            if (deviceGattMap[address] !== gatt) {
+                // 等待信用期间设备已断开
+                credits.release()
+                Timber.tag(TAG).e("$tagMsg 无响应写入失败: 设备已断开 $address")
+                return false
+            }
+            val operation = gattOperationQueue.enqueue(
+                address,
+                GattOperation.WriteCharacteristic(
+                    characteristic,
+                    chunk,
+                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE,
+                    DELAY_TIMEOUT
+                )
+            )
+            operation.result.invokeOnCompletion {
+                credits.release()
+                if (!operation.isSuccessful) {
+                    Timber.tag(TAG).e("$tagMsg 无响应写入失败: $address ${characteristic.uuid}")
+                }
+            }
+            operations.add(operation)
+            offset = end
+        }
+        return operations.all { it.result.await() }
     }
 
+    /**
+     * 获取设备单次写入的最大有效负载
+     * @param deviceAddress 设备MAC地址
+     * @return MTU - 3
+     */
+    fun getMaxWritePayload(deviceAddress: String): Int =
+        (deviceMtuMap[deviceAddress] ?: DEFAULT_ATT_MTU) - 3
+
+    /**
+     * 请求协商MTU，结果记录到[deviceMtuMap]
+     * @param gatt GATT连接
+     */
+    private fun requestMtu(gatt: BluetoothGatt) {
+        val mtu = requestMtuSize()
+        if (mtu <= DEFAULT_ATT_MTU) return
+
+        val address = gatt.device.address
+        val operation = gattOperationQueue.enqueue(address, GattOperation.RequestMtu(mtu, DELAY_TIMEOUT))
+        operation.result.invokeOnCompletion {
+            if (operation.isSuccessful) {
+                deviceMtuMap[address] = operation.negotiatedMtu
+                Timber.tag(TAG).w("MTU协商成功: $address, MTU=${operation.negotiatedMtu}")
+            } else {
+                Timber.tag(TAG).w("MTU协商失败，使用默认MTU: $address")
+            }
+        }
+    }
 
     /**
      * 带超时保护的读取特征
+     * 读取请求进入设备的GATT操作队列，与该设备的其他操作串行执行
      * @param gatt GATT连接
-     * @param characteristic 要写入的特征
+     * @param characteristic 要读取的特征
      * @param timeoutMs 超时时间（毫秒）
-     * @return 写入成功返回true，否则返回false
+     * @return 读取成功返回true，否则返回false
      */
     suspend fun readCharacteristicWithTimeout(
         gatt: BluetoothGatt,
         characteristic: BluetoothGattCharacteristic,
         timeoutMs: Long = DELAY_TIMEOUT
-    ): Boolean = withContext(Dispatchers.IO) {
-        val uuid = characteristic.uuid.toString()
-        val result = CompletableDeferred<Boolean>()
-
-        // 保存回调
-        writeCallbacks[uuid] = result
-
-        // 设置超时
-        val timeoutJob = coroutineScope.launch {
-            delay(timeoutMs)
-            if (!result.isCompleted) {
-                result.complete(false)
-                writeCallbacks.remove(uuid)
-                Timber.tag(TAG).e("读取特征超时: $uuid")
-            }
-        }
-
-        val writeStarted = gatt.readCharacteristic(characteristic)
-
-        if (!writeStarted) {
-            timeoutJob.cancel()
-            writeCallbacks.remove(uuid)
-            Timber.tag(TAG).e("启动读取失败: $uuid")
-            return@withContext false
-        } else {
-            Timber.tag(TAG).e("启动读取成功: $uuid")
+    ): Boolean {
+        val address = gatt.device.address
+        val success = gattOperationQueue.execute(
+            address,
+            GattOperation.ReadCharacteristic(characteristic, timeoutMs)
+        )
+        if (!success) {
+            Timber.tag(TAG).e("读取特征失败: $address ${characteristic.uuid}")
         }
-
-        // 等待写入完成或超时
-        val success = result.await()
-        timeoutJob.cancel()
-
-        return@withContext success
+        return success
     }
 
 
@@ -1179,6 +1378,7 @@ abstract class BaseBleManagerIml(
                     if (rssi != null) {
                         // 重置失败计数
                         consecutiveFailures = 0
+                        deviceEventBus.publish(DeviceEvent.RssiChanged(device, rssi))
 
                         // 检查RSSI是否低于阈值
                         if (rssi < rssiThreshold) {
@@ -1311,44 +1511,19 @@ abstract class BaseBleManagerIml(
                 return@withContext null
             }
 
-            // 获取GATT连接
-            val gatt = deviceGattMap[deviceAddress] ?: run {
+            // 检查GATT连接
+            deviceGattMap[deviceAddress] ?: run {
                 Timber.tag(TAG).e("读取RSSI失败: 找不到设备的GATT连接 ${deviceAddress}")
                 return@withContext null
             }
 
-            try {
-                // 创建异步结果
-                val rssiResult = CompletableDeferred<Int>()
-                rssiReadCallbacks[deviceAddress] = rssiResult
-
-                // 发起RSSI读取请求
-                val readStarted = gatt.readRemoteRssi()
-
-                if (!readStarted) {
-                    rssiReadCallbacks.remove(deviceAddress)
-                    Timber.tag(TAG).e("启动RSSI读取失败: ${deviceAddress}")
-                    return@withContext null
-                }
-
-                // 等待读取结果，设置5秒超时
-                return@withContext try {
-                    withTimeout(5000L) {
-                        rssiResult.await()
-                    }
-                } catch (e: TimeoutCancellationException) {
-                    rssiReadCallbacks.remove(deviceAddress)
-                    Timber.tag(TAG).e("读取RSSI超时: ${deviceAddress}")
-                    null
-                } catch (e: Exception) {
-                    rssiReadCallbacks.remove(deviceAddress)
-                    Timber.tag(TAG).e(e, "读取RSSI异常: ${deviceAddress}")
-                    null
-                }
-
-            } catch (e: Exception) {
-                Timber.tag(TAG).e(e, "读取RSSI过程中发生异常: ${deviceAddress}")
-                return@withContext null
+            // 读取请求进入GATT操作队列，等待结果，设置5秒超时
+            val operation = GattOperation.ReadRssi(5000L)
+            return@withContext if (gattOperationQueue.execute(deviceAddress, operation)) {
+                operation.rssi
+            } else {
+                Timber.tag(TAG).e("读取RSSI失败: ${deviceAddress}")
+                null
             }
         }
 
@@ -0,0 +1,41 @@
+package com.mine.baselibrary.bluetooth
+
+import android.bluetooth.le.ScanSettings
+
+/**
+ * 扫描阶段
+ */
+enum class ScanPhase {
+    /** 配对，用户在扫描页面等待结果，优先响应速度 */
+    PAIRING,
+
+    /** 后台回连，长时间运行，优先功耗 */
+    RECONNECT
+}
+
+/**
+ * 扫描参数
+ * @param scanMode 扫描模式，ScanSettings.SCAN_MODE_*
+ * @param reportDelayMs 批量上报间隔，控制器缓存结果后一次性回调，0表示逐条上报；
+ * 控制器不支持批量扫描时自动退化为逐条上报
+ */
+data class ScanProfile(
+    val scanMode: Int,
+    val reportDelayMs: Long
+) {
+    companion object {
+        /** 配对：低延迟扫描，500ms批量上报一次，列表刷新仍然及时 */
+        val PAIRING = ScanProfile(ScanSettings.SCAN_MODE_LOW_LATENCY, 500L)
+
+        /** 后台回连：低功耗扫描，5秒批量上报一次 */
+        val RECONNECT = ScanProfile(ScanSettings.SCAN_MODE_LOW_POWER, 5000L)
+
+        /**
+         * 获取扫描阶段的默认参数
+         */
+        fun of(phase: ScanPhase): ScanProfile = when (phase) {
+            ScanPhase.PAIRING -> PAIRING
+            ScanPhase.RECONNECT -> RECONNECT
+        }
+    }
+}
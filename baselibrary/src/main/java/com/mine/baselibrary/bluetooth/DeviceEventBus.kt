@@ -0,0 +1,299 @@
+package com.mine.baselibrary.bluetooth
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.launch
+import timber.log.Timber
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+private const val BUS_TAG = "DeviceEventBus"
+
+/**
+ * 输出流的缓冲，订阅者积压不超过该数量时各设备的投递协程不会挂起
+ */
+private const val OUTPUT_BUFFER_CAPACITY = 128
+
+/**
+ * 队列满时的处理策略
+ */
+enum class OverflowPolicy {
+    /** 丢弃同类中最旧的事件，适合只关心最新值的事件，如RSSI、电量 */
+    DROP_OLDEST,
+
+    /** 超出容量继续排队并计数，达到 [EventLane.hardLimit] 后丢弃新事件，适合按键等每一个都要处理的事件 */
+    NEVER_DROP
+}
+
+/**
+ * 事件类别
+ * @param name 类别名称，用于统计
+ * @param capacity 每个设备该类事件的队列容量
+ * @param policy 超出容量时的处理策略
+ * @param hardLimit [OverflowPolicy.NEVER_DROP] 的排队上限，订阅者长时间不处理时不会无限增长
+ */
+data class EventLane(
+    val name: String,
+    val capacity: Int,
+    val policy: OverflowPolicy,
+    val hardLimit: Int = capacity * 4
+)
+
+/**
+ * 蓝牙设备事件的默认类别
+ */
+object BleEventLanes {
+    /** 连接、断开、就绪、鉴权等状态事件 */
+    val STATE = EventLane("state", 16, OverflowPolicy.NEVER_DROP)
+
+    /** 电量，只保留最新值 */
+    val BATTERY = EventLane("battery", 1, OverflowPolicy.DROP_OLDEST)
+
+    /** RSSI，只保留最新值 */
+    val RSSI = EventLane("rssi", 1, OverflowPolicy.DROP_OLDEST)
+
+    /** 按键，旋钮快速旋转时一秒几十个 */
+    val BUTTON = EventLane("button", 64, OverflowPolicy.NEVER_DROP)
+
+    /**
+     * 基础设备事件的类别
+     */
+    fun of(event: DeviceEvent): EventLane = when (event) {
+        is DeviceEvent.BatteryLevelChanged -> BATTERY
+        is DeviceEvent.RssiChanged -> RSSI
+        else -> STATE
+    }
+}
+
+/**
+ * 单个类别的统计
+ * @param published 发布次数
+ * @param delivered 已投递给订阅者的次数
+ * @param dropped 因队列满被丢弃的次数，含超过排队上限的不可丢弃事件
+ * @param overCapacity 不可丢弃的事件超出容量继续排队的次数
+ */
+data class EventLaneStats(
+    val published: Long = 0,
+    val delivered: Long = 0,
+    val dropped: Long = 0,
+    val overCapacity: Long = 0
+)
+
+/**
+ * 事件总线统计
+ * @param lanes 各类别的统计
+ * @param queueDepth 当前所有设备排队中的事件数
+ * @param maxQueueDepth 历史最大排队数
+ * @param devices 有队列的设备数
+ */
+data class DeviceEventBusStats(
+    val lanes: Map<String, EventLaneStats> = emptyMap(),
+    val queueDepth: Int = 0,
+    val maxQueueDepth: Int = 0,
+    val devices: Int = 0
+)
+
+/**
+ * 设备事件总线
+ *
+ * - 每个设备一个有序队列和一个投递协程，同一设备的事件按发布顺序送达
+ * - 输出流有 [OUTPUT_BUFFER_CAPACITY] 的缓冲，订阅者短时处理慢不会让一个设备的投递挡住其他设备；
+ *   积压超过缓冲后所有设备的投递协程一起等待，事件留在各自队列中按策略丢弃
+ * - [publish] 不挂起、不启动协程，可以直接在GATT回调线程中调用
+ * - 订阅者处理慢时只会让队列变长，按 [EventLane] 的容量和策略丢弃或继续排队，
+ *   不会卡住通知回调
+ * - 设备断开或移除后调用 [release]，已入队的事件投递完后回收该设备的队列和投递协程
+ *
+ * @param keyOf 事件所属设备，一般为MAC地址
+ * @param laneOf 事件所属类别
+ */
+class DeviceEventBus<E : Any>(
+    private val scope: CoroutineScope,
+    private val keyOf: (E) -> String,
+    private val laneOf: (E) -> EventLane
+) {
+
+    private class Entry<E>(val event: E, val lane: EventLane)
+
+    private class LaneCounters {
+        val published = AtomicLong()
+        val delivered = AtomicLong()
+        val dropped = AtomicLong()
+        val overCapacity = AtomicLong()
+    }
+
+    /** 单个设备的队列，队列、计数和释放标记都由自身加锁保护 */
+    private class DeviceQueue<E> {
+        val entries = ArrayDeque<Entry<E>>()
+        val laneCounts = HashMap<EventLane, Int>()
+        val signal = Channel<Unit>(Channel.CONFLATED)
+        var released = false
+    }
+
+    private val output = MutableSharedFlow<E>(replay = 0, extraBufferCapacity = OUTPUT_BUFFER_CAPACITY)
+
+    /** 事件流 */
+    val events: SharedFlow<E> = output.asSharedFlow()
+
+    private val queues = ConcurrentHashMap<String, DeviceQueue<E>>()
+
+    private val counters = ConcurrentHashMap<String, LaneCounters>()
+
+    private val queueDepth = AtomicInteger()
+
+    private val maxQueueDepth = AtomicInteger()
+
+    /**
+     * 发布事件，不挂起
+     */
+    fun publish(event: E) {
+        val lane = laneOf(event)
+        val laneCounters = countersOf(lane)
+        laneCounters.published.incrementAndGet()
+
+        val key = keyOf(event)
+        var result: Int
+        var queue: DeviceQueue<E>
+        do {
+            // 队列刚被释放时重新创建
+            queue = queueOf(key)
+            result = offer(queue, Entry(event, lane), laneCounters)
+        } while (result == OFFER_RELEASED)
+
+        when (result) {
+            OFFER_DROPPED_OLDEST -> laneCounters.dropped.incrementAndGet()
+            OFFER_REJECTED -> {
+                laneCounters.dropped.incrementAndGet()
+                Timber.tag(BUS_TAG).w("${lane.name}事件超过排队上限${lane.hardLimit}，丢弃: $key")
+                return
+            }
+        }
+        queue.signal.trySend(Unit)
+    }
+
+    /**
+     * 释放设备的队列，已入队的事件投递完后投递协程结束；之后再发布该设备的事件会重新创建队列
+     * @param key 设备，一般为MAC地址
+     */
+    fun release(key: String) {
+        val queue = queues[key] ?: return
+        synchronized(queue) {
+            queue.released = true
+            queues.remove(key, queue)
+        }
+        queue.signal.close()
+        Timber.tag(BUS_TAG).d("释放设备事件队列: $key")
+    }
+
+    /**
+     * 释放所有设备的队列
+     */
+    fun releaseAll() {
+        queues.keys.forEach(::release)
+    }
+
+    /**
+     * 当前统计
+     */
+    fun stats(): DeviceEventBusStats = DeviceEventBusStats(
+        lanes = counters.mapValues { (_, c) ->
+            EventLaneStats(
+                published = c.published.get(),
+                delivered = c.delivered.get(),
+                dropped = c.dropped.get(),
+                overCapacity = c.overCapacity.get()
+            )
+        },
+        queueDepth = queueDepth.get(),
+        maxQueueDepth = maxQueueDepth.get(),
+        devices = queues.size
+    )
+
+    private fun countersOf(lane: EventLane): LaneCounters =
+        counters[lane.name] ?: counters.computeIfAbsent(lane.name) { LaneCounters() }
+
+    private fun queueOf(key: String): DeviceQueue<E> =
+        queues[key] ?: queues.computeIfAbsent(key) { DeviceQueue<E>().also { startWorker(key, it) } }
+
+    /**
+     * 事件入队
+     * @return OFFER_* 之一
+     */
+    private fun offer(queue: DeviceQueue<E>, entry: Entry<E>, laneCounters: LaneCounters): Int {
+        synchronized(queue) {
+            if (queue.released) {
+                return OFFER_RELEASED
+            }
+            val lane = entry.lane
+            val count = queue.laneCounts[lane] ?: 0
+            var result = OFFER_ADDED
+            if (count >= lane.capacity) {
+                if (lane.policy == OverflowPolicy.DROP_OLDEST) {
+                    removeOldest(queue, lane)
+                    result = OFFER_DROPPED_OLDEST
+                } else if (count >= lane.hardLimit) {
+                    return OFFER_REJECTED
+                } else {
+                    laneCounters.overCapacity.incrementAndGet()
+                }
+            }
+            queue.entries.addLast(entry)
+            queue.laneCounts[lane] = (queue.laneCounts[lane] ?: 0) + 1
+            if (result == OFFER_ADDED) {
+                maxQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), ::maxOf)
+            }
+            return result
+        }
+    }
+
+    /**
+     * 移除该类别最旧的事件，调用方持有队列锁
+     */
+    private fun removeOldest(queue: DeviceQueue<E>, lane: EventLane) {
+        val iterator = queue.entries.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next().lane == lane) {
+                iterator.remove()
+                queue.laneCounts[lane] = (queue.laneCounts[lane] ?: 1) - 1
+                return
+            }
+        }
+    }
+
+    private fun startWorker(key: String, queue: DeviceQueue<E>) {
+        Timber.tag(BUS_TAG).d("创建设备事件队列: $key")
+        scope.launch {
+            for (ignored in queue.signal) {
+                drain(queue)
+            }
+            // 释放前入队、但信号发送晚于关闭的事件
+            drain(queue)
+            Timber.tag(BUS_TAG).d("设备事件队列已回收: $key")
+        }
+    }
+
+    private suspend fun drain(queue: DeviceQueue<E>) {
+        while (true) {
+            val entry = synchronized(queue) {
+                queue.entries.removeFirstOrNull()?.also {
+                    queue.laneCounts[it.lane] = (queue.laneCounts[it.lane] ?: 1) - 1
+                    queueDepth.decrementAndGet()
+                }
+            } ?: break
+            // 输出缓冲满时在这里挂起
+            output.emit(entry.event)
+            countersOf(entry.lane).delivered.incrementAndGet()
+        }
+    }
+
+    private companion object {
+        const val OFFER_ADDED = 0
+        const val OFFER_DROPPED_OLDEST = 1
+        const val OFFER_REJECTED = 2
+        const val OFFER_RELEASED = 3
+    }
+}
@@ -0,0 +1,392 @@
+package com.mine.baselibrary.bluetooth
+
+import android.annotation.SuppressLint
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattDescriptor
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import timber.log.Timber
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * GATT操作
+ *
+ * Android蓝牙协议栈对同一个GATT连接同一时刻只允许一个未完成的操作，
+ * 所有读写、描述符、MTU、RSSI请求都封装成操作，由[GattOperationQueue]按设备串行执行
+ */
+sealed class GattOperation(val timeoutMs: Long) {
+
+    /** 操作结果，回调成功返回true，失败或超时返回false */
+    val result = CompletableDeferred<Boolean>()
+
+    /** 操作是否已成功完成 */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val isSuccessful: Boolean
+        get() = result.isCompleted && !result.isCancelled && result.getCompleted()
+
+    /** 用于匹配完成回调的特征UUID，MTU和RSSI操作为null */
+    open val uuid: UUID? = null
+
+    /** 操作名称，用于日志 */
+    abstract val name: String
+
+    /**
+     * 发起操作
+     * @return 协议栈接受请求返回true，否则返回false
+     */
+    abstract fun start(gatt: BluetoothGatt): Boolean
+
+    /**
+     * 写特征
+     * @param writeType 写入类型，默认需要响应
+     */
+    class WriteCharacteristic(
+        val characteristic: BluetoothGattCharacteristic,
+        val value: ByteArray,
+        val writeType: Int = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT,
+        timeoutMs: Long
+    ) : GattOperation(timeoutMs) {
+        override val uuid: UUID = characteristic.uuid
+        override val name = "写特征"
+
+        /** 无响应写入，发出后不等回调就执行下一个操作 */
+        val isNoResponse: Boolean
+            get() = writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+
+        @SuppressLint("MissingPermission")
+        override fun start(gatt: BluetoothGatt): Boolean {
+            characteristic.writeType = writeType
+            characteristic.value = value
+            return gatt.writeCharacteristic(characteristic)
+        }
+    }
+
+    /**
+     * 读特征
+     */
+    class ReadCharacteristic(
+        val characteristic: BluetoothGattCharacteristic,
+        timeoutMs: Long
+    ) : GattOperation(timeoutMs) {
+        override val uuid: UUID = characteristic.uuid
+        override val name = "读特征"
+
+        /** 读取到的数据 */
+        @Volatile
+        var value: ByteArray? = null
+
+        @SuppressLint("MissingPermission")
+        override fun start(gatt: BluetoothGatt): Boolean = gatt.readCharacteristic(characteristic)
+    }
+
+    /**
+     * 写描述符，以所属特征的UUID匹配回调
+     */
+    class WriteDescriptor(
+        val descriptor: BluetoothGattDescriptor,
+        val value: ByteArray,
+        timeoutMs: Long
+    ) : GattOperation(timeoutMs) {
+        override val uuid: UUID = descriptor.characteristic.uuid
+        override val name = "写描述符"
+
+        @SuppressLint("MissingPermission")
+        override fun start(gatt: BluetoothGatt): Boolean {
+            descriptor.value = value
+            return gatt.writeDescriptor(descriptor)
+        }
+    }
+
+    /**
+     * 请求MTU
+     */
+    class RequestMtu(val mtu: Int, timeoutMs: Long) : GattOperation(timeoutMs) {
+        override val name = "请求MTU"
+
+        /** 协商后的MTU */
+        @Volatile
+        var negotiatedMtu: Int = 0
+
+        @SuppressLint("MissingPermission")
+        override fun start(gatt: BluetoothGatt): Boolean = gatt.requestMtu(mtu)
+    }
+
+    /**
+     * 读取RSSI
+     */
+    class ReadRssi(timeoutMs: Long) : GattOperation(timeoutMs) {
+        override val name = "读取RSSI"
+
+        /** 读取到的RSSI */
+        @Volatile
+        var rssi: Int = 0
+
+        @SuppressLint("MissingPermission")
+        override fun start(gatt: BluetoothGatt): Boolean = gatt.readRemoteRssi()
+    }
+}
+
+/**
+ * GATT操作队列
+ *
+ * 每个设备一个FIFO，由单独的协程逐个执行，上一个操作回调或超时后才发起下一个；
+ * 回调按 设备地址 + 操作类型 + 特征UUID 匹配当前正在执行的操作，多个设备同时读写互不干扰
+ *
+ * 无响应写入例外：发出后不等回调就执行下一个操作，回调按发出顺序匹配，可以有多个同时在途，
+ * 在途数量由调用方控制。协议栈忙拒绝时等最早的一个回调后重试一次；
+ * 需要回调的操作发起前先等在途的无响应写入都回调完
+ *
+ * @param scope 执行队列的协程作用域
+ * @param gattProvider 根据设备地址获取GATT连接
+ */
+class GattOperationQueue(
+    private val scope: CoroutineScope,
+    private val gattProvider: (String) -> BluetoothGatt?
+) {
+
+    /** 每个设备的待执行操作 */
+    private val queues = ConcurrentHashMap<String, Channel<GattOperation>>()
+
+    /** 每个设备的执行协程 */
+    private val workers = ConcurrentHashMap<String, Job>()
+
+    /** 每个设备当前正在执行的操作 */
+    private val inFlight = ConcurrentHashMap<String, GattOperation>()
+
+    /** 每个设备已发出、等待回调的无响应写入，按发出顺序排列，用队列本身加锁 */
+    private val unacked = ConcurrentHashMap<String, ArrayDeque<GattOperation.WriteCharacteristic>>()
+
+    /** 每个设备无响应写入的超时检查协程，有在途写入时才运行 */
+    private val unackedWatchdogs = ConcurrentHashMap<String, Job>()
+
+    /**
+     * 操作入队，不等待结果
+     * @param address 设备MAC地址
+     * @param operation GATT操作
+     * @return 入队的操作，可通过[GattOperation.result]等待结果
+     */
+    fun enqueue(address: String, operation: GattOperation): GattOperation {
+        val queue = queues.computeIfAbsent(address) { createQueue(it) }
+        if (queue.trySend(operation).isFailure) {
+            Timber.tag(TAG).e("${operation.name}入队失败，队列已关闭: $address")
+            operation.result.complete(false)
+        }
+        return operation
+    }
+
+    /**
+     * 操作入队并等待结果
+     * @return 成功返回true，失败或超时返回false
+     */
+    suspend fun execute(address: String, operation: GattOperation): Boolean =
+        enqueue(address, operation).result.await()
+
+    /**
+     * 特征写入完成
+     */
+    fun onCharacteristicWrite(address: String, uuid: UUID, status: Int) {
+        // 在途的无响应写入比当前操作先发出，回调也先到
+        val noResponse = unacked[address]?.let { pending ->
+            synchronized(pending) {
+                pending.firstOrNull { it.uuid == uuid }?.also { pending.remove(it) }
+            }
+        }
+        if (noResponse != null) {
+            noResponse.result.complete(status == BluetoothGatt.GATT_SUCCESS)
+            return
+        }
+        complete<GattOperation.WriteCharacteristic>(address, uuid, status)
+    }
+
+    /**
+     * 特征读取完成
+     */
+    fun onCharacteristicRead(address: String, uuid: UUID, value: ByteArray?, status: Int) {
+        complete<GattOperation.ReadCharacteristic>(address, uuid, status) { it.value = value }
+    }
+
+    /**
+     * 描述符写入完成
+     * @param uuid 描述符所属特征的UUID
+     */
+    fun onDescriptorWrite(address: String, uuid: UUID, status: Int) {
+        complete<GattOperation.WriteDescriptor>(address, uuid, status)
+    }
+
+    /**
+     * MTU协商完成
+     */
+    fun onMtuChanged(address: String, mtu: Int, status: Int) {
+        complete<GattOperation.RequestMtu>(address, null, status) { it.negotiatedMtu = mtu }
+    }
+
+    /**
+     * RSSI读取完成
+     */
+    fun onReadRemoteRssi(address: String, rssi: Int, status: Int) {
+        complete<GattOperation.ReadRssi>(address, null, status) { it.rssi = rssi }
+    }
+
+    /**
+     * 清空设备的队列，正在执行和排队中的操作都以失败结束，设备断开时调用
+     */
+    fun clear(address: String) {
+        queues.remove(address)?.let { queue ->
+            queue.close()
+            while (true) {
+                val operation = queue.tryReceive().getOrNull() ?: break
+                operation.result.complete(false)
+            }
+        }
+        workers.remove(address)?.cancel()
+        inFlight.remove(address)?.result?.complete(false)
+        unackedWatchdogs.remove(address)?.cancel()
+        unacked.remove(address)?.let { pending ->
+            synchronized(pending) { pending.toList().also { pending.clear() } }
+        }?.forEach { it.result.complete(false) }
+    }
+
+    /**
+     * 清空所有设备的队列
+     */
+    fun clearAll() {
+        queues.keys.toList().forEach { clear(it) }
+    }
+
+    private fun createQueue(address: String): Channel<GattOperation> {
+        val queue = Channel<GattOperation>(Channel.UNLIMITED)
+        workers[address] = scope.launch {
+            for (operation in queue) {
+                process(address, operation)
+            }
+        }
+        return queue
+    }
+
+    private suspend fun process(address: String, operation: GattOperation) {
+        if (operation.result.isCompleted) return
+
+        val gatt = gattProvider(address) ?: run {
+            Timber.tag(TAG).e("${operation.name}失败: 找不到设备的GATT连接 $address")
+            operation.result.complete(false)
+            return
+        }
+
+        if (operation is GattOperation.WriteCharacteristic && operation.isNoResponse) {
+            processNoResponse(address, gatt, operation)
+            return
+        }
+        awaitUnacked(address)
+
+        inFlight[address] = operation
+        try {
+            val started = start(address, gatt, operation)
+
+            if (!started) {
+                Timber.tag(TAG).e("${operation.name}启动失败: $address ${operation.uuid ?: ""}")
+                operation.result.complete(false)
+                return
+            }
+
+            val finished = withTimeoutOrNull(operation.timeoutMs) { operation.result.await() }
+            if (finished == null) {
+                Timber.tag(TAG).e("${operation.name}超时: $address ${operation.uuid ?: ""}")
+                operation.result.complete(false)
+            }
+        } finally {
+            inFlight.remove(address, operation)
+            // 队列被清空取消时保证等待方能结束，已完成的操作不受影响
+            operation.result.complete(false)
+        }
+    }
+
+    /**
+     * 发出无响应写入后立即返回，结果在回调或超时时给出
+     */
+    private suspend fun processNoResponse(
+        address: String,
+        gatt: BluetoothGatt,
+        operation: GattOperation.WriteCharacteristic
+    ) {
+        val pending = unacked.computeIfAbsent(address) { ArrayDeque() }
+        // 先登记再发出，发出后立即到达的回调也能匹配上
+        synchronized(pending) { pending.addLast(operation) }
+        var started = start(address, gatt, operation)
+        if (!started) {
+            // 协议栈忙，等最早的一个在途写入回调后重试一次
+            val oldest = synchronized(pending) { pending.firstOrNull() }
+            if (oldest != null && oldest !== operation) {
+                withTimeoutOrNull(oldest.timeoutMs) { oldest.result.await() }
+                started = start(address, gatt, operation)
+            }
+        }
+        synchronized(pending) {
+            if (!started) {
+                pending.remove(operation)
+            } else if (unackedWatchdogs[address] == null) {
+                unackedWatchdogs[address] = watchUnacked(address, pending)
+            }
+        }
+        if (!started) {
+            Timber.tag(TAG).e("${operation.name}启动失败: $address ${operation.uuid}")
+            operation.result.complete(false)
+        }
+    }
+
+    /**
+     * 逐个等待在途的无响应写入，超时的以失败结束，没有在途写入时退出
+     */
+    private fun watchUnacked(address: String, pending: ArrayDeque<GattOperation.WriteCharacteristic>): Job =
+        scope.launch {
+            while (true) {
+                val head = synchronized(pending) {
+                    pending.firstOrNull() ?: run {
+                        unackedWatchdogs.remove(address)
+                        null
+                    }
+                } ?: break
+                if (withTimeoutOrNull(head.timeoutMs) { head.result.await() } == null) {
+                    Timber.tag(TAG).e("${head.name}超时: $address ${head.uuid}")
+                    head.result.complete(false)
+                }
+                synchronized(pending) { pending.remove(head) }
+            }
+        }
+
+    /**
+     * 等在途的无响应写入都回调完，回调按发出顺序到达，只需等最后一个
+     */
+    private suspend fun awaitUnacked(address: String) {
+        val last = unacked[address]?.let { pending -> synchronized(pending) { pending.lastOrNull() } } ?: return
+        withTimeoutOrNull(last.timeoutMs) { last.result.await() }
+    }
+
+    private fun start(address: String, gatt: BluetoothGatt, operation: GattOperation): Boolean = try {
+        operation.start(gatt)
+    } catch (e: Exception) {
+        Timber.tag(TAG).e(e, "${operation.name}发起异常: $address ${operation.uuid ?: ""}")
+        false
+    }
+
+    private inline fun <reified T : GattOperation> complete(
+        address: String,
+        uuid: UUID?,
+        status: Int,
+        onMatched: (T) -> Unit = {}
+    ) {
+        val operation = inFlight[address]
+        if (operation !is T || operation.uuid != uuid) {
+            Timber.tag(TAG).w("收到无匹配操作的回调: $address ${uuid ?: ""}, 当前操作: ${operation?.name}")
+            return
+        }
+        onMatched(operation)
+        operation.result.complete(status == BluetoothGatt.GATT_SUCCESS)
+    }
+}
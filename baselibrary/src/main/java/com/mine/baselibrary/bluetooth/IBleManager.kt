@@ -9,13 +9,17 @@ import kotlinx.coroutines.flow.SharedFlow
  * 设备状态事件
  */
 sealed class DeviceEvent {
-    data class Connected(val device: BluetoothDevice) : DeviceEvent()
-    data class Disconnected(val device: BluetoothDevice) : DeviceEvent()
-    data class BatteryLevelChanged(val device: BluetoothDevice, val level: Int) : DeviceEvent()
-    data class ConnectionFailed(val device: BluetoothDevice, val reason: String) : DeviceEvent()
-    data class DeviceReady(val device: BluetoothDevice) : DeviceEvent() // 设备完全准备好（通知已启用）
-    data class AuthSuccess(val device: BluetoothDevice) : DeviceEvent() // 设备鉴权成功
-    data class AuthFailed(val device: BluetoothDevice, val reason: String) : DeviceEvent() // 设备鉴权失败
+    /** 事件所属设备，事件总线按设备地址分队列 */
+    abstract val device: BluetoothDevice
+
+    data class Connected(override val device: BluetoothDevice) : DeviceEvent()
+    data class Disconnected(override val device: BluetoothDevice) : DeviceEvent()
+    data class BatteryLevelChanged(override val device: BluetoothDevice, val level: Int) : DeviceEvent()
+    data class ConnectionFailed(override val device: BluetoothDevice, val reason: String) : DeviceEvent()
+    data class DeviceReady(override val device: BluetoothDevice) : DeviceEvent() // 设备完全准备好（通知已启用）
+    data class AuthSuccess(override val device: BluetoothDevice) : DeviceEvent() // 设备鉴权成功
+    data class AuthFailed(override val device: BluetoothDevice, val reason: String) : DeviceEvent() // 设备鉴权失败
+    data class RssiChanged(override val device: BluetoothDevice, val rssi: Int) : DeviceEvent() // RSSI监控读取到的信号强度
 }
 
 /**
@@ -33,6 +37,16 @@ sealed class ScanState {
     object NotScanning : ScanState()
     object Scanning : ScanState()
     data class ScanResult(val devices: List<BluetoothDevice>) : ScanState()
+
+    /**
+     * 增量扫描结果，每批扫描结果中有新设备时发出一次
+     * @param added 本次新发现的设备，已按地址去重
+     * @param devices 本次扫描至今的全部设备快照，StateFlow合并了中间状态时可据此补齐
+     */
+    data class ScanDelta(
+        val added: List<BluetoothDevice>,
+        val devices: List<BluetoothDevice>
+    ) : ScanState()
     data class ScanFailed(val reason: String) : ScanState()
 }
 
@@ -47,8 +61,9 @@ interface IBleManager {
 
     /**
      * 开始扫描蓝牙设备
+     * @param phase 扫描阶段，决定扫描模式和批量上报间隔
      */
-    fun startScan()
+    fun startScan(phase: ScanPhase = ScanPhase.PAIRING)
 
     /**
      * 停止扫描蓝牙设备
@@ -62,8 +77,9 @@ interface IBleManager {
 
     /**
      * 连接设备
+     * @param autoConnect 是否以后台方式连接，为true时由系统在设备进入范围后自动完成连接，不会超时
      */
-    suspend fun connect(device: BluetoothDevice): Boolean
+    suspend fun connect(device: BluetoothDevice, autoConnect: Boolean = false): Boolean
 
     /**
      * 断开设备连接
@@ -75,6 +91,11 @@ interface IBleManager {
      */
     fun getDeviceEvents(): SharedFlow<DeviceEvent>
 
+    /**
+     * 获取设备事件总线统计，丢弃次数和排队深度
+     */
+    fun getDeviceEventStats(): DeviceEventBusStats
+
     /**
      * 获取断开连接请求事件Flow
      */
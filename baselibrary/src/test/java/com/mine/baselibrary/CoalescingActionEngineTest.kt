@@ -0,0 +1,145 @@
+package com.mine.baselibrary
+
+import android.content.ContextWrapper
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * [CoalescingActionEngine] 的合并、边界和统计
+ */
+class CoalescingActionEngineTest {
+
+    private enum class Action : BidirectionalAction {
+        DECREASE,
+        INCREASE;
+
+        override fun isOpposite(other: BidirectionalAction): Boolean = other != this
+    }
+
+    /**
+     * 记录每一批的执行器，第一批执行时挂起，直到测试放行
+     */
+    private class RecordingExecutor(private val onSteps: (Action, Int) -> Unit = { _, _ -> }) :
+        CoalescingExecutor<Action> {
+        val batches = CopyOnWriteArrayList<Pair<Action, Int>>()
+        val firstEntered = CompletableDeferred<Unit>()
+        val releaseFirst = CompletableDeferred<Unit>()
+
+        override suspend fun execute(action: Action) = executeSteps(action, 1)
+
+        override suspend fun executeSteps(action: Action, steps: Int) {
+            batches.add(action to steps)
+            onSteps(action, steps)
+            if (!firstEntered.isCompleted) {
+                firstEntered.complete(Unit)
+                releaseFirst.await()
+            }
+        }
+    }
+
+    private val resourceChecker = object : ResourceChecker {
+        override suspend fun check(): Boolean = true
+        override fun getResourceName(): String = "test"
+    }
+
+    private val actionNameProvider = object : ActionNameProvider<Action> {
+        override fun getActionName(action: Action): String = action.name
+    }
+
+    private fun engine(
+        executor: Executor<Action>,
+        boundaryChecker: BoundaryChecker<Action>? = null,
+        getCurrentValue: (suspend () -> Int?)? = null,
+        maxRequestsPerPeriod: Int = 100
+    ) = CoalescingActionEngine(
+        context = ContextWrapper(null),
+        tag = "CoalescingActionEngineTest",
+        executor = executor,
+        resourceChecker = resourceChecker,
+        actionNameProvider = actionNameProvider,
+        boundaryChecker = boundaryChecker,
+        getCurrentValue = getCurrentValue,
+        valueStep = { if (it == Action.INCREASE) 1 else -1 },
+        enableBoundaryCheck = boundaryChecker != null,
+        minIntervalMs = 0,
+        maxRequestsPerPeriod = maxRequestsPerPeriod,
+        clock = { 0L }
+    )
+
+    private suspend fun awaitBatches(engine: CoalescingActionEngine<Action>, count: Long) {
+        withTimeout(2000) {
+            while (engine.metrics().executedBatches < count) {
+                delay(5)
+            }
+        }
+    }
+
+    @Test
+    fun sameDirectionRequestsWhileBusyAreMergedIntoOneBatch() = runBlocking {
+        val executor = RecordingExecutor()
+        val engine = engine(executor)
+
+        engine.emit(Action.INCREASE)
+        withTimeout(2000) { executor.firstEntered.await() }
+        repeat(3) { engine.emit(Action.INCREASE) }
+        executor.releaseFirst.complete(Unit)
+        awaitBatches(engine, 2)
+
+        assertEquals(listOf(Action.INCREASE to 1, Action.INCREASE to 3), executor.batches.toList())
+        assertEquals(2L, engine.metrics().coalesced)
+        assertEquals(4L, engine.metrics().executedSteps)
+    }
+
+    @Test
+    fun batchIsClampedAtBoundary() = runBlocking {
+        var current = 8
+        val executor = RecordingExecutor { action, steps ->
+            current += if (action == Action.INCREASE) steps else -steps
+        }
+        val checker = object : BoundaryChecker<Action> {
+            override suspend fun checkBoundary(action: Action, currentValue: Int) =
+                BoundaryCheckResult(action == Action.DECREASE || currentValue < 10)
+        }
+        val engine = engine(executor, checker, { current })
+
+        engine.emit(Action.INCREASE)
+        withTimeout(2000) { executor.firstEntered.await() }
+        repeat(4) { engine.emit(Action.INCREASE) }
+        executor.releaseFirst.complete(Unit)
+        awaitBatches(engine, 2)
+
+        // 9 -> 10 还能执行一步，其余三步越界丢弃
+        assertEquals(listOf(Action.INCREASE to 1, Action.INCREASE to 1), executor.batches.toList())
+        assertEquals(10, current)
+        assertEquals(3L, engine.metrics().droppedByCheck)
+    }
+
+    @Test
+    fun metricsCountCoalescedCancelledAndRateLimited() = runBlocking {
+        val executor = RecordingExecutor()
+        val engine = engine(executor, maxRequestsPerPeriod = 3)
+
+        engine.emit(Action.INCREASE)
+        withTimeout(2000) { executor.firstEntered.await() }
+        engine.emit(Action.INCREASE)
+        engine.emit(Action.INCREASE)
+        // 令牌用完，同向请求被限流
+        engine.emit(Action.INCREASE)
+        // 反向请求取消等待中的两次，不受限流
+        engine.emit(Action.DECREASE)
+        executor.releaseFirst.complete(Unit)
+        awaitBatches(engine, 2)
+
+        val metrics = engine.metrics()
+        assertEquals(5L, metrics.emitted)
+        assertEquals(1L, metrics.coalesced)
+        assertEquals(1L, metrics.droppedByRateLimit)
+        assertEquals(2L, metrics.cancelledByOpposite)
+        assertEquals(listOf(Action.INCREASE to 1, Action.DECREASE to 1), executor.batches.toList())
+    }
+}
@@ -40,16 +40,9 @@ abstract class FragranceAbsBleManager(override val appContext: Context,
         Log.i(TAG,"扫描到设备：${device.address}, 名称=${device.name}, RSSI=${result.rssi}")
         // 只处理名称匹配的设备
         if (device.name != null && device.name.startsWith(FragranceConfig.NAME_PREFIX)) {
-            Timber.tag(TAG)
-                .w("扫描到设备需要的设备：${device.address}, 名称=${device.name}, RSSI=${result.rssi}")
-            //读取广播内容，判断是否配对广播
-            try {
-                scanResults.add(device)
-                coroutineScope.launch {
-                    scanStateFlow.emit(ScanState.ScanResult(scanResults.toList()))
-                }
-            } catch (e: Exception) {
-                Timber.tag(TAG).w("广播没有FF")
+            if (acceptScannedDevice(device)) {
+                Timber.tag(TAG)
+                    .w("扫描到设备需要的设备：${device.address}, 名称=${device.name}, RSSI=${result.rssi}")
             }
         }
     }
@@ -69,16 +62,12 @@ abstract class FragranceAbsBleManager(override val appContext: Context,
         }
 
         // 3. 检查通知特征
-        val notifyCharacteristic = mainService.getCharacteristic(characteristicNotifyUuid) ?: run {
+        mainService.getCharacteristic(characteristicNotifyUuid) ?: run {
             Timber.tag(TAG).e("设备缺少通知特征: ${gatt.device.address}")
             return false
         }
 
-        // 4. 正确配置通知特征
-        if (!enableCharacteristicNotification(gatt, notifyCharacteristic)) {
-            Timber.tag(TAG).e("无法启用通知特征: ${gatt.device.address}")
-            return false
-        }
+        // 4. 通知特征由基类在验证通过后启用，并等待描述符写入结果
 
         // 5. 检查电池服务（可选）
         val batteryService = gatt.getService(batteryServiceUuid)
@@ -218,23 +207,11 @@ abstract class FragranceAbsBleManager(override val appContext: Context,
                 batteryLevelUuid -> {
                     val batteryLevel = characteristic.value[0].toInt() and 0xFF
                     Timber.tag(com.mine.baselibrary.bluetooth.TAG).w("设备电量: ${batteryLevel}%")
-                    coroutineScope.launch {
-                        deviceEventsFlow.emit(
-                            DeviceEvent.BatteryLevelChanged(gatt.device, batteryLevel)
-                        )
-                    }
+                    deviceEventBus.publish(DeviceEvent.BatteryLevelChanged(gatt.device, batteryLevel))
                 }
 
                 characteristicNotifyUuid -> {
 
-                    val uuid = characteristic.uuid.toString()
-                    writeCallbacks[uuid]?.let { deferred ->
-                        if (!deferred.isCompleted) {
-                            deferred.complete(status == BluetoothGatt.GATT_SUCCESS)
-                        }
-                        writeCallbacks.remove(uuid)
-                    }
-
                     val value = BleAuthUtils.byteArrayToHexString(characteristic.value)
 
                     Timber.tag(TAG).w("特征读取完成回调: $value")
@@ -13,9 +13,14 @@ class FragranceBleManager(override val appContext: Context) : FragranceAbsBleMan
      * 发送命令到设备的通用方法
      * @param macAddress 设备MAC地址
      * @param command 命令数据包
+     * @param pipelined 是否使用高吞吐写入模式（无响应写入），用于灯光颜色等连续下发的命令
      * @return 发送成功返回true，否则返回false
      */
-    private suspend fun sendCommand(macAddress: String, command: ByteArray): Boolean = withContext(Dispatchers.IO) {
+    private suspend fun sendCommand(
+        macAddress: String,
+        command: ByteArray,
+        pipelined: Boolean = false
+    ): Boolean = withContext(Dispatchers.IO) {
         val gatt = deviceGattMap[macAddress] ?: run {
             Timber.tag(TAG).e("发送命令失败: 设备未连接 $macAddress")
             return@withContext false
@@ -33,10 +38,16 @@ class FragranceBleManager(override val appContext: Context) : FragranceAbsBleMan
 
         Timber.tag(TAG).w("发送命令: ${bytesToHex(command)} 到设备 $macAddress")
 
-        // 使用带超时的写入
-        return@withContext writeCharacteristicWithTimeout(gatt, characteristic, command)
+        // 灯光命令走无响应写入，其余命令使用带超时的写入
+        return@withContext if (pipelined) {
+            writeCharacteristicPipelined(gatt, characteristic, command)
+        } else {
+            writeCharacteristicWithTimeout(gatt, characteristic, command)
+        }
     }
 
+    override fun isHighThroughputWriteEnabled(): Boolean = true
+
     override suspend fun setPowerState(macAddress: String, powerState: PowerState): Boolean {
         val command = FragranceCommandBuilder.buildPowerCommand(powerState)
         return sendCommand(macAddress, command)
@@ -69,12 +80,12 @@ class FragranceBleManager(override val appContext: Context) : FragranceAbsBleMan
 
     override suspend fun setLightMode(macAddress: String, lightMode: LightMode): Boolean {
         val command = FragranceCommandBuilder.buildLightModeCommand(lightMode)
-        return sendCommand(macAddress, command)
+        return sendCommand(macAddress, command, pipelined = true)
     }
 
     override suspend fun setLightColor(macAddress: String, r: Int, g: Int, b: Int): Boolean {
         val command = FragranceCommandBuilder.buildLightColorCommand(r, g, b)
-        return sendCommand(macAddress, command)
+        return sendCommand(macAddress, command, pipelined = true)
     }
 
     override suspend fun setLightColor(macAddress: String, color: Int): Boolean {
@@ -87,12 +98,12 @@ class FragranceBleManager(override val appContext: Context) : FragranceAbsBleMan
 
     override suspend fun setLightColor(macAddress: String, color: String): Boolean {
         val command = FragranceCommandBuilder.buildLightColorCommand(color)
-        return sendCommand(macAddress, command)
+        return sendCommand(macAddress, command, pipelined = true)
     }
 
     override suspend fun setLightBrightness(macAddress: String, brightness: Int): Boolean {
         val command = FragranceCommandBuilder.buildLightBrightnessCommand(brightness)
-        return sendCommand(macAddress, command)
+        return sendCommand(macAddress, command, pipelined = true)
     }
 
     override suspend fun setTimingDuration(macAddress: String, minutes: Int): Boolean {
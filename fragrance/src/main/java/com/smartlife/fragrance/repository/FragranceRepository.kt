@@ -60,8 +60,8 @@ interface FragranceRepository {
     // 获取扫描状态
     fun getScanState(): Flow<ScanState>
     
-    // 连接蓝牙设备
-    suspend fun connectDevice(bluetoothDevice: BluetoothDevice): Boolean
+    // 连接蓝牙设备，autoConnect为true时以后台方式等待设备进入范围
+    suspend fun connectDevice(bluetoothDevice: BluetoothDevice, autoConnect: Boolean = false): Boolean
     
     // 断开蓝牙设备连接
     suspend fun disconnectDevice(macAddress: String)
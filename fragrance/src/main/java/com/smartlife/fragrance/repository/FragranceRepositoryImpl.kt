@@ -134,6 +134,9 @@ class FragranceRepositoryImpl @Inject constructor(
                 is DeviceEvent.AuthFailed -> {
                     deviceEventsFlow.emit(bleEvent)
                 }
+                is DeviceEvent.RssiChanged -> {
+                    // RSSI只用于底层弱信号断开，不转发
+                }
             }
         }
     }
@@ -263,10 +266,13 @@ class FragranceRepositoryImpl @Inject constructor(
 
     override fun getScanState(): Flow<ScanState> = bleManager.getScanState()
 
-    override suspend fun connectDevice(bluetoothDevice: BluetoothDevice): Boolean {
-        updateConnectionState(bluetoothDevice.address, ConnectionState.CONNECTING)
+    override suspend fun connectDevice(bluetoothDevice: BluetoothDevice, autoConnect: Boolean): Boolean {
+        // 后台连接可能长时间挂起，保持断开状态直到真正连上
+        if (!autoConnect) {
+            updateConnectionState(bluetoothDevice.address, ConnectionState.CONNECTING)
+        }
         // 连接设备
-        val success = bleManager.connect(bluetoothDevice)
+        val success = bleManager.connect(bluetoothDevice, autoConnect)
 
         // 检查设备是否已存在于数据库
         val existingDevice = DatabaseHelper.executeOnIOThread {
@@ -40,6 +40,9 @@ class FragranceScanningViewModel @Inject constructor(
     private val _newDeviceFound = MutableSharedFlow<List<FragranceDevice>>()
     val newDeviceFound: SharedFlow<List<FragranceDevice>> = _newDeviceFound.asSharedFlow()
 
+    // 本次扫描已处理过的设备地址，每个设备只查询一次数据库
+    private val processedAddresses = mutableSetOf<String>()
+
     init {
         // 监听扫描状态
         viewModelScope.launch {
@@ -53,6 +56,14 @@ class FragranceScanningViewModel @Inject constructor(
                         Log.i(TAG, "ScanResult is ${state.devices}")
                         processScannedDevices(state.devices)
                     }
+                    is ScanState.ScanDelta -> {
+                        // 用快照补齐被StateFlow合并掉的增量，只处理未处理过的设备
+                        val newDevices = state.devices.filter { processedAddresses.add(it.address) }
+                        Log.i(TAG, "ScanDelta added ${state.added}, unprocessed ${newDevices.size}")
+                        if (newDevices.isNotEmpty()) {
+                            processScannedDevices(newDevices)
+                        }
+                    }
                     else -> {}
                 }
             }
@@ -122,6 +133,7 @@ class FragranceScanningViewModel @Inject constructor(
      * 开始扫描
      */
     fun startScan() {
+        processedAddresses.clear()
         fragranceRepository.startScan()
     }
 
@@ -270,6 +270,13 @@ class FragranceTestActivity : ComponentActivity() {
                         deviceAdapter.notifyDataSetChanged()
                         log("扫描到 ${state.devices.size} 个设备")
                     }
+                    is ScanState.ScanDelta -> {
+                        updateStatus("扫描到 ${state.devices.size} 个设备")
+                        devices.clear()
+                        devices.addAll(state.devices)
+                        deviceAdapter.notifyDataSetChanged()
+                        log("新发现 ${state.added.size} 个设备")
+                    }
                     is ScanState.ScanFailed -> {
                         updateStatus("${state.reason}")
                         log("扫描失败: ${state.reason}")
@@ -312,6 +319,9 @@ class FragranceTestActivity : ComponentActivity() {
                     is DeviceEvent.AuthFailed -> {
                         log("鉴权失败: ${event.device.address} - ${event.reason}")
                     }
+                    is DeviceEvent.RssiChanged -> {
+                        log("RSSI: ${event.device.address} - ${event.rssi}dBm")
+                    }
                 }
             }
             .launchIn(lifecycleScope)
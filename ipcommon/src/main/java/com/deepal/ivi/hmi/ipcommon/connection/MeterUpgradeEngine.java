@@ -0,0 +1,366 @@
+package com.deepal.ivi.hmi.ipcommon.connection;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.deepal.ivi.hmi.ipcommon.data.bean.MeterUpgradeBean;
+import com.deepal.ivi.hmi.ipcommon.util.MeterCrc;
+import com.deepal.ivi.hmi.ipcommon.util.MeterDataBuild;
+import com.deepal.ivi.hmi.ipcommon.util.MeterFrameDecoder;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 仪表固件升级
+ *
+ * 流程：初始化(0x73 01) -> 声明包数(0x72 01) -> 写数据(0x72 03) -> 校验(0x72 05)
+ *
+ * 写数据不是发一包等一包，而是保持一个滑动窗口的数据包在途，收到一个写应答就补发下一包：
+ * - 写应答只带结果不带包序号，仪表按顺序逐包应答，每个应答对应最早的在途数据包；
+ *   没有在途包时收到写应答说明应答重复或错位，按出错处理
+ * - 窗口加性增、乘性减：连续应答成功一个窗口后加一，应答失败或超时后减半
+ * - 写数据帧里没有偏移量，重新初始化后仪表从第0包开始接收，所以出错或连接断开后都从头重发
+ * - 本次会话还没有任何包应答成功就出错时，分包大小减半（包数在声明时就定了，中途不能改分包大小）
+ *
+ * 升级期间暂停实时数据发送。状态都在升级线程中处理，回调也在升级线程。
+ */
+public final class MeterUpgradeEngine {
+    private static final String TAG = "MeterUpgradeEngine";
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+    private static final int MIN_CHUNK_SIZE = 256;
+    private static final int INITIAL_WINDOW = 4;
+    // 控制数据队列容量32，给亮度、主题等控制数据留出空间
+    private static final int MAX_WINDOW = 16;
+    private static final long REPLY_TIMEOUT_MS = 3000;
+    private static final long ACK_TIMEOUT_MS = 2000;
+    private static final long VERIFY_TIMEOUT_MS = 15000;
+    private static final long RESUME_DELAY_MS = 500;
+    private static final long RESUME_TIMEOUT_MS = 60000;
+    // 整次升级的出错次数上限，每次出错都从头重发，有进展也不清零
+    private static final int MAX_RETRIES = 5;
+    private static final int RESULT_OK = 0;
+
+    // 应答类型，见 MeterDataBuild#dispatchAnalyzeData2
+    private static final int REPLY_CHECK = 8;
+    private static final int REPLY_WRITE = 9;
+    private static final int REPLY_VERIFY = 10;
+    private static final int REPLY_INIT = 11;
+
+    private enum State { IDLE, INIT, CHECK, WRITE, VERIFY, SUSPENDED }
+
+    public interface Listener {
+        /**
+         * 已被仪表确认的字节数
+         */
+        void onProgress(int ackedBytes, int totalBytes);
+
+        /**
+         * 升级结束
+         * @param crc32 本地计算的固件CRC32，校验协议不带CRC，用于和仪表端日志核对
+         */
+        void onFinished(boolean success, String reason, int crc32);
+    }
+
+    private final NetworkServiceManager networkService;
+    private final Listener listener;
+    private final MeterDataBuild builder = MeterDataBuild.INSTANCE;
+    private final HandlerThread upgradeThread;
+    private final Handler handler;
+    private final AtomicBoolean active = new AtomicBoolean(false);
+    private final Runnable timeoutTask = this::onTimeout;
+    private final Runnable resumeTask = () -> beginSession("重新连接");
+
+    // 以下只在升级线程使用
+    private State state = State.IDLE;
+    private byte[] image;
+    private int type;
+    private int imageCrc;
+    private int chunkSize;
+    private int packetCount;
+    private int ackedPackets;
+    private int nextPacket;
+    private int window;
+    private int windowAcks;
+    private int retries;
+    private boolean sendFailed;
+    private long startedAt;
+    private int sessions;
+    private int retransmittedPackets;
+
+    private final NetworkServiceManager.SendCallback sendCallback = new NetworkServiceManager.SendCallback() {
+        @Override
+        public void onSuccess() {
+        }
+
+        @Override
+        public void onError(Exception e) {
+            // sendData 在调用线程同步回调
+            sendFailed = true;
+            Log.w(TAG, "升级数据发送失败: " + e.getMessage());
+        }
+    };
+
+    public MeterUpgradeEngine(NetworkServiceManager networkService, Listener listener) {
+        this.networkService = networkService;
+        this.listener = listener;
+        upgradeThread = new HandlerThread("Meter-Upgrade");
+        upgradeThread.start();
+        handler = new Handler(upgradeThread.getLooper());
+    }
+
+    /**
+     * 开始升级
+     * @param image 固件数据，升级期间不能修改
+     * @param type 固件类型，同 {@link MeterDataBuild#buildCheckFw}
+     * @param chunkSize 初始分包大小
+     * @return 已经在升级时返回false
+     */
+    public boolean start(byte[] image, int type, int chunkSize) {
+        if (image == null || image.length == 0 || !active.compareAndSet(false, true)) {
+            return false;
+        }
+        handler.post(() -> {
+            this.image = image;
+            this.type = type;
+            this.imageCrc = MeterCrc.crc32(image);
+            this.chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(chunkSize, 0xFFFF));
+            this.packetCount = (image.length + this.chunkSize - 1) / this.chunkSize;
+            this.ackedPackets = 0;
+            this.nextPacket = 0;
+            this.window = INITIAL_WINDOW;
+            this.retries = 0;
+            this.sessions = 0;
+            this.retransmittedPackets = 0;
+            this.startedAt = SystemClock.elapsedRealtime();
+            Log.i(TAG, "开始升级 size=" + image.length + ", chunk=" + this.chunkSize + ", packets=" + packetCount
+                    + ", crc32=" + Integer.toHexString(imageCrc));
+            networkService.setTelemetryPaused(true);
+            beginSession("开始升级");
+        });
+        return true;
+    }
+
+    public void cancel() {
+        handler.post(() -> finish(false, "取消升级"));
+    }
+
+    public boolean isActive() {
+        return active.get();
+    }
+
+    /**
+     * 处理仪表发来的数据包
+     * @return 是升级应答时返回true
+     */
+    public boolean handleFrame(byte[] frame) {
+        if (frame == null || frame.length < 6) {
+            return false;
+        }
+        int command = frame[4] & 0xFF;
+        if (command < MeterFrameDecoder.COMMAND_UPGRADE_FIRST || command > MeterFrameDecoder.COMMAND_UPGRADE_LAST) {
+            return false;
+        }
+        if (active.get()) {
+            MeterUpgradeBean reply;
+            try {
+                reply = builder.dispatchAnalyzeData2(frame);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "升级应答解析失败: " + e.getMessage());
+                reply = null;
+            }
+            if (reply != null) {
+                MeterUpgradeBean bean = reply;
+                handler.post(() -> onReply(bean));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 仪表连接状态变化，断开时暂停，重新连接后重新初始化并从头重发
+     */
+    public void onConnectionChanged(boolean connected) {
+        if (!active.get()) {
+            return;
+        }
+        handler.post(() -> {
+            if (state == State.IDLE) {
+                return;
+            }
+            if (!connected && state != State.SUSPENDED) {
+                Log.i(TAG, "连接断开，暂停升级，已确认 " + ackedPackets + "/" + packetCount);
+                state = State.SUSPENDED;
+                handler.removeCallbacks(resumeTask);
+                arm(RESUME_TIMEOUT_MS);
+            } else if (connected && state == State.SUSPENDED) {
+                // 等仪表完成连接后的初始化再继续
+                handler.removeCallbacks(resumeTask);
+                handler.postDelayed(resumeTask, RESUME_DELAY_MS);
+            }
+        });
+    }
+
+    public void release() {
+        cancel();
+        upgradeThread.quitSafely();
+    }
+
+    /**
+     * 初始化并声明包数，成功后从第0包开始写
+     */
+    private void beginSession(String reason) {
+        if (!active.get() || image == null) {
+            return;
+        }
+        sessions++;
+        // 写数据帧不带偏移量，重新初始化后只能从头重发，之前发出的包都算重发
+        retransmittedPackets += nextPacket;
+        ackedPackets = 0;
+        nextPacket = 0;
+        Log.i(TAG, "升级会话#" + sessions + "(" + reason + ")，共 " + packetCount + " 包，窗口 " + window);
+        state = State.INIT;
+        send(builder.buildInitUpgrade());
+        arm(REPLY_TIMEOUT_MS);
+    }
+
+    private void onReply(MeterUpgradeBean reply) {
+        boolean ok = reply.getResult() == RESULT_OK;
+        switch (state) {
+            case INIT:
+                if (reply.getStatus() != REPLY_INIT) return;
+                if (!ok) {
+                    recover("初始化失败 result=" + reply.getResult());
+                    return;
+                }
+                state = State.CHECK;
+                send(builder.buildCheckFw(type, packetCount));
+                arm(REPLY_TIMEOUT_MS);
+                break;
+            case CHECK:
+                if (reply.getStatus() != REPLY_CHECK) return;
+                if (!ok) {
+                    recover("声明包数失败 result=" + reply.getResult());
+                    return;
+                }
+                state = State.WRITE;
+                windowAcks = 0;
+                pump();
+                break;
+            case WRITE:
+                if (reply.getStatus() != REPLY_WRITE) return;
+                if (nextPacket == ackedPackets) {
+                    // 应答按顺序逐包对应，多出来的应答说明计数已经错位，继续写会让窗口悄悄漂移
+                    recover("没有在途包时收到写应答 packet=" + ackedPackets);
+                    return;
+                }
+                if (!ok) {
+                    recover("写数据失败 packet=" + ackedPackets + ", result=" + reply.getResult());
+                    return;
+                }
+                ackedPackets++;
+                if (++windowAcks >= window) {
+                    window = Math.min(window + 1, MAX_WINDOW);
+                    windowAcks = 0;
+                }
+                listener.onProgress(Math.min(ackedPackets * chunkSize, image.length), image.length);
+                if (ackedPackets == packetCount) {
+                    state = State.VERIFY;
+                    send(builder.buildVerifyFw());
+                    arm(VERIFY_TIMEOUT_MS);
+                } else {
+                    pump();
+                }
+                break;
+            case VERIFY:
+                if (reply.getStatus() == REPLY_WRITE) {
+                    // 所有包都已应答后又收到写应答，前面的应答有重复，仪表收到的包数对不上
+                    recover("校验前收到多余的写应答");
+                    return;
+                }
+                if (reply.getStatus() != REPLY_VERIFY) return;
+                if (ok) {
+                    finish(true, "升级成功");
+                } else {
+                    finish(false, "固件校验失败 result=" + reply.getResult());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 在窗口允许的范围内发送数据包
+     */
+    private void pump() {
+        while (nextPacket < packetCount && nextPacket - ackedPackets < window) {
+            int offset = nextPacket * chunkSize;
+            byte[] chunk = Arrays.copyOfRange(image, offset, Math.min(offset + chunkSize, image.length));
+            if (!send(builder.buildWriteFw(chunk))) {
+                recover("发送队列已满");
+                return;
+            }
+            nextPacket++;
+        }
+        // 每次有应答都重新计时，只对最早的在途包计超时
+        arm(ACK_TIMEOUT_MS);
+    }
+
+    private boolean send(byte[] frame) {
+        sendFailed = false;
+        networkService.sendData(frame, sendCallback);
+        return !sendFailed;
+    }
+
+    private void onTimeout() {
+        if (state == State.SUSPENDED) {
+            finish(false, "连接断开超时");
+        } else if (state != State.IDLE) {
+            recover(state + " 应答超时");
+        }
+    }
+
+    /**
+     * 出错后窗口减半，重新初始化并从头重发
+     */
+    private void recover(String reason) {
+        Log.w(TAG, reason);
+        if (++retries > MAX_RETRIES) {
+            finish(false, reason);
+            return;
+        }
+        window = Math.max(1, window / 2);
+        if (ackedPackets == 0 && chunkSize > MIN_CHUNK_SIZE) {
+            chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize / 2);
+            packetCount = (image.length + chunkSize - 1) / chunkSize;
+            Log.i(TAG, "分包大小调整为 " + chunkSize + "，共 " + packetCount + " 包");
+        }
+        beginSession(reason);
+    }
+
+    private void finish(boolean success, String reason) {
+        if (state == State.IDLE && !active.get()) {
+            return;
+        }
+        handler.removeCallbacks(timeoutTask);
+        handler.removeCallbacks(resumeTask);
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startedAt);
+        int length = image != null ? image.length : 0;
+        Log.i(TAG, "升级结束 " + reason + "，耗时 " + elapsed + "ms，" + (length * 1000L / elapsed) + "B/s，会话 "
+                + sessions + " 次，重发 " + retransmittedPackets + " 包");
+        state = State.IDLE;
+        image = null;
+        networkService.setTelemetryPaused(false);
+        active.set(false);
+        listener.onFinished(success, reason, imageCrc);
+    }
+
+    private void arm(long timeoutMs) {
+        handler.removeCallbacks(timeoutTask);
+        handler.postDelayed(timeoutTask, timeoutMs);
+    }
+}
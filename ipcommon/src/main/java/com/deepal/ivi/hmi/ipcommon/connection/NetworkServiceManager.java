@@ -2,9 +2,11 @@ package com.deepal.ivi.hmi.ipcommon.connection;
 
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.deepal.ivi.hmi.ipcommon.iInterface.ServerCallback;
+import com.deepal.ivi.hmi.ipcommon.util.MeterFrameDecoder;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,9 +15,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Arrays;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -29,9 +29,20 @@ public class NetworkServiceManager {
     private volatile Socket clientSocket;
     // 用于 Accept 和 Receive 的线程池（固定2个线程）
     private ExecutorService mainExecutor;
-    // 优化:发送队列：设置容量上限（例如50），防止无限堆积
-    // ArrayBlockingQueue 比 LinkedBlockingQueue 内存更紧凑，适合高频
-    private final BlockingQueue<byte[]> sendQueue = new ArrayBlockingQueue<>(86);//3000/35
+    // 发送分两路，都由 sendLock 保护：
+    // 控制数据（初始化、亮度、主题、模式）按顺序排队，一个都不能丢，优先发送
+    // 实时数据（35ms更新包）只保留最新一帧，仪表卡顿时不会积压旧的车速、挡位
+    private static final int CONTROL_QUEUE_CAPACITY = 32;
+    private final Object sendLock = new Object();
+    private final ArrayDeque<PendingFrame> controlQueue = new ArrayDeque<>();
+    private byte[] pendingTelemetry = new byte[64];
+    private byte[] writingTelemetry = new byte[64];
+    private int pendingTelemetryLength;
+    private boolean hasPendingTelemetry;
+    private long pendingTelemetryAt;
+    private final SendStats sendStats = new SendStats();
+    // 固件升级期间暂停实时数据，链路留给升级数据
+    private volatile boolean telemetryPaused;
     // 优化2:专门的发送线程对象，不使用线程池以减少 overhead
     private Thread sendThread;
     //使用AtomicBoolean确保线程安全
@@ -43,12 +54,134 @@ public class NetworkServiceManager {
     // 优化：引入 Handler 处理重连，避免在 Executor 线程内部自杀
     private Handler reconnectHandler;
     private HandlerThread reconnectThread; // 专门用于管理重连倒计时的轻量级线程
+    private final ReconnectBackoff reconnectBackoff = new ReconnectBackoff();
+    // 非阻塞模式：一个IO线程完成监听、收发，支持多个客户端，下次 startServer 生效
+    private volatile boolean nonBlocking;
+    private volatile NioLinkServer nioServer;
+    // 本次启动是否使用非阻塞模式，此时发送只走 nioServer，不进阻塞模式的队列
+    private volatile boolean nioActive;
 
     public interface SendCallback {
         void onSuccess();
         void onError(Exception e);
     }
 
+    private static final class PendingFrame {
+        final byte[] data;
+        final long enqueuedAt;
+
+        PendingFrame(byte[] data, long enqueuedAt) {
+            this.data = data;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * 发送统计，时间单位毫秒
+     */
+    public static final class SendStats {
+        // 控制数据
+        public long controlSent;
+        public long controlDropped;
+        public int controlQueueDepth;
+        public long controlMaxAgeMs;
+        // 实时数据
+        public long telemetrySent;
+        // 未发出就被新一帧覆盖的次数
+        public long telemetryReplaced;
+        // 连接断开时丢弃的次数
+        public long telemetryDropped;
+        public long telemetryLastAgeMs;
+        public long telemetryMaxAgeMs;
+
+        SendStats copy() {
+            SendStats stats = new SendStats();
+            stats.controlSent = controlSent;
+            stats.controlDropped = controlDropped;
+            stats.controlQueueDepth = controlQueueDepth;
+            stats.controlMaxAgeMs = controlMaxAgeMs;
+            stats.telemetrySent = telemetrySent;
+            stats.telemetryReplaced = telemetryReplaced;
+            stats.telemetryDropped = telemetryDropped;
+            stats.telemetryLastAgeMs = telemetryLastAgeMs;
+            stats.telemetryMaxAgeMs = telemetryMaxAgeMs;
+            return stats;
+        }
+
+        @Override
+        public String toString() {
+            return "control{sent=" + controlSent + ", dropped=" + controlDropped + ", depth=" + controlQueueDepth
+                    + ", maxAge=" + controlMaxAgeMs + "ms}, telemetry{sent=" + telemetrySent
+                    + ", replaced=" + telemetryReplaced + ", dropped=" + telemetryDropped
+                    + ", lastAge=" + telemetryLastAgeMs + "ms, maxAge=" + telemetryMaxAgeMs + "ms}";
+        }
+    }
+
+    /**
+     * 重连间隔：从100ms开始，连续失败时翻倍，最长5s，监听成功后恢复
+     * USB重新枚举后网卡很快恢复，不用每次都等固定的1500ms
+     */
+    private static final class ReconnectBackoff {
+        private static final long INITIAL_DELAY_MS = 100;
+        private static final long MAX_DELAY_MS = 5000;
+        private long nextDelayMs = INITIAL_DELAY_MS;
+
+        synchronized long next() {
+            long delay = nextDelayMs;
+            nextDelayMs = Math.min(nextDelayMs * 2, MAX_DELAY_MS);
+            return delay;
+        }
+
+        synchronized void reset() {
+            nextDelayMs = INITIAL_DELAY_MS;
+        }
+    }
+
+    private final NioLinkServer.Listener nioListener = new NioLinkServer.Listener() {
+        @Override
+        public void onServerStarted() {
+            reconnectBackoff.reset();
+        }
+
+        @Override
+        public void onClientConnected(String address, boolean cluster, int clientCount) {
+            // 抓包端接入不算仪表连接
+            if (cluster && serverCallback != null) serverCallback.connectClientStatus(true, "");
+        }
+
+        @Override
+        public void onClientDisconnected(String address, boolean cluster, int clientCount, String reason) {
+            // 仪表断开即算断开，抓包端还连着也一样
+            if (cluster && serverCallback != null) {
+                serverCallback.connectClientStatus(false, reason);
+            }
+        }
+
+        @Override
+        public void onFrame(byte[] frame) {
+            ServerCallback callback = serverCallback;
+            if (callback != null) {
+                callback.receiveMsgFromClient(frame);
+            }
+        }
+
+        @Override
+        public void onServerError(IOException e) {
+            // IO线程已退出，不再持有已失效的服务，发送直接返回失败
+            synchronized (lock) {
+                NioLinkServer server = nioServer;
+                if (server != null && !server.isRunning()) {
+                    server.stop();
+                    nioServer = null;
+                }
+            }
+            if (serverCallback != null) serverCallback.connectClientStatus(false, e.getMessage());
+            if (isRunning.get() && isReconnect.get()) {
+                scheduleReconnect();
+            }
+        }
+    };
+
     // 插入设备后允许重连
     public void isToReconnect(boolean isReconnect) {
         Log.d(TAG, "【isToReconnect】是否允许重连: " + isReconnect);
@@ -78,6 +211,14 @@ public class NetworkServiceManager {
         this.serverCallback = callback;
     }
 
+    /**
+     * 切换非阻塞模式，下次 startServer 时生效
+     * 非阻塞模式只用一个IO线程，支持多个客户端同时连接；阻塞模式只保留最新的一个客户端
+     */
+    public void setNonBlocking(boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+    }
+
     public void startServer() {
         synchronized (lock) {
             if (isRunning.get()) { // 如果已经在运行，先停止，避免重复启动
@@ -85,8 +226,24 @@ public class NetworkServiceManager {
             }
             // 初始化资源
             isRunning.set(true);
-            sendQueue.clear(); // 清空历史积压数据
-            Log.d(TAG, "正在启动服务...");
+            clearPendingFrames(); // 清空历史积压数据
+            Log.d(TAG, "正在启动服务... nonBlocking=" + nonBlocking);
+
+            nioActive = nonBlocking;
+            if (nonBlocking) {
+                try {
+                    nioServer = new NioLinkServer(serverIp, serverPort, nioListener);
+                    nioServer.start();
+                } catch (IOException e) {
+                    Log.e(TAG, "启动仪表车机服务报错 Server Error", e);
+                    nioServer = null;
+                    if (serverCallback != null) serverCallback.connectClientStatus(false, e.getMessage());
+                    if (isReconnect.get()) {
+                        scheduleReconnect();
+                    }
+                }
+                return;
+            }
 
             // 1. 初始化接收线程池
             if (mainExecutor == null || mainExecutor.isShutdown()) {
@@ -108,6 +265,7 @@ public class NetworkServiceManager {
                 serverSocket.setReuseAddress(true);
                 serverSocket.bind(new InetSocketAddress(InetAddress.getByName(serverIp), serverPort), 50);
             }
+            reconnectBackoff.reset();
             Log.i(TAG, "服务器启动，监听端口(Server started on port): " + serverPort);
             while (isRunning.get()) {
                 Socket newSocket = serverSocket.accept(); // 1、阻塞等待新连接（不加锁，允许 accept 阻塞）
@@ -153,6 +311,14 @@ public class NetworkServiceManager {
     }
 
     private void receiveData(Socket socket) {
+        // 每个连接一个解析器，半包留在缓冲区等下一次read，粘包逐个回调
+        MeterFrameDecoder decoder = new MeterFrameDecoder();
+        MeterFrameDecoder.Listener listener = frame -> {
+            ServerCallback callback = serverCallback;
+            if (callback != null) {
+                callback.receiveMsgFromClient(frame.toByteArray());
+            }
+        };
         try {
             InputStream inputStream = socket.getInputStream();
             byte[] buffer = new byte[1024];
@@ -163,10 +329,7 @@ public class NetworkServiceManager {
                     Log.i(TAG, "客户端主动断开");
                     break;
                 }
-                byte[] receivedData = Arrays.copyOfRange(buffer, 0, bytesRead);
-                if (serverCallback != null) {
-                    serverCallback.receiveMsgFromClient(receivedData);
-                }
+                decoder.feed(buffer, 0, bytesRead, listener);
             }
         } catch (IOException e) {
             // 当报错的 socket 等于当前最新的 socket 时，通知
@@ -179,6 +342,7 @@ public class NetworkServiceManager {
                 Log.w(TAG, e);
             }
         } finally {
+            Log.i(TAG, "接收统计: " + decoder);
             // 确保线程结束时资源被释放
             try {
                 if (socket != null && !socket.isClosed()) socket.close();
@@ -188,23 +352,64 @@ public class NetworkServiceManager {
         }
     }
 
-    // 优化：发送线程逻辑：从队列取数据 -> 写入 Socket
+    // 优化：发送线程逻辑：先发控制数据，再发最新一帧实时数据 -> 写入 Socket
     private void startSendThread() {
         sendThread = new Thread(() -> {
             while (isRunning.get()) {
                 try {
-                    // 阻塞等待数据，最多等待 1 秒检查一次 isRunning 状态
-                    byte[] data = sendQueue.poll(1, TimeUnit.SECONDS);
-                    if (data == null) continue; // 没数据，继续循环
+                    byte[] data;
+                    int length;
+                    boolean isControl;
+                    synchronized (sendLock) {
+                        // 阻塞等待数据，最多等待 1 秒检查一次 isRunning 状态
+                        if (controlQueue.isEmpty() && !hasPendingTelemetry) {
+                            sendLock.wait(1000);
+                        }
+                        PendingFrame control = controlQueue.poll();
+                        long now = SystemClock.elapsedRealtime();
+                        if (control != null) {
+                            data = control.data;
+                            length = data.length;
+                            sendStats.controlQueueDepth = controlQueue.size();
+                            sendStats.controlMaxAgeMs = Math.max(sendStats.controlMaxAgeMs, now - control.enqueuedAt);
+                            isControl = true;
+                        } else if (hasPendingTelemetry) {
+                            // 交换两个缓冲区，写Socket时不持有锁，新的一帧写入另一个缓冲区
+                            data = pendingTelemetry;
+                            pendingTelemetry = writingTelemetry;
+                            writingTelemetry = data;
+                            length = pendingTelemetryLength;
+                            hasPendingTelemetry = false;
+                            sendStats.telemetryLastAgeMs = now - pendingTelemetryAt;
+                            sendStats.telemetryMaxAgeMs = Math.max(sendStats.telemetryMaxAgeMs, sendStats.telemetryLastAgeMs);
+                            isControl = false;
+                        } else {
+                            continue; // 没数据，继续循环
+                        }
+                    }
 
                     Socket socket = clientSocket;
                     if (socket != null && !socket.isClosed() && socket.isConnected()) {
                         OutputStream out = socket.getOutputStream();
-                        out.write(data);
+                        out.write(data, 0, length);
                         out.flush(); // 必须 flush 确保数据立即发出
+                        synchronized (sendLock) {
+                            if (isControl) {
+                                sendStats.controlSent++;
+                            } else {
+                                sendStats.telemetrySent++;
+                            }
+                        }
                     } else {
                         // 如果 Socket 断了，清空队列防止数据堆积
-                        sendQueue.clear();
+                        synchronized (sendLock) {
+                            if (isControl) {
+                                sendStats.controlDropped++;
+                            } else {
+                                sendStats.telemetryDropped++;
+                            }
+                        }
+                        clearPendingFrames();
                     }
                 }catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -222,34 +427,116 @@ public class NetworkServiceManager {
         sendThread.start();
     }
 
+    /**
+     * 发送控制数据（初始化、亮度、主题、模式等），按顺序发送，优先于实时数据
+     */
     public void sendData(byte[] data, SendCallback callback) {
-        try {
-            // 如果服务已停止，直接报错
-            if (!isRunning.get()) {
-                callback.onError(new IllegalStateException("Server stopped"));
-                return;
+        // 如果服务已停止，直接报错
+        if (!isRunning.get()) {
+            callback.onError(new IllegalStateException("Server stopped"));
+            return;
+        }
+        boolean success;
+        if (nioActive) {
+            // 非阻塞模式服务失效时没有线程取数据，不能算发送成功
+            NioLinkServer server = nioServer;
+            success = server != null && server.offerControl(data);
+        } else {
+            success = offerControl(data);
+        }
+        if (!success){
+            //只有在非常极端的情况下（USB 拔出未检测到或带宽占满）才会走到这里
+            String msg = "控制数据队列已满或服务已失效，数据被丢弃";
+            Log.w(TAG, msg);
+            callback.onError(new Exception(msg));
+        }else {
+            callback.onSuccess();//成功进入缓冲区
+        }
+    }
+
+    private boolean offerControl(byte[] data) {
+        synchronized (sendLock) {
+            if (controlQueue.size() >= CONTROL_QUEUE_CAPACITY) {
+                sendStats.controlDropped++;
+                return false;
             }
-            // 如果队列已满（说明发送线程阻塞或太慢），offer 会立即返回 false
-            // 对于 35ms 实时数据，丢弃旧数据通常比造成延迟要好。
-            // 这里使用 offer 尝试放入，放不进去就丢弃（或者记录日志）
-            boolean success = sendQueue.offer(data);
-            if (!success){
-                //只有在非常极端的情况下（USB 拔出未检测到或带宽占满）才会走到这里
-                String msg = "发送队列已满，数据被丢弃";
-                Log.w(TAG, msg);
-                callback.onError(new Exception(msg));
-            }else {
-                callback.onSuccess();//成功进入缓冲区
+            controlQueue.offer(new PendingFrame(data, SystemClock.elapsedRealtime()));
+            sendStats.controlQueueDepth = controlQueue.size();
+            sendLock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * 发送实时数据，只保留最新一帧，上一帧还没发出时直接覆盖
+     * 数据会被复制，调用方可以马上复用 data
+     * @return 服务未启动或已失效时返回false
+     */
+    public boolean sendTelemetry(byte[] data, int length) {
+        if (!isRunning.get()) {
+            return false;
+        }
+        if (telemetryPaused) {
+            return true;
+        }
+        if (nioActive) {
+            NioLinkServer server = nioServer;
+            return server != null && server.offerTelemetry(data, length);
+        }
+        synchronized (sendLock) {
+            if (hasPendingTelemetry) {
+                sendStats.telemetryReplaced++;
+            }
+            if (pendingTelemetry.length < length) {
+                pendingTelemetry = new byte[length];
             }
+            System.arraycopy(data, 0, pendingTelemetry, 0, length);
+            pendingTelemetryLength = length;
+            pendingTelemetryAt = SystemClock.elapsedRealtime();
+            hasPendingTelemetry = true;
+            sendLock.notifyAll();
+        }
+        return true;
+    }
 
-        }catch (Exception e){
-            Log.e(TAG, "发送任务被拒绝 (服务已关闭): " + e.getMessage());
-            callback.onError(new IOException("Service is shutting down"));
+    /**
+     * 暂停或恢复实时数据发送，暂停期间 sendTelemetry 直接丢弃数据
+     */
+    public void setTelemetryPaused(boolean paused) {
+        Log.i(TAG, "实时数据发送" + (paused ? "暂停" : "恢复"));
+        telemetryPaused = paused;
+    }
+
+    /**
+     * 发送统计快照
+     */
+    public SendStats getSendStats() {
+        NioLinkServer server = nioServer;
+        if (server != null) {
+            SendStats stats = new SendStats();
+            server.collectStats(stats);
+            return stats;
+        }
+        synchronized (sendLock) {
+            return sendStats.copy();
+        }
+    }
+
+    private void clearPendingFrames() {
+        synchronized (sendLock) {
+            sendStats.controlDropped += controlQueue.size();
+            controlQueue.clear();
+            sendStats.controlQueueDepth = 0;
+            if (hasPendingTelemetry) {
+                sendStats.telemetryDropped++;
+                hasPendingTelemetry = false;
+            }
         }
     }
 
     private void scheduleReconnect() {
-        Log.d(TAG, "1500ms后尝试重连...");
+        long delay = reconnectBackoff.next();
+        Log.d(TAG, delay + "ms后尝试重连...");
         // 移除可能存在的旧任务，防止多次叠加
         reconnectHandler.removeCallbacksAndMessages(null);
         // 延时执行重启，不阻塞当前线程，也不依赖当前 Executor
@@ -257,7 +544,7 @@ public class NetworkServiceManager {
             if (isReconnect.get()) {
                 startServer();
             }
-        }, 1500);
+        }, delay);
     }
 
     public void stopServer() {
@@ -278,6 +565,14 @@ public class NetworkServiceManager {
             disconnectOldSocket();
             clientSocket = null;
 
+            // 非阻塞模式只有一个IO线程，停止后由它关闭所有连接；统计在停止前取出
+            SendStats finalStats = null;
+            if (nioServer != null) {
+                finalStats = getSendStats();
+                nioServer.stop();
+                nioServer = null;
+            }
+
 
             // 2. 中断发送线程
             if (sendThread != null) {
@@ -285,7 +580,8 @@ public class NetworkServiceManager {
                 sendThread = null;
                 Log.i(TAG, "SendThread 已中断");
             }
-            sendQueue.clear();
+            clearPendingFrames();
+            Log.i(TAG, "发送统计: " + (finalStats != null ? finalStats : getSendStats()));
 
             // 3. 关闭接收线程池
             if (mainExecutor != null && !mainExecutor.isShutdown()) {
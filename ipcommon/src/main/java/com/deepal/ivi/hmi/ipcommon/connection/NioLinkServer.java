@@ -0,0 +1,543 @@
+package com.deepal.ivi.hmi.ipcommon.connection;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.deepal.ivi.hmi.ipcommon.util.MeterFrameDecoder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 非阻塞仪表连接服务
+ *
+ * 一个IO线程通过 Selector 完成监听、接收和发送，支持多个客户端同时连接（例如仪表加一个诊断抓包端）。
+ * 每个客户端有自己的发送状态：
+ * - 控制数据按顺序排队，广播给所有客户端
+ * - 实时数据只发最新一帧，某个客户端写不动时只会跳过旧帧，不影响其他客户端
+ *
+ * 发送接口可在任意线程调用，数据先放入收件箱再唤醒IO线程。
+ * 回调在单独的回调线程中按顺序执行，回调里的耗时操作不会卡住收发。
+ * 没有仪表连接时接入的客户端视为仪表，其余都是诊断抓包端，只有仪表的接入和断开算作连接状态变化。
+ * 旧的仪表连接可能半开（USB重新枚举、拔线没有FIN），仪表地址再次接入或旧连接长时间没有数据时，
+ * 关闭旧连接，新连接作为仪表。抓包端发来的数据只记录不回调，不能驱动升级和按键处理。
+ */
+final class NioLinkServer {
+    private static final String TAG = "NioLinkServer";
+    // 仪表一个，诊断抓包等最多再接三个
+    static final int MAX_CLIENTS = 4;
+    private static final int CONTROL_QUEUE_CAPACITY = 32;
+    private static final int READ_BUFFER_SIZE = 1024;
+    // 停止时等待IO线程退出的最长时间
+    private static final long STOP_JOIN_TIMEOUT_MS = 2000;
+    // 仪表会定时发心跳，超过这个时间没有收到任何数据就认为旧的仪表连接已经失效
+    private static final long CLUSTER_STALE_MS = 10000;
+
+    interface Listener {
+        /** 开始监听 */
+        void onServerStarted();
+
+        /** @param cluster 是否是仪表连接，false 表示诊断抓包端 */
+        void onClientConnected(String address, boolean cluster, int clientCount);
+
+        void onClientDisconnected(String address, boolean cluster, int clientCount, String reason);
+
+        /** 收到仪表发来的一个完整数据包，抓包端的数据不回调 */
+        void onFrame(byte[] frame);
+
+        /** 监听失败或选择器异常，IO线程已退出，所有连接已关闭 */
+        void onServerError(IOException e);
+    }
+
+    private final String serverIp;
+    private final int serverPort;
+    private final Listener listener;
+    // inboxLock 内改为false，之后收件箱不再接收数据
+    private volatile boolean running;
+    private Selector selector;
+    private Thread ioThread;
+    // 回调线程，保证回调顺序且不占用IO线程
+    private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "Cluster-NIO-Callback"));
+
+    // 收件箱，inboxLock 保护
+    private final Object inboxLock = new Object();
+    private final ArrayDeque<byte[]> controlInbox = new ArrayDeque<>();
+    private byte[] pendingTelemetry = new byte[64];
+    private int pendingTelemetryLength;
+    private boolean hasPendingTelemetry;
+    private long pendingTelemetryAt;
+    private long inboxDropped;
+
+    // 以下只在IO线程使用
+    private final List<ClientSession> clients = new ArrayList<>();
+    // 当前的仪表连接，没有时为null
+    private ClientSession clusterSession;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private byte[] latestTelemetry = new byte[64];
+    private int latestTelemetryLength;
+    private long latestTelemetrySeq;
+
+    // 统计，只有IO线程写（inboxDropped、telemetryReplaced 在 inboxLock 内写）
+    private volatile long controlSent;
+    private volatile long controlDropped;
+    private volatile long controlMaxAgeMs;
+    private volatile long telemetrySent;
+    private volatile long telemetryReplaced;
+    private volatile long telemetryDropped;
+    private volatile long telemetryLastAgeMs;
+    private volatile long telemetryMaxAgeMs;
+    private volatile int clientCount;
+
+    NioLinkServer(String serverIp, int serverPort, Listener listener) {
+        this.serverIp = serverIp;
+        this.serverPort = serverPort;
+        this.listener = listener;
+    }
+
+    /**
+     * 打开选择器并启动IO线程，端口绑定在IO线程中完成，失败时回调 onServerError
+     */
+    void start() throws IOException {
+        selector = Selector.open();
+        running = true;
+        ioThread = new Thread(this::runLoop, "Cluster-NIO-Thread");
+        ioThread.start();
+    }
+
+    /**
+     * 停止服务并等待IO线程退出，IO线程退出前关闭所有连接，不再回调断开
+     */
+    void stop() {
+        running = false;
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+        Thread thread = ioThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(STOP_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                Log.w(TAG, "IO线程未在" + STOP_JOIN_TIMEOUT_MS + "ms内退出");
+            }
+        }
+        // 已经排队的回调执行完后回调线程退出
+        callbackExecutor.shutdown();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * 放入一帧控制数据，IO线程取出后发给所有客户端
+     * @return 服务已停止或收件箱已满时返回false
+     */
+    boolean offerControl(byte[] data) {
+        synchronized (inboxLock) {
+            if (!running) {
+                return false;
+            }
+            if (controlInbox.size() >= CONTROL_QUEUE_CAPACITY) {
+                inboxDropped++;
+                return false;
+            }
+            controlInbox.offer(data);
+        }
+        selector.wakeup();
+        return true;
+    }
+
+    /**
+     * 放入一帧实时数据，数据会被复制，IO线程还没取走的旧帧直接覆盖
+     * @return 服务已停止时返回false
+     */
+    boolean offerTelemetry(byte[] data, int length) {
+        synchronized (inboxLock) {
+            if (!running) {
+                return false;
+            }
+            if (hasPendingTelemetry) {
+                telemetryReplaced++;
+            }
+            if (pendingTelemetry.length < length) {
+                pendingTelemetry = new byte[length];
+            }
+            System.arraycopy(data, 0, pendingTelemetry, 0, length);
+            pendingTelemetryLength = length;
+            pendingTelemetryAt = SystemClock.elapsedRealtime();
+            hasPendingTelemetry = true;
+        }
+        selector.wakeup();
+        return true;
+    }
+
+    /**
+     * 把统计写入 stats，多个客户端的数据合计
+     */
+    void collectStats(NetworkServiceManager.SendStats stats) {
+        int depth;
+        long dropped;
+        synchronized (inboxLock) {
+            depth = controlInbox.size();
+            dropped = inboxDropped;
+            stats.telemetryReplaced = telemetryReplaced;
+        }
+        stats.controlSent = controlSent;
+        stats.controlDropped = controlDropped + dropped;
+        stats.controlQueueDepth = depth;
+        stats.controlMaxAgeMs = controlMaxAgeMs;
+        stats.telemetrySent = telemetrySent;
+        stats.telemetryDropped = telemetryDropped;
+        stats.telemetryLastAgeMs = telemetryLastAgeMs;
+        stats.telemetryMaxAgeMs = telemetryMaxAgeMs;
+    }
+
+    private void runLoop() {
+        ServerSocketChannel serverChannel = null;
+        IOException error = null;
+        boolean wasRunning;
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName(serverIp), serverPort), 50);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            Log.i(TAG, "服务器启动(NIO)，监听端口: " + serverPort);
+            dispatch(listener::onServerStarted);
+
+            while (running) {
+                selector.select(1000);
+                if (!running) {
+                    break;
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(serverChannel);
+                    } else {
+                        ClientSession client = (ClientSession) key.attachment();
+                        if (key.isReadable()) {
+                            read(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(client);
+                        }
+                    }
+                }
+                drainInbox();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "仪表车机服务报错(NIO) Server Error", e);
+            error = e;
+        } finally {
+            // 先停止收件箱，之后的发送直接返回失败，不会留在没人取的收件箱里
+            synchronized (inboxLock) {
+                wasRunning = running;
+                running = false;
+                inboxDropped += controlInbox.size();
+                controlInbox.clear();
+                hasPendingTelemetry = false;
+            }
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                closeQuietly(clients.get(i));
+            }
+            clients.clear();
+            clusterSession = null;
+            clientCount = 0;
+            try {
+                if (serverChannel != null) serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                Log.w(TAG, "关闭选择器异常", e);
+            }
+            Log.d(TAG, "IO线程退出 NIO thread stopped");
+        }
+        if (error != null && wasRunning) {
+            IOException serverError = error;
+            dispatch(() -> listener.onServerError(serverError));
+            callbackExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 把回调交给回调线程，停止后丢弃
+     */
+    private void dispatch(Runnable callback) {
+        try {
+            callbackExecutor.execute(callback);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "服务已停止，丢弃回调");
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        String address = String.valueOf(channel.socket().getInetAddress());
+        ClientSession oldCluster = clusterSession;
+        if (oldCluster != null && (address.equals(oldCluster.address)
+                || SystemClock.elapsedRealtime() - oldCluster.lastReadAt > CLUSTER_STALE_MS)) {
+            // 旧的仪表连接已经半开，先关闭，新连接作为仪表，实时数据不再发给失效的连接
+            Log.w(TAG, "仪表重新接入: " + address + "，关闭旧连接: " + oldCluster.address);
+            disconnect(oldCluster, "仪表重新接入");
+        }
+        if (clients.size() >= MAX_CLIENTS) {
+            Log.w(TAG, "连接数已满，拒绝客户端: " + address);
+            channel.close();
+            return;
+        }
+        // 没有仪表连接时接入的视为仪表
+        ClientSession client = new ClientSession(channel, address, clusterSession == null);
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setKeepAlive(true);
+            // 小包高频发送，禁用 Nagle 算法
+            channel.socket().setTcpNoDelay(true);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            // 新客户端从当前最新的实时数据开始
+            client.telemetrySeq = latestTelemetrySeq;
+            clients.add(client);
+            if (client.cluster) {
+                clusterSession = client;
+            }
+            clientCount = clients.size();
+        } catch (IOException e) {
+            Log.w(TAG, "客户端接入失败: " + address, e);
+            channel.close();
+            return;
+        }
+        int count = clients.size();
+        Log.i(TAG, (client.cluster ? "仪表:" : "抓包端:") + address + " 接入，当前连接数: " + count);
+        dispatch(() -> listener.onClientConnected(address, client.cluster, count));
+    }
+
+    private void read(ClientSession client) {
+        int bytesRead;
+        try {
+            readBuffer.clear();
+            bytesRead = client.channel.read(readBuffer);
+        } catch (IOException e) {
+            disconnect(client, e.getMessage());
+            return;
+        }
+        if (bytesRead == -1) {
+            Log.i(TAG, "客户端主动断开: " + client.address);
+            disconnect(client, "客户端主动断开");
+            return;
+        }
+        client.lastReadAt = SystemClock.elapsedRealtime();
+        client.decoder.feed(readBuffer.array(), 0, bytesRead, client);
+    }
+
+    /**
+     * 取出收件箱里的数据分给每个客户端，再尽量写出
+     */
+    private void drainInbox() {
+        byte[] control;
+        List<byte[]> controls = null;
+        synchronized (inboxLock) {
+            while ((control = controlInbox.poll()) != null) {
+                if (controls == null) {
+                    controls = new ArrayList<>(controlInbox.size() + 1);
+                }
+                controls.add(control);
+            }
+            if (hasPendingTelemetry) {
+                if (latestTelemetry.length < pendingTelemetryLength) {
+                    latestTelemetry = new byte[pendingTelemetryLength];
+                }
+                System.arraycopy(pendingTelemetry, 0, latestTelemetry, 0, pendingTelemetryLength);
+                latestTelemetryLength = pendingTelemetryLength;
+                latestTelemetrySeq++;
+                hasPendingTelemetry = false;
+                telemetryLastAgeMs = SystemClock.elapsedRealtime() - pendingTelemetryAt;
+                telemetryMaxAgeMs = Math.max(telemetryMaxAgeMs, telemetryLastAgeMs);
+                if (clients.isEmpty()) {
+                    telemetryDropped++;
+                }
+            }
+        }
+        if (controls != null) {
+            long now = SystemClock.elapsedRealtime();
+            if (clients.isEmpty()) {
+                controlDropped += controls.size();
+            }
+            for (ClientSession client : clients) {
+                for (byte[] data : controls) {
+                    if (client.controlQueue.size() >= CONTROL_QUEUE_CAPACITY) {
+                        // 只有这个客户端写不动，丢弃它的数据，其他客户端照常发送
+                        controlDropped++;
+                        Log.w(TAG, "客户端控制数据队列已满，数据被丢弃: " + client.address);
+                        continue;
+                    }
+                    client.controlQueue.offer(new PendingWrite(ByteBuffer.wrap(data), now));
+                }
+            }
+        }
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            flush(clients.get(i));
+        }
+    }
+
+    /**
+     * 按 控制数据 -> 最新实时数据 的顺序写出，写不完时关注 OP_WRITE 等下次可写
+     */
+    private void flush(ClientSession client) {
+        try {
+            while (true) {
+                if (client.writing == null && !nextWrite(client)) {
+                    break;
+                }
+                client.channel.write(client.writing);
+                if (client.writing.hasRemaining()) {
+                    client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (client.writingControl) {
+                    controlSent++;
+                } else {
+                    telemetrySent++;
+                }
+                client.writing = null;
+            }
+            client.key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            Log.e(TAG, "Send Error: " + e.getMessage());
+            disconnect(client, e.getMessage());
+        }
+    }
+
+    private boolean nextWrite(ClientSession client) {
+        PendingWrite control = client.controlQueue.poll();
+        if (control != null) {
+            controlMaxAgeMs = Math.max(controlMaxAgeMs, SystemClock.elapsedRealtime() - control.enqueuedAt);
+            client.writing = control.buffer;
+            client.writingControl = true;
+            return true;
+        }
+        if (client.telemetrySeq != latestTelemetrySeq) {
+            // 复制到客户端自己的缓冲区，写到一半时新的实时数据不会改掉正在发送的内容
+            if (client.telemetryOut.capacity() < latestTelemetryLength) {
+                client.telemetryOut = ByteBuffer.allocate(latestTelemetryLength);
+            }
+            client.telemetryOut.clear();
+            client.telemetryOut.put(latestTelemetry, 0, latestTelemetryLength);
+            client.telemetryOut.flip();
+            client.telemetrySeq = latestTelemetrySeq;
+            client.writing = client.telemetryOut;
+            client.writingControl = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void disconnect(ClientSession client, String reason) {
+        if (!clients.remove(client)) {
+            return;
+        }
+        closeQuietly(client);
+        if (client == clusterSession) {
+            clusterSession = null;
+        }
+        clientCount = clients.size();
+        int count = clients.size();
+        Log.i(TAG, (client.cluster ? "仪表:" : "抓包端:") + client.address + " 断开，当前连接数: " + count
+                + "，接收统计: " + client.decoder + (client.cluster ? "" : "，忽略 " + client.ignoredFrames + " 包"));
+        dispatch(() -> listener.onClientDisconnected(client.address, client.cluster, count, reason));
+    }
+
+    private void closeQuietly(ClientSession client) {
+        controlDropped += client.controlQueue.size() + (client.writing != null && client.writingControl ? 1 : 0);
+        client.controlQueue.clear();
+        client.writing = null;
+        if (client.key != null) {
+            client.key.cancel();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "关闭连接异常", e);
+        }
+    }
+
+    private static final class PendingWrite {
+        final ByteBuffer buffer;
+        final long enqueuedAt;
+
+        PendingWrite(ByteBuffer buffer, long enqueuedAt) {
+            this.buffer = buffer;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * 单个客户端的接收和发送状态，只在IO线程使用
+     */
+    private final class ClientSession implements MeterFrameDecoder.Listener {
+        final SocketChannel channel;
+        final String address;
+        // 是否是仪表连接
+        final boolean cluster;
+        final MeterFrameDecoder decoder = new MeterFrameDecoder();
+        final ArrayDeque<PendingWrite> controlQueue = new ArrayDeque<>();
+        SelectionKey key;
+        ByteBuffer telemetryOut = ByteBuffer.allocate(64);
+        // 已经发给这个客户端的实时数据序号
+        long telemetrySeq;
+        // 正在写的数据，可能只写了一部分
+        ByteBuffer writing;
+        boolean writingControl;
+        // 最近一次收到数据的时间，用于判断仪表连接是否半开
+        long lastReadAt = SystemClock.elapsedRealtime();
+        // 抓包端发来、没有回调的数据包数
+        long ignoredFrames;
+
+        ClientSession(SocketChannel channel, String address, boolean cluster) {
+            this.channel = channel;
+            this.address = address;
+            this.cluster = cluster;
+        }
+
+        @Override
+        public void onFrame(MeterFrameDecoder.MeterFrame frame) {
+            if (!cluster) {
+                // 抓包端的数据不当作仪表数据处理
+                if (ignoredFrames++ == 0) {
+                    Log.w(TAG, "忽略抓包端发来的数据: " + address);
+                }
+                return;
+            }
+            byte[] data = frame.toByteArray();
+            dispatch(() -> listener.onFrame(data));
+        }
+    }
+}
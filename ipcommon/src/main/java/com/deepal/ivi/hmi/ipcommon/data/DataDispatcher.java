@@ -0,0 +1,78 @@
+package com.deepal.ivi.hmi.ipcommon.data;
+
+import com.deepal.ivi.hmi.ipcommon.iInterface.DataCallBack;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 车辆数据分发
+ *
+ * 订阅者按 {@link DispatchData} 的类型订阅，只收到订阅的类型。
+ * 每次事件只创建一个 DispatchData 分发给所有订阅者，数据对象不变时直接复用上一次的实例，
+ * 高频的仪表数据事件不再产生新对象。
+ */
+public final class DataDispatcher {
+
+    private static final class Subscription {
+        final DataCallBack callBack;
+        final int types;
+
+        Subscription(DataCallBack callBack, int types) {
+            this.callBack = callBack;
+            this.types = types;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // 每种类型最近一次的事件，按类型的位序号索引。多线程下最多多创建一个实例
+    private final DispatchData[] lastEvents = new DispatchData[Integer.SIZE];
+
+    /**
+     * 订阅，已订阅时更新订阅的类型
+     * @param types DispatchData.TYPE_* 的组合
+     */
+    public void subscribe(DataCallBack callBack, int types) {
+        unsubscribe(callBack);
+        subscriptions.add(new Subscription(callBack, types));
+    }
+
+    public void unsubscribe(DataCallBack callBack) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.callBack == callBack) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    public boolean hasSubscriber(int type) {
+        for (Subscription subscription : subscriptions) {
+            if ((subscription.types & type) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 分发事件
+     * @param type 单个 DispatchData.TYPE_*
+     */
+    public void dispatch(int type, Object data) {
+        int index = Integer.numberOfTrailingZeros(type);
+        DispatchData event = lastEvents[index];
+        if (event == null || event.getData() != data) {
+            event = new DispatchData(data, type);
+            lastEvents[index] = event;
+        }
+        dispatch(event);
+    }
+
+    public void dispatch(DispatchData event) {
+        int type = event.getType();
+        for (Subscription subscription : subscriptions) {
+            if ((subscription.types & type) != 0) {
+                subscription.callBack.onDataChange(event);
+            }
+        }
+    }
+}
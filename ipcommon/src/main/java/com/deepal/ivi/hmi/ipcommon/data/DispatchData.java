@@ -2,26 +2,79 @@ package com.deepal.ivi.hmi.ipcommon.data;
 
 import androidx.annotation.NonNull;
 
+/**
+ * 车辆数据事件，创建后不可修改，同一个实例分发给所有订阅者
+ * 类型是位标志，订阅时可以组合，分发时按整数比较
+ */
 public class DispatchData {
-    private Object data;
-    private String srcDataType;
+    /** 仪表数据，data 为 MetaDataBean */
+    public static final int TYPE_METER_DATA = 1;
+    /** 显示模式，data 为 MetaDataBean */
+    public static final int TYPE_APPEAR_MODE = 1 << 1;
+    /** 亮度，data 为 MetaDataBean 或亮度等级 Integer */
+    public static final int TYPE_LIGHT = 1 << 2;
+    public static final int TYPE_ALL = TYPE_METER_DATA | TYPE_APPEAR_MODE | TYPE_LIGHT;
 
-    public DispatchData(Object data, String dataType) {
+    private final Object data;
+    private final int type;
+
+    public DispatchData(Object data, int type) {
         this.data = data;
-        this.srcDataType = dataType;
+        this.type = type;
+    }
+
+    /**
+     * @deprecated 使用 {@link #DispatchData(Object, int)}
+     */
+    @Deprecated
+    public DispatchData(Object data, String dataType) {
+        this(data, typeOf(dataType));
     }
 
     public <T> T getData(){
         return (T)data;
     }
 
+    public int getType() {
+        return type;
+    }
+
     public String getDataType(){
-        return srcDataType;
+        return typeName(type);
+    }
+
+    public static int typeOf(String dataType) {
+        if (dataType == null) {
+            return 0;
+        }
+        switch (dataType) {
+            case "MeterData":
+                return TYPE_METER_DATA;
+            case "apperMode":
+                return TYPE_APPEAR_MODE;
+            case "light":
+                return TYPE_LIGHT;
+            default:
+                return 0;
+        }
+    }
+
+    public static String typeName(int type) {
+        switch (type) {
+            case TYPE_METER_DATA:
+                return "MeterData";
+            case TYPE_APPEAR_MODE:
+                return "apperMode";
+            case TYPE_LIGHT:
+                return "light";
+            default:
+                return "unknown";
+        }
     }
 
     @NonNull
     @Override
     public String toString() {
-        return "data=" + data + ", srcDataType=" + srcDataType;
+        return "data=" + data + ", srcDataType=" + typeName(type);
     }
 }
@@ -1,6 +1,60 @@
 package com.deepal.ivi.hmi.ipcommon.data.bean;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 车辆数据，车机信号回调线程写入，仪表发送线程读取
+ *
+ * 写入按顺序锁（StampedLock）发布，每次值变化版本号加一；
+ * setter 先在锁外比较一次，值相同直接返回，避免重复信号打断读者；拿到写锁后再比较一次，
+ * 多个线程同时写同一字段时以锁内结果为准，值未变不会升版本号；
+ * 发送线程用 {@link #readSnapshot} 无锁读出一份一致的快照，不会出现车速和挡位来自不同时刻的情况。
+ */
 public class MetaDataBean {
+    // 字段标记，每个字段一位，用于比较快照变化的字段
+    public static final int FIELD_CAR_TYPE = 1 << 0;
+    public static final int FIELD_LIGHT = 1 << 1;
+    public static final int FIELD_THEME = 1 << 2;
+    public static final int FIELD_MODE = 1 << 3;
+    public static final int FIELD_LANGUAGE = 1 << 4;
+    public static final int FIELD_UNIT = 1 << 5;
+    public static final int FIELD_HOUR = 1 << 6;
+    public static final int FIELD_MINUTE = 1 << 7;
+    public static final int FIELD_VCU_RDY_STS = 1 << 8;
+    public static final int FIELD_TEMPERATURE = 1 << 9;
+    public static final int FIELD_DRIVER_MODE = 1 << 10;
+    public static final int FIELD_ENERGER_MAG_MODE = 1 << 11;
+    public static final int FIELD_DIS = 1 << 12;
+    public static final int FIELD_SPEED = 1 << 13;
+    public static final int FIELD_EV_MILEAGE = 1 << 14;
+    public static final int FIELD_POWER_BAR_RATIO = 1 << 15;
+    public static final int FIELD_OIL_MILEAGE = 1 << 16;
+    public static final int FIELD_OIL_PERCENT = 1 << 17;
+    public static final int FIELD_VEHICLE_GEAR = 1 << 18;
+    public static final int FIELD_POWER_MODE = 1 << 19;
+    public static final int FIELD_LEFT_LIGHT_STATUS = 1 << 20;
+    public static final int FIELD_RIGHT_LIGHT_STATUS = 1 << 21;
+    public static final int FIELD_VEHICLE_DRIVE_STATUS = 1 << 22;
+    public static final int FIELD_ENERGY_OPTION = 1 << 23;
+    public static final int FIELD_LEFT_FRONT_TIRE_PRESSURE = 1 << 24;
+    public static final int FIELD_RIGHT_FRONT_TIRE_PRESSURE = 1 << 25;
+    public static final int FIELD_RIGHT_REAR_TIRE_PRESSURE = 1 << 26;
+    public static final int FIELD_LEFT_REAR_TIRE_PRESSURE = 1 << 27;
+    public static final int ALL_FIELDS = (1 << 28) - 1;
+    // 更新数据包用到的字段，时分取自系统时间不在其中
+    public static final int UPDATE_FRAME_FIELDS = FIELD_CAR_TYPE | FIELD_LANGUAGE | FIELD_UNIT
+            | FIELD_VCU_RDY_STS | FIELD_TEMPERATURE | FIELD_DRIVER_MODE | FIELD_ENERGER_MAG_MODE | FIELD_ENERGY_OPTION
+            | FIELD_SPEED | FIELD_EV_MILEAGE | FIELD_POWER_BAR_RATIO | FIELD_OIL_MILEAGE | FIELD_OIL_PERCENT
+            | FIELD_VEHICLE_GEAR | FIELD_LEFT_LIGHT_STATUS | FIELD_RIGHT_LIGHT_STATUS;
+
+    // 所有对象共用的版本号来源，对象被替换后版本号也不会重复
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    // 读取快照时乐观读的重试次数，超过后加读锁
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+    private final StampedLock seqLock = new StampedLock();
+    private volatile long version = VERSIONS.incrementAndGet();
+
     // 动力类型
     private int carType;
 
@@ -129,11 +183,21 @@ public class MetaDataBean {
     }
 
     public void setVcuRdySts(int vcuRdySts) {
-        this.vcuRdySts = vcuRdySts;
+        if (this.vcuRdySts != vcuRdySts) {
+            long stamp = beginWrite();
+            boolean changed = this.vcuRdySts != vcuRdySts;
+            this.vcuRdySts = vcuRdySts;
+            endWrite(stamp, changed);
+        }
     }
 
     public void setCarType(int carType) {
-        this.carType = carType;
+        if (this.carType != carType) {
+            long stamp = beginWrite();
+            boolean changed = this.carType != carType;
+            this.carType = carType;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getLanguage() {
@@ -141,7 +205,12 @@ public class MetaDataBean {
     }
 
     public void setLanguage(int language) {
-        this.language = language;
+        if (this.language != language) {
+            long stamp = beginWrite();
+            boolean changed = this.language != language;
+            this.language = language;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getUnit() {
@@ -149,7 +218,12 @@ public class MetaDataBean {
     }
 
     public void setUnit(int unit) {
-        this.unit = unit;
+        if (this.unit != unit) {
+            long stamp = beginWrite();
+            boolean changed = this.unit != unit;
+            this.unit = unit;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getLight() {
@@ -161,7 +235,12 @@ public class MetaDataBean {
     }
 
     public void setTemperature(int temperature) {
-        this.temperature = temperature;
+        if (this.temperature != temperature) {
+            long stamp = beginWrite();
+            boolean changed = this.temperature != temperature;
+            this.temperature = temperature;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getDis() {
@@ -169,7 +248,12 @@ public class MetaDataBean {
     }
 
     public void setDis(int dis) {
-        this.dis = dis;
+        if (this.dis != dis) {
+            long stamp = beginWrite();
+            boolean changed = this.dis != dis;
+            this.dis = dis;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getMinute() {
@@ -177,7 +261,12 @@ public class MetaDataBean {
     }
 
     public void setMinute(int minute) {
-        this.minute = minute;
+        if (this.minute != minute) {
+            long stamp = beginWrite();
+            boolean changed = this.minute != minute;
+            this.minute = minute;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getHour() {
@@ -185,11 +274,21 @@ public class MetaDataBean {
     }
 
     public void setHour(int hour) {
-        this.hour = hour;
+        if (this.hour != hour) {
+            long stamp = beginWrite();
+            boolean changed = this.hour != hour;
+            this.hour = hour;
+            endWrite(stamp, changed);
+        }
     }
 
     public void setLight(int light) {
-        this.light = light;
+        if (this.light != light) {
+            long stamp = beginWrite();
+            boolean changed = this.light != light;
+            this.light = light;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getTheme() {
@@ -197,7 +296,12 @@ public class MetaDataBean {
     }
 
     public void setTheme(int theme) {
-        this.theme = theme;
+        if (this.theme != theme) {
+            long stamp = beginWrite();
+            boolean changed = this.theme != theme;
+            this.theme = theme;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getMode() {
@@ -205,7 +309,12 @@ public class MetaDataBean {
     }
 
     public void setMode(int mode) {
-        this.mode = mode;
+        if (this.mode != mode) {
+            long stamp = beginWrite();
+            boolean changed = this.mode != mode;
+            this.mode = mode;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getPowerMode() {
@@ -213,7 +322,12 @@ public class MetaDataBean {
     }
 
     public void setPowerMode(int powerMode) {
-        this.powerMode = powerMode;
+        if (this.powerMode != powerMode) {
+            long stamp = beginWrite();
+            boolean changed = this.powerMode != powerMode;
+            this.powerMode = powerMode;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getEnergerMagMode() {
@@ -221,7 +335,12 @@ public class MetaDataBean {
     }
 
     public void setEnergerMagMode(int energerMagMode) {
-        this.energerMagMode = energerMagMode;
+        if (this.energerMagMode != energerMagMode) {
+            long stamp = beginWrite();
+            boolean changed = this.energerMagMode != energerMagMode;
+            this.energerMagMode = energerMagMode;
+            endWrite(stamp, changed);
+        }
     }
 
     public float getEvMileage() {
@@ -229,7 +348,12 @@ public class MetaDataBean {
     }
 
     public void setEvMileage(float evMileage) {
-        this.evMileage = evMileage;
+        if (Float.compare(this.evMileage, evMileage) != 0) {
+            long stamp = beginWrite();
+            boolean changed = Float.compare(this.evMileage, evMileage) != 0;
+            this.evMileage = evMileage;
+            endWrite(stamp, changed);
+        }
     }
 
     public float getOilMileage() {
@@ -237,7 +361,12 @@ public class MetaDataBean {
     }
 
     public void setOilMileage(float oilMileage) {
-        this.oilMileage = oilMileage;
+        if (Float.compare(this.oilMileage, oilMileage) != 0) {
+            long stamp = beginWrite();
+            boolean changed = Float.compare(this.oilMileage, oilMileage) != 0;
+            this.oilMileage = oilMileage;
+            endWrite(stamp, changed);
+        }
     }
 
     public float getSpeed() {
@@ -245,7 +374,12 @@ public class MetaDataBean {
     }
 
     public void setSpeed(float speed) {
-        this.speed = speed;
+        if (Float.compare(this.speed, speed) != 0) {
+            long stamp = beginWrite();
+            boolean changed = Float.compare(this.speed, speed) != 0;
+            this.speed = speed;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getLeftLightStatus() {
@@ -253,7 +387,12 @@ public class MetaDataBean {
     }
 
     public void setLeftLightStatus(int leftLightStatus) {
-        this.leftLightStatus = leftLightStatus;
+        if (this.leftLightStatus != leftLightStatus) {
+            long stamp = beginWrite();
+            boolean changed = this.leftLightStatus != leftLightStatus;
+            this.leftLightStatus = leftLightStatus;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getRightLightStatus() {
@@ -261,7 +400,12 @@ public class MetaDataBean {
     }
 
     public void setRightLightStatus(int rightLightStatus) {
-        this.rightLightStatus = rightLightStatus;
+        if (this.rightLightStatus != rightLightStatus) {
+            long stamp = beginWrite();
+            boolean changed = this.rightLightStatus != rightLightStatus;
+            this.rightLightStatus = rightLightStatus;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getVehicleDriveStatus() {
@@ -269,7 +413,12 @@ public class MetaDataBean {
     }
 
     public void setVehicleDriveStatus(int vehicleDriveStatus) {
-        this.vehicleDriveStatus = vehicleDriveStatus;
+        if (this.vehicleDriveStatus != vehicleDriveStatus) {
+            long stamp = beginWrite();
+            boolean changed = this.vehicleDriveStatus != vehicleDriveStatus;
+            this.vehicleDriveStatus = vehicleDriveStatus;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getVehicleGear() {
@@ -277,7 +426,12 @@ public class MetaDataBean {
     }
 
     public void setVehicleGear(int vehicleGear) {
-        this.vehicleGear = vehicleGear;
+        if (this.vehicleGear != vehicleGear) {
+            long stamp = beginWrite();
+            boolean changed = this.vehicleGear != vehicleGear;
+            this.vehicleGear = vehicleGear;
+            endWrite(stamp, changed);
+        }
     }
 
     public float getLeftFrontTirePressure() {
@@ -285,7 +439,12 @@ public class MetaDataBean {
     }
 
     public void setLeftFrontTirePressure(float leftFrontTirePressure) {
-        this.leftFrontTirePressure = leftFrontTirePressure;
+        if (Float.compare(this.leftFrontTirePressure, leftFrontTirePressure) != 0) {
+            long stamp = beginWrite();
+            boolean changed = Float.compare(this.leftFrontTirePressure, leftFrontTirePressure) != 0;
+            this.leftFrontTirePressure = leftFrontTirePressure;
+            endWrite(stamp, changed);
+        }
     }
 
     public float getRightFrontTirePressure() {
@@ -293,7 +452,12 @@ public class MetaDataBean {
     }
 
     public void setRightFrontTirePressure(float rightFrontTirePressure) {
-        this.rightFrontTirePressure = rightFrontTirePressure;
+        if (Float.compare(this.rightFrontTirePressure, rightFrontTirePressure) != 0) {
+            long stamp = beginWrite();
+            boolean changed = Float.compare(this.rightFrontTirePressure, rightFrontTirePressure) != 0;
+            this.rightFrontTirePressure = rightFrontTirePressure;
+            endWrite(stamp, changed);
+        }
     }
 
     public float getRightRearTirePressure() {
@@ -301,7 +465,12 @@ public class MetaDataBean {
     }
 
     public void setRightRearTirePressure(float rightRearTirePressure) {
-        this.rightRearTirePressure = rightRearTirePressure;
+        if (Float.compare(this.rightRearTirePressure, rightRearTirePressure) != 0) {
+            long stamp = beginWrite();
+            boolean changed = Float.compare(this.rightRearTirePressure, rightRearTirePressure) != 0;
+            this.rightRearTirePressure = rightRearTirePressure;
+            endWrite(stamp, changed);
+        }
     }
 
     public float getLeftRearTirePressure() {
@@ -309,7 +478,12 @@ public class MetaDataBean {
     }
 
     public void setLeftRearTirePressure(float leftRearTirePressure) {
-        this.leftRearTirePressure = leftRearTirePressure;
+        if (Float.compare(this.leftRearTirePressure, leftRearTirePressure) != 0) {
+            long stamp = beginWrite();
+            boolean changed = Float.compare(this.leftRearTirePressure, leftRearTirePressure) != 0;
+            this.leftRearTirePressure = leftRearTirePressure;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getDriverMode() {
@@ -317,7 +491,12 @@ public class MetaDataBean {
     }
 
     public void setDriverMode(int driverMode) {
-        this.driverMode = driverMode;
+        if (this.driverMode != driverMode) {
+            long stamp = beginWrite();
+            boolean changed = this.driverMode != driverMode;
+            this.driverMode = driverMode;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getPowerBarRatio() {
@@ -325,7 +504,12 @@ public class MetaDataBean {
     }
 
     public void setPowerBarRatio(int powerBarRatio) {
-        this.powerBarRatio = powerBarRatio;
+        if (this.powerBarRatio != powerBarRatio) {
+            long stamp = beginWrite();
+            boolean changed = this.powerBarRatio != powerBarRatio;
+            this.powerBarRatio = powerBarRatio;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getOilPercent() {
@@ -333,7 +517,12 @@ public class MetaDataBean {
     }
 
     public void setOilPercent(int oilPercent) {
-        this.oilPercent = oilPercent;
+        if (this.oilPercent != oilPercent) {
+            long stamp = beginWrite();
+            boolean changed = this.oilPercent != oilPercent;
+            this.oilPercent = oilPercent;
+            endWrite(stamp, changed);
+        }
     }
 
     public int getEnergyOption() {
@@ -341,6 +530,88 @@ public class MetaDataBean {
     }
 
     public void setEnergyOption(int energyOption) {
-        this.energyOption = energyOption;
+        if (this.energyOption != energyOption) {
+            long stamp = beginWrite();
+            boolean changed = this.energyOption != energyOption;
+            this.energyOption = energyOption;
+            endWrite(stamp, changed);
+        }
+    }
+
+    /**
+     * 当前版本号，单调递增，任意字段变化后变大
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 读出一份一致的快照，通常不加锁；写入正在进行时重试，多次失败才加读锁
+     * @param out 复用的快照对象
+     * @return out
+     */
+    public MetaDataSnapshot readSnapshot(MetaDataSnapshot out) {
+        for (int i = 0; i < OPTIMISTIC_READ_ATTEMPTS; i++) {
+            long stamp = seqLock.tryOptimisticRead();
+            if (stamp != 0) {
+                copyTo(out);
+                if (seqLock.validate(stamp)) {
+                    return out;
+                }
+            }
+        }
+        long stamp = seqLock.readLock();
+        try {
+            copyTo(out);
+        } finally {
+            seqLock.unlockRead(stamp);
+        }
+        return out;
+    }
+
+    private void copyTo(MetaDataSnapshot out) {
+        out.version = version;
+        out.carType = carType;
+        out.light = light;
+        out.theme = theme;
+        out.mode = mode;
+        out.language = language;
+        out.unit = unit;
+        out.hour = hour;
+        out.minute = minute;
+        out.vcuRdySts = vcuRdySts;
+        out.temperature = temperature;
+        out.driverMode = driverMode;
+        out.energerMagMode = energerMagMode;
+        out.dis = dis;
+        out.speed = speed;
+        out.evMileage = evMileage;
+        out.powerBarRatio = powerBarRatio;
+        out.oilMileage = oilMileage;
+        out.oilPercent = oilPercent;
+        out.vehicleGear = vehicleGear;
+        out.powerMode = powerMode;
+        out.leftLightStatus = leftLightStatus;
+        out.rightLightStatus = rightLightStatus;
+        out.vehicleDriveStatus = vehicleDriveStatus;
+        out.energyOption = energyOption;
+        out.leftFrontTirePressure = leftFrontTirePressure;
+        out.rightFrontTirePressure = rightFrontTirePressure;
+        out.rightRearTirePressure = rightRearTirePressure;
+        out.leftRearTirePressure = leftRearTirePressure;
+    }
+
+    private long beginWrite() {
+        return seqLock.writeLock();
+    }
+
+    /**
+     * @param changed 加锁后重新比较的结果，值未变时不升版本号
+     */
+    private void endWrite(long stamp, boolean changed) {
+        if (changed) {
+            version = VERSIONS.incrementAndGet();
+        }
+        seqLock.unlockWrite(stamp);
     }
 }
@@ -0,0 +1,231 @@
+package com.deepal.ivi.hmi.ipcommon.data.bean;
+
+/**
+ * MetaDataBean 某一版本的一致快照，由 {@link MetaDataBean#readSnapshot} 填充
+ *
+ * 只有读取方法，不对外修改。发送线程持有两个快照交替使用，用版本号判断有没有变化，
+ * 用 {@link #diff} 找出变化的字段，都不需要分配对象。
+ */
+public final class MetaDataSnapshot {
+    // 未读取过的快照版本号，与任何数据对象都不同
+    long version = -1;
+    int carType;
+    int light;
+    int theme;
+    int mode;
+    int language;
+    int unit;
+    int hour;
+    int minute;
+    int vcuRdySts;
+    int temperature;
+    int driverMode;
+    int energerMagMode;
+    int dis;
+    float speed;
+    float evMileage;
+    int powerBarRatio;
+    float oilMileage;
+    int oilPercent;
+    int vehicleGear;
+    int powerMode;
+    int leftLightStatus;
+    int rightLightStatus;
+    int vehicleDriveStatus;
+    int energyOption;
+    float leftFrontTirePressure;
+    float rightFrontTirePressure;
+    float rightRearTirePressure;
+    float leftRearTirePressure;
+
+    /**
+     * 与另一个快照比较
+     * @return 值不同的字段，MetaDataBean.FIELD_* 的组合；版本相同时直接返回0
+     */
+    public int diff(MetaDataSnapshot other) {
+        if (version == other.version) {
+            return 0;
+        }
+        int fields = 0;
+        if (carType != other.carType) fields |= MetaDataBean.FIELD_CAR_TYPE;
+        if (light != other.light) fields |= MetaDataBean.FIELD_LIGHT;
+        if (theme != other.theme) fields |= MetaDataBean.FIELD_THEME;
+        if (mode != other.mode) fields |= MetaDataBean.FIELD_MODE;
+        if (language != other.language) fields |= MetaDataBean.FIELD_LANGUAGE;
+        if (unit != other.unit) fields |= MetaDataBean.FIELD_UNIT;
+        if (hour != other.hour) fields |= MetaDataBean.FIELD_HOUR;
+        if (minute != other.minute) fields |= MetaDataBean.FIELD_MINUTE;
+        if (vcuRdySts != other.vcuRdySts) fields |= MetaDataBean.FIELD_VCU_RDY_STS;
+        if (temperature != other.temperature) fields |= MetaDataBean.FIELD_TEMPERATURE;
+        if (driverMode != other.driverMode) fields |= MetaDataBean.FIELD_DRIVER_MODE;
+        if (energerMagMode != other.energerMagMode) fields |= MetaDataBean.FIELD_ENERGER_MAG_MODE;
+        if (dis != other.dis) fields |= MetaDataBean.FIELD_DIS;
+        if (Float.compare(speed, other.speed) != 0) fields |= MetaDataBean.FIELD_SPEED;
+        if (Float.compare(evMileage, other.evMileage) != 0) fields |= MetaDataBean.FIELD_EV_MILEAGE;
+        if (powerBarRatio != other.powerBarRatio) fields |= MetaDataBean.FIELD_POWER_BAR_RATIO;
+        if (Float.compare(oilMileage, other.oilMileage) != 0) fields |= MetaDataBean.FIELD_OIL_MILEAGE;
+        if (oilPercent != other.oilPercent) fields |= MetaDataBean.FIELD_OIL_PERCENT;
+        if (vehicleGear != other.vehicleGear) fields |= MetaDataBean.FIELD_VEHICLE_GEAR;
+        if (powerMode != other.powerMode) fields |= MetaDataBean.FIELD_POWER_MODE;
+        if (leftLightStatus != other.leftLightStatus) fields |= MetaDataBean.FIELD_LEFT_LIGHT_STATUS;
+        if (rightLightStatus != other.rightLightStatus) fields |= MetaDataBean.FIELD_RIGHT_LIGHT_STATUS;
+        if (vehicleDriveStatus != other.vehicleDriveStatus) fields |= MetaDataBean.FIELD_VEHICLE_DRIVE_STATUS;
+        if (energyOption != other.energyOption) fields |= MetaDataBean.FIELD_ENERGY_OPTION;
+        if (Float.compare(leftFrontTirePressure, other.leftFrontTirePressure) != 0) {
+            fields |= MetaDataBean.FIELD_LEFT_FRONT_TIRE_PRESSURE;
+        }
+        if (Float.compare(rightFrontTirePressure, other.rightFrontTirePressure) != 0) {
+            fields |= MetaDataBean.FIELD_RIGHT_FRONT_TIRE_PRESSURE;
+        }
+        if (Float.compare(rightRearTirePressure, other.rightRearTirePressure) != 0) {
+            fields |= MetaDataBean.FIELD_RIGHT_REAR_TIRE_PRESSURE;
+        }
+        if (Float.compare(leftRearTirePressure, other.leftRearTirePressure) != 0) {
+            fields |= MetaDataBean.FIELD_LEFT_REAR_TIRE_PRESSURE;
+        }
+        // 第一次读取时全部视为变化
+        return other.version == -1 ? MetaDataBean.ALL_FIELDS : fields;
+    }
+
+    @Override
+    public String toString() {
+        return "MetaDataSnapshot{" +
+                "version=" + version +
+                ", carType=" + carType +
+                ", light=" + light +
+                ", theme=" + theme +
+                ", mode=" + mode +
+                ", language=" + language +
+                ", unit=" + unit +
+                ", vcuRdySts=" + vcuRdySts +
+                ", temperature=" + temperature +
+                ", driverMode=" + driverMode +
+                ", energerMagMode=" + energerMagMode +
+                ", speed=" + speed +
+                ", evMileage=" + evMileage +
+                ", powerBarRatio=" + powerBarRatio +
+                ", oilMileage=" + oilMileage +
+                ", oilPercent=" + oilPercent +
+                ", vehicleGear=" + vehicleGear +
+                ", leftLightStatus=" + leftLightStatus +
+                ", rightLightStatus=" + rightLightStatus +
+                ", energyOption=" + energyOption +
+                '}';
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCarType() {
+        return carType;
+    }
+
+    public int getLight() {
+        return light;
+    }
+
+    public int getTheme() {
+        return theme;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getLanguage() {
+        return language;
+    }
+
+    public int getUnit() {
+        return unit;
+    }
+
+    public int getHour() {
+        return hour;
+    }
+
+    public int getMinute() {
+        return minute;
+    }
+
+    public int getVcuRdySts() {
+        return vcuRdySts;
+    }
+
+    public int getTemperature() {
+        return temperature;
+    }
+
+    public int getDriverMode() {
+        return driverMode;
+    }
+
+    public int getEnergerMagMode() {
+        return energerMagMode;
+    }
+
+    public int getDis() {
+        return dis;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public float getEvMileage() {
+        return evMileage;
+    }
+
+    public int getPowerBarRatio() {
+        return powerBarRatio;
+    }
+
+    public float getOilMileage() {
+        return oilMileage;
+    }
+
+    public int getOilPercent() {
+        return oilPercent;
+    }
+
+    public int getVehicleGear() {
+        return vehicleGear;
+    }
+
+    public int getPowerMode() {
+        return powerMode;
+    }
+
+    public int getLeftLightStatus() {
+        return leftLightStatus;
+    }
+
+    public int getRightLightStatus() {
+        return rightLightStatus;
+    }
+
+    public int getVehicleDriveStatus() {
+        return vehicleDriveStatus;
+    }
+
+    public int getEnergyOption() {
+        return energyOption;
+    }
+
+    public float getLeftFrontTirePressure() {
+        return leftFrontTirePressure;
+    }
+
+    public float getRightFrontTirePressure() {
+        return rightFrontTirePressure;
+    }
+
+    public float getRightRearTirePressure() {
+        return rightRearTirePressure;
+    }
+
+    public float getLeftRearTirePressure() {
+        return leftRearTirePressure;
+    }
+}
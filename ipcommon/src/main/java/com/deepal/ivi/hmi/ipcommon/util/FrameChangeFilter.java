@@ -0,0 +1,101 @@
+package com.deepal.ivi.hmi.ipcommon.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 更新数据包变化过滤
+ *
+ * 车辆数据没有变化时不再每帧组包发送，只按 keyframeIntervalMs 周期性发送一帧完整数据，
+ * 作为仪表端的保活和重新同步。关闭后每帧都发送，与原来的行为一致。
+ *
+ * 每帧两步判断：
+ * 1. {@link #needsEncode}：没有字段变化、分钟没变、不到关键帧时间，直接跳过，不组包
+ * 2. {@link #shouldSend}：组包后与上一次发送的数据逐字节比较，完全相同也跳过
+ */
+public final class FrameChangeFilter {
+
+    private final boolean enabled;
+    private final long keyframeIntervalMs;
+    private byte[] lastFrame = new byte[0];
+    private int lastLength = -1;
+    private long lastSentAt;
+    private int lastMinuteOfDay = -1;
+
+    private long sentFrames;
+    private long keyframes;
+    private long skippedFrames;
+
+    /**
+     * @param enabled 是否按变化发送
+     * @param keyframeIntervalMs 没有变化时完整数据包的发送间隔
+     */
+    public FrameChangeFilter(boolean enabled, long keyframeIntervalMs) {
+        this.enabled = enabled;
+        this.keyframeIntervalMs = keyframeIntervalMs;
+    }
+
+    /**
+     * 组包前判断
+     * @param dirtyFields 上一帧之后变化过的字段
+     * @param minuteOfDay 当前时间的分钟数，数据包中带时分
+     * @param nowMs 单调时钟
+     * @return false表示本帧可以直接跳过
+     */
+    public synchronized boolean needsEncode(int dirtyFields, int minuteOfDay, long nowMs) {
+        if (!enabled || lastLength < 0 || dirtyFields != 0 || minuteOfDay != lastMinuteOfDay
+                || nowMs - lastSentAt >= keyframeIntervalMs) {
+            lastMinuteOfDay = minuteOfDay;
+            return true;
+        }
+        skippedFrames++;
+        return false;
+    }
+
+    /**
+     * 组包后判断，返回true时记录为已发送
+     * @param frame 编码好的数据包，position到limit为有效数据
+     * @param nowMs 单调时钟
+     */
+    public synchronized boolean shouldSend(ByteBuffer frame, long nowMs) {
+        int length = frame.remaining();
+        boolean keyframe = nowMs - lastSentAt >= keyframeIntervalMs;
+        if (enabled && !keyframe && lastLength == length && sameAsLast(frame, length)) {
+            skippedFrames++;
+            return false;
+        }
+        if (lastFrame.length < length) {
+            lastFrame = new byte[length];
+        }
+        frame.duplicate().get(lastFrame, 0, length);
+        lastLength = length;
+        lastSentAt = nowMs;
+        sentFrames++;
+        if (keyframe) {
+            keyframes++;
+        }
+        return true;
+    }
+
+    /**
+     * 清空上一帧，下一帧一定发送，用于仪表重新连接
+     */
+    public synchronized void reset() {
+        lastLength = -1;
+        lastMinuteOfDay = -1;
+    }
+
+    private boolean sameAsLast(ByteBuffer frame, int length) {
+        int position = frame.position();
+        for (int i = 0; i < length; i++) {
+            if (frame.get(position + i) != lastFrame[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "sent=" + sentFrames + ", keyframes=" + keyframes + ", skipped=" + skippedFrames;
+    }
+}
@@ -0,0 +1,200 @@
+package com.deepal.ivi.hmi.ipcommon.util;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 仪表数据帧定时器
+ *
+ * 在独立的单线程上按固定周期执行帧任务，不占用网络接收线程。
+ * 每一帧的截止时间按 起始时间 + n * 周期 计算，组帧、发送和日志的耗时不会累积成漂移；
+ * 某一帧延迟超过一个周期时跳过错过的帧，不会连续补发。
+ */
+public class FrameScheduler {
+    private static final String TAG = "FrameScheduler";
+
+    private final String name;
+    private final long periodNanos;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+    private Runnable task;
+    // 每次start加1，旧的帧任务发现不一致直接退出
+    private int generation;
+    private boolean running;
+    // 下一帧的截止时间，只在持锁时读写
+    private long nextDeadline;
+
+    // 统计数据只在定时线程中写入
+    private volatile long ticks;
+    private volatile long missedTicks;
+    private volatile long overruns;
+    private volatile long maxJitterNanos;
+    private volatile long totalJitterNanos;
+
+    /**
+     * @param name 线程名称
+     * @param periodMs 帧周期，毫秒
+     */
+    public FrameScheduler(String name, long periodMs) {
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("periodMs must be positive: " + periodMs);
+        }
+        this.name = name;
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+    }
+
+    /**
+     * 开始按周期执行任务，已经在运行时忽略
+     * @param frameTask 帧任务，在定时线程中执行
+     */
+    public synchronized void start(Runnable frameTask) {
+        if (running) {
+            Log.d(TAG, name + " 已经在运行");
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        task = frameTask;
+        running = true;
+        resetStats();
+        final int gen = ++generation;
+        nextDeadline = System.nanoTime();
+        future = executor.schedule(() -> runFrame(gen), 0, TimeUnit.NANOSECONDS);
+        Log.i(TAG, name + " 启动，周期：" + TimeUnit.NANOSECONDS.toMillis(periodNanos) + "ms");
+    }
+
+    /**
+     * 停止执行，线程保留以便再次启动
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        generation++;
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        task = null;
+        Log.i(TAG, name + " 停止，" + getStats());
+    }
+
+    /**
+     * 停止并释放线程，之后不能再启动
+     */
+    public synchronized void release() {
+        stop();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public Stats getStats() {
+        long count = ticks;
+        return new Stats(count, missedTicks, overruns,
+                TimeUnit.NANOSECONDS.toMicros(maxJitterNanos),
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalJitterNanos / count));
+    }
+
+    private void runFrame(int gen) {
+        Runnable frameTask;
+        long deadline;
+        synchronized (this) {
+            if (!running || gen != generation) {
+                return;
+            }
+            frameTask = task;
+            deadline = nextDeadline;
+        }
+
+        long start = System.nanoTime();
+        long late = start - deadline;
+        if (late >= periodNanos) {
+            // 延迟超过一个周期，跳过错过的帧，保持原来的相位
+            long missed = late / periodNanos;
+            missedTicks += missed;
+            deadline += missed * periodNanos;
+            late -= missed * periodNanos;
+        }
+        long jitter = Math.abs(late);
+        totalJitterNanos += jitter;
+        if (jitter > maxJitterNanos) {
+            maxJitterNanos = jitter;
+        }
+        ticks++;
+
+        try {
+            frameTask.run();
+        } catch (Exception e) {
+            Log.e(TAG, name + " 帧任务异常", e);
+        }
+
+        long end = System.nanoTime();
+        if (end - start > periodNanos) {
+            overruns++;
+        }
+
+        synchronized (this) {
+            // 帧任务执行期间可能已经stop或重新start，此时截止时间属于新的一轮，不能改写
+            if (!running || gen != generation) {
+                return;
+            }
+            nextDeadline = deadline + periodNanos;
+            future = executor.schedule(() -> runFrame(gen),
+                    Math.max(0, nextDeadline - end), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void resetStats() {
+        ticks = 0;
+        missedTicks = 0;
+        overruns = 0;
+        maxJitterNanos = 0;
+        totalJitterNanos = 0;
+    }
+
+    /**
+     * 定时统计
+     */
+    public static class Stats {
+        // 已执行的帧数
+        public final long ticks;
+        // 因延迟跳过的帧数
+        public final long missedTicks;
+        // 单帧耗时超过周期的次数
+        public final long overruns;
+        // 实际执行时间与计划时间的最大偏差，微秒
+        public final long maxJitterUs;
+        // 平均偏差，微秒
+        public final long avgJitterUs;
+
+        Stats(long ticks, long missedTicks, long overruns, long maxJitterUs, long avgJitterUs) {
+            this.ticks = ticks;
+            this.missedTicks = missedTicks;
+            this.overruns = overruns;
+            this.maxJitterUs = maxJitterUs;
+            this.avgJitterUs = avgJitterUs;
+        }
+
+        @Override
+        public String toString() {
+            return "ticks=" + ticks + ", missed=" + missedTicks + ", overruns=" + overruns
+                    + ", maxJitter=" + maxJitterUs + "us, avgJitter=" + avgJitterUs + "us";
+        }
+    }
+}
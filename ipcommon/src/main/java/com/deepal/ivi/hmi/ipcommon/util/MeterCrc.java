@@ -0,0 +1,53 @@
+package com.deepal.ivi.hmi.ipcommon.util;
+
+/**
+ * 仪表协议的CRC校验，查表计算
+ *
+ * CRC16：CCITT 多项式0x1021，初值0xFFFF，不反转，用于普通数据包
+ * CRC32：多项式0x04C11DB7，初值0xFFFFFFFF，不反转、不异或输出，用于升级数据包
+ */
+public final class MeterCrc {
+
+    private static final int[] CRC16_TABLE = new int[256];
+    private static final int[] CRC32_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc16 = i << 8;
+            int crc32 = i << 24;
+            for (int j = 0; j < 8; j++) {
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x1021 : crc16 << 1;
+                crc32 = (crc32 & 0x80000000) != 0 ? (crc32 << 1) ^ 0x04C11DB7 : crc32 << 1;
+            }
+            CRC16_TABLE[i] = crc16 & 0xFFFF;
+            CRC32_TABLE[i] = crc32;
+        }
+    }
+
+    private MeterCrc() {
+    }
+
+    public static int crc16(byte[] data) {
+        return crc16(data, 0, data.length);
+    }
+
+    public static int crc16(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    public static int crc32(byte[] data) {
+        return crc32(data, 0, data.length);
+    }
+
+    public static int crc32(byte[] data, int offset, int length) {
+        int crc = -1;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            crc = (crc << 8) ^ CRC32_TABLE[((crc >>> 24) ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+}
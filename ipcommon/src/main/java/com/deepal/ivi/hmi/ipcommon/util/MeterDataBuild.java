@@ -12,6 +12,8 @@ import java.util.Locale;
 
 public final class MeterDataBuild {
     public static final MeterDataBuild INSTANCE = new MeterDataBuild();
+    private static final byte[] HEAD = {-1, 123, 91, 60};
+    private static final byte[] TAIL = {62, 93, 125, -1};
 
 
     // 构建初始化数据包-国内
@@ -299,40 +301,35 @@ public final class MeterDataBuild {
         return completeBytes(bodyBytes);
     }
 
-    // 解析数据包（心跳、待机、请求、灯光、主题、模式）
+    // 解析数据包（心跳、待机、请求、灯光、主题、模式），按整数比较指令，不再转成十六进制字符串
     public MeterBasicDataBean dispatchAnalyzeData(byte[] byteArray) throws NumberFormatException {
-        if (byteArray == null || byteArray.length == 0 || !checkHead(byteArray)) {
+        if (byteArray == null || byteArray.length < 6 || !checkHead(byteArray)) {
             return null;
         }
 
-        String position5 = byteToHexString(byteArray[4]);
-        String position6 = byteToHexString(byteArray[5]);
+        int command = byteArray[4] & 0xFF;
+        int subCommand = byteArray[5] & 0xFF;
+        // 数据从第8个字节开始，长度在第7个字节
+        int dataStart = 7;
+        int dataEnd = byteArray.length > 6 ? Math.min(dataStart + (byteArray[6] & 0xFF), byteArray.length) : dataStart;
 
-        if ("01".equals(position5) && "01".equals(position6)) {
+        if (command == 0x01 && subCommand == 0x01) {
             return analyzeHeartbeatData();
-        } else if ("02".equals(position5) && "01".equals(position6)) {
+        } else if (command == 0x02 && subCommand == 0x01) {
             return analyzeStandbyData();
-        } else if ("03".equals(position5) && "01".equals(position6)) {
+        } else if (command == 0x03 && subCommand == 0x01) {
             return analyzeReqData();
-        } else if ("04".equals(position5) && "02".equals(position6)) {
-            return analyzeLight(extractData(byteArray));
-        } else if ("04".equals(position5) && "04".equals(position6)) {
-            return analyzeTheme(extractData(byteArray));
-        } else if ("04".equals(position5) && "06".equals(position6)) {
-            return analyzeMode(extractData(byteArray));
+        } else if (command == 0x04 && subCommand == 0x02) {
+            return dataEnd > dataStart ? analyzeLightLevel(hexDigitsToInt(byteArray[dataStart])) : null;
+        } else if (command == 0x04 && subCommand == 0x04) {
+            return dataEnd > dataStart ? analyzeThemeValue(byteArray[dataStart] & 0xFF) : null;
+        } else if (command == 0x04 && subCommand == 0x06) {
+            return dataEnd > dataStart ? analyzeModeValue(byteArray[dataStart] & 0xFF) : null;
         }
 
         return null;
     }
 
-    private List<Byte> extractData(byte[] byteArray) {
-        int length = byteArray[6];
-        List<Byte> data = new ArrayList<>();
-        for (int i = 7; i < 7 + length; i++) {
-            data.add(byteArray[i]);
-        }
-        return data;
-    }
     public MeterBasicDataBean analyzeHeartbeatData() {
         return new MeterBasicDataBean(1, false, 0, 0, 0);
     }
@@ -346,72 +343,71 @@ public final class MeterDataBuild {
     }
 
     public MeterBasicDataBean analyzeLight(List list) throws NumberFormatException {
-        int brightnessValue;
         if (!list.isEmpty()) {
-            int level = Integer.parseInt(byteToHexString(((Number) list.get(0)).byteValue()));
-            switch (level) {
-                case 0:
-                    brightnessValue = 20;
-                    break;
-                case 1:
-                    brightnessValue = 40;
-                    break;
-                case 2:
-                    brightnessValue = 60;
-                    break;
-                case 3:
-                default:
-                    brightnessValue = 80;
-                    break;
-                case 4:
-                    brightnessValue = 100;
-                    break;
-            }
-            return new MeterBasicDataBean(4, false, brightnessValue, 0, 0);
+            return analyzeLightLevel(hexDigitsToInt(((Number) list.get(0)).byteValue()));
         }
         return null;
     }
 
+    private MeterBasicDataBean analyzeLightLevel(int level) {
+        int brightnessValue;
+        switch (level) {
+            case 0:
+                brightnessValue = 20;
+                break;
+            case 1:
+                brightnessValue = 40;
+                break;
+            case 2:
+                brightnessValue = 60;
+                break;
+            case 3:
+            default:
+                brightnessValue = 80;
+                break;
+            case 4:
+                brightnessValue = 100;
+                break;
+        }
+        return new MeterBasicDataBean(4, false, brightnessValue, 0, 0);
+    }
+
     public MeterBasicDataBean analyzeTheme(List<Byte> list) {
         if (!list.isEmpty()) {
-            int themeValue = list.get(0) & 0xFF;
-            return new MeterBasicDataBean(5, false, 0, themeValue, 0);
+            return analyzeThemeValue(list.get(0) & 0xFF);
         }
         return null;
     }
 
+    private MeterBasicDataBean analyzeThemeValue(int themeValue) {
+        return new MeterBasicDataBean(5, false, 0, themeValue, 0);
+    }
+
     public MeterBasicDataBean analyzeMode(List<Byte> list) {
         if (!list.isEmpty()) {
-            int modelValue = list.get(0) & 0xFF;
-            return new MeterBasicDataBean(6, false, 0, 0, modelValue);
+            return analyzeModeValue(list.get(0) & 0xFF);
         }
         return null;
     }
 
+    private MeterBasicDataBean analyzeModeValue(int modelValue) {
+        return new MeterBasicDataBean(6, false, 0, 0, modelValue);
+    }
+
     // CRC 校验与字节拼接
     public byte[] completeBytes(byte[] bodyBytes) {
-        byte[] crc16Array = intToByteArrayLittleEndian(calculateCRC16(bodyBytes));
-        byte[] full = new byte[headBytes().length + bodyBytes.length + crc16Array.length + tailBytes().length];
-        System.arraycopy(headBytes(), 0, full, 0, headBytes().length);
-        System.arraycopy(bodyBytes, 0, full, headBytes().length, bodyBytes.length);
-        System.arraycopy(crc16Array, 0, full, headBytes().length + bodyBytes.length, crc16Array.length);
-        System.arraycopy(tailBytes(), 0, full, headBytes().length + bodyBytes.length + crc16Array.length, tailBytes().length);
+        int crc16 = calculateCRC16(bodyBytes);
+        byte[] full = new byte[HEAD.length + bodyBytes.length + 2 + TAIL.length];
+        System.arraycopy(HEAD, 0, full, 0, HEAD.length);
+        System.arraycopy(bodyBytes, 0, full, HEAD.length, bodyBytes.length);
+        full[HEAD.length + bodyBytes.length] = (byte) (crc16 & 0xFF);
+        full[HEAD.length + bodyBytes.length + 1] = (byte) ((crc16 >> 8) & 0xFF);
+        System.arraycopy(TAIL, 0, full, HEAD.length + bodyBytes.length + 2, TAIL.length);
         return full;
     }
 
     public int calculateCRC16(byte[] data) {
-        int crc = 0xFFFF;
-        for (byte b : data) {
-            crc ^= ((b & 0xFF) << 8);
-            for (int i = 0; i < 8; i++) {
-                if ((crc & 0x8000) != 0) {
-                    crc = (crc << 1) ^ 0x1021;
-                } else {
-                    crc <<= 1;
-                }
-            }
-        }
-        return crc & 0xFFFF;
+        return MeterCrc.crc16(data);
     }
 
     public byte[] intToByteArrayLittleEndian(int value) {
@@ -487,33 +483,29 @@ public final class MeterDataBuild {
     }
 
     public MeterUpgradeBean dispatchAnalyzeData2(byte[] byteArray) throws NumberFormatException {
-        if (byteArray == null || byteArray.length == 0 || !checkHead(byteArray)) {
+        if (byteArray == null || byteArray.length < 7 || !checkHead(byteArray)) {
             return null;
         }
 
-        String position5 = byteToHexString(byteArray[4]);
-        String position6 = byteToHexString(byteArray[5]);
+        int command = byteArray[4] & 0xFF;
+        int subCommand = byteArray[5] & 0xFF;
         int dataLength = byteArray[6] & 0xFF; // 无符号处理
 
-        // 提取有效数据部分
+        // 有效数据部分
         int start = 8;
         int end = Math.min(start + dataLength, byteArray.length);
-        List<Byte> data = new ArrayList<>();
-        for (int i = start; i < end; i++) {
-            data.add(byteArray[i]);
-        }
 
         // 根据指令类型路由到不同的解析方法
-        if ("71".equals(position5) && "02".equals(position6)) {
-            return analyzeIpInfoData(data);
-        } else if ("73".equals(position5) && "02".equals(position6)) {
-            return analyzeInitStateData(data);
-        } else if ("72".equals(position5) && "02".equals(position6)) {
-            return analyzeCheckStateData(data);
-        } else if ("72".equals(position5) && "04".equals(position6)) {
-            return analyzeWriteStateData(data);
-        } else if ("72".equals(position5) && "06".equals(position6)) {
-            return analyzeVerifyStateData(data);
+        if (command == 0x71 && subCommand == 0x02) {
+            return analyzeIpInfoData(byteArray, start, end);
+        } else if (command == 0x73 && subCommand == 0x02) {
+            return analyzeUpgradeResult(11, byteArray, start, end, 0);
+        } else if (command == 0x72 && subCommand == 0x02) {
+            return analyzeUpgradeResult(8, byteArray, start, end, 0);
+        } else if (command == 0x72 && subCommand == 0x04) {
+            return analyzeUpgradeResult(9, byteArray, start, end, 1);
+        } else if (command == 0x72 && subCommand == 0x06) {
+            return analyzeUpgradeResult(10, byteArray, start, end, 0);
         }
 
         return null;
@@ -521,18 +513,27 @@ public final class MeterDataBuild {
 
     public MeterUpgradeBean analyzeIpInfoData(List<Byte> list) {
         if (list == null || list.isEmpty()) return null;
+        byte[] data = new byte[list.size()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = list.get(i);
+        }
+        return analyzeIpInfoData(data, 0, data.length);
+    }
+
+    private MeterUpgradeBean analyzeIpInfoData(byte[] data, int start, int end) {
+        if (end <= start) return null;
 
-        StringBuilder hexBuilder = new StringBuilder();
-        for (Byte b : list) {
-            hexBuilder.append(byteToHexString(b));
+        StringBuilder hexBuilder = new StringBuilder((end - start) * 2);
+        for (int i = start; i < end; i++) {
+            hexBuilder.append(byteToHexString(data[i]));
         }
         String hexString = hexBuilder.toString();
         List<String> ipParts = new ArrayList<>();
 
         // 每32位(16进制表示8字符)分割为一个IP字段
         for (int i = 0; i < hexString.length(); i += 8) {
-            int end = Math.min(i + 8, hexString.length());
-            String hexPart = hexString.substring(i, end);
+            int partEnd = Math.min(i + 8, hexString.length());
+            String hexPart = hexString.substring(i, partEnd);
             ipParts.add(convertHexToIp(hexPart));
         }
 
@@ -552,7 +553,7 @@ public final class MeterDataBuild {
     }
     public MeterUpgradeBean analyzeInitStateData(List list) throws NumberFormatException {
         if (!list.isEmpty()) {
-            int result = Integer.parseInt(byteToHexString(((Number) list.get(0)).byteValue()));
+            int result = hexDigitsToInt(((Number) list.get(0)).byteValue());
             return new MeterUpgradeBean(11, result, null, null, null, null, 60, null);
         }
         return null;
@@ -560,7 +561,7 @@ public final class MeterDataBuild {
 
     public  MeterUpgradeBean analyzeCheckStateData(List list) throws NumberFormatException {
         if (!list.isEmpty()) {
-            int result = Integer.parseInt(byteToHexString(((Number) list.get(0)).byteValue()));
+            int result = hexDigitsToInt(((Number) list.get(0)).byteValue());
             return new MeterUpgradeBean(8, result, null, null, null, null, 60, null);
         }
         return null;
@@ -568,7 +569,7 @@ public final class MeterDataBuild {
 
     public MeterUpgradeBean analyzeWriteStateData(List list) throws NumberFormatException {
         if (!list.isEmpty()) {
-            int result = Integer.parseInt(byteToHexString(((Number) list.get(1)).byteValue()));
+            int result = hexDigitsToInt(((Number) list.get(1)).byteValue());
             return new MeterUpgradeBean(9, result, null, null, null, null, 60, null);
         }
         return null;
@@ -576,69 +577,70 @@ public final class MeterDataBuild {
 
     public MeterUpgradeBean analyzeVerifyStateData(List list) throws NumberFormatException {
         if (!list.isEmpty()) {
-            int result = Integer.parseInt(byteToHexString(((Number) list.get(0)).byteValue()));
+            int result = hexDigitsToInt(((Number) list.get(0)).byteValue());
             return new MeterUpgradeBean(10, result, null, null, null, null, 60, null);
         }
         return null;
     }
 
+    /**
+     * 升级应答，结果码在数据部分第 index 个字节
+     */
+    private MeterUpgradeBean analyzeUpgradeResult(int type, byte[] data, int start, int end, int index) {
+        if (end - start <= index) {
+            return null;
+        }
+        int result = hexDigitsToInt(data[start + index]);
+        return new MeterUpgradeBean(type, result, null, null, null, null, 60, null);
+    }
+
+    /**
+     * 把字节的十六进制写法当作十进制数，如0x12为12，与 Integer.parseInt(byteToHexString(b)) 结果一致
+     * @throws NumberFormatException 有A~F时，与原来的解析方式一致
+     */
+    private static int hexDigitsToInt(byte b) throws NumberFormatException {
+        int high = (b >> 4) & 0x0F;
+        int low = b & 0x0F;
+        if (high > 9 || low > 9) {
+            throw new NumberFormatException("For input string: \"" + String.format("%02X", b & 0xFF) + "\"");
+        }
+        return high * 10 + low;
+    }
+
     public byte[] completeBytes2(byte[] bodyBytes) {
-        byte[] crc32Array = intToByteArrayLittleEndian2(calculateCRC32(bodyBytes));
-        /*byte[] byteArray = ArraysKt___ArraysJvmKt.plus(ArraysKt___ArraysJvmKt.plus(ArraysKt___ArraysJvmKt.plus(headBytes(), bodyBytes), crc32Array), tailBytes());
-        return byteArray;*/
-        // 计算总长度
-        int totalLength = headBytes().length + bodyBytes.length + crc32Array.length + tailBytes().length;
-        byte[] full = new byte[totalLength];
+        int crc32 = calculateCRC32(bodyBytes);
+        byte[] full = new byte[HEAD.length + bodyBytes.length + 4 + TAIL.length];
         int offset = 0;
 
         // 头部
-        System.arraycopy(headBytes(), 0, full, offset, headBytes().length);
-        offset += headBytes().length;
+        System.arraycopy(HEAD, 0, full, offset, HEAD.length);
+        offset += HEAD.length;
 
         // 主体
         System.arraycopy(bodyBytes, 0, full, offset, bodyBytes.length);
         offset += bodyBytes.length;
 
-        // CRC32
-        System.arraycopy(crc32Array, 0, full, offset, crc32Array.length);
-        offset += crc32Array.length;
+        // CRC32，小端
+        for (int i = 0; i < 4; i++) {
+            full[offset++] = (byte) ((crc32 >> (8 * i)) & 0xFF);
+        }
 
         // 尾部
-        System.arraycopy(tailBytes(), 0, full, offset, tailBytes().length);
+        System.arraycopy(TAIL, 0, full, offset, TAIL.length);
 
         return full;
     }
 
     public  int calculateCRC32(byte[] data) {
-        int i;
-        int[] table = new int[256];
-        int length = table.length;
-        for (int i2 = 0; i2 < length; i2++) {
-            int crc = i2 << 24;
-            for (int j = 0; j < 8; j++) {
-                if ((Integer.MIN_VALUE & crc) != 0) {
-                    i = (crc << 1) ^ 79764919;
-                } else {
-                    i = crc << 1;
-                }
-                crc = i;
-            }
-            table[i2] = crc;
-        }
-        int crc2 = -1;
-        for (byte b : data) {
-            int index = ((crc2 >>> 24) ^ b) & 255;
-            crc2 = (crc2 << 8) ^ table[index];
-        }
-        return crc2;
+        return MeterCrc.crc32(data);
     }
 
     public byte[] headBytes() {
-        return new byte[]{-1, 123, 91, 60};
+        return HEAD.clone();
     }
 
     public byte[] tailBytes() {
-        return new byte[]{62, 93, 125, -1};
+        return TAIL.clone();
     }
 
     public boolean checkHead(byte[] bodyBytes) {
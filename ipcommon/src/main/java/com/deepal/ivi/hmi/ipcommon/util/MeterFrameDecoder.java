@@ -0,0 +1,261 @@
+package com.deepal.ivi.hmi.ipcommon.util;
+
+/**
+ * 仪表数据包流式解析
+ *
+ * TCP不保证消息边界，一次read可能只有半个包，也可能有好几个包。
+ * 收到的数据先写入环形缓冲区，再按协议逐包切分：
+ * 包头 FF 7B 5B 3C | 指令 子指令 | 数据长度 | 数据 | CRC | 包尾 3E 5D 7D FF
+ * - 普通数据包：1字节长度，CRC16
+ * - 升级数据包（指令0x71~0x73）：2字节小端长度，CRC32
+ *
+ * 包头、长度、包尾或CRC不对时跳过一个字节重新找包头，并计数。非线程安全，每个连接一个实例。
+ */
+public final class MeterFrameDecoder {
+
+    private static final byte[] HEAD = {-1, 123, 91, 60};
+    private static final byte[] TAIL = {62, 93, 125, -1};
+
+    public static final int COMMAND_UPGRADE_FIRST = 0x71;
+    public static final int COMMAND_UPGRADE_LAST = 0x73;
+
+    /** 接收方向允许的最大数据长度，超过视为错误的包头 */
+    private static final int MAX_PAYLOAD = 1024;
+    private static final int MAX_FRAME = HEAD.length + 4 + MAX_PAYLOAD + 4 + TAIL.length;
+
+    public interface Listener {
+        /**
+         * 收到一个完整的数据包，frame只在回调期间有效
+         */
+        void onFrame(MeterFrame frame);
+    }
+
+    private final byte[] ring;
+    private final int mask;
+    private long readIndex;
+    private long writeIndex;
+    private final byte[] frameBuffer = new byte[MAX_FRAME];
+    private final MeterFrame frame = new MeterFrame(frameBuffer);
+
+    private long frames;
+    private long resyncs;
+    private long crcFailures;
+    private long overflows;
+
+    public MeterFrameDecoder() {
+        this(4096);
+    }
+
+    /**
+     * @param capacity 环形缓冲区大小，取不小于它的2的幂，至少能放下一个最大的包
+     */
+    public MeterFrameDecoder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, MAX_FRAME) - 1) << 1;
+        ring = new byte[size];
+        mask = size - 1;
+    }
+
+    /**
+     * 写入收到的数据并回调其中所有完整的数据包
+     */
+    public void feed(byte[] data, int offset, int length, Listener listener) {
+        while (length > 0) {
+            int free = ring.length - (int) (writeIndex - readIndex);
+            if (free == 0) {
+                // 缓冲区满了还切不出包，说明数据错乱，丢弃最旧的一个字节
+                readIndex++;
+                overflows++;
+                continue;
+            }
+            int count = Math.min(length, free);
+            for (int i = 0; i < count; i++) {
+                ring[(int) ((writeIndex + i) & mask)] = data[offset + i];
+            }
+            writeIndex += count;
+            offset += count;
+            length -= count;
+            decode(listener);
+        }
+    }
+
+    private void decode(Listener listener) {
+        while (true) {
+            int available = (int) (writeIndex - readIndex);
+            if (!seekHead(available)) {
+                return;
+            }
+            available = (int) (writeIndex - readIndex);
+            if (available < HEAD.length + 3) {
+                return;
+            }
+            int command = at(HEAD.length);
+            boolean upgrade = command >= COMMAND_UPGRADE_FIRST && command <= COMMAND_UPGRADE_LAST;
+            int lengthBytes = upgrade ? 2 : 1;
+            if (available < HEAD.length + 2 + lengthBytes) {
+                return;
+            }
+            int payloadLength = upgrade ? at(HEAD.length + 2) | (at(HEAD.length + 3) << 8) : at(HEAD.length + 2);
+            if (payloadLength > MAX_PAYLOAD) {
+                skip();
+                continue;
+            }
+            int bodyLength = 2 + lengthBytes + payloadLength;
+            int crcLength = upgrade ? 4 : 2;
+            int frameLength = HEAD.length + bodyLength + crcLength + TAIL.length;
+            if (available < frameLength) {
+                return;
+            }
+
+            for (int i = 0; i < frameLength; i++) {
+                frameBuffer[i] = (byte) at(i);
+            }
+            int tailStart = frameLength - TAIL.length;
+            boolean tailValid = true;
+            for (int i = 0; i < TAIL.length; i++) {
+                if (frameBuffer[tailStart + i] != TAIL[i]) {
+                    tailValid = false;
+                    break;
+                }
+            }
+            if (!tailValid) {
+                skip();
+                continue;
+            }
+            int crcStart = HEAD.length + bodyLength;
+            boolean crcValid = upgrade
+                    ? MeterCrc.crc32(frameBuffer, HEAD.length, bodyLength) == readIntLittleEndian(frameBuffer, crcStart, 4)
+                    : MeterCrc.crc16(frameBuffer, HEAD.length, bodyLength) == readIntLittleEndian(frameBuffer, crcStart, 2);
+            if (!crcValid) {
+                crcFailures++;
+                skip();
+                continue;
+            }
+
+            readIndex += frameLength;
+            frames++;
+            frame.set(frameLength, command, frameBuffer[HEAD.length + 1] & 0xFF, HEAD.length + 2 + lengthBytes, payloadLength);
+            listener.onFrame(frame);
+        }
+    }
+
+    /**
+     * 丢弃包头之前的数据
+     * @return 缓冲区开头是完整的包头时返回true
+     */
+    private boolean seekHead(int available) {
+        int skipped = 0;
+        while (available - skipped >= HEAD.length) {
+            boolean match = true;
+            for (int i = 0; i < HEAD.length; i++) {
+                if (at(skipped + i) != (HEAD[i] & 0xFF)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                break;
+            }
+            skipped++;
+        }
+        if (skipped > 0) {
+            readIndex += skipped;
+            resyncs++;
+        }
+        return (int) (writeIndex - readIndex) >= HEAD.length;
+    }
+
+    /**
+     * 当前包头无效，跳过一个字节重新找
+     */
+    private void skip() {
+        readIndex++;
+        resyncs++;
+    }
+
+    private int at(int position) {
+        return ring[(int) ((readIndex + position) & mask)] & 0xFF;
+    }
+
+    private static int readIntLittleEndian(byte[] data, int offset, int length) {
+        int value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /** 为找包头丢弃数据的次数 */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    public long getCrcFailures() {
+        return crcFailures;
+    }
+
+    /** 缓冲区满而丢弃的字节数 */
+    public long getOverflows() {
+        return overflows;
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + frames + ", resyncs=" + resyncs + ", crcFailures=" + crcFailures + ", overflows=" + overflows;
+    }
+
+    /**
+     * 解析出的数据包，内容指向解析器内部缓冲区
+     */
+    public static final class MeterFrame {
+        private final byte[] buffer;
+        private int length;
+        private int command;
+        private int subCommand;
+        private int payloadOffset;
+        private int payloadLength;
+
+        MeterFrame(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        void set(int length, int command, int subCommand, int payloadOffset, int payloadLength) {
+            this.length = length;
+            this.command = command;
+            this.subCommand = subCommand;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+        }
+
+        public int getCommand() {
+            return command;
+        }
+
+        public int getSubCommand() {
+            return subCommand;
+        }
+
+        public int getPayloadLength() {
+            return payloadLength;
+        }
+
+        /**
+         * 数据部分第index个字节，无符号
+         */
+        public int payload(int index) {
+            return buffer[payloadOffset + index] & 0xFF;
+        }
+
+        /**
+         * 复制完整的数据包，包括包头和包尾
+         */
+        public byte[] toByteArray() {
+            byte[] copy = new byte[length];
+            System.arraycopy(buffer, 0, copy, 0, length);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.deepal.ivi.hmi.ipcommon.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 仪表更新数据包编码器
+ *
+ * 与 {@link MeterDataBuild#buildDomesticUpdateData} 和 {@link MeterDataBuild#buildGlobalUpdateData}
+ * 输出完全一致，但每种数据包只分配一次缓冲区：包头、指令、长度和包尾在创建时写好，
+ * 每帧只按预先算好的偏移写入字段并查表计算CRC16，不再创建中间数组。
+ *
+ * 返回的缓冲区会被下一次编码覆盖，需要在下一次编码前使用或复制。非线程安全，每个发送线程一个实例。
+ */
+public final class MeterFrameEncoder {
+
+    private static final byte[] HEAD = {-1, 123, 91, 60};
+    private static final byte[] TAIL = {62, 93, 125, -1};
+    private static final int CRC_LENGTH = 2;
+
+    private final FrameLayout domesticUpdate = new FrameLayout(3, 2, 19, false);
+    private final FrameLayout globalUpdate = new FrameLayout(3, 2, 21, true);
+
+    /**
+     * 编码国内更新数据包，参数同 {@link MeterDataBuild#buildDomesticUpdateData}
+     */
+    public ByteBuffer encodeDomesticUpdate(int carType, int hour, int minute, int readyStatus,
+                                           int temperature, int driverMode, int energyMode, int energyCnseSelect,
+                                           int speed, int eleDriver, int eleRatio, int oilDriver,
+                                           int oilRatio, int gear, int turnLeft, int turnRight) {
+        return encodeUpdate(domesticUpdate, carType, 0, 0, hour, minute, readyStatus, temperature, driverMode,
+                energyMode, energyCnseSelect, speed, eleDriver, eleRatio, oilDriver, oilRatio, gear, turnLeft, turnRight);
+    }
+
+    /**
+     * 编码海外更新数据包，参数同 {@link MeterDataBuild#buildGlobalUpdateData}
+     */
+    public ByteBuffer encodeGlobalUpdate(int carType, int language, int unit, int hour, int minute, int readyStatus,
+                                         int temperature, int driverMode, int energyMode, int energyCnseSelect,
+                                         int speed, int eleDriver, int eleRatio, int oilDriver,
+                                         int oilRatio, int gear, int turnLeft, int turnRight) {
+        return encodeUpdate(globalUpdate, carType, language, unit, hour, minute, readyStatus, temperature, driverMode,
+                energyMode, energyCnseSelect, speed, eleDriver, eleRatio, oilDriver, oilRatio, gear, turnLeft, turnRight);
+    }
+
+    private ByteBuffer encodeUpdate(FrameLayout layout, int carType, int language, int unit, int hour, int minute,
+                                    int readyStatus, int temperature, int driverMode, int energyMode,
+                                    int energyCnseSelect, int speed, int eleDriver, int eleRatio, int oilDriver,
+                                    int oilRatio, int gear, int turnLeft, int turnRight) {
+        int eleValue = 0;
+        int oilValue = 0;
+        int totalValue = 0;
+        switch (carType) {
+            case 0:
+                eleValue = eleDriver;
+                oilValue = oilDriver;
+                totalValue = eleDriver + oilDriver;
+                break;
+            case 1:
+                eleValue = eleDriver;
+                totalValue = eleDriver;
+                break;
+        }
+        byte turnByte = (turnLeft == 1 && turnRight == 0) ? (byte) 1 : (turnLeft == 0 && turnRight == 1) ? (byte) 2
+                : (turnLeft == 1 && turnRight == 1) ? (byte) 3 : (byte) 0;
+
+        ByteBuffer buffer = layout.buffer;
+        if (layout.global) {
+            buffer.put(layout.language, (byte) language);
+            buffer.put(layout.unit, (byte) unit);
+        }
+        buffer.put(layout.readyStatus, (byte) readyStatus);
+        buffer.put(layout.readyStatus + 1, (byte) gear);
+        buffer.put(layout.readyStatus + 2, (byte) hour);
+        buffer.put(layout.readyStatus + 3, (byte) minute);
+        buffer.put(layout.readyStatus + 4, (byte) energyCnseSelect);
+        buffer.put(layout.readyStatus + 5, turnByte);
+        buffer.put(layout.readyStatus + 6, (byte) driverMode);
+        buffer.put(layout.readyStatus + 7, (byte) energyMode);
+        buffer.put(layout.readyStatus + 8, (byte) temperature);
+        buffer.put(layout.readyStatus + 9, (byte) eleRatio);
+        buffer.put(layout.readyStatus + 10, (byte) oilRatio);
+        buffer.putShort(layout.readyStatus + 11, (short) eleValue);
+        buffer.putShort(layout.readyStatus + 13, (short) oilValue);
+        buffer.putShort(layout.readyStatus + 15, (short) totalValue);
+        buffer.putShort(layout.readyStatus + 17, (short) speed);
+        buffer.putShort(layout.crc, (short) MeterCrc.crc16(buffer.array(), HEAD.length, layout.bodyLength));
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * 数据包布局：包头 | 指令 子指令 数据长度 数据 | CRC16小端 | 包尾
+     */
+    private static final class FrameLayout {
+        final boolean global;
+        final int bodyLength;
+        final ByteBuffer buffer;
+        // 海外包在数据开头多出语言和单位两个字节
+        final int language;
+        final int unit;
+        // 之后的字段相对准备状态连续排列
+        final int readyStatus;
+        final int crc;
+
+        FrameLayout(int command, int subCommand, int dataLength, boolean global) {
+            this.global = global;
+            this.bodyLength = 3 + dataLength;
+            int dataStart = HEAD.length + 3;
+            this.language = dataStart;
+            this.unit = dataStart + 1;
+            this.readyStatus = global ? dataStart + 2 : dataStart;
+            this.crc = HEAD.length + bodyLength;
+
+            buffer = ByteBuffer.allocate(crc + CRC_LENGTH + TAIL.length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(HEAD);
+            buffer.put((byte) command);
+            buffer.put((byte) subCommand);
+            buffer.put((byte) dataLength);
+            buffer.position(crc + CRC_LENGTH);
+            buffer.put(TAIL);
+            buffer.rewind();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.deepal.ivi.hmi.ipcommon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.deepal.ivi.hmi.ipcommon.data.bean.MeterBasicDataBean;
+import com.deepal.ivi.hmi.ipcommon.util.MeterDataBuild;
+import com.deepal.ivi.hmi.ipcommon.util.MeterFrameDecoder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MeterFrameDecoderTest {
+
+    private final MeterDataBuild builder = MeterDataBuild.INSTANCE;
+    private final MeterFrameDecoder decoder = new MeterFrameDecoder();
+    private final List<byte[]> frames = new ArrayList<>();
+    private final MeterFrameDecoder.Listener listener = frame -> frames.add(frame.toByteArray());
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    @Test
+    public void testSplitFrames() {
+        byte[] heartbeat = builder.completeBytes(new byte[]{1, 1, 0});
+        byte[] light = builder.completeBytes(new byte[]{4, 2, 1, 3});
+        byte[] stream = concat(heartbeat, light);
+        // 每次只收到一个字节
+        for (int i = 0; i < stream.length; i++) {
+            decoder.feed(stream, i, 1, listener);
+        }
+        assertEquals(2, frames.size());
+        assertArrayEquals(heartbeat, frames.get(0));
+        assertArrayEquals(light, frames.get(1));
+
+        MeterBasicDataBean bean = builder.dispatchAnalyzeData(frames.get(1));
+        assertEquals(4, bean.getStatus());
+        assertEquals(80, bean.getBrightnessValue());
+    }
+
+    @Test
+    public void testCoalescedFramesWithGarbage() {
+        byte[] request = builder.completeBytes(new byte[]{3, 1, 0});
+        byte[] ipInfo = builder.buildGetIpInfo();
+        byte[] stream = concat(new byte[]{0, 62, -1, 123}, request, ipInfo, new byte[]{-1, 123});
+        decoder.feed(stream, 0, stream.length, listener);
+        assertEquals(2, frames.size());
+        assertArrayEquals(request, frames.get(0));
+        assertArrayEquals(ipInfo, frames.get(1));
+        assertTrue(decoder.getResyncs() > 0);
+        assertEquals(3, builder.dispatchAnalyzeData(frames.get(0)).getStatus());
+    }
+
+    @Test
+    public void testCrcFailure() {
+        byte[] broken = builder.completeBytes(new byte[]{4, 6, 1, 1});
+        broken[7] ^= 0x01;
+        byte[] mode = builder.completeBytes(new byte[]{4, 6, 1, 1});
+        byte[] stream = concat(broken, mode);
+        decoder.feed(stream, 0, stream.length, listener);
+        assertEquals(1, frames.size());
+        assertEquals(1, decoder.getCrcFailures());
+        assertEquals(1, builder.dispatchAnalyzeData(frames.get(0)).getModelValue());
+    }
+}
@@ -0,0 +1,131 @@
+package com.deepal.ivi.hmi.ipcommon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.deepal.ivi.hmi.ipcommon.data.bean.MetaDataBean;
+import com.deepal.ivi.hmi.ipcommon.util.MeterCrc;
+import com.deepal.ivi.hmi.ipcommon.util.MeterDataBuild;
+import com.deepal.ivi.hmi.ipcommon.util.MeterFrameEncoder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MeterFrameEncoderTest {
+
+    private final MeterDataBuild builder = MeterDataBuild.INSTANCE;
+    private final MeterFrameEncoder encoder = new MeterFrameEncoder();
+
+    // 实车记录的数据：混动行驶中、纯电左转、停车、越界值
+    private static MetaDataBean[] samples() {
+        return new MetaDataBean[]{
+                sample(0, 10, 35, 1, 26, 2, 1, 0, 62.4f, 180.6f, 71, 423.2f, 55, 4, 0, 0),
+                sample(1, 8, 5, 1, 18, 1, 2, 1, 35.5f, 312f, 88, 0f, 0, 4, 1, 0),
+                sample(1, 23, 59, 0, -5, 0, 0, 0, 0f, 12f, 3, 0f, 0, 1, 1, 1),
+                sample(2, 0, 0, 1, 40, 3, 1, 1, 120f, 520f, 100, 600f, 100, 3, 0, 1),
+                sample(0, 12, 0, 1, 30, 2, 1, 1, 255.9f, 70000f, 100, 900f, 100, 4, 0, 0),
+        };
+    }
+
+    private static MetaDataBean sample(int carType, int hour, int minute, int ready, int temperature,
+                                       int driverMode, int energyMode, int energyOption, float speed,
+                                       float evMileage, int powerBarRatio, float oilMileage, int oilPercent,
+                                       int gear, int left, int right) {
+        MetaDataBean bean = new MetaDataBean();
+        bean.setCarType(carType);
+        bean.setHour(hour);
+        bean.setMinute(minute);
+        bean.setVcuRdySts(ready);
+        bean.setTemperature(temperature);
+        bean.setDriverMode(driverMode);
+        bean.setEnergerMagMode(energyMode);
+        bean.setEnergyOption(energyOption);
+        bean.setSpeed(speed);
+        bean.setEvMileage(evMileage);
+        bean.setPowerBarRatio(powerBarRatio);
+        bean.setOilMileage(oilMileage);
+        bean.setOilPercent(oilPercent);
+        bean.setVehicleGear(gear);
+        bean.setLeftLightStatus(left);
+        bean.setRightLightStatus(right);
+        bean.setLanguage(1);
+        bean.setUnit(0);
+        return bean;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit());
+    }
+
+    @Test
+    public void testDomesticUpdateMatchesBuilder() {
+        for (MetaDataBean m : samples()) {
+            byte[] expected = builder.buildDomesticUpdateData(m.getCarType(), m.getHour(), m.getMinute(),
+                    m.getVcuRdySts(), m.getTemperature(), m.getDriverMode(), m.getEnergerMagMode(),
+                    m.getEnergyOption(), Math.round(m.getSpeed()), Math.round(m.getEvMileage()),
+                    m.getPowerBarRatio(), Math.round(m.getOilMileage()), m.getOilPercent(), m.getVehicleGear(),
+                    m.getLeftLightStatus(), m.getRightLightStatus());
+            ByteBuffer actual = encoder.encodeDomesticUpdate(m.getCarType(), m.getHour(), m.getMinute(),
+                    m.getVcuRdySts(), m.getTemperature(), m.getDriverMode(), m.getEnergerMagMode(),
+                    m.getEnergyOption(), Math.round(m.getSpeed()), Math.round(m.getEvMileage()),
+                    m.getPowerBarRatio(), Math.round(m.getOilMileage()), m.getOilPercent(), m.getVehicleGear(),
+                    m.getLeftLightStatus(), m.getRightLightStatus());
+            assertArrayEquals(m.toString(), expected, toArray(actual));
+        }
+    }
+
+    @Test
+    public void testGlobalUpdateMatchesBuilder() {
+        for (MetaDataBean m : samples()) {
+            byte[] expected = builder.buildGlobalUpdateData(m.getCarType(), m.getLanguage(), m.getUnit(),
+                    m.getHour(), m.getMinute(), m.getVcuRdySts(), m.getTemperature(), m.getDriverMode(),
+                    m.getEnergerMagMode(), m.getEnergyOption(), Math.round(m.getSpeed()),
+                    Math.round(m.getEvMileage()), m.getPowerBarRatio(), Math.round(m.getOilMileage()),
+                    m.getOilPercent(), m.getVehicleGear(), m.getLeftLightStatus(), m.getRightLightStatus());
+            ByteBuffer actual = encoder.encodeGlobalUpdate(m.getCarType(), m.getLanguage(), m.getUnit(),
+                    m.getHour(), m.getMinute(), m.getVcuRdySts(), m.getTemperature(), m.getDriverMode(),
+                    m.getEnergerMagMode(), m.getEnergyOption(), Math.round(m.getSpeed()),
+                    Math.round(m.getEvMileage()), m.getPowerBarRatio(), Math.round(m.getOilMileage()),
+                    m.getOilPercent(), m.getVehicleGear(), m.getLeftLightStatus(), m.getRightLightStatus());
+            assertArrayEquals(m.toString(), expected, toArray(actual));
+        }
+    }
+
+    @Test
+    public void testTableCrcMatchesBitwise() {
+        Random random = new Random(7);
+        for (int length = 0; length < 300; length += 7) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertEquals(bitwiseCrc16(data), MeterCrc.crc16(data));
+            assertEquals(bitwiseCrc32(data), MeterCrc.crc32(data));
+        }
+        // 升级协议中固定的校验包
+        assertArrayEquals(builder.buildVerifyFw(), builder.completeBytes2(new byte[]{114, 5, 0, 0}));
+    }
+
+    private static int bitwiseCrc16(byte[] data) {
+        int crc = 0xFFFF;
+        for (byte b : data) {
+            crc ^= ((b & 0xFF) << 8);
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return crc & 0xFFFF;
+    }
+
+    private static int bitwiseCrc32(byte[] data) {
+        int crc = -1;
+        for (byte b : data) {
+            crc ^= (b & 0xFF) << 24;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+        }
+        return crc;
+    }
+}
@@ -18,15 +18,20 @@ import static com.deepal.smartlifemiddleware.MegaPropertyId.VcuRdySts;
 import static com.deepal.smartlifemiddleware.MegaPropertyId.VcuVehAvrgEgyCnseLongTime;
 import static com.deepal.smartlifemiddleware.MegaPropertyId.VcuVehEgyCnseSelectCfm;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.deepal.ivi.hmi.ipcommon.data.DataDispatcher;
 import com.deepal.ivi.hmi.ipcommon.data.DispatchData;
 import com.deepal.ivi.hmi.ipcommon.data.bean.MetaDataBean;
 import com.deepal.ivi.hmi.ipcommon.data.bean.SetWrite;
@@ -36,20 +41,25 @@ import com.deepal.ivi.hmi.ipcommon.util.SettingsManager;
 import com.deepal.smartlifemiddleware.MegaCarInfo;
 
 import java.util.Locale;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import mega.car.hardware.CarPropertyValue;
 import mega.car.hardware.property.CarPropertyManager;
 
 public class VehicleDataManager {
     private static final String TAG = "VehicleDataManager";
+    // 语言和单位都由系统语言决定，只关注系统语言设置
+    private static final String[] OBSERVED_SETTINGS = {"system_locales"};
+    // 连续修改设置时只在最后一次之后刷新一次
+    private static final long SETTINGS_DEBOUNCE_MS = 300;
     private volatile static MetaDataBean metaDataBean;
-    private CopyOnWriteArrayList<DataCallBack> dataCallBackList;
+    // 按类型分发给订阅者
+    private final DataDispatcher dataDispatcher = new DataDispatcher();
     private static VehicleDataManager instance ;
     private boolean toIp = false;
     private Context mContext;
+    private final Handler settingsHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshLocaleTask = this::refreshLocaleSettings;
     private VehicleDataManager() {
-        dataCallBackList = new CopyOnWriteArrayList<>();
     }
 
     public static VehicleDataManager getInstance() {
@@ -75,7 +85,19 @@ public class VehicleDataManager {
     }
 
     public void addDataCallBack(DataCallBack dataCallBack){
-        dataCallBackList.add(dataCallBack);
+        addDataCallBack(dataCallBack, DispatchData.TYPE_ALL);
+    }
+
+    /**
+     * 只订阅需要的数据类型
+     * @param types DispatchData.TYPE_* 的组合
+     */
+    public void addDataCallBack(DataCallBack dataCallBack, int types){
+        dataDispatcher.subscribe(dataCallBack, types);
+    }
+
+    public void removeDataCallBack(DataCallBack dataCallBack){
+        dataDispatcher.unsubscribe(dataCallBack);
     }
 
 
@@ -151,25 +173,24 @@ public class VehicleDataManager {
 
 
     private void subScribleSignalValue(){
-        mContext.getContentResolver().registerContentObserver(Settings.System.CONTENT_URI,
-                true,
-                new ContentObserver(new Handler()) {
-                    @Override
-                    public void onChange(boolean selfChange) {
-                        super.onChange(selfChange);
-                        getLanguage();
-                        getUnit();
-                        setToIp();
-                    }
-
-                    @Override
-                    public void onChange(boolean selfChange, @Nullable Uri uri) {
-                        super.onChange(selfChange, uri);
-                        getLanguage();
-                        getUnit();
-                        setToIp();
-                    }
-                });
+        ContentObserver settingsObserver = new ContentObserver(settingsHandler) {
+            @Override
+            public void onChange(boolean selfChange, @Nullable Uri uri) {
+                super.onChange(selfChange, uri);
+                scheduleLocaleRefresh();
+            }
+        };
+        for (String name : OBSERVED_SETTINGS) {
+            mContext.getContentResolver().registerContentObserver(Settings.System.getUriFor(name),
+                    false, settingsObserver);
+        }
+        // Locale.getDefault() 在配置更新后才变，设置写入可能更早，所以同时监听语言切换广播
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                scheduleLocaleRefresh();
+            }
+        }, new IntentFilter(Intent.ACTION_LOCALE_CHANGED), null, settingsHandler);
         MegaCarInfo.INSTANCE.registerSignal(new CarPropertyManager.CarPropertyEventCallback() {
             @Override
             public void onChangeEvent(CarPropertyValue carPropertyValue) {
@@ -280,9 +301,28 @@ public class VehicleDataManager {
     }
 
     public void setToIp() {
-        for (DataCallBack dataCallBack : dataCallBackList){
-            dataCallBack.onDataChange(new DispatchData(metaDataBean, "MeterData"));
+        dataDispatcher.dispatch(DispatchData.TYPE_METER_DATA, metaDataBean);
+    }
+
+    private void scheduleLocaleRefresh() {
+        settingsHandler.removeCallbacks(refreshLocaleTask);
+        settingsHandler.postDelayed(refreshLocaleTask, SETTINGS_DEBOUNCE_MS);
+    }
+
+    /**
+     * 重新读取语言和单位，有变化时才通知仪表
+     */
+    private void refreshLocaleSettings() {
+        int oldLanguage = metaDataBean.getLanguage();
+        int oldUnit = metaDataBean.getUnit();
+        // 两个都要读，getter 会把新值写入 metaDataBean
+        int language = getLanguage();
+        int unit = getUnit();
+        if (language == oldLanguage && unit == oldUnit) {
+            Log.d(TAG, "语言和单位没有变化，不通知仪表");
+            return;
         }
+        setToIp();
     }
     public int getUnit() {
         String language = Locale.getDefault().getLanguage();
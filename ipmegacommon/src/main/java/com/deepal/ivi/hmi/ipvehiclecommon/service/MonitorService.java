@@ -74,7 +74,7 @@ public class MonitorService extends Service {
                     int lightRatio = AndroidUtil.getBrightnessLevel();
                     Log.d(TAG, "亮度更新: " + brightness+", lightRatio:" + lightRatio);
                     if (lightDataCallBack != null){
-                        lightDataCallBack.onDataChange(new DispatchData(lightRatio, "light"));
+                        lightDataCallBack.onDataChange(new DispatchData(lightRatio, DispatchData.TYPE_LIGHT));
                     }
                 } catch (Exception e) {
                     Log.e(TAG, "获取亮度失败", e);
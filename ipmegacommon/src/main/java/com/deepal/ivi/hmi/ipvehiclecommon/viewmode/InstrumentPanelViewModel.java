@@ -1,13 +1,16 @@
 package com.deepal.ivi.hmi.ipvehiclecommon.viewmode;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
+import com.deepal.ivi.hmi.ipcommon.connection.MeterUpgradeEngine;
 import com.deepal.ivi.hmi.ipcommon.connection.NetworkServiceManager;
 import com.deepal.ivi.hmi.ipcommon.data.DispatchData;
 import com.deepal.ivi.hmi.ipcommon.data.bean.MetaDataBean;
+import com.deepal.ivi.hmi.ipcommon.data.bean.MetaDataSnapshot;
 import com.deepal.ivi.hmi.ipcommon.data.bean.MeterBasicDataBean;
 import com.deepal.ivi.hmi.ipcommon.data.bean.SetWrite;
 import com.deepal.ivi.hmi.ipcommon.iInterface.DataCallBack;
@@ -17,15 +20,18 @@ import com.deepal.ivi.hmi.ipvehiclecommon.IApplication;
 import com.deepal.ivi.hmi.ipvehiclecommon.R;
 import com.deepal.ivi.hmi.ipvehiclecommon.model.VehicleDataManager;
 import com.deepal.ivi.hmi.ipcommon.util.AndroidUtil;
+import com.deepal.ivi.hmi.ipcommon.util.FrameChangeFilter;
+import com.deepal.ivi.hmi.ipcommon.util.FrameScheduler;
+import com.deepal.ivi.hmi.ipcommon.util.MeterFrameEncoder;
 import com.deepal.ivi.hmi.ipcommon.util.MeterDataBuild;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalTime;
 
 
 public class InstrumentPanelViewModel extends ViewModel implements DataCallBack {
     private static final String TAG = "InstrumentPanelViewModel";
-    private MetaDataBean metaDataBean ;
+    private volatile MetaDataBean metaDataBean ;
     public final MutableLiveData<Integer> isClientConnected = new MutableLiveData<>();
     private MeterDataBuild builder = MeterDataBuild.INSTANCE;
     private byte [] dataToSend ;
@@ -33,6 +39,14 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
     public MutableLiveData<String> showContent = new MutableLiveData<>();
 
     private final int SERVER_PORT = 10007;
+    // 仪表数据刷新周期
+    private static final long UPDATE_FRAME_PERIOD_MS = 40;
+    // 车辆数据没变化时只按这个间隔发送完整数据，保活和重新同步
+    private static final long UPDATE_KEYFRAME_INTERVAL_MS = 1000;
+    // 是否按变化发送，关闭后每帧都发送
+    private static final boolean UPDATE_CHANGE_TRACKING = true;
+    // 非阻塞服务：一个IO线程收发，允许诊断工具与仪表同时连接
+    private static final boolean NON_BLOCKING_SERVER = true;
     private final String SERVER_IP = "192.168.2.101";
     private int light = 0;
     public MutableLiveData<Integer> lightLiveData = new MutableLiveData<>();
@@ -43,11 +57,33 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
 
     // 添加网络服务管理器
     private NetworkServiceManager networkService;
-    private boolean isUpdateDataActive;
+    // 仪表数据定时发送，不占用网络接收线程
+    private final FrameScheduler updateFrameScheduler = new FrameScheduler("ip-update-frame", UPDATE_FRAME_PERIOD_MS);
+    // 只在定时线程中使用
+    private final MeterFrameEncoder updateFrameEncoder = new MeterFrameEncoder();
+    private MetaDataSnapshot lastFrameSnapshot = new MetaDataSnapshot();
+    private MetaDataSnapshot nextFrameSnapshot = new MetaDataSnapshot();
+    private final FrameChangeFilter updateFrameFilter = new FrameChangeFilter(UPDATE_CHANGE_TRACKING, UPDATE_KEYFRAME_INTERVAL_MS);
+    // 仪表固件升级
+    private final MeterUpgradeEngine upgradeEngine;
     private boolean initServerCallBack;
     public InstrumentPanelViewModel() {
         networkService = NetworkServiceManager.getInstance(SERVER_IP, SERVER_PORT);
-        VehicleDataManager.getInstance().addDataCallBack(this);
+        upgradeEngine = new MeterUpgradeEngine(networkService, new MeterUpgradeEngine.Listener() {
+            @Override
+            public void onProgress(int ackedBytes, int totalBytes) {
+                showContent.postValue("升级进度：" + ackedBytes * 100L / totalBytes + "%");
+            }
+
+            @Override
+            public void onFinished(boolean success, String reason, int crc32) {
+                Log.i(TAG, "仪表升级结束 success=" + success + ", " + reason + ", crc32=" + Integer.toHexString(crc32));
+                showContent.postValue(reason);
+            }
+        });
+        // 实时数据由定时发送读取快照，只订阅需要立即下发的亮度
+        metaDataBean = VehicleDataManager.getInstance().getMetaDataBean();
+        VehicleDataManager.getInstance().addDataCallBack(this, DispatchData.TYPE_LIGHT);
         isDomestic = !((carSeries.split("_"))[2]).contains("g");
         Log.i(TAG, "车型："+ carSeries+",isDomestic : " + isDomestic);
     }
@@ -62,6 +98,10 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
                     Log.d(TAG, "仪表连接状态:Client connection status: " + status);
                     isClientConnected.postValue(status?1:0);
                     showContent.postValue(status ? "客户端已连接" : "客户端断开连接,原因是：" + reason) ;
+                    upgradeEngine.onConnectionChanged(status);
+                    if (!status) {
+                        stopUpdateData();
+                    }
                 }
                 @Override
                 public void receiveMsgFromClient(byte[] data) {
@@ -75,6 +115,7 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
     }
 
     public void startServer() {
+        networkService.setNonBlocking(NON_BLOCKING_SERVER);
         networkService.startServer();
         showContent.postValue("服务器启动，监听端口：" + SERVER_PORT);
     }
@@ -86,15 +127,16 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
         showContent.postValue("收到：" + message);
 
         MeterBasicDataBean basicBean = MeterDataBuild.INSTANCE.dispatchAnalyzeData(receivedData);
+        if (basicBean == null) {
+            // 升级应答等其他数据包
+            upgradeEngine.handleFrame(receivedData);
+            return;
+        }
         if (basicBean.getStatus() == 2) {
             setIpInitData();
         }
         if (basicBean.getStatus() == 3) {
-            try {
-                loopBuildUpdateData();
-            } catch (InterruptedException | IOException e) {
-                Log.e(TAG, "更新数据循环异常", e);
-            }
+            startUpdateData();
         }
     }
 
@@ -198,8 +240,12 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
     }
 
     public void sendDataToIP(){
-        Log.d(TAG, "发送数据：" + AndroidUtil.bytesToHex(dataToSend));
-        networkService.sendData(dataToSend, new NetworkServiceManager.SendCallback() {
+        sendDataToIP(dataToSend);
+    }
+
+    private void sendDataToIP(byte[] data){
+        Log.d(TAG, "发送数据：" + AndroidUtil.bytesToHex(data));
+        networkService.sendData(data, new NetworkServiceManager.SendCallback() {
             @Override
             public void onSuccess() {
                 Log.d(TAG, "数据发送成功");
@@ -213,74 +259,104 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
     }
 
 
-    public void loopBuildUpdateData() throws InterruptedException, IOException {
+    /**
+     * 仪表进入工作状态后开始定时发送数据，重复调用无效
+     */
+    public void startUpdateData() {
         if (metaDataBean == null){
             metaDataBean = VehicleDataManager.getInstance().getMetaDataBean();
         }
-        isUpdateDataActive = true;
-        while (isUpdateDataActive) {
-            Log.i(TAG, "当前车辆数据值: " + metaDataBean.toString());
-            int carType = metaDataBean.getCarType();           //这里不要再嗲用AndroidUtil来转，否则又转回去了
-            int hour = LocalTime.now().getHour();
-            int minute = LocalTime.now().getMinute();
-            int energyCnseSelect = AndroidUtil.convertValueToIp("energyType",
-                    metaDataBean.getEnergyOption());                              // 能耗选项设置:CLTC、WLTC
-            int speed = Math.round(metaDataBean.getSpeed());                           //车速
-            int eleRemainMile = Math.round(metaDataBean.getEvMileage());             //纯电剩余里程
-            int oilRemainMile = Math.round(metaDataBean.getOilMileage());            //燃油剩余里程
-            if (isDomestic){
-                dataToSend = MeterDataBuild.INSTANCE.buildDomesticUpdateData(
-                        carType,
-                        hour,
-                        minute,
-                        metaDataBean.getVcuRdySts(),
-                        metaDataBean.getTemperature(),
-                        metaDataBean.getDriverMode(),
-                        metaDataBean.getEnergerMagMode(),
-                        energyCnseSelect,
-                        speed,
-                        eleRemainMile,
-                        metaDataBean.getPowerBarRatio(),
-                        oilRemainMile,
-                        metaDataBean.getOilPercent(),
-                        metaDataBean.getVehicleGear(),
-                        metaDataBean.getLeftLightStatus(),
-                        metaDataBean.getRightLightStatus());
-            }else {
-                dataToSend = MeterDataBuild.INSTANCE.buildGlobalUpdateData(
-                        carType,
-                        metaDataBean.getLanguage(),
-                        metaDataBean.getUnit(),
-                        hour,
-                        minute,
-                        metaDataBean.getVcuRdySts(),
-                        metaDataBean.getTemperature(),
-                        metaDataBean.getDriverMode(),
-                        metaDataBean.getEnergerMagMode(),
-                        energyCnseSelect,
-                        speed,
-                        eleRemainMile,
-                        metaDataBean.getPowerBarRatio(),
-                        oilRemainMile,
-                        metaDataBean.getOilPercent(),
-                        metaDataBean.getVehicleGear(),
-                        metaDataBean.getLeftLightStatus(),
-                        metaDataBean.getRightLightStatus());
-            }
-            sendDataToIP();
-            Thread.sleep(40);
+        updateFrameFilter.reset();
+        updateFrameScheduler.start(this::sendUpdateFrame);
+    }
+
+    private void stopUpdateData() {
+        if (updateFrameScheduler.isRunning()) {
+            updateFrameScheduler.stop();
+            Log.i(TAG, "停止发送更新数据，" + updateFrameFilter);
+        }
+    }
+
+    /**
+     * 组一帧更新数据并发送，在定时线程中执行
+     */
+    private void sendUpdateFrame() {
+        // 读出一致的快照，与上一帧的快照比较变化的字段
+        MetaDataSnapshot snapshot = metaDataBean.readSnapshot(nextFrameSnapshot);
+        int dirtyFields = snapshot.diff(lastFrameSnapshot) & MetaDataBean.UPDATE_FRAME_FIELDS;
+        nextFrameSnapshot = lastFrameSnapshot;
+        lastFrameSnapshot = snapshot;
+        LocalTime now = LocalTime.now();
+        long nowMs = SystemClock.elapsedRealtime();
+        if (!updateFrameFilter.needsEncode(dirtyFields, now.getHour() * 60 + now.getMinute(), nowMs)) {
+            return;
+        }
+        ByteBuffer frame;
+        if (dirtyFields != 0) {
+            Log.i(TAG, "当前车辆数据值: " + snapshot);
+        }
+        int carType = snapshot.getCarType();           //这里不要再嗲用AndroidUtil来转，否则又转回去了
+        int hour = now.getHour();
+        int minute = now.getMinute();
+        int energyCnseSelect = AndroidUtil.convertValueToIp("energyType",
+                snapshot.getEnergyOption());                              // 能耗选项设置:CLTC、WLTC
+        int speed = Math.round(snapshot.getSpeed());                           //车速
+        int eleRemainMile = Math.round(snapshot.getEvMileage());             //纯电剩余里程
+        int oilRemainMile = Math.round(snapshot.getOilMileage());            //燃油剩余里程
+        if (isDomestic){
+            frame = updateFrameEncoder.encodeDomesticUpdate(
+                    carType,
+                    hour,
+                    minute,
+                    snapshot.getVcuRdySts(),
+                    snapshot.getTemperature(),
+                    snapshot.getDriverMode(),
+                    snapshot.getEnergerMagMode(),
+                    energyCnseSelect,
+                    speed,
+                    eleRemainMile,
+                    snapshot.getPowerBarRatio(),
+                    oilRemainMile,
+                    snapshot.getOilPercent(),
+                    snapshot.getVehicleGear(),
+                    snapshot.getLeftLightStatus(),
+                    snapshot.getRightLightStatus());
+        }else {
+            frame = updateFrameEncoder.encodeGlobalUpdate(
+                    carType,
+                    snapshot.getLanguage(),
+                    snapshot.getUnit(),
+                    hour,
+                    minute,
+                    snapshot.getVcuRdySts(),
+                    snapshot.getTemperature(),
+                    snapshot.getDriverMode(),
+                    snapshot.getEnergerMagMode(),
+                    energyCnseSelect,
+                    speed,
+                    eleRemainMile,
+                    snapshot.getPowerBarRatio(),
+                    oilRemainMile,
+                    snapshot.getOilPercent(),
+                    snapshot.getVehicleGear(),
+                    snapshot.getLeftLightStatus(),
+                    snapshot.getRightLightStatus());
+        }
+        if (!updateFrameFilter.shouldSend(frame, nowMs)) {
+            return;
+        }
+        // 实时数据只保留最新一帧，由发送通道复制，编码缓冲区留给下一帧
+        Log.d(TAG, "发送数据：" + AndroidUtil.bytesToHex(frame.array()));
+        if (!networkService.sendTelemetry(frame.array(), frame.limit())) {
+            Log.e(TAG, "数据发送失败，服务未启动");
         }
     }
 
     @Override
     public void onDataChange(DispatchData dispatchData) {
         if (null != dispatchData){
-            switch (dispatchData.getDataType()){
-                case "MeterData":
-                    metaDataBean = dispatchData.getData();
-                    Log.d(TAG, "onDataChange: MeterData");
-                    break;
-                case "light":
+            switch (dispatchData.getType()){
+                case DispatchData.TYPE_LIGHT:
                     this.light = dispatchData.getData();
                     setLight(this.light ,"auto");
                     Log.i(TAG, "onDataChange,light : "+this.light);
@@ -295,8 +371,17 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
         if (networkService != null) {
             networkService.stopServer();
         }
-        isUpdateDataActive = false;
+        stopUpdateData();
     }
+    /**
+     * 升级仪表固件，升级期间暂停实时数据
+     * @param type 固件类型，同 MeterDataBuild#buildCheckFw
+     * @return 正在升级时返回false
+     */
+    public boolean startFirmwareUpgrade(byte[] image, int type) {
+        return upgradeEngine.start(image, type, MeterUpgradeEngine.DEFAULT_CHUNK_SIZE);
+    }
+
     public void updateRecoValue(boolean b) {
         Log.i(TAG, "重连 updateRecoValue: " + b);
         if (networkService != null) {
@@ -306,6 +391,9 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
     @Override
     protected void onCleared() {
         super.onCleared();
+        VehicleDataManager.getInstance().removeDataCallBack(this);
+        updateFrameScheduler.release();
+        upgradeEngine.release();
     }
 
 }
@@ -18,10 +18,13 @@ import android.car.hardware.mcu.CarMcuManager;
 import android.car.hardware.property.CarPropertyManager;
 import android.car.media.CarAudioManager;
 import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
 import com.deepal.ivi.hmi.ipcommon.util.SettingsManager;
 import com.deepal.ivi.hmi.ipvehiclecommon.IApplication;
+import com.deepal.ivi.hmi.ipcommon.data.DataDispatcher;
 import com.deepal.ivi.hmi.ipcommon.data.DispatchData;
 import com.deepal.ivi.hmi.ipcommon.data.bean.MetaDataBean;
 import com.deepal.ivi.hmi.ipcommon.data.bean.SetWrite;
@@ -29,13 +32,26 @@ import com.deepal.ivi.hmi.ipcommon.iInterface.DataCallBack;
 import com.deepal.ivi.hmi.ipcommon.util.AndroidUtil;
 
 import java.time.LocalTime;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 
 public class VehicleDataManager implements CarSensorManager.OnSensorChangedListener,CarPropertyManager.CarPropertyEventListener,ThemeManager.OnThemeChangeListener {
     private static final String TAG = "VehicleDataManager";
+    /** 信号订阅档位：没有仪表连接，不订阅车速和转向灯 */
+    public static final int PROFILE_IDLE = 0;
+    /** 信号订阅档位：仪表已连接，车辆未就绪或在P挡，车速普通频率 */
+    public static final int PROFILE_ATTACHED = 1;
+    /** 信号订阅档位：仪表已连接、车辆就绪且不在P挡，车速高频 */
+    public static final int PROFILE_DRIVING = 2;
+    // 档位：0x0=Parking
+    private static final int GEAR_PARKING = 0;
+    // 转向灯只在仪表连接时订阅
+    private static final int[] TURN_SIGNAL_PROPERTIES = {
+            CarCabinManager.ID_BODY_TURN_LEFT_SIGNAL_STATE,
+            CarCabinManager.ID_BODY_TURN_RIGHT_SIGNAL_STATE
+    };
     private volatile static MetaDataBean metaDataBean;
-    private CopyOnWriteArrayList<DataCallBack> dataCallBackList;
+    // 按类型分发给订阅者
+    private final DataDispatcher dataDispatcher = new DataDispatcher();
     private static VehicleDataManager instance ;
     private CarSensorManager mCarSensorManager;
     private CarAdasManager mCarAdasManager;
@@ -54,8 +70,17 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
     private boolean swithStatus;
     private int errRes = -1;
     private Context mContext;
+    // 以下两项用 this 同步
+    private boolean clusterAttached;
+    // 当前生效的订阅档位，-1 表示还没有注册
+    private int signalProfile = -1;
+    // 切换档位要同步调用Car服务注册接口，放到单独线程，不占用网络回调和Car回调线程
+    private final Handler profileHandler;
+    private final Runnable updateProfileTask = this::updateSignalProfile;
     public VehicleDataManager() {
-        dataCallBackList = new CopyOnWriteArrayList<>();
+        HandlerThread profileThread = new HandlerThread("Signal-Profile");
+        profileThread.start();
+        profileHandler = new Handler(profileThread.getLooper());
     }
 
     public static VehicleDataManager getInstance() {
@@ -104,28 +129,23 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
 
     /**
      * 注册信号监听
+     * 慢变信号常驻，只在变化时上报；车速和转向灯按订阅档位注册，见 {@link #updateSignalProfile()}
      */
     public void registerSignal() {
         try {
             if (mCarSensorManager != null) {
-                //车速√
-                mCarSensorManager.registerListener(this, CarSensorManager.SENSOR_TYPE_CAR_SPEED, CarSensorManager.SENSOR_RATE_NORMAL);
                 //挡位√：
-                mCarSensorManager.registerListener(this, CarSensorManager.SENSOR_TYPE_GEAR_INFO, CarSensorManager.SENSOR_RATE_NORMAL);
+                mCarSensorManager.registerListener(this, CarSensorManager.SENSOR_TYPE_GEAR_INFO, CarSensorManager.SENSOR_RATE_ONCHANGE);
                 //油量
-                mCarSensorManager.registerListener(this, CarSensorManager.ID_PCU_FUEL_LEFT_OVER, CarSensorManager.SENSOR_RATE_NORMAL);
+                mCarSensorManager.registerListener(this, CarSensorManager.ID_PCU_FUEL_LEFT_OVER, CarSensorManager.SENSOR_RATE_ONCHANGE);
                 //燃油剩余里程
-                mCarSensorManager.registerListener(this, CarSensorManager.SENSOR_TYPE_RANGE_REMAINING, CarSensorManager.SENSOR_RATE_NORMAL);
+                mCarSensorManager.registerListener(this, CarSensorManager.SENSOR_TYPE_RANGE_REMAINING, CarSensorManager.SENSOR_RATE_ONCHANGE);
             }
             if (mCarPropertyManager != null){
                 //能耗选项√
                 mCarPropertyManager.registerListener(this,CarCabinManager.ID_ENG_DIS_REL_REQ,VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL);
                 //ready状态√
                 mCarPropertyManager.registerListener(this,CarAdasManager.ID_DRIVE_ASSIST_STATUS_FEEDBACK,VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL);
-                //左转向灯√
-                mCarPropertyManager.registerListener(this,CarCabinManager.ID_BODY_TURN_LEFT_SIGNAL_STATE, VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL);
-                //右转向灯√
-                mCarPropertyManager.registerListener(this,CarCabinManager.ID_BODY_TURN_RIGHT_SIGNAL_STATE, VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL);
                 //驾驶模式√
                 mCarPropertyManager.registerListener(this,CarCabinManager.ID_PHEV_DRV_MODE_SET, VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL);
                 //纯电续航里程
@@ -144,20 +164,102 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
         } catch (CarNotConnectedException e) {
             Log.e(TAG, "registerSignal error : " + e.getMessage());
         }
+        // Car服务重连后原来的注册都失效了，按当前档位重新注册
+        synchronized (this) {
+            signalProfile = -1;
+        }
+        requestSignalProfileUpdate();
+    }
+
+    /**
+     * 仪表连接状态变化，自动切换信号订阅档位
+     */
+    public void setClusterAttached(boolean attached) {
+        synchronized (this) {
+            clusterAttached = attached;
+        }
+        requestSignalProfileUpdate();
+    }
+
+    public synchronized int getSignalProfile() {
+        return signalProfile;
+    }
+
+    /**
+     * 在档位线程重新计算订阅档位，连续的多次请求合并为一次
+     */
+    private void requestSignalProfileUpdate() {
+        profileHandler.removeCallbacks(updateProfileTask);
+        profileHandler.post(updateProfileTask);
+    }
+
+    /**
+     * 按仪表连接、车辆就绪和挡位切换车速、转向灯的订阅
+     * 没有仪表时不订阅；下电或挂回P挡时从高频降回普通频率；重新订阅时Car服务会先上报一次当前值
+     */
+    private synchronized void updateSignalProfile() {
+        int profile;
+        MetaDataBean bean = metaDataBean;
+        if (!clusterAttached) {
+            profile = PROFILE_IDLE;
+        } else if (bean != null && bean.getVcuRdySts() == 1 && bean.getVehicleGear() != GEAR_PARKING) {
+            profile = PROFILE_DRIVING;
+        } else {
+            profile = PROFILE_ATTACHED;
+        }
+        if (profile == signalProfile || mCarSensorManager == null || mCarPropertyManager == null) {
+            return;
+        }
+        Log.i(TAG, "信号订阅档位: " + signalProfile + " -> " + profile);
+        try {
+            // 降低频率要先取消注册，否则Car服务保留原来的频率
+            mCarSensorManager.unregisterListener(this, CarSensorManager.SENSOR_TYPE_CAR_SPEED);
+            if (profile != PROFILE_IDLE) {
+                //车速√
+                mCarSensorManager.registerListener(this, CarSensorManager.SENSOR_TYPE_CAR_SPEED,
+                        profile == PROFILE_DRIVING ? CarSensorManager.SENSOR_RATE_FAST : CarSensorManager.SENSOR_RATE_NORMAL);
+            }
+            boolean turnSignalRegistered = signalProfile > PROFILE_IDLE;
+            if (profile == PROFILE_IDLE && turnSignalRegistered) {
+                for (int propertyId : TURN_SIGNAL_PROPERTIES) {
+                    mCarPropertyManager.unregisterListener(this, propertyId);
+                }
+            } else if (profile != PROFILE_IDLE && !turnSignalRegistered) {
+                //左、右转向灯√
+                for (int propertyId : TURN_SIGNAL_PROPERTIES) {
+                    mCarPropertyManager.registerListener(this, propertyId, VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL);
+                }
+            }
+            signalProfile = profile;
+        } catch (CarNotConnectedException e) {
+            Log.e(TAG, "切换信号订阅档位失败: " + e.getMessage());
+        }
     }
 
     public void setLightSwithStatus(boolean status){
         this.swithStatus = status;
     }
     public void addDataCallBack(DataCallBack dataCallBack){
-        dataCallBackList.add(dataCallBack);
+        addDataCallBack(dataCallBack, DispatchData.TYPE_ALL);
+    }
+
+    /**
+     * 只订阅需要的数据类型
+     * @param types DispatchData.TYPE_* 的组合
+     */
+    public void addDataCallBack(DataCallBack dataCallBack, int types){
+        dataDispatcher.subscribe(dataCallBack, types);
+    }
+
+    public void removeDataCallBack(DataCallBack dataCallBack){
+        dataDispatcher.unsubscribe(dataCallBack);
     }
 
     @Override
     public void onThemeChanged(boolean isDarkMode) {
         Log.i(TAG, "监听显示模式: " + (isDarkMode?"深色模式":"浅色模式"));
         metaDataBean.setMode(isDarkMode?1:0);
-        sendToViewModel("apperMode");
+        sendToViewModel(DispatchData.TYPE_APPEAR_MODE);
     }
 
     public MetaDataBean getMetaDataBean(){
@@ -176,7 +278,7 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
         }else {
             value =  (float)Math.floor((speed / 0.98)+2.0f);
         }
-        Log.i(TAG, "监听车速: " + speed + "->" + value);
+        Log.d(TAG, "监听车速: " + speed + "->" + value);
         return value;
     }
 
@@ -189,7 +291,6 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
                 float speed = carSensorEvent.floatValues[0];
                 metaDataBean.setSpeed(calSpeed(speed));
                 toIp = true;
-                Log.i(TAG, "监听车速: " + speed);
                 break;
             case CarSensorManager.SENSOR_TYPE_GEAR_INFO:
                 int gearValue = getVcuGearPosn(); //不需要转，直接传给小仪表
@@ -203,6 +304,8 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
                 Log.d(TAG, "监听档位信息-> gearValue：" + gearValue + ", 对应值："+ gearStr);
                 metaDataBean.setVehicleGear(gearValue); //不需要转，直接传
                 toIp = true;
+                // 挂入或离开P挡时切换车速频率
+                requestSignalProfileUpdate();
                 break;
             case CarSensorManager.ID_PCU_FUEL_LEFT_OVER:
                 //剩余油量
@@ -224,19 +327,18 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
                 break;
         }
         if (toIp && metaDataBean != null){
-            Log.i(TAG, "MetaDataBean数据发送1:"+metaDataBean.toString());
-            sendToViewModel("MeterData");
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "MetaDataBean数据发送1:" + metaDataBean);
+            }
+            sendToViewModel(DispatchData.TYPE_METER_DATA);
         }
 
     }
 
-    private void sendToViewModel(String type) {
-        for (DataCallBack dataCallBack:dataCallBackList){
-               Log.i(TAG, "更新："+type);
-               dataCallBack.onDataChange(new DispatchData(metaDataBean,type));
-               toIp = false;
-            }
-
+    private void sendToViewModel(int type) {
+        Log.i(TAG, "更新："+DispatchData.typeName(type));
+        dataDispatcher.dispatch(type, metaDataBean);
+        toIp = false;
     }
 
     @Override
@@ -250,7 +352,7 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
                 metaDataBean.setLight(brightValue);
                 Log.i(TAG, "监听亮度值: " + brightValue);
                 if (swithStatus){
-                    sendToViewModel("light");
+                    sendToViewModel(DispatchData.TYPE_LIGHT);
                 }
                 break;
             case CarCabinManager.ID_ENG_DIS_REL_REQ:
@@ -272,6 +374,7 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
                     Log.i(TAG, "监听PCU_VcuRdySts: " + rndyStatus);
                     metaDataBean.setVcuRdySts(rndyStatus);
                     toIp = true;
+                    requestSignalProfileUpdate();
                 }else {
                     Log.i(TAG,
                             "ID_DRIVE_ASSIST_STATUS_FEEDBACK的反馈值非ready状态: " +
@@ -339,8 +442,10 @@ public class VehicleDataManager implements CarSensorManager.OnSensorChangedListe
 
         }
         if (toIp &&  metaDataBean != null){
-            Log.i(TAG, "MetaDataBean数据发送2:"+metaDataBean.toString());
-            sendToViewModel("MeterData");
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "MetaDataBean数据发送2:" + metaDataBean);
+            }
+            sendToViewModel(DispatchData.TYPE_METER_DATA);
         }
 
     }
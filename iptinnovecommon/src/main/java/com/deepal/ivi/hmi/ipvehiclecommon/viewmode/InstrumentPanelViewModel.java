@@ -1,21 +1,27 @@
 package com.deepal.ivi.hmi.ipvehiclecommon.viewmode;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
+import com.deepal.ivi.hmi.ipcommon.connection.MeterUpgradeEngine;
 import com.deepal.ivi.hmi.ipcommon.connection.NetworkServiceManager;
 import com.deepal.ivi.hmi.ipcommon.data.DispatchData;
 import com.deepal.ivi.hmi.ipcommon.data.bean.MetaDataBean;
+import com.deepal.ivi.hmi.ipcommon.data.bean.MetaDataSnapshot;
 import com.deepal.ivi.hmi.ipcommon.data.bean.MeterBasicDataBean;
 import com.deepal.ivi.hmi.ipcommon.iInterface.DataCallBack;
 import com.deepal.ivi.hmi.ipcommon.iInterface.ServerCallback;
 import com.deepal.ivi.hmi.ipcommon.util.AndroidUtil;
+import com.deepal.ivi.hmi.ipcommon.util.FrameChangeFilter;
+import com.deepal.ivi.hmi.ipcommon.util.FrameScheduler;
+import com.deepal.ivi.hmi.ipcommon.util.MeterFrameEncoder;
 import com.deepal.ivi.hmi.ipcommon.util.MeterDataBuild;
 import com.deepal.ivi.hmi.ipvehiclecommon.model.VehicleDataManager;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalTime;
 
 /**
@@ -23,13 +29,21 @@ import java.time.LocalTime;
  */
 public class InstrumentPanelViewModel extends ViewModel implements DataCallBack {
     private static final String TAG = "InstrumentPanelViewModel";
-    private MetaDataBean metaDataBean ;
+    private volatile MetaDataBean metaDataBean ;
     public final MutableLiveData<Integer> isClientConnected = new MutableLiveData<>();
     private MeterDataBuild builder = MeterDataBuild.INSTANCE;
     private byte [] dataToSend ;
     public MutableLiveData<String> showContent = new MutableLiveData<>();
 
     private final int SERVER_PORT = 10007;
+    // 仪表数据刷新周期
+    private static final long UPDATE_FRAME_PERIOD_MS = 35;
+    // 车辆数据没变化时只按这个间隔发送完整数据，保活和重新同步
+    private static final long UPDATE_KEYFRAME_INTERVAL_MS = 1000;
+    // 是否按变化发送，关闭后每帧都发送
+    private static final boolean UPDATE_CHANGE_TRACKING = true;
+    // 非阻塞服务：一个IO线程收发，允许诊断工具与仪表同时连接
+    private static final boolean NON_BLOCKING_SERVER = true;
     private final String SERVER_IP = "192.168.2.101";
     private int light = 0;
     public MutableLiveData<Integer> lightLiveData = new MutableLiveData<>();
@@ -38,10 +52,33 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
     private boolean metaDataBeanChanged = false;
     // 网络服务管理器
     private NetworkServiceManager networkService;
-    private boolean isUpdateDataActive;
+    // 仪表数据定时发送，不占用网络接收线程
+    private final FrameScheduler updateFrameScheduler = new FrameScheduler("ip-update-frame", UPDATE_FRAME_PERIOD_MS);
+    // 只在定时线程中使用
+    private final MeterFrameEncoder updateFrameEncoder = new MeterFrameEncoder();
+    private MetaDataSnapshot lastFrameSnapshot = new MetaDataSnapshot();
+    private MetaDataSnapshot nextFrameSnapshot = new MetaDataSnapshot();
+    private final FrameChangeFilter updateFrameFilter = new FrameChangeFilter(UPDATE_CHANGE_TRACKING, UPDATE_KEYFRAME_INTERVAL_MS);
+    // 仪表固件升级
+    private final MeterUpgradeEngine upgradeEngine;
     public InstrumentPanelViewModel() {
         networkService = NetworkServiceManager.getInstance(SERVER_IP, SERVER_PORT);
-        VehicleDataManager.getInstance().addDataCallBack(this);
+        upgradeEngine = new MeterUpgradeEngine(networkService, new MeterUpgradeEngine.Listener() {
+            @Override
+            public void onProgress(int ackedBytes, int totalBytes) {
+                showContent.postValue("升级进度：" + ackedBytes * 100L / totalBytes + "%");
+            }
+
+            @Override
+            public void onFinished(boolean success, String reason, int crc32) {
+                Log.i(TAG, "仪表升级结束 success=" + success + ", " + reason + ", crc32=" + Integer.toHexString(crc32));
+                showContent.postValue(reason);
+            }
+        });
+        // 实时数据由定时发送读取快照，只订阅需要立即下发的模式和亮度
+        metaDataBean = VehicleDataManager.getInstance().getMetaDataBean();
+        VehicleDataManager.getInstance().addDataCallBack(this,
+                DispatchData.TYPE_APPEAR_MODE | DispatchData.TYPE_LIGHT);
     }
 
     private ServerCallback serverCallbackInstance = new ServerCallback() {
@@ -50,6 +87,12 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
             Log.d(TAG, "仪表连接状态:Client connection status: " + status);
             isClientConnected.postValue(status?1:0);
             showContent.postValue(status ? "客户端已连接" : "客户端断开连接,原因是：" + reason) ;
+            upgradeEngine.onConnectionChanged(status);
+            // 有仪表连接时才高频订阅车速、转向灯
+            VehicleDataManager.getInstance().setClusterAttached(status);
+            if (!status) {
+                stopUpdateData();
+            }
         }
         @Override
         public void receiveMsgFromClient(byte[] data) {
@@ -63,6 +106,7 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
     }
 
     public void startServer() {
+        networkService.setNonBlocking(NON_BLOCKING_SERVER);
         networkService.startServer();
         showContent.postValue("服务器启动，监听端口：" + SERVER_PORT);
     }
@@ -74,16 +118,16 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
         showContent.postValue("收到：" + message);
 
         MeterBasicDataBean basicBean = MeterDataBuild.INSTANCE.dispatchAnalyzeData(receivedData);
+        if (basicBean == null) {
+            // 升级应答等其他数据包
+            upgradeEngine.handleFrame(receivedData);
+            return;
+        }
         if (basicBean.getStatus() == 2) {
             setIpInitData();
         }
         if (basicBean.getStatus() == 3) {
-            try {
-                //loopBuildUpdateData();
-                loopUpdateData();
-            } catch (InterruptedException | IOException e) {
-                Log.e(TAG, "更新数据循环异常", e);
-            }
+            startUpdateData();
         }
     }
 
@@ -155,9 +199,13 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
     }
 
     public void sendDataToIP(){
-        Log.d(TAG, "发送数据：" + AndroidUtil.bytesToHex(dataToSend));
+        sendDataToIP(dataToSend);
+    }
+
+    private void sendDataToIP(byte[] data){
+        Log.d(TAG, "发送数据：" + AndroidUtil.bytesToHex(data));
         if (metaDataBean != null) {
-            networkService.sendData(dataToSend, new NetworkServiceManager.SendCallback() {
+            networkService.sendData(data, new NetworkServiceManager.SendCallback() {
                 @Override
                 public void onSuccess() {
                     Log.d(TAG, "数据发送成功");
@@ -173,51 +221,81 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
         }
     }
 
-    public void loopUpdateData() throws InterruptedException, IOException {
-        isUpdateDataActive = true;
+    /**
+     * 仪表进入工作状态后开始定时发送数据，重复调用无效
+     */
+    public void startUpdateData() {
         if (metaDataBean == null) {
             metaDataBean = VehicleDataManager.getInstance().getMetaDataBean();
         }
-        while (isUpdateDataActive) {
-            Log.i(TAG, "当前车辆数据值: " +
-                    "\n 车辆类型: " + metaDataBean.getCarType() +
-                    "\n 当前时间: " + LocalTime.now().getHour() + ":" +  LocalTime.now().getMinute() +
-                    "\n 准备状态: " + metaDataBean.getVcuRdySts() +
-                    "\n 温度: " + metaDataBean.getTemperature() +
-                    "\n 驾驶模式: " + metaDataBean.getDriverMode() +
-                    "\n 能源模式: " + metaDataBean.getEnergerMagMode() +
-                    "\n 能耗选项: " + metaDataBean.getEnergyOption() +
-                    "\n 车速: " + metaDataBean.getSpeed() +
-                    "\n 纯电剩余里程: " + metaDataBean.getEvMileage() +
-                    "\n 剩余电量: " + metaDataBean.getPowerBarRatio() +
-                    "\n 燃油剩余里程: " + metaDataBean.getOilMileage() +
-                    "\n 剩余油量: " + metaDataBean.getOilPercent() +
-                    "\n 档位: " + metaDataBean.getVehicleGear() +
-                    "\n 左转向灯: " + metaDataBean.getLeftLightStatus() +
-                    "\n 右转向灯: " + metaDataBean.getRightLightStatus());
-            dataToSend = MeterDataBuild.INSTANCE.buildDomesticUpdateData(
-                    metaDataBean.getCarType(), LocalTime.now().getHour(), LocalTime.now().getMinute(),
-                    metaDataBean.getVcuRdySts() , metaDataBean.getTemperature(), metaDataBean.getDriverMode(),
-                    metaDataBean.getEnergerMagMode(),metaDataBean.getEnergyOption(), (int)(metaDataBean.getSpeed()),
-                    Math.round(metaDataBean.getEvMileage()), metaDataBean.getPowerBarRatio(), Math.round(metaDataBean.getOilMileage()),
-                    metaDataBean.getOilPercent(), metaDataBean.getVehicleGear(),
-                    metaDataBean.getLeftLightStatus(), metaDataBean.getRightLightStatus());
-            sendDataToIP();
-            Thread.sleep(35);
+        updateFrameFilter.reset();
+        updateFrameScheduler.start(this::sendUpdateFrame);
+    }
+
+    private void stopUpdateData() {
+        if (updateFrameScheduler.isRunning()) {
+            updateFrameScheduler.stop();
+            Log.i(TAG, "停止发送更新数据，" + updateFrameFilter);
         }
+    }
 
+    /**
+     * 组一帧更新数据并发送，在定时线程中执行
+     */
+    private void sendUpdateFrame() {
+        // 读出一致的快照，与上一帧的快照比较变化的字段
+        MetaDataSnapshot snapshot = metaDataBean.readSnapshot(nextFrameSnapshot);
+        int dirtyFields = snapshot.diff(lastFrameSnapshot) & MetaDataBean.UPDATE_FRAME_FIELDS;
+        nextFrameSnapshot = lastFrameSnapshot;
+        lastFrameSnapshot = snapshot;
+        LocalTime now = LocalTime.now();
+        long nowMs = SystemClock.elapsedRealtime();
+        if (!updateFrameFilter.needsEncode(dirtyFields, now.getHour() * 60 + now.getMinute(), nowMs)) {
+            return;
+        }
+        if (dirtyFields != 0) {
+            Log.i(TAG, "当前车辆数据值: " +
+                    "\n 车辆类型: " + snapshot.getCarType() +
+                    "\n 当前时间: " + now.getHour() + ":" +  now.getMinute() +
+                    "\n 准备状态: " + snapshot.getVcuRdySts() +
+                    "\n 温度: " + snapshot.getTemperature() +
+                    "\n 驾驶模式: " + snapshot.getDriverMode() +
+                    "\n 能源模式: " + snapshot.getEnergerMagMode() +
+                    "\n 能耗选项: " + snapshot.getEnergyOption() +
+                    "\n 车速: " + snapshot.getSpeed() +
+                    "\n 纯电剩余里程: " + snapshot.getEvMileage() +
+                    "\n 剩余电量: " + snapshot.getPowerBarRatio() +
+                    "\n 燃油剩余里程: " + snapshot.getOilMileage() +
+                    "\n 剩余油量: " + snapshot.getOilPercent() +
+                    "\n 档位: " + snapshot.getVehicleGear() +
+                    "\n 左转向灯: " + snapshot.getLeftLightStatus() +
+                    "\n 右转向灯: " + snapshot.getRightLightStatus());
+        }
+        ByteBuffer frame = updateFrameEncoder.encodeDomesticUpdate(
+                snapshot.getCarType(), now.getHour(), now.getMinute(),
+                snapshot.getVcuRdySts() , snapshot.getTemperature(), snapshot.getDriverMode(),
+                snapshot.getEnergerMagMode(),snapshot.getEnergyOption(), (int)(snapshot.getSpeed()),
+                Math.round(snapshot.getEvMileage()), snapshot.getPowerBarRatio(), Math.round(snapshot.getOilMileage()),
+                snapshot.getOilPercent(), snapshot.getVehicleGear(),
+                snapshot.getLeftLightStatus(), snapshot.getRightLightStatus());
+        if (!updateFrameFilter.shouldSend(frame, nowMs)) {
+            return;
+        }
+        // 实时数据只保留最新一帧，由发送通道复制，编码缓冲区留给下一帧
+        Log.d(TAG, "发送数据：" + AndroidUtil.bytesToHex(frame.array()));
+        if (!networkService.sendTelemetry(frame.array(), frame.limit())) {
+            Log.e(TAG, "数据发送失败，服务未启动");
+        }
     }
 
     @Override
     public void onDataChange(DispatchData dispatchData) {
         if (null != dispatchData){
-            metaDataBean = dispatchData.getData();
-            Log.d(TAG, "onDataChange: MeterData= "+metaDataBean.toString());
-            switch (dispatchData.getDataType()){
-                case "apperMode":
+            switch (dispatchData.getType()){
+                case DispatchData.TYPE_APPEAR_MODE:
                     setMode(metaDataBean.getMode());
                     break;
-                case "light":
+                case DispatchData.TYPE_LIGHT:
                     setLight(metaDataBean.getLight() ,"auto");
                     break;
             }
@@ -232,11 +310,24 @@ public class InstrumentPanelViewModel extends ViewModel implements DataCallBack
         if (networkService != null) {
             networkService.stopServer();
         }
-        isUpdateDataActive = false;
+        stopUpdateData();
     }
     @Override
     protected void onCleared() {
         super.onCleared();
+        VehicleDataManager.getInstance().removeDataCallBack(this);
+        VehicleDataManager.getInstance().setClusterAttached(false);
+        updateFrameScheduler.release();
+        upgradeEngine.release();
+    }
+
+    /**
+     * 升级仪表固件，升级期间暂停实时数据
+     * @param type 固件类型，同 MeterDataBuild#buildCheckFw
+     * @return 正在升级时返回false
+     */
+    public boolean startFirmwareUpgrade(byte[] image, int type) {
+        return upgradeEngine.start(image, type, MeterUpgradeEngine.DEFAULT_CHUNK_SIZE);
     }
 
     public void updateRecoValue(boolean b) {
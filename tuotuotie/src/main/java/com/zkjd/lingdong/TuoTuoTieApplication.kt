@@ -2,9 +2,11 @@ package com.zkjd.lingdong
 
 import android.app.Application
 import com.adayo.service.utils.FunctionConfigCheck
+import com.zkjd.lingdong.data.FunctionsConfig
 
 object TuoTuoTieApplication {
     fun init(context: Application){
         FunctionConfigCheck.getIFunctionConfigCheck(context)
+        FunctionsConfig.preload(context)
     }
 }
\ No newline at end of file
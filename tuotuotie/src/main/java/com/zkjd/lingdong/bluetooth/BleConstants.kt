@@ -21,6 +21,18 @@ object BleConstants {
     var LYT="DeepalTag_L"
     var GR="DeepalTag_E"
 
+    /** 设备完整名称，用于下发给控制器的扫描过滤器 */
+    val DEVICE_NAMES = listOf("DeepalTag_L0", "DeepalTag_L1", "DeepalTag_E1")
+
+    /** 广播类型在原始广播数据中的偏移，位于厂商自定义数据(0xFF)的第一个字节 */
+    const val ADV_TYPE_OFFSET = 5
+
+    /** 配对广播 */
+    const val ADV_TYPE_PAIRING: Byte = 0x01
+
+    /** 重连广播 */
+    const val ADV_TYPE_RECONNECT: Byte = 0x02
+
     /** 扫描时候最小信号强度（用于距离判断） */
     val MIN_RSSI_THRESHOLD = -70
 
@@ -0,0 +1,118 @@
+package com.zkjd.lingdong.bluetooth
+
+/**
+ * KEY_CODE 解码，协议见 控制数据结构定义.md 3.2.2
+ *
+ * - 位7-6：按键类型，00短按 01长按 10双击 11保留
+ * - 位5-4：标志位
+ * - 位3-0：键值
+ * - 0x02/0x03 为旋钮正旋/反旋，只有键值有效
+ * - 0xF1/0xF2 为进入/退出反向控制
+ *
+ * 解码结果打包在一个Int中，不创建对象：
+ * 位0-7 原始码，位8-9 按键类型，位10-11 标志位，位12-15 键值，位16-19 类别
+ */
+object KeyCodeDecoder {
+
+    // 按键类型
+    const val PRESS_SHORT = 0
+    const val PRESS_LONG = 1
+    const val PRESS_DOUBLE = 2
+    const val PRESS_RESERVED = 3
+
+    // 类别
+    const val KIND_NONE = 0             // 按键未使能
+    const val KIND_BUTTON = 1           // 按钮
+    const val KIND_KNOB_CLOCKWISE = 2   // 旋钮正旋
+    const val KIND_KNOB_ANTICLOCKWISE = 3 // 旋钮反旋
+    const val KIND_REVERSE_ENTER = 4    // 进入反向控制
+    const val KIND_REVERSE_EXIT = 5     // 退出反向控制
+    const val KIND_UNKNOWN = 6          // 无法识别
+
+    /** 标志位为11表示反向控制 */
+    private const val FLAG_REVERSE_CONTROL = 3
+
+    /**
+     * 解码KEY_CODE
+     * @return 打包后的解码结果
+     */
+    fun decode(keyCode: Byte): Int {
+        val raw = keyCode.toInt() and 0xFF
+        val pressType = raw ushr 6
+        val flag = (raw ushr 4) and 0x03
+        val key = raw and 0x0F
+        val kind = when {
+            raw == 0 -> KIND_NONE
+            raw == 0x02 -> KIND_KNOB_CLOCKWISE
+            raw == 0x03 -> KIND_KNOB_ANTICLOCKWISE
+            flag == FLAG_REVERSE_CONTROL && pressType == PRESS_RESERVED && key == 1 -> KIND_REVERSE_ENTER
+            flag == FLAG_REVERSE_CONTROL && pressType == PRESS_RESERVED && key == 2 -> KIND_REVERSE_EXIT
+            flag == 0 && pressType != PRESS_RESERVED -> KIND_BUTTON
+            else -> KIND_UNKNOWN
+        }
+        return raw or (pressType shl 8) or (flag shl 10) or (key shl 12) or (kind shl 16)
+    }
+
+    /** 原始码 */
+    fun rawCode(packed: Int): Int = packed and 0xFF
+
+    /** 按键类型 */
+    fun pressType(packed: Int): Int = (packed ushr 8) and 0x03
+
+    /** 标志位 */
+    fun flag(packed: Int): Int = (packed ushr 10) and 0x03
+
+    /** 键值 */
+    fun key(packed: Int): Int = (packed ushr 12) and 0x0F
+
+    /** 类别 */
+    fun kind(packed: Int): Int = (packed ushr 16) and 0x0F
+
+    /** 是否旋钮事件 */
+    fun isKnob(packed: Int): Boolean {
+        val kind = kind(packed)
+        return kind == KIND_KNOB_CLOCKWISE || kind == KIND_KNOB_ANTICLOCKWISE
+    }
+}
+
+/**
+ * 单个设备的按键去重环
+ *
+ * 最近 [capacity] 个事件以 (原始码 << 56 | 时间戳) 存在LongArray中，
+ * 窗口内收到相同的按键码视为协议栈重复上报。旋钮每一格都是有效操作，快速旋转时
+ * 相同码间隔可能只有几十毫秒，因此旋钮只过滤 [knobWindowMs] 内的重复
+ *
+ * 同一设备的通知在同一个GATT回调线程中顺序到达，锁只在设备内部竞争
+ */
+class KeyDedupeRing(
+    private val buttonWindowMs: Long = 100L,
+    private val knobWindowMs: Long = 5L,
+    private val capacity: Int = 8
+) {
+    private val entries = LongArray(capacity)
+    private var next = 0
+
+    /**
+     * 记录事件并判断是否重复
+     * @param packed [KeyCodeDecoder.decode] 的结果
+     * @param nowMs 当前时间，单调时钟
+     * @return 重复事件返回true，不记录
+     */
+    fun isDuplicate(packed: Int, nowMs: Long): Boolean = synchronized(this) {
+        val code = KeyCodeDecoder.rawCode(packed).toLong()
+        val window = if (KeyCodeDecoder.isKnob(packed)) knobWindowMs else buttonWindowMs
+        for (entry in entries) {
+            if (entry == 0L) continue
+            if ((entry ushr 56) == code && nowMs - (entry and TIMESTAMP_MASK) < window) {
+                return true
+            }
+        }
+        entries[next] = (code shl 56) or (nowMs and TIMESTAMP_MASK)
+        next = (next + 1) % capacity
+        false
+    }
+
+    private companion object {
+        const val TIMESTAMP_MASK = (1L shl 56) - 1
+    }
+}
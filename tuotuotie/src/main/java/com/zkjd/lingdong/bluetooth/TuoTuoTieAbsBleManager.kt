@@ -3,20 +3,25 @@ package com.zkjd.lingdong.bluetooth
 import android.bluetooth.BluetoothDevice
 import android.bluetooth.BluetoothGatt
 import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.le.ScanFilter
 import android.bluetooth.le.ScanResult
 import android.content.Context
 import android.os.ParcelUuid
+import android.os.SystemClock
 import android.util.Log
 import com.mine.baselibrary.bluetooth.BaseBleManagerIml
+import com.mine.baselibrary.bluetooth.BleEventLanes
 import com.mine.baselibrary.bluetooth.DELAY_SEND
 import com.mine.baselibrary.bluetooth.DeviceEvent
+import com.mine.baselibrary.bluetooth.DeviceEventBus
+import com.mine.baselibrary.bluetooth.DeviceEventBusStats
+import com.mine.baselibrary.bluetooth.ScanPhase
 import com.mine.baselibrary.bluetooth.ScanState
 import com.mine.baselibrary.bluetooth.TAG
 import com.mine.baselibrary.util.bytesUtil.BleAuthUtils
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.TimeoutCancellationException
-import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -36,8 +41,14 @@ internal const val WAIT_TO=5000L
  * TuoTuoTie设备特定事件
  */
 sealed class TuoTuoTieDeviceEvent {
-    data class ButtonPressed(val device: BluetoothDevice, val keyCode: Byte) : TuoTuoTieDeviceEvent()
-    data class SetReadVules(val device: BluetoothDevice, val vules: String) : TuoTuoTieDeviceEvent() // 设备回传颜色
+    abstract val device: BluetoothDevice
+
+    /**
+     * @param keyCode 原始KEY_CODE
+     * @param decoded [KeyCodeDecoder.decode] 打包后的解码结果
+     */
+    data class ButtonPressed(override val device: BluetoothDevice, val keyCode: Byte, val decoded: Int) : TuoTuoTieDeviceEvent()
+    data class SetReadVules(override val device: BluetoothDevice, val vules: String) : TuoTuoTieDeviceEvent() // 设备回传颜色
 }
 
 abstract class TuoTuoTieAbsBleManager(override val appContext: Context) : BaseBleManagerIml(appContext) {
@@ -84,8 +95,15 @@ abstract class TuoTuoTieAbsBleManager(override val appContext: Context) : BaseBl
     /** 存储鉴权信息 */
     val authenticationData = ConcurrentHashMap<String, AuthData>()
 
-    /** TuoTuoTie设备特定事件流 */
-    internal val tuoTuoTieDeviceEventsFlow = MutableSharedFlow<TuoTuoTieDeviceEvent>(replay = 0)
+    /** TuoTuoTie设备特定事件总线，按键不丢弃，同一设备按通知顺序投递 */
+    internal val tuoTuoTieEventBus = DeviceEventBus<TuoTuoTieDeviceEvent>(
+        coroutineScope,
+        { it.device.address },
+        { if (it is TuoTuoTieDeviceEvent.ButtonPressed) BleEventLanes.BUTTON else BleEventLanes.STATE }
+    )
+
+    /** 每个设备的按键去重环 */
+    private val keyDedupeRings = ConcurrentHashMap<String, KeyDedupeRing>()
 
     override val mainServiceUUID = BleConstants.SERVICE_UUID
 
@@ -102,9 +120,14 @@ abstract class TuoTuoTieAbsBleManager(override val appContext: Context) : BaseBl
     override fun isRssiMonitoringEnabled(): Boolean = true
 
     fun getTuoTuoTieDeviceEvents(): SharedFlow<TuoTuoTieDeviceEvent> {
-        return tuoTuoTieDeviceEventsFlow
+        return tuoTuoTieEventBus.events
     }
 
+    /**
+     * 按键事件总线统计
+     */
+    fun getTuoTuoTieDeviceEventStats(): DeviceEventBusStats = tuoTuoTieEventBus.stats()
+
     /**
      * 设置工作模式下的LED颜色
      */
@@ -129,40 +152,44 @@ abstract class TuoTuoTieAbsBleManager(override val appContext: Context) : BaseBl
         return true
     }
 
+    /**
+     * 在主服务UUID之外按完整设备名过滤，两者为或关系
+     * 配对/重连标志是厂商数据的第一个字节，在协议栈解析中属于厂商ID的低字节，
+     * 无法用 setManufacturerData 的掩码单独匹配，仍在 [onAcceptScanResult] 中判断
+     */
+    override fun buildScanFilters(phase: ScanPhase): List<ScanFilter> =
+        super.buildScanFilters(phase) + BleConstants.DEVICE_NAMES.map { name ->
+            ScanFilter.Builder().setDeviceName(name).build()
+        }
+
     override fun onAcceptScanResult(result: ScanResult) {
         val device = result.device
         // 只处理名称匹配的设备
-        if (device.name != null && device.name.startsWith(BleConstants.DEVICE_NAME_HEAD)) {
-            Timber.tag(TAG)
-                .w("扫描到设备：${device.address}, 名称=${device.name}, RSSI=${result.rssi}")
-            //读取广播内容，判断是否配对广播
-            try {
-                result.rssi.let { rssi ->
-                    device.setRssiValue(rssi)
+        val name = device.name ?: return
+        if (!name.startsWith(BleConstants.DEVICE_NAME_HEAD)) return
+
+        //读取广播内容，判断是否配对广播：1为配对广播，2为重连广播
+        val advType = result.scanRecord?.bytes?.getOrNull(BleConstants.ADV_TYPE_OFFSET) ?: run {
+            Timber.tag(TAG).w("广播没有FF: ${device.address}")
+            return
+        }
+        when (advType) {
+            BleConstants.ADV_TYPE_PAIRING -> {
+                device.setRssiValue(result.rssi)
+                if (acceptScannedDevice(device)) {
+                    Timber.tag(TAG).w("收到配对广播：${device.address}, 名称=$name, RSSI=${result.rssi}")
                 }
-                val dataGB = result.scanRecord?.bytes
-                val dataGBString = BleAuthUtils.byteArrayToHexString(dataGB!!)
-                Timber.tag(TAG).e("广播=${dataGBString}")
-                //1为配对广播，2为重连广播
-                //                        val value = advertisingDataMap?.getValue(255)
-                //                        val valueString = value?.let { BleAuthUtils.byteArrayToHexString(it) }
-                var valueString = dataGBString.substring(10, 12)
-                if (valueString != null) {
-                    if (valueString.toInt() == 1) {
-                        scanResults.add(device)
-                        coroutineScope.launch {
-                            scanStateFlow.emit(ScanState.ScanResult(scanResults.toList()))
-                        }
-                        Log.e(TAG, "收到配对广播")
-                    } else if (valueString.toInt() == 2) {
-                        Log.e(TAG, "收到重连广播")
-                    } else {
-                        Log.e(TAG, "广播类型错误")
+            }
+            BleConstants.ADV_TYPE_RECONNECT -> {
+                // 回连扫描时重连广播的设备也是目标
+                if (currentScanPhase == ScanPhase.RECONNECT) {
+                    device.setRssiValue(result.rssi)
+                    if (acceptScannedDevice(device)) {
+                        Timber.tag(TAG).w("收到重连广播：${device.address}, RSSI=${result.rssi}")
                     }
                 }
-            } catch (e: Exception) {
-                Timber.tag(TAG).w("广播没有FF")
             }
+            else -> Timber.tag(TAG).d("广播类型错误: $advType")
         }
     }
 
@@ -187,16 +214,12 @@ abstract class TuoTuoTieAbsBleManager(override val appContext: Context) : BaseBl
         }
 
         // 3. 检查通知特征
-        val notifyCharacteristic = mainService.getCharacteristic(characteristicNotifyUuid) ?: run {
+        mainService.getCharacteristic(characteristicNotifyUuid) ?: run {
             Timber.tag(TAG).e("设备缺少通知特征: ${gatt.device.address}")
             return false
         }
 
-        // 4. 正确配置通知特征
-        if (!enableCharacteristicNotification(gatt, notifyCharacteristic)) {
-            Timber.tag(TAG).e("无法启用通知特征: ${gatt.device.address}")
-            return false
-        }
+        // 4. 通知特征由基类在验证通过后启用，并等待描述符写入结果
 
         // 5. 检查电池服务（可选）
         val batteryService = gatt.getService(batteryServiceUuid)
@@ -324,31 +347,15 @@ abstract class TuoTuoTieAbsBleManager(override val appContext: Context) : BaseBl
                 batteryLevelUuid -> {
                     val batteryLevel = characteristic.value[0].toInt() and 0xFF
                     Timber.tag(TAG).w("设备电量: ${batteryLevel}%")
-                    coroutineScope.launch {
-                        deviceEventsFlow.emit(
-                            DeviceEvent.BatteryLevelChanged(gatt.device, batteryLevel)
-                        )
-                    }
+                    deviceEventBus.publish(DeviceEvent.BatteryLevelChanged(gatt.device, batteryLevel))
                 }
 
                 characteristicNotifyUuid -> {
 
-                    val uuid = characteristic.uuid.toString()
-                    writeCallbacks[uuid]?.let { deferred ->
-                        if (!deferred.isCompleted) {
-                            deferred.complete(status == BluetoothGatt.GATT_SUCCESS)
-                        }
-                        writeCallbacks.remove(uuid)
-                    }
-
                     val readVules = BleAuthUtils.byteArrayToHexString(characteristic.value)
 
                     Timber.tag(TAG).e("读取设备Read反馈=${readVules}")
-                    coroutineScope.launch {
-                        tuoTuoTieDeviceEventsFlow.emit(
-                            TuoTuoTieDeviceEvent.SetReadVules(gatt.device, readVules)
-                        )
-                    }
+                    tuoTuoTieEventBus.publish(TuoTuoTieDeviceEvent.SetReadVules(gatt.device, readVules))
                 }
             }
         }
@@ -358,94 +365,79 @@ abstract class TuoTuoTieAbsBleManager(override val appContext: Context) : BaseBl
         characteristic: BluetoothGattCharacteristic,
         gatt: BluetoothGatt
     ) {
-        synchronized(characteristicChangedLock) {
-            when (characteristic.uuid) {
-                characteristicNotifyUuid -> {
-                    val data = characteristic.value
-                    if (data == null) {
-                        Timber.tag(TAG).e("收到空数据包")
-                        return
-                    }
+        // 不同设备的通知互不影响，不再使用全局锁
+        when (characteristic.uuid) {
+            characteristicNotifyUuid -> {
+                val data = characteristic.value
+                if (data == null) {
+                    Timber.tag(TAG).e("收到空数据包")
+                    return
+                }
 
-                    val threadID = Thread.currentThread().id
-
-                    // 计算数据包的唯一标识
-                    val notificationKey = "${gatt.device.address}_${bytesToHex(data)}"
-                    val currentTime = System.currentTimeMillis()
-
-                    // 检查是否是重复通知（100毫秒内收到完全相同的数据）
-                    //val lastTime = lastProcessedNotification[notificationKey]
-                    //if (lastTime != null && (currentTime - lastTime) < 100) {
-                    //    Timber.tag(TAG).w("忽略可能的重复通知: ${bytesToHex(data)}, 距上次处理: ${currentTime - lastTime}ms")
-                    //    return
-                    //}
-
-                    // 记录数据包内容
-                    Timber.tag(TAG)
-                        .w("收到数据包: ${bytesToHex(data)}, 长度: ${data.size}, 线程：${threadID}")
-
-                    // 更新最近处理的通知记录
-                    lastProcessedNotification[notificationKey] = currentTime
-
-                    // 清理过期的通知记录
-                    clearExpiredNotifications(currentTime)
-
-                    // 验证数据包格式
-                    if (data.size >= 2) {
-                        when (data[0]) {
-                            BleConstants.HEADER_NOTIFICATION -> {
-                                // 处理按键通知
-                                if (data.size >= 4) { // 只检查长度
-                                    val keyCode = data[1]
-                                    Timber.tag(TAG)
-                                        .w("收到按键代码: 0x${keyCode.toUByte().toString(16)}")
-
-                                    coroutineScope.launch {
-                                        tuoTuoTieDeviceEventsFlow.emit(
-                                            TuoTuoTieDeviceEvent.ButtonPressed(
-                                                gatt.device,
-                                                keyCode
-                                            )
-                                        )
-                                    }
-                                } else {
-                                    Timber.tag(TAG).e("数据长度出错 0x${data}")
-                                }
+                // 验证数据包格式
+                if (data.size >= 2) {
+                    when (data[0]) {
+                        BleConstants.HEADER_NOTIFICATION -> {
+                            // 处理按键通知
+                            if (data.size >= 4) { // 只检查长度
+                                handleKeyCode(gatt.device, data[1])
+                            } else {
+                                Timber.tag(TAG).e("数据长度出错 ${bytesToHex(data)}")
                             }
+                        }
 
-                            BleConstants.HEADER_AUTH -> {
-                                // 处理鉴权响应
-                                Timber.tag(TAG).i("鉴权:处理鉴权响应")
-                                handleAuthResponse(gatt, data)
-                            }
+                        BleConstants.HEADER_AUTH -> {
+                            // 处理鉴权响应
+                            Timber.tag(TAG).i("鉴权:处理鉴权响应")
+                            handleAuthResponse(gatt, data)
+                        }
 
-                            else -> {
-                                Timber.tag(TAG)
-                                    .w("收到未知头部的数据包: 0x${data[0].toUByte().toString(16)}")
-                            }
+                        else -> {
+                            Timber.tag(TAG)
+                                .w("收到未知头部的数据包: 0x${data[0].toUByte().toString(16)}")
                         }
-                    } else {
-                        Timber.tag(TAG).w("收到的数据包格式不正确")
                     }
+                } else {
+                    Timber.tag(TAG).w("收到的数据包格式不正确")
                 }
+            }
 
-                batteryLevelUuid -> {
-                    val data = characteristic.value
-                    if (data == null) {
-                        Timber.tag(TAG).e("收到空数据包")
-                        return
-                    } else {
+            batteryLevelUuid -> {
+                val data = characteristic.value
+                if (data == null) {
+                    Timber.tag(TAG).e("收到空数据包")
+                    return
+                } else {
 
-                    }
                 }
+            }
 
-                else -> {
-                    Timber.tag(TAG).e("unkown notify ${characteristic.uuid}")
-                }
+            else -> {
+                Timber.tag(TAG).e("unkown notify ${characteristic.uuid}")
             }
         }
     }
 
+    /**
+     * 解码按键并发出事件，旋钮快速旋转时每秒几十个通知，这里不拼接字符串、不启动协程
+     */
+    private fun handleKeyCode(device: BluetoothDevice, keyCode: Byte) {
+        val decoded = KeyCodeDecoder.decode(keyCode)
+        if (KeyCodeDecoder.kind(decoded) == KeyCodeDecoder.KIND_NONE) return
+
+        val ring = keyDedupeRings[device.address]
+            ?: keyDedupeRings.computeIfAbsent(device.address) { KeyDedupeRing() }
+        if (ring.isDuplicate(decoded, SystemClock.elapsedRealtime())) {
+            Timber.tag(TAG).d("忽略重复按键通知: %02x", KeyCodeDecoder.rawCode(decoded))
+            return
+        }
+
+        if (!KeyCodeDecoder.isKnob(decoded)) {
+            Timber.tag(TAG).w("收到按键代码: %02x", KeyCodeDecoder.rawCode(decoded))
+        }
+        tuoTuoTieEventBus.publish(TuoTuoTieDeviceEvent.ButtonPressed(device, keyCode, decoded))
+    }
+
 
     /**
      * 处理设备的鉴权响应
@@ -622,9 +614,16 @@ abstract class TuoTuoTieAbsBleManager(override val appContext: Context) : BaseBl
 
 
 
+    override fun onDeviceReleased(deviceAddress: String) {
+        tuoTuoTieEventBus.release(deviceAddress)
+        keyDedupeRings.remove(deviceAddress)
+    }
+
     override fun close() {
         super.close()
         authenticationData.clear()
+        keyDedupeRings.clear()
+        tuoTuoTieEventBus.releaseAll()
     }
 
    override suspend fun readDeviceInfo(
@@ -15,6 +15,8 @@ class TuoTuoTieBleManagerImp@Inject constructor(
     @ApplicationContext override val appContext: Context,
 ) : TuoTuoTieAbsBleManager(appContext){
 
+    override fun isHighThroughputWriteEnabled(): Boolean = true
+
     /**
      * 发送命令到设备
      * @param device 蓝牙设备
@@ -23,6 +25,7 @@ class TuoTuoTieBleManagerImp@Inject constructor(
      * @param value1 参数1
      * @param value2 参数2
      * @param value3 参数3
+     * @param pipelined 是否使用高吞吐写入模式（无响应写入），用于LED配置等连续下发的命令
      * @return 发送成功返回true，否则返回false
      */
     private suspend fun sendCommand(
@@ -32,6 +35,7 @@ class TuoTuoTieBleManagerImp@Inject constructor(
         value1: Byte,
         value2: Byte,
         value3: Byte,
+        pipelined: Boolean = false,
     ): Boolean = withContext(Dispatchers.IO) {
         val gatt = deviceGattMap[device.address] ?: run {
             Timber.tag(TAG).e("发送命令失败: 设备未连接 ${device.address}")
@@ -52,8 +56,12 @@ class TuoTuoTieBleManagerImp@Inject constructor(
         val command = byteArrayOf(header, instruction, value1, value2, value3)
         Timber.tag(TAG).w("发送命令: ${bytesToHex(command)} 到设备 ${device.address}")
 
-        // 使用带超时的写入
-        return@withContext writeCharacteristicWithTimeout(gatt, characteristic, command)
+        // LED配置走无响应写入，其余命令使用带超时的写入
+        return@withContext if (pipelined) {
+            writeCharacteristicPipelined(gatt, characteristic, command)
+        } else {
+            writeCharacteristicWithTimeout(gatt, characteristic, command)
+        }
     }
 
     private suspend fun sendCommand2(
@@ -63,6 +71,7 @@ class TuoTuoTieBleManagerImp@Inject constructor(
         value1: Byte,
         value2: Byte,
         value3: Byte,
+        pipelined: Boolean = false,
     ): Boolean = withContext(Dispatchers.IO) {
         val gatt = deviceGattMap[address] ?: run {
             Timber.tag(TAG).e("发送命令失败: 设备未连接 ${address}")
@@ -83,8 +92,12 @@ class TuoTuoTieBleManagerImp@Inject constructor(
         val command = byteArrayOf(header, instruction, value1, value2, value3)
         Timber.tag(TAG).w("发送命令: ${bytesToHex(command)} 到设备 ${address}")
 
-        // 使用带超时的写入
-        return@withContext writeCharacteristicWithTimeout(gatt, characteristic, command)
+        // LED配置走无响应写入，其余命令使用带超时的写入
+        return@withContext if (pipelined) {
+            writeCharacteristicPipelined(gatt, characteristic, command)
+        } else {
+            writeCharacteristicWithTimeout(gatt, characteristic, command)
+        }
     }
 
     /**
@@ -107,6 +120,7 @@ class TuoTuoTieBleManagerImp@Inject constructor(
         r.toByte(),
         g.toByte(),
         b.toByte(),
+        pipelined = true,
     )
 
     override suspend fun setWorkingLedColor2(
@@ -121,6 +135,7 @@ class TuoTuoTieBleManagerImp@Inject constructor(
         r.toByte(),
         g.toByte(),
         b.toByte(),
+        pipelined = true,
     )
 
     override suspend fun setPreventAccid(
@@ -155,6 +170,7 @@ class TuoTuoTieBleManagerImp@Inject constructor(
         r.toByte(),
         g.toByte(),
         b.toByte(),
+        pipelined = true,
     )
 
     /**
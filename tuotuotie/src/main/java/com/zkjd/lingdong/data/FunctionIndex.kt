@@ -0,0 +1,160 @@
+package com.zkjd.lingdong.data
+
+import com.zkjd.lingdong.model.ButtonFunction
+import com.zkjd.lingdong.model.FunctionCategory
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.util.BitSet
+import java.util.EnumMap
+
+/**
+ * 编译后的功能索引，构建后不可修改
+ *
+ * ustype 为三位数字，构建时拆成三个数组，不再按字符串拆分：
+ * - 百位：1按钮 2旋钮 3车型
+ * - 十位：梧桐 1标配 2需要配置字判断
+ * - 个位：镁佳 1标配 2需要配置字判断，0表示没有这个功能
+ *
+ * 用途和类别各对应一个BitSet，位序号为功能在XML中的顺序
+ */
+class FunctionIndex private constructor(
+    private val functions: Array<ButtonFunction>
+) {
+
+    private val positions = HashMap<String, Int>(functions.size * 2)
+
+    private val tinnoveOptions = IntArray(functions.size)
+
+    private val megaOptions = IntArray(functions.size)
+
+    private val usageSets = Array(USAGE_CAR + 1) { BitSet(functions.size) }
+
+    private val categorySets = EnumMap<FunctionCategory, BitSet>(FunctionCategory::class.java)
+
+    init {
+        functions.forEachIndexed { position, function ->
+            positions.putIfAbsent(function.id, position)
+            val useType = function.useType
+            val usage = (useType / 100) % 10
+            tinnoveOptions[position] = (useType / 10) % 10
+            megaOptions[position] = useType % 10
+            if (usage in 1..USAGE_CAR) {
+                usageSets[usage].set(position)
+            }
+            categorySets.getOrPut(function.category) { BitSet(functions.size) }.set(position)
+        }
+    }
+
+    /** 功能数量 */
+    val size: Int get() = functions.size
+
+    /** 按XML顺序的全部功能 */
+    val all: List<ButtonFunction> = functions.asList()
+
+    operator fun get(position: Int): ButtonFunction = functions[position]
+
+    /**
+     * 按ID查找功能
+     */
+    fun byId(id: String): ButtonFunction? = positions[id]?.let { functions[it] }
+
+    /** 梧桐车机的配置方式 */
+    fun tinnoveOption(position: Int): Int = tinnoveOptions[position]
+
+    /** 镁佳车机的配置方式 */
+    fun megaOption(position: Int): Int = megaOptions[position]
+
+    /**
+     * 指定用途的功能位集合，返回副本
+     */
+    fun usageSet(usage: Int): BitSet = usageSets[usage].clone() as BitSet
+
+    /**
+     * 指定类别的功能
+     */
+    fun byCategory(category: FunctionCategory): List<ButtonFunction> =
+        select(categorySets[category] ?: BitSet())
+
+    /**
+     * 取出位集合中的功能，保持XML顺序
+     */
+    fun select(set: BitSet): List<ButtonFunction> {
+        val result = ArrayList<ButtonFunction>(set.cardinality())
+        var position = set.nextSetBit(0)
+        while (position >= 0 && position < functions.size) {
+            result.add(functions[position])
+            position = set.nextSetBit(position + 1)
+        }
+        return result
+    }
+
+    /**
+     * 写入二进制缓存
+     * @param key 缓存键，资源或安装包变化后缓存失效
+     */
+    @Throws(IOException::class)
+    fun writeTo(output: DataOutputStream, key: String) {
+        output.writeInt(MAGIC)
+        output.writeInt(FORMAT_VERSION)
+        output.writeUTF(key)
+        output.writeInt(functions.size)
+        for (function in functions) {
+            output.writeUTF(function.id)
+            output.writeUTF(function.name)
+            output.writeByte(function.category.ordinal)
+            output.writeUTF(function.actionCode)
+            output.writeInt(function.iconResId)
+            output.writeInt(function.iconSelectedResId)
+            output.writeInt(function.useType)
+            output.writeUTF(function.configWords)
+        }
+    }
+
+    companion object {
+        const val USAGE_BUTTON = 1
+        const val USAGE_KNOB = 2
+        const val USAGE_CAR = 3
+
+        const val OPTION_NONE = 0
+        const val OPTION_STANDARD = 1
+        const val OPTION_CONFIG_WORD = 2
+
+        private const val MAGIC = 0x46494458 // "FIDX"
+
+        /** 缓存格式变化时加1 */
+        private const val FORMAT_VERSION = 1
+
+        /**
+         * 由解析结果构建索引
+         */
+        fun of(functions: List<ButtonFunction>): FunctionIndex = FunctionIndex(functions.toTypedArray())
+
+        /**
+         * 读取二进制缓存
+         * @return 缓存键不一致或格式不对时返回null
+         */
+        @Throws(IOException::class)
+        fun readFrom(input: DataInputStream, key: String): FunctionIndex? {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION || input.readUTF() != key) return null
+            val categories = FunctionCategory.values()
+            val count = input.readInt()
+            val functions = Array(count) {
+                val id = input.readUTF()
+                val name = input.readUTF()
+                val category = categories.getOrNull(input.readUnsignedByte()) ?: return null
+                ButtonFunction(
+                    id = id,
+                    name = name,
+                    category = category,
+                    actionCode = input.readUTF(),
+                    iconResId = input.readInt(),
+                    iconSelectedResId = input.readInt(),
+                    useType = input.readInt(),
+                    configWords = input.readUTF()
+                )
+            }
+            return FunctionIndex(functions)
+        }
+    }
+}
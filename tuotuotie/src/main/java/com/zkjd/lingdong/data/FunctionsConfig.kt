@@ -1,101 +1,211 @@
 package com.zkjd.lingdong.data
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.util.Xml
 import com.adayo.service.utils.FunctionConfigCheck
-import com.mine.baselibrary.constants.CarPlatformConstants
 import com.mine.baselibrary.constants.VehicleTypeConstants
 import com.zkjd.lingdong.R
 import com.zkjd.lingdong.model.ButtonFunction
 import com.zkjd.lingdong.model.FunctionCategory
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 import org.xmlpull.v1.XmlPullParser
 import org.xmlpull.v1.XmlPullParserException
 import timber.log.Timber
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
 import java.io.IOException
 import java.io.InputStream
+import java.util.BitSet
 
 /**
  * 功能配置类，负责从XML文件中加载功能配置
+ *
+ * XML只在没有二进制缓存时解析一次，结果编译为 [FunctionIndex]，按键分发直接读索引；
+ * 各功能在当前车机上是否可用按配置字判断，配置字读到后缓存，未读到时下次获取功能列表重新判断
  */
 class FunctionsConfig(private val context: Context) {
-    
-    // 存储所有的功能
-    private val allFunctions = mutableListOf<ButtonFunction>()
-    
-    // 存储旋转功能
-    private val rotaryFunctions = mutableListOf<ButtonFunction>()
-    
-    // 存储非旋转功能
-    private val nonRotaryFunctions = mutableListOf<ButtonFunction>()
-
-
-    // 车型功能
-    private val carFunctions = mutableListOf<ButtonFunction>()
 
     //true 镁佳8155 false 梧桐8155
     private val isMegaSys: Boolean = VehicleTypeConstants.isMega
 
     //true  8295车机  false  8155车机
     private val is8295: Boolean= VehicleTypeConstants.isMega8295
-    init {
-        loadFunctionsFromXml()
+
+    private val configResId = when {
+        VehicleTypeConstants.isMega8155 -> R.raw.functions_config8155
+        VehicleTypeConstants.isMega8295 -> R.raw.functions_config8295
+        else -> R.raw.functions_config_tinnove
     }
-    
+
+    private val index: FunctionIndex = loadIndex()
+
+    /**
+     * 当前车机可用的功能列表
+     */
+    private class Availability(
+        val rotaryFunctions: List<ButtonFunction>,
+        val nonRotaryFunctions: List<ButtonFunction>
+    )
+
+    /** 配置字已读到时的可用功能，null 表示还没有判断或配置字未就绪 */
+    @Volatile
+    private var availability: Availability? = null
+
+    private val carFunctions: List<ButtonFunction> = index.select(index.usageSet(FunctionIndex.USAGE_CAR))
+
+    /**
+     * 加载功能索引，优先读取二进制缓存，缓存无效时解析XML并写入缓存
+     */
+    private fun loadIndex(): FunctionIndex {
+        val key = cacheKey()
+        readCache(key)?.let {
+            Timber.d("从缓存加载了 ${it.size} 个功能")
+            return it
+        }
+        val functions = try {
+            parse(context.resources.openRawResource(configResId))
+        } catch (e: Exception) {
+            Timber.e(e, "加载功能配置失败")
+            emptyList()
+        }
+        val index = FunctionIndex.of(functions)
+        if (functions.isNotEmpty()) {
+            writeCache(index, key)
+        }
+        Timber.d("加载了 ${index.size} 个功能，其中旋转功能 ${index.usageSet(FunctionIndex.USAGE_KNOB).cardinality()} 个，非旋转功能 ${index.usageSet(FunctionIndex.USAGE_BUTTON).cardinality()} 个")
+        return index
+    }
+
     /**
-     * 从XML文件中加载功能配置
+     * 缓存键：配置文件和安装包更新时间，升级后资源ID可能变化，需要重新解析
      */
-    private fun loadFunctionsFromXml() {
+    @Suppress("DEPRECATION")
+    private fun cacheKey(): String {
+        val updateTime = try {
+            context.packageManager.getPackageInfo(context.packageName, 0).lastUpdateTime
+        } catch (e: Exception) {
+            0L
+        }
+        return "$configResId:$updateTime"
+    }
+
+    private fun cacheFile(): File = File(context.cacheDir, CACHE_FILE_NAME)
+
+    private fun readCache(key: String): FunctionIndex? {
+        val file = cacheFile()
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(file.inputStream().buffered()).use { FunctionIndex.readFrom(it, key) }
+        } catch (e: IOException) {
+            Timber.w(e, "读取功能缓存失败")
+            null
+        }
+    }
+
+    private fun writeCache(index: FunctionIndex, key: String) {
+        val file = cacheFile()
+        val temp = File(file.parentFile, "$CACHE_FILE_NAME.tmp")
         try {
-            val inputStream =  context.resources.openRawResource(
-               when{
-                   VehicleTypeConstants.isMega8155 -> R.raw.functions_config8155
-                   VehicleTypeConstants.isMega8295 -> R.raw.functions_config8295
-                   else ->  R.raw.functions_config_tinnove
-               }
+            DataOutputStream(temp.outputStream().buffered()).use { index.writeTo(it, key) }
+            if (!temp.renameTo(file)) {
+                temp.delete()
+            }
+        } catch (e: IOException) {
+            Timber.w(e, "写入功能缓存失败")
+            temp.delete()
+        }
+    }
 
-            )
-            val functions = parse(inputStream)
-            
-            allFunctions.clear()
-            rotaryFunctions.clear()
-            nonRotaryFunctions.clear()
-            carFunctions.clear()
-            
-            allFunctions.addAll(functions)
-            
-            // 分类存储旋转和非旋转功能
-            for (function in functions) {
-                //111,splie出来是["",1,1,1,“”]
-                val array=function.useType.toString().split("")
-                if (array[1].toInt()==2) {
-                    rotaryFunctions.add(function)
-                } else if(array[1].toInt()==1) {
-                    nonRotaryFunctions.add(function)
-                } else if(array[1].toInt()==3)
-                {
-                    carFunctions.add(function)
+    private fun availability(): Availability {
+        availability?.let { return it }
+        val (available, resolved) = resolveAvailability()
+        val result = Availability(
+            availableOf(FunctionIndex.USAGE_KNOB, available),
+            availableOf(FunctionIndex.USAGE_BUTTON, available)
+        )
+        if (resolved) {
+            availability = result
+        } else {
+            Timber.w("配置字未就绪，可用功能暂不缓存")
+        }
+        return result
+    }
+
+    /**
+     * 判断每个功能在当前车机上是否可用
+     * - 梧桐：十位为1标配；为2时只有尾翼需要判断，其他选配功能不显示
+     * - 镁佳：个位为1标配；为2时按配置字判断
+     *
+     * 配置字服务未就绪时所有选配都判断为没有，无法和真的没有区分；
+     * 因此只有没有需要判断的选配、或至少一个选配判断为有时，才认为配置字已读到
+     * @return 可用功能和配置字是否已读到
+     */
+    private fun resolveAvailability(): Pair<BitSet, Boolean> {
+        val result = BitSet(index.size)
+        var optional = 0
+        var present = 0
+        val configCheck by lazy { FunctionConfigCheck.getIFunctionConfigCheck(context) }
+        if (!isMegaSys) {//梧桐车型8678
+            val hasTailWings by lazy { configCheck.hasTailWings() }
+            for (position in 0 until index.size) {
+                when (index.tinnoveOption(position)) {
+                    FunctionIndex.OPTION_STANDARD -> result.set(position)
+                    FunctionIndex.OPTION_CONFIG_WORD -> {
+                        if (index[position].id == "trunk_position") {
+                            optional++
+                            if (hasTailWings) {
+                                result.set(position)
+                                present++
+                            }
+                        }
+                    }
                 }
             }
-            
-            Timber.d("加载了 ${allFunctions.size} 个功能，其中旋转功能 ${rotaryFunctions.size} 个，非旋转功能 ${nonRotaryFunctions.size} 个")
-        } catch (e: Exception) {
-            Timber.e(e, "加载功能配置失败")
+        } else {
+            for (position in 0 until index.size) {
+                when (index.megaOption(position)) {
+                    FunctionIndex.OPTION_STANDARD -> result.set(position)
+                    FunctionIndex.OPTION_CONFIG_WORD -> {
+                        //配置字格式为 梧桐+镁佳，这里使用第一个
+                        val configWord = index[position].configWords.split("+")[0]
+                        optional++
+                        if (configCheck.hasFunction(configWord)) {
+                            result.set(position)
+                            present++
+                        }
+                    }
+                }//OPTION_NONE 表示没有这个功能
+            }
         }
+        return result to (optional == 0 || present > 0)
     }
-    
+
+    private fun availableOf(usage: Int, available: BitSet): List<ButtonFunction> {
+        val set = index.usageSet(usage)
+        set.and(available)
+        return index.select(set)
+    }
+
+    /**
+     * 丢弃缓存的可用功能，配置字变化时调用，下次获取功能列表重新判断
+     */
+    fun refreshAvailability() {
+        availability = null
+    }
+
     /**
      * 获取所有功能
      */
-    fun getAllFunctions(): List<ButtonFunction> = allFunctions
+    fun getAllFunctions(): List<ButtonFunction> = index.all
     
     /**
      * 获取旋转功能
      */
-    fun getRotaryFunctions(carTypeName: String): List<ButtonFunction>
-    {
-        return getTrueValue(carTypeName,rotaryFunctions)
-    }
+    fun getRotaryFunctions(): List<ButtonFunction> = availability().rotaryFunctions
 
     fun getIsMegaSys(): Boolean
     {
@@ -109,66 +219,8 @@ class FunctionsConfig(private val context: Context) {
     /**
      * 获取非旋转功能
      */
-    fun getNonRotaryFunctions(carTypeName: String): List<ButtonFunction>
-    {
-        return getTrueValue(carTypeName,nonRotaryFunctions)
-    }
-
-    @SuppressLint("SuspiciousIndentation")
-    private fun getTrueValue(carTypeName: String, nowFunctionsTrue: List<ButtonFunction>): List<ButtonFunction> {
-        val newFunctionsTrue = mutableListOf<ButtonFunction>()
-
-        if (!isMegaSys) {//梧桐车型8678
-
-                // 分类车型
-                for (function in nowFunctionsTrue) {
-                    val array = function.useType.toString().split("")
+    fun getNonRotaryFunctions(): List<ButtonFunction> = availability().nonRotaryFunctions
 
-                    if (array[2].toInt() == 2 && function.id == "trunk_position") {//选配
-
-                        //array2[0] 是梧桐的配置字值
-                        val array2 = function.configWords.split("+")
-
-                        /*val intString = FunctionConfigCheck.getIFunctionConfigCheck(context)
-                            .hasFunction(array2[0])*/
-                        val intString = FunctionConfigCheck.getIFunctionConfigCheck(context).hasTailWings()
-                        if (intString) {
-                            newFunctionsTrue.add(function)
-                        }
-                        //服务已加载完成，可以读取配置
-                       /* val typeInt = OfflineConfig.getInstance().getValue(array2[0])
-                        if(typeInt>0){
-                            newFunctionsTrue.add(function)
-                        }*/
-
-                    } else if (array[2].toInt() == 1) {//标配
-                        newFunctionsTrue.add(function)
-                    }
-                }
-
-        } else {
-            for (function in nowFunctionsTrue) {
-                val array = function.useType.toString().split("")
-
-                if (array[3].toInt() == 2) {//需要根据配置字
-
-                    val array2 = function.configWords.toString().split("+")
-
-                    val intString = FunctionConfigCheck.getIFunctionConfigCheck(context).hasFunction(array2[0])
-                       // DriveModelManager.getModels(DriveModelManager.getSettingString(array2[1]))
-                    if (intString ) {
-                        newFunctionsTrue.add(function)
-                    }
-
-                } else if (array[3].toInt() == 1) {//标准配置
-                    newFunctionsTrue.add(function)
-                }//array[3].toInt() == 0 表示没有这个功能
-
-            }
-        }
-
-        return newFunctionsTrue
-    }
     /**
      * 获取车型功能
      */
@@ -177,13 +229,14 @@ class FunctionsConfig(private val context: Context) {
     /**
      * 获取指定ID的功能
      */
-    fun getFunctionById(id: String): ButtonFunction? = allFunctions.find { it.id == id }
+    fun getFunctionById(id: String): ButtonFunction? = index.byId(id)
     
     /**
      * 获取指定类别的功能
      */
     fun getFunctionsByCategory(category: FunctionCategory): List<ButtonFunction> =
-        allFunctions.filter { it.category == category }
+        index.byCategory(category)
+    
     
     /**
      * 解析XML文件
@@ -327,14 +380,23 @@ class FunctionsConfig(private val context: Context) {
     }
     
     companion object {
+        private const val CACHE_FILE_NAME = "functions_index.bin"
+
         @Volatile
         private var INSTANCE: FunctionsConfig? = null
         
         fun getInstance(context: Context): FunctionsConfig {
             return INSTANCE ?: synchronized(this) {
-                val instance = FunctionsConfig(context)
-                INSTANCE = instance
-                instance
+                INSTANCE ?: FunctionsConfig(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+
+        /**
+         * 在后台线程提前加载，界面和按键分发第一次使用时不再等待解析
+         */
+        fun preload(context: Context) {
+            CoroutineScope(SupervisorJob() + Dispatchers.IO).launch {
+                getInstance(context)
             }
         }
     }
@@ -19,6 +19,12 @@ interface ButtonFunctionMappingDao {
     
     @Query("SELECT * FROM button_function_mappings WHERE deviceMacAddress = :deviceMacAddress")
     fun getMappingsForDevice(deviceMacAddress: String): Flow<List<ButtonFunctionMapping>>
+
+    @Query("SELECT * FROM button_function_mappings WHERE deviceMacAddress = :deviceMacAddress")
+    fun getMappingsForDeviceAsList(deviceMacAddress: String): List<ButtonFunctionMapping>
+
+    @Query("SELECT * FROM button_function_mappings")
+    fun getAllMappings(): List<ButtonFunctionMapping>
     
     @Query("SELECT * FROM button_function_mappings WHERE deviceMacAddress = :deviceMacAddress AND buttonType = :buttonType")
     fun getMappingForDeviceAndButton(
@@ -0,0 +1,176 @@
+package com.zkjd.lingdong.repository
+
+import android.content.Context
+import androidx.room.InvalidationTracker
+import com.zkjd.lingdong.data.AppDatabase
+import com.zkjd.lingdong.data.DefaultFunctions
+import com.zkjd.lingdong.data.FunctionsConfig
+import com.zkjd.lingdong.data.dao.ButtonFunctionMappingDao
+import com.zkjd.lingdong.data.dao.DeviceDao
+import com.zkjd.lingdong.model.ButtonFunction
+import com.zkjd.lingdong.model.ButtonFunctionMapping
+import com.zkjd.lingdong.model.ButtonType
+import com.zkjd.lingdong.model.Device
+import com.zkjd.lingdong.model.FunctionCategory
+import com.zkjd.lingdong.utils.DatabaseHelper
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import timber.log.Timber
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "ButtonDispatchCache"
+
+private const val TABLE_MAPPINGS = "button_function_mappings"
+
+/**
+ * 解析好的按键分发目标
+ * @param function 按键对应的功能，null表示未配置
+ * @param clickSound 按键音编号（Device.musicName），null表示不播放
+ */
+data class ButtonDispatch(
+    val function: ButtonFunction?,
+    val clickSound: String?
+)
+
+/**
+ * 按键分发缓存
+ *
+ * - 按 (设备地址, 按键类型) 缓存解析好的功能和按键音，按键类型即KEY_CODE中键值和按键类型的解码结果
+ * - 服务启动时预热，按键时不再查询数据库、不再解析 customParams
+ * - 通过Room的 InvalidationTracker 监听映射表，任何修改都会清空缓存并在后台重新加载
+ * - 设备表随连接状态、电量、RSSI频繁写入，不监听；新增、删除设备和修改按键音时由 [DeviceRepository] 调用 [invalidate]
+ * - 右旋和左旋使用同样的功能定义，加载时直接解析到右旋
+ */
+@Singleton
+class ButtonDispatchCache @Inject constructor(
+    private val database: AppDatabase,
+    private val deviceDao: DeviceDao,
+    private val buttonFunctionMappingDao: ButtonFunctionMappingDao,
+    @ApplicationContext private val context: Context
+) {
+
+    private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    /** 设备地址 -> 按 ButtonType.ordinal 索引的分发目标 */
+    private val entries = ConcurrentHashMap<String, Array<ButtonDispatch>>()
+
+    /** 每次失效加1，加载前后不一致说明读到的可能是旧数据，不写入缓存 */
+    private val generation = AtomicInteger()
+
+    private val warmRequests = Channel<Unit>(Channel.CONFLATED)
+
+    private val started = AtomicBoolean(false)
+
+    private val invalidationObserver = object : InvalidationTracker.Observer(arrayOf(TABLE_MAPPINGS)) {
+        override fun onInvalidated(tables: Set<String>) {
+            generation.incrementAndGet()
+            entries.clear()
+            warmRequests.trySend(Unit)
+        }
+    }
+
+    /**
+     * 注册失效监听并预热缓存，重复调用无效
+     */
+    fun start() {
+        if (!started.compareAndSet(false, true)) return
+        database.invalidationTracker.addObserver(invalidationObserver)
+        coroutineScope.launch {
+            for (ignored in warmRequests) {
+                try {
+                    warm()
+                } catch (e: Exception) {
+                    Timber.tag(TAG).e(e, "预热按键分发缓存失败")
+                }
+            }
+        }
+        warmRequests.trySend(Unit)
+    }
+
+    /**
+     * 设备的按键音或设备本身发生变化，清除该设备的缓存并在后台重新加载
+     */
+    fun invalidate(macAddress: String) {
+        generation.incrementAndGet()
+        entries.remove(macAddress)
+        coroutineScope.launch {
+            try {
+                load(macAddress)
+            } catch (e: Exception) {
+                Timber.tag(TAG).e(e, "重新加载按键分发缓存失败: $macAddress")
+            }
+        }
+    }
+
+    /**
+     * 获取按键分发目标，缓存未命中时从数据库加载该设备
+     */
+    suspend fun get(macAddress: String, buttonType: ButtonType): ButtonDispatch {
+        val table = entries[macAddress] ?: load(macAddress)
+        return table[buttonType.ordinal]
+    }
+
+    private suspend fun warm() {
+        val gen = generation.get()
+        val (devices, mappings) = DatabaseHelper.executeOnIOThread {
+            deviceDao.getAllDevicesAsList() to buttonFunctionMappingDao.getAllMappings()
+        }
+        val mappingsByDevice = mappings.groupBy { it.deviceMacAddress }
+        val tables = devices.associate { device ->
+            device.macAddress to build(device, mappingsByDevice[device.macAddress].orEmpty())
+        }
+        if (generation.get() == gen) {
+            entries.putAll(tables)
+            Timber.tag(TAG).d("按键分发缓存已预热: ${tables.size}个设备")
+        }
+    }
+
+    private suspend fun load(macAddress: String): Array<ButtonDispatch> {
+        val gen = generation.get()
+        val (device, mappings) = DatabaseHelper.executeOnIOThread {
+            deviceDao.getDeviceByMacAddress(macAddress) to
+                    buttonFunctionMappingDao.getMappingsForDeviceAsList(macAddress)
+        }
+        val table = if (device == null) EMPTY_TABLE else build(device, mappings)
+        if (generation.get() == gen) {
+            entries[macAddress] = table
+        }
+        return table
+    }
+
+    private fun build(device: Device, mappings: List<ButtonFunctionMapping>): Array<ButtonDispatch> {
+        val clickSound = if (device.musicCan == 1) device.musicName else null
+        val functions = arrayOfNulls<ButtonFunction>(BUTTON_TYPES.size)
+        for (mapping in mappings) {
+            functions[mapping.buttonType.ordinal] = mapping.toButtonFunction(context)
+        }
+        functions[ButtonType.RIGHT_ROTATE.ordinal] = functions[ButtonType.LEFT_ROTATE.ordinal]
+        return Array(BUTTON_TYPES.size) { ButtonDispatch(functions[it], clickSound) }
+    }
+
+    private companion object {
+        val BUTTON_TYPES = ButtonType.values()
+        val EMPTY_TABLE = Array(BUTTON_TYPES.size) { ButtonDispatch(null, null) }
+    }
+}
+
+/**
+ * 解析映射对应的功能，自定义应用功能的 customParams 格式为 "名称:动作"
+ */
+internal fun ButtonFunctionMapping.toButtonFunction(context: Context): ButtonFunction? {
+    val functionId = functionId ?: return null
+    if (!customParams.isNullOrEmpty()) {
+        val ss = customParams.split(":")
+        return ButtonFunction(name = ss[0], actionCode = ss[1], id = functionId, category = FunctionCategory.APP, configWords = "")
+    }
+    return FunctionsConfig.getInstance(context).getFunctionById(functionId)
+        ?: DefaultFunctions.getFunctionById(functionId)
+}
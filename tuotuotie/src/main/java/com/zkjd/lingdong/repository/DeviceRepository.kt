@@ -66,11 +66,17 @@ interface DeviceRepository {
     // 停止蓝牙扫描
     fun stopScan()
 
+    // 开始后台回连扫描（低功耗），配对扫描进行中时不启动并返回false
+    fun startReconnectScan(): Boolean
+
+    // 停止后台回连扫描，不影响配对扫描
+    fun stopReconnectScan()
+
     // 获取扫描状态
     fun getScanState(): Flow<ScanState>
     
-    // 连接蓝牙设备
-    suspend fun connectDevice(bluetoothDevice: BluetoothDevice): Boolean
+    // 连接蓝牙设备，autoConnect为true时以后台方式等待设备进入范围
+    suspend fun connectDevice(bluetoothDevice: BluetoothDevice, autoConnect: Boolean = false): Boolean
     
     // 断开蓝牙设备连接
     suspend fun disconnectDevice(macAddress: String)
@@ -6,11 +6,10 @@ import android.bluetooth.BluetoothDevice
 import android.bluetooth.BluetoothManager
 import android.content.Context
 import android.graphics.Color
-import com.zkjd.lingdong.bluetooth.BleConstants
+import com.zkjd.lingdong.bluetooth.KeyCodeDecoder
+import com.mine.baselibrary.bluetooth.ScanPhase
 import com.mine.baselibrary.bluetooth.ScanState
 import com.zkjd.lingdong.bluetooth.TuoTuoTieAbsBleManager
-import com.zkjd.lingdong.data.DefaultFunctions
-import com.zkjd.lingdong.data.FunctionsConfig
 import com.zkjd.lingdong.data.dao.ButtonFunctionMappingDao
 import com.zkjd.lingdong.data.dao.DeviceDao
 import com.zkjd.lingdong.model.ButtonFunction
@@ -46,6 +45,7 @@ private const val TAG = "DeviceRepository"
 class DeviceRepositoryImpl @Inject constructor(
     private val deviceDao: DeviceDao,
     private val buttonFunctionMappingDao: ButtonFunctionMappingDao,
+    private val buttonDispatchCache: ButtonDispatchCache,
     private val bleManager: TuoTuoTieAbsBleManager,
     @ApplicationContext private val context: Context
 ) : DeviceRepository {
@@ -107,6 +107,9 @@ class DeviceRepositoryImpl @Inject constructor(
                     val macAddress = bleEvent.device.address
                     deviceEventsFlow.emit(DeviceEvent.AuthFailed(macAddress, bleEvent.reason))
                 }
+                is BleDeviceEvent.RssiChanged -> {
+                    // RSSI只用于底层弱信号断开，应用层不处理
+                }
 
             }
         }
@@ -118,16 +121,7 @@ class DeviceRepositoryImpl @Inject constructor(
             when (event) {
                 is TuoTuoTieDeviceEvent.ButtonPressed -> {
                     val macAddress = event.device.address
-                    val buttonType = when (event.keyCode) {
-                        BleConstants.KeyCode.KEY_SHORT_PRESS -> ButtonType.SHORT_PRESS
-                        BleConstants.KeyCode.KEY_LONG_PRESS -> ButtonType.LONG_PRESS
-                        BleConstants.KeyCode.KEY_DOUBLE_CLICK -> ButtonType.DOUBLE_CLICK
-                        BleConstants.KeyCode.KNOB_CLOCKWISE -> ButtonType.RIGHT_ROTATE
-                        BleConstants.KeyCode.KNOB_ANTICLOCKWISE -> ButtonType.LEFT_ROTATE
-                        BleConstants.KeyCode.REVERSE_CONTROL_ENTER -> ButtonType.FONE_PESS
-                        BleConstants.KeyCode.REVERSE_CONTROL_EXIT -> ButtonType.FTWO_PESS
-                        else -> null
-                    }
+                    val buttonType = toButtonType(event.decoded)
                     //读到返控指令1为进入返控状态，0为退出返控状态
                     when(buttonType)
                     {
@@ -163,6 +157,23 @@ class DeviceRepositoryImpl @Inject constructor(
         }
     }
 
+    /**
+     * 解码后的按键映射为按键类型，只有键值1的按钮和旋钮、反向控制有效
+     */
+    private fun toButtonType(decoded: Int): ButtonType? = when (KeyCodeDecoder.kind(decoded)) {
+        KeyCodeDecoder.KIND_BUTTON -> if (KeyCodeDecoder.key(decoded) != 1) null else when (KeyCodeDecoder.pressType(decoded)) {
+            KeyCodeDecoder.PRESS_SHORT -> ButtonType.SHORT_PRESS
+            KeyCodeDecoder.PRESS_LONG -> ButtonType.LONG_PRESS
+            KeyCodeDecoder.PRESS_DOUBLE -> ButtonType.DOUBLE_CLICK
+            else -> null
+        }
+        KeyCodeDecoder.KIND_KNOB_CLOCKWISE -> ButtonType.RIGHT_ROTATE
+        KeyCodeDecoder.KIND_KNOB_ANTICLOCKWISE -> ButtonType.LEFT_ROTATE
+        KeyCodeDecoder.KIND_REVERSE_ENTER -> ButtonType.FONE_PESS
+        KeyCodeDecoder.KIND_REVERSE_EXIT -> ButtonType.FTWO_PESS
+        else -> null
+    }
+
     init {
         // 初始化蓝牙管理器
         bleManager.initialize(context)
@@ -183,10 +194,12 @@ class DeviceRepositoryImpl @Inject constructor(
     
     override suspend fun addDevice(device: Device) {
         DatabaseHelper.executeOnIOThread { deviceDao.insertDevice(device) }
+        buttonDispatchCache.invalidate(device.macAddress)
     }
     
     override suspend fun updateDevice(device: Device) {
         DatabaseHelper.executeOnIOThread { deviceDao.updateDevice(device) }
+        buttonDispatchCache.invalidate(device.macAddress)
     }
     
 
@@ -199,6 +212,7 @@ class DeviceRepositoryImpl @Inject constructor(
                 // 然后删除设备
                 deviceDao.deleteDeviceByMacAddress(address)
             }
+            buttonDispatchCache.invalidate(address)
             // 取消设备配对（即使失败也不影响删除结果）
             try {
                 unpairDevice(address)
@@ -327,26 +341,18 @@ class DeviceRepositoryImpl @Inject constructor(
 
     override suspend fun setMusicCan(macAddress: String, enabled: Boolean) {
         DatabaseHelper.executeOnIOThread { deviceDao.updatemusicCan(macAddress, enabled) }
+        buttonDispatchCache.invalidate(macAddress)
     }
 
     override suspend fun renameMusicID(macAddress: String, id: String) {
         DatabaseHelper.executeOnIOThread { deviceDao.updatemusicName(macAddress, id) }
+        buttonDispatchCache.invalidate(macAddress)
     }
     
     override suspend fun getButtonFunction(macAddress: String, buttonType: ButtonType): ButtonFunction? {
         return DatabaseHelper.executeOnIOThread {
-            val mapping = buttonFunctionMappingDao.getMappingForDeviceAndButton(macAddress, buttonType)
-            if(mapping?.customParams!=null && mapping.customParams.isNotEmpty()){
-                val ss = mapping.customParams.split(":")
-                mapping.functionId?.let { ButtonFunction( name = ss[0], actionCode = ss[1], id = it, category = FunctionCategory.APP , configWords = "") }
-            }else {
-                mapping?.functionId?.let { functionId ->
-                    val functionsConfig = FunctionsConfig.getInstance(context)
-                    functionsConfig.getFunctionById(functionId) ?: DefaultFunctions.getFunctionById(
-                        functionId
-                    )
-                }
-            }
+            buttonFunctionMappingDao.getMappingForDeviceAndButton(macAddress, buttonType)
+                ?.toButtonFunction(context)
         }
     }
     
@@ -365,12 +371,33 @@ class DeviceRepositoryImpl @Inject constructor(
         bleManager.stopScan()
     }
 
+    override fun startReconnectScan(): Boolean {
+        val state = bleManager.scanStateFlow.value
+        val scanning = state != ScanState.NotScanning && state !is ScanState.ScanFailed
+        if (scanning && bleManager.currentScanPhase == ScanPhase.PAIRING) {
+            Timber.tag(TAG).w("配对扫描进行中，不启动回连扫描")
+            return false
+        }
+        bleManager.startScan(ScanPhase.RECONNECT)
+        return true
+    }
+
+    override fun stopReconnectScan() {
+        // 回连扫描期间用户打开了配对扫描时，扫描阶段已切换为配对，不能停止
+        if (bleManager.currentScanPhase == ScanPhase.RECONNECT) {
+            bleManager.stopScan()
+        }
+    }
+
     override fun getScanState(): Flow<ScanState> = bleManager.getScanState()
 
-    override suspend fun connectDevice(bluetoothDevice: BluetoothDevice) :Boolean{
-        updateConnectionState(bluetoothDevice.address, ConnectionState.CONNECTING)
+    override suspend fun connectDevice(bluetoothDevice: BluetoothDevice, autoConnect: Boolean) :Boolean{
+        // 后台连接可能长时间挂起，保持断开状态直到真正连上
+        if (!autoConnect) {
+            updateConnectionState(bluetoothDevice.address, ConnectionState.CONNECTING)
+        }
         // 连接设备
-        val success = bleManager.connect(bluetoothDevice)
+        val success = bleManager.connect(bluetoothDevice, autoConnect)
 
         // 检查设备是否已存在于数据库
         val existingDevice = DatabaseHelper.executeOnIOThread {
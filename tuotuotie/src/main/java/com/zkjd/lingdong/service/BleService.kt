@@ -26,12 +26,13 @@ import com.mine.baselibrary.bluetooth.ScanState
 import com.zkjd.lingdong.model.ButtonType
 import com.zkjd.lingdong.model.ConnectionState
 import com.zkjd.lingdong.model.Device
+import com.zkjd.lingdong.repository.ButtonDispatch
+import com.zkjd.lingdong.repository.ButtonDispatchCache
 import com.zkjd.lingdong.repository.DeviceEvent
 import com.zkjd.lingdong.repository.DeviceRepository
 import com.zkjd.lingdong.repository.SettingsRepository
 import com.mine.baselibrary.bluetooth.BluetoothConnectionBroadcastReceiver
 import com.mine.baselibrary.window.ToastUtilOverApplication
-import com.smartlife.fragrance.data.model.FragranceDevice
 import com.smartlife.fragrance.repository.FragranceRepository
 import com.smartlife.fragrance.service.FragranceCarExecutor
 import dagger.hilt.android.AndroidEntryPoint
@@ -42,6 +43,7 @@ import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.distinctUntilChanged
@@ -51,17 +53,36 @@ import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 import timber.log.Timber
-import java.time.LocalDateTime
-import java.util.Date
-import java.util.Timer
-import java.util.TimerTask
 import javax.inject.Inject
+import kotlin.math.abs
 
 private const val TAG = "BleService"
 private const val NOTIFICATION_ID = 1001
 private const val CHANNEL_ID = "ble_service_channel"
 
+/**
+ * 单个设备等待连接结果的超时时间
+ */
+private const val CONNECT_WAIT_TIMEOUT_MS = 10_000L
+
+/**
+ * 重试用完的设备是否转为系统后台连接（autoConnect=true），
+ * 设备回到范围内由蓝牙控制器自动连上，不需要应用唤醒轮询
+ */
+private const val BACKGROUND_AUTO_CONNECT_ENABLED = true
+
+/**
+ * 回连扫描窗口，窗口内没有看到未连接设备的广播就停止扫描，等下一轮重连失败后再开始
+ */
+private const val RECONNECT_SCAN_WINDOW_MS = 60_000L
+
+/**
+ * 香氛随车氛围灯颜色同步间隔，原来随5秒轮询执行，现在单独定时且不持有唤醒锁
+ */
+private const val ATMOSPHERE_LIGHT_SYNC_INTERVAL_MS = 5_000L
+
 /**
  * 蓝牙后台服务，维持与设备的连接并处理按键事件
  */
@@ -86,6 +107,9 @@ class BleService : Service() {
     
     @Inject
     lateinit var deviceRepository: DeviceRepository
+
+    @Inject
+    lateinit var buttonDispatchCache: ButtonDispatchCache
     
     @Inject
     lateinit var functionExecutor: FunctionExecutor
@@ -112,10 +136,20 @@ class BleService : Service() {
     // 连接的设备数量
     private var connectedDevicesCount = 0
     
-    // 定期唤醒任务
-    private var periodicWakeupJob: Job? = null
-    private val wakeupIntervalMs = 1 * 5 * 1000L // 每10秒唤醒一次
-    
+    // 事件驱动的重连触发器，无事件时低频兜底轮询
+    private val reconnectTrigger = ReconnectTrigger(serviceScope) { reason, force ->
+        wakeupAndConnectAllDevices(reason, force)
+    }
+
+    // 旋钮旋转合并，快速旋转时每帧只执行一次
+    private val knobRotationEngine = KnobRotationEngine(serviceScope) { macAddress, steps ->
+        handleKnobRotation(macAddress, steps)
+    }
+
+    /** 重连唤醒统计，含相比5秒轮询节省的唤醒次数 */
+    val reconnectWakeupStats: StateFlow<ReconnectWakeupStats>
+        get() = reconnectTrigger.stats
+
     // 唤醒锁
     private lateinit var wakeLock: PowerManager.WakeLock
 
@@ -124,6 +158,16 @@ class BleService : Service() {
     // 蓝牙连接状态广播接收器
     private lateinit var bluetoothConnectionReceiver: BluetoothConnectionBroadcastReceiver
 
+    // 设备重连调度器
+    private val reconnectScheduler = ReconnectScheduler()
+
+    // 后台回连扫描任务
+    private var reconnectScanJob: Job? = null
+
+    /** 每轮重连完成信号 */
+    val reconnectCompleted: SharedFlow<ReconnectRoundResult>
+        get() = reconnectScheduler.roundCompleted
+
     // 扫描状态
     private val _scanState = MutableStateFlow<ScanState>(ScanState.NotScanning)
     val scanState: StateFlow<ScanState> = _scanState.asStateFlow()
@@ -148,21 +192,16 @@ class BleService : Service() {
         // 初始化通知
         initNotification()
         
+        // 预热按键分发缓存，按键时不再查询数据库
+        buttonDispatchCache.start()
+        knobRotationEngine.start()
+
         // 监听设备状态和事件
         monitorDeviceStates()
 
-        // 服务启动时连接所有保存的设备
-        serviceScope.launch {
-            acquireWakeLock()
-            try {
-                connectAllSavedDevices(true)
-            } finally {
-                releaseWakeLock()
-            }
-        }
-
-        // 启动定期唤醒任务
-        startPeriodicWakeup()
+        // 启动重连触发器，服务启动时强制连接所有保存的设备
+        reconnectTrigger.start()
+        reconnectTrigger.request(ReconnectReason.SERVICE_START, force = true)
 
         soundManager = SoundManager(applicationContext)
 
@@ -183,6 +222,10 @@ class BleService : Service() {
 
         fragranceCarExecutor.listenIsIgnition{
             isIgnition ->
+            if (isIgnition) {
+                Log.i(TAG,"点火，重连所有设备")
+                reconnectTrigger.request(ReconnectReason.IGNITION_ON, force = true)
+            }
             serviceScope.launch {
                 if(!isIgnition){
                     Log.i(TAG,"下点主动断开所有设备")
@@ -211,24 +254,6 @@ class BleService : Service() {
 //        val packageName = runningTasks[0].topActivity!!.packageName
     }
 
-    private fun processDevices(devices: List<BluetoothDevice>) {
-        serviceScope.launch {
-            for (device in devices) {
-                // 检查设备是否存在
-                val deviceNow=deviceRepository.getDeviceByMacAddress(device.address)
-                if (deviceNow!=null && deviceNow.needAutoConnect ) {
-                    // 不存在的设备，停止扫描并尝试连接
-
-                    if (!isBluetoothDeviceConnected(this@BleService, device.address)) {
-                        Timber.tag(TAG).e("重新连接中："+device.name)
-                        deviceRepository.connectDevice(device)
-                        Thread.sleep(2000)
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * 初始化唤醒锁
      */
@@ -246,16 +271,18 @@ class BleService : Service() {
     private fun initBluetoothConnectionReceiver() {
         bluetoothConnectionReceiver = BluetoothConnectionBroadcastReceiver()
         
-        // 配置要监听的事件类型 - 只监听蓝牙适配器状态变化
+        // 配置要监听的事件类型 - 蓝牙适配器状态变化和ACL断开，用于触发重连
+        // 不监听ACL连接：设备连上时GATT可能还在初始化，此时发起重连会把刚建立的连接关掉
         bluetoothConnectionReceiver.configureEvents(
             setOf(
-                BluetoothConnectionBroadcastReceiver.Companion.BroadcastEventType.ADAPTER_STATE_CHANGED
+                BluetoothConnectionBroadcastReceiver.Companion.BroadcastEventType.ADAPTER_STATE_CHANGED,
+                BluetoothConnectionBroadcastReceiver.Companion.BroadcastEventType.ACL_DISCONNECTED
             )
         )
         
         // 添加回调监听器（立即生效，无延迟）
         bluetoothConnectionReceiver.addListener { intent ->
-            Timber.tag(TAG).w("收到蓝牙适配器广播事件: ${intent.action}")
+            Timber.tag(TAG).w("收到蓝牙广播事件: ${intent.action}")
             handleBluetoothConnectionEvent(intent)
         }
         
@@ -266,10 +293,22 @@ class BleService : Service() {
     }
 
     /**
-     * 处理蓝牙连接状态广播事件 - 只监听蓝牙适配器状态变化
+     * 处理蓝牙连接状态广播事件 - 适配器状态变化和ACL断开
      */
     private fun handleBluetoothConnectionEvent(intent: Intent) {
         when (intent.action) {
+            BluetoothDevice.ACTION_ACL_DISCONNECTED -> {
+                val device = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE) ?: return
+                serviceScope.launch {
+                    // 只关心已保存的设备
+                    if (deviceRepository.getDeviceByMacAddress(device.address) == null &&
+                        fragranceRepository.getDevice(device.address).first() == null) {
+                        return@launch
+                    }
+                    reconnectTrigger.request(ReconnectReason.ACL_DISCONNECTED)
+                }
+            }
+
             BluetoothAdapter.ACTION_STATE_CHANGED -> {
                 val state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.STATE_OFF)
                 Timber.tag(TAG).w("系统广播：蓝牙适配器状态变化: $state")
@@ -291,6 +330,10 @@ class BleService : Service() {
                             Timber.tag(TAG).w("已更新所有设备状态为断开")
                         }
                     }
+                    BluetoothAdapter.STATE_ON -> {
+                        Timber.tag(TAG).w("蓝牙已打开，重连所有设备")
+                        reconnectTrigger.request(ReconnectReason.ADAPTER_ON, force = true)
+                    }
                     else -> {
                         // 其他状态不处理
                         Timber.tag(TAG).d("蓝牙适配器状态: $state (不处理)")
@@ -329,6 +372,34 @@ class BleService : Service() {
                 handleDeviceEvent(event)
             }
         }
+
+        // 监听香氛断开事件，触发重连
+        serviceScope.launch {
+            fragranceRepository.getDeviceEvents().collect { event ->
+                if (event is com.mine.baselibrary.bluetooth.DeviceEvent.Disconnected) {
+                    val device = fragranceRepository.getDeviceByMacAddress(event.device.address)
+                    if (device?.needAutoConnect == true) {
+                        Timber.tag(TAG).w("香氛设备已断开，触发重连: ${event.device.address}")
+                        reconnectTrigger.request(ReconnectReason.DEVICE_DISCONNECTED)
+                    }
+                }
+            }
+        }
+
+        // 定时同步氛围灯颜色到已连接的香氛
+        serviceScope.launch {
+            while (isActive) {
+                delay(ATMOSPHERE_LIGHT_SYNC_INTERVAL_MS)
+                if (!fragranceCarExecutor.isIgnition()) continue
+                val syncDevices = fragranceRepository.getAllDevicesList().filter {
+                    it.syncLightBrightness &&
+                            it.connectionState == com.smartlife.fragrance.data.model.ConnectionState.CONNECTED
+                }
+                if (syncDevices.isNotEmpty()) {
+                    fragranceCarExecutor.syncAtmosphereLight(syncDevices)
+                }
+            }
+        }
         
         // 监听设备配置变更
         serviceScope.launch {
@@ -388,10 +459,11 @@ class BleService : Service() {
         when (event) {
             is DeviceEvent.ButtonPressed -> {
                 Timber.tag(TAG).w("按键事件：${event.buttonType}")
+                reconnectScheduler.markUsed(event.macAddress)
                 if(event.buttonType==ButtonType.LEFT_ROTATE ) {
-                    handleButtonPressed2(event)
+                    knobRotationEngine.onDetent(event.macAddress, clockwise = false)
                 } else if(event.buttonType==ButtonType.RIGHT_ROTATE) {
-                    handleButtonPressed2(event)
+                    knobRotationEngine.onDetent(event.macAddress, clockwise = true)
                 } else{
                     handleButtonPressed(event)
                 }
@@ -400,20 +472,16 @@ class BleService : Service() {
             }
             is DeviceEvent.DeviceConnected -> {
                 Timber.tag(TAG).w("设备已连接: ${event.macAddress}")
+                reconnectScheduler.onConnected(event.macAddress)
                 setupDeviceAfterConnect(event.macAddress)
             }
             is DeviceEvent.DeviceDisconnected -> {
                 Timber.tag(TAG).w("设备已断开: ${event.macAddress}")
-                // 检测到断开连接，快速尝试重连
-                serviceScope.launch {
-                    delay(500) // 短暂延迟，避免立即重连
-                    val device = deviceRepository.getDeviceByMacAddress(event.macAddress)
-                    device?.let {
-                        if(device.needAutoConnect) {
-                            Timber.tag(TAG).w("尝试快速重连设备: ${event.macAddress}")
-                            tryConnectDevice(it)
-                        }
-                    }
+                // 检测到断开连接，触发重连，触发器会合并同时到达的ACL断开事件
+                val device = deviceRepository.getDeviceByMacAddress(event.macAddress)
+                if (device?.needAutoConnect == true) {
+                    Timber.tag(TAG).w("尝试快速重连设备: ${event.macAddress}")
+                    reconnectTrigger.request(ReconnectReason.DEVICE_DISCONNECTED)
                 }
 
             }
@@ -469,29 +537,25 @@ class BleService : Service() {
     }
     
     /**
-     * 启动定期唤醒任务
+     * 唤醒并连接所有已保存的设备，由重连触发器调用
+     * @param reason 触发原因
+     * @param force 是否强制连接并忽略退避期
      */
-    private fun startPeriodicWakeup() {
-        periodicWakeupJob?.cancel()
-        periodicWakeupJob = serviceScope.launch {
-            while (isActive) {
-                wakeupAndConnectAllDevices()
-                delay(wakeupIntervalMs)
-            }
-        }
-    }
-    
-    /**
-     * 唤醒并连接所有已保存的设备
-     */
-    private suspend fun wakeupAndConnectAllDevices() {
-        Timber.tag(TAG).w("执行定期唤醒和连接...")
-
-        //showToast("执行后台服务打开1")
+    private suspend fun wakeupAndConnectAllDevices(reason: ReconnectReason, force: Boolean) {
+        Timber.tag(TAG).w("执行重连唤醒: $reason")
 
         try {
             acquireWakeLock()
-            connectAllSavedDevices(false)
+            val result = connectAllSavedDevices(force)
+            // 仍有失败且未转为后台连接的设备，等退避期结束再唤醒一次
+            if (result != null && result.failed.size > result.parked.size) {
+                reconnectScheduler.nextRetryDelayMs()?.let {
+                    reconnectTrigger.requestDelayed(ReconnectReason.BACKOFF_EXPIRED, it)
+                }
+            }
+            if (result != null && result.failed.isNotEmpty()) {
+                startReconnectScan(result.failed)
+            }
         } catch (e: Exception) {
             Timber.tag(TAG).e(e, "唤醒和连接过程中出错")
         } finally {
@@ -499,6 +563,40 @@ class BleService : Service() {
         }
     }
     
+    /**
+     * 用低功耗扫描等待连接失败的妥妥贴设备发出重连广播，看到广播后强制重连一轮
+     * 配对扫描进行中时不启动；已有回连扫描时不重复启动
+     * @param failedAddresses 本轮连接失败的设备
+     */
+    private suspend fun startReconnectScan(failedAddresses: List<String>) {
+        if (reconnectScanJob?.isActive == true) return
+        // 香氛设备由香氛管理器连接，回连扫描只看妥妥贴设备
+        val savedAddresses = deviceRepository.getAllDevices().first().map { it.macAddress.uppercase() }.toSet()
+        val targets = failedAddresses.map { it.uppercase() }.filter { it in savedAddresses }.toSet()
+        if (targets.isEmpty() || !deviceRepository.startReconnectScan()) return
+
+        Timber.tag(TAG).w("开始回连扫描: $targets")
+        reconnectScanJob = serviceScope.launch {
+            val found = withTimeoutOrNull(RECONNECT_SCAN_WINDOW_MS) {
+                deviceRepository.getScanState().first { state ->
+                    val devices = when (state) {
+                        is ScanState.ScanDelta -> state.devices
+                        is ScanState.ScanResult -> state.devices
+                        else -> emptyList()
+                    }
+                    devices.any { it.address.uppercase() in targets }
+                }
+            }
+            deviceRepository.stopReconnectScan()
+            if (found != null) {
+                Timber.tag(TAG).w("回连扫描发现设备广播，重新连接")
+                reconnectTrigger.request(ReconnectReason.DEVICE_ADVERTISING, force = true)
+            } else {
+                Timber.tag(TAG).w("回连扫描${RECONNECT_SCAN_WINDOW_MS}ms内未发现设备")
+            }
+        }
+    }
+
     /**
      * 获取唤醒锁
      */
@@ -529,53 +627,6 @@ class BleService : Service() {
         }
     }
     
-    /**
-     * 尝试连接设备
-     */
-    private fun tryConnectDevice(device: Device) {
-        if(!device.needAutoConnect){
-            android.util.Log.e(TAG,"不需要自动重连")
-            return
-        }
-        // 避免重复连接已连接或正在连接的设备
-        if (device.lastConnectionState != ConnectionState.DISCONNECTED) {
-            android.util.Log.e(TAG,"not DISCONNECTED ${device.lastConnectionState}")
-            return
-        }
-
-        val macAddress = device.macAddress
-        try {
-            val bluetoothManager = getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager
-            val bluetoothAdapter = bluetoothManager.adapter
-            
-            if (!bluetoothAdapter.isEnabled) {
-                Timber.tag(TAG).e("蓝牙已禁用，无法连接设备")
-                //showToast("蓝牙未打开，无法连接设备")
-                return
-            }
-            
-            val bleDevice = bluetoothAdapter.getRemoteDevice(macAddress)
-            
-            if (bleDevice != null) {
-                Timber.tag(TAG).w("正在连接设备: ${device.name} (${macAddress})")
-//                showToast("正在连接设备: ${device.name} (${macAddress})2")
-
-                serviceScope.launch {
-                    try {
-                        deviceRepository.connectDevice(bleDevice)
-                    } catch (e: Exception) {
-                        Timber.tag(TAG).e(e, "连接设备时出错: $macAddress")
-//                        showToast("连接设备时出错:（ $macAddress）2")
-                                            }
-                }
-            }
-        } catch (e: Exception) {
-            Timber.tag(TAG).e(e, "尝试连接设备时出错: $macAddress")
-//            showToast("尝试连接设备时出错:（ $macAddress）2")
-
-        }
-    }
-    
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
         Timber.tag(TAG).w("服务启动")
         //showToast("服务启动")
@@ -590,15 +641,18 @@ class BleService : Service() {
     
     /**
      * 连接所有已断开的设备（包括妥妥贴设备和香氛设备）
+     * 由重连调度器按最近使用时间排序、有限并发地连接，单个设备失败按指数退避重试
+     * @param force 是否强制连接所有需要自动重连的设备，同时忽略退避期
+     * @return 本轮重连结果，没有需要连接的设备返回null
      */
-    private suspend fun connectAllSavedDevices(force:Boolean) {
+    private suspend fun connectAllSavedDevices(force:Boolean): ReconnectRoundResult? {
         try {
 
             Log.i(TAG,"connectAllSavedDevices $force")
 
             if(!fragranceCarExecutor.isIgnition()){
                 Log.i(TAG,"未点火")
-                return
+                return null
             }
 
             // 获取蓝牙适配器
@@ -609,57 +663,55 @@ class BleService : Service() {
                 Timber.tag(TAG).e("蓝牙已禁用，无法连接设备")
                // showToast("蓝牙未打开，无法连接设备")
 
-                return
+                return null
             }
 
+            val targets = mutableListOf<ReconnectTarget>()
+
             // ========== 处理妥妥贴设备 ==========
-            // 获取所有已保存的妥妥贴设备
-            val devices = deviceRepository.getAllDevices().map { it.toList() }.first()
-//            Timber.tag(TAG).w("找到 ${devices.size} 个已保存的设备")
+            // 获取所有已保存的妥妥贴设备，只查询一次
+            val devices = deviceRepository.getAllDevices().first()
+            val connectedAddresses = deviceRepository.getAllBluetoothDevice().map { it.address.uppercase() }.toSet()
+            // 过滤出未连接的设备
+            var disconnectedDevices = devices
             if (!force) {
-                if (devices.size > 0) {
-                    for (item in devices) {
-                        if (!isBluetoothDeviceConnected(this@BleService, item.macAddress)) {
-                            deviceRepository.updateConnectionState(
-                                item.macAddress,
-                                ConnectionState.DISCONNECTED
-                            )
-                        }
+                disconnectedDevices = devices.filter {
+                    val connected = it.macAddress.uppercase() in connectedAddresses
+                    if (!connected && it.lastConnectionState != ConnectionState.DISCONNECTED
+                        && !reconnectScheduler.isInFlight(it.macAddress)) {
+                        deviceRepository.updateConnectionState(it.macAddress, ConnectionState.DISCONNECTED)
                     }
+                    !connected || it.lastConnectionState == ConnectionState.DISCONNECTED
                 }
             }
-            // 过滤出未连接的设备
-            var disconnectedDevices = deviceRepository.getAllDevices().map { it.toList() }.first()
-            if (!force) {
-                disconnectedDevices =
-                    disconnectedDevices.filter { it.lastConnectionState == ConnectionState.DISCONNECTED }
-            }
 
             if (disconnectedDevices.isNotEmpty()) {
                 Timber.tag(TAG).w("发现 ${disconnectedDevices.size} 个断开的妥妥贴设备需要连接")
 
-                // 尝试连接每个断开的设备
                 for (device in disconnectedDevices) {
                     Timber.tag(TAG).i("device info ${device.macAddress} , needAutoConnect: ${device.needAutoConnect}")
                     if(!device.needAutoConnect){
                         Timber.tag(TAG).i("不需要自动重连")
                         continue
                     }
-                   // Timber.tag(TAG).w("正在连接断开的设备: ${device.name} (${device.macAddress})")
-                    //showToast("正在连接断开的设备: ${device.name} (${device.macAddress})")
 
-                    var blueDevice: BluetoothDevice? = null
-                    blueDevice = bluetoothAdapter.getRemoteDevice(device.macAddress)
+                    val blueDevice: BluetoothDevice? = bluetoothAdapter.getRemoteDevice(device.macAddress)
                     if (blueDevice != null) {
-                        deviceRepository.connectDevice(blueDevice)
-                        // 给每个设备连接请求留出一些时间
-                        delay(500)
+                        targets.add(
+                            ReconnectTarget(
+                                device.macAddress,
+                                reconnectScheduler.lastUsedAt(device.macAddress, device.createdAt),
+                                connectInBackground = if (BACKGROUND_AUTO_CONNECT_ENABLED) {
+                                    {
+                                        deviceRepository.updateConnectionState(device.macAddress, ConnectionState.DISCONNECTED)
+                                        deviceRepository.connectDevice(blueDevice, autoConnect = true)
+                                    }
+                                } else null
+                            ) { connectTuoTuoTieAndWait(blueDevice) }
+                        )
                     } else {
                         Timber.tag(TAG).w("设备：%s,%s 连接失败", device.name, device.macAddress)
-                        //showToast("设备：${device.name},${device.macAddress} 连接失败")
-
                     }
-
                 }
             } else {
                 Timber.tag(TAG).w("所有妥妥贴设备都已连接，无需再次连接")
@@ -668,36 +720,19 @@ class BleService : Service() {
             // ========== 处理香氛设备 ==========
             // 获取所有香氛设备
             val allFragranceDevicesList = fragranceRepository.getAllDevicesList()
-            var connectedFragranceDevice: List<FragranceDevice>
-            var disconnectedFragranceDevices :List<FragranceDevice>
-            if (force) {
+            val disconnectedFragranceDevices = if (force) {
                 //如果是强制再次连接，那么这里我们认为所有香氛都是断开的
-                connectedFragranceDevice = emptyList<FragranceDevice>()
-                disconnectedFragranceDevices = allFragranceDevicesList
+                allFragranceDevicesList
             } else {
-                //如果不是强制连接，那么过滤出连接/未连接的香氛
-                connectedFragranceDevice = allFragranceDevicesList.filter {
-                    it.connectionState == com.smartlife.fragrance.data.model.ConnectionState.CONNECTED
+                //如果不是强制连接，那么过滤出未连接的香氛；已连接香氛的氛围灯同步由定时任务负责
+                allFragranceDevicesList.filter {
+                    it.connectionState == com.smartlife.fragrance.data.model.ConnectionState.DISCONNECTED
                 }
-                disconnectedFragranceDevices =
-                    allFragranceDevicesList.filter {
-                        it.connectionState == com.smartlife.fragrance.data.model.ConnectionState.DISCONNECTED
-                    }
             }
 
-            if(connectedFragranceDevice.isNotEmpty()){
-                Timber.tag(TAG).w("有连接上的香氛,同步氛围灯")
-                serviceScope.launch {
-                    fragranceCarExecutor.syncAtmosphereLight(connectedFragranceDevice)
-                }
-            }else{
-                Timber.tag(TAG).w("没有连接上的香氛")
-            }
-            
             if (disconnectedFragranceDevices.isNotEmpty()) {
                 Timber.tag(TAG).w("发现 ${disconnectedFragranceDevices.size} 个断开的香氛设备需要连接")
                 
-                // 尝试连接每个断开的香氛设备
                 for (device in disconnectedFragranceDevices) {
                     Timber.tag(TAG).i("fragrance device info ${device.macAddress} , needAutoConnect: ${device.needAutoConnect}, device.syncLightBrightness ${device.syncLightBrightness},force $force")
 
@@ -712,12 +747,21 @@ class BleService : Service() {
                         continue
                     }
 
-                    var blueDevice: BluetoothDevice? = null
-                    blueDevice = bluetoothAdapter.getRemoteDevice(device.macAddress)
+                    val blueDevice: BluetoothDevice? = bluetoothAdapter.getRemoteDevice(device.macAddress)
                     if (blueDevice != null) {
-                        fragranceRepository.connectDevice(blueDevice)
-                        // 给每个设备连接请求留出一些时间
-                        delay(500)
+                        targets.add(
+                            ReconnectTarget(
+                                device.macAddress,
+                                reconnectScheduler.lastUsedAt(device.macAddress, device.updatedAt),
+                                connectInBackground = if (BACKGROUND_AUTO_CONNECT_ENABLED) {
+                                    {
+                                        fragranceRepository.updateConnectionState(device.macAddress,
+                                            com.smartlife.fragrance.data.model.ConnectionState.DISCONNECTED)
+                                        fragranceRepository.connectDevice(blueDevice, autoConnect = true)
+                                    }
+                                } else null
+                            ) { connectFragranceAndWait(blueDevice) }
+                        )
                     } else {
                         Timber.tag(TAG).w("香氛设备：%s,%s bluetoothAdapter获取device失败", device.deviceName, device.macAddress)
                     }
@@ -726,12 +770,43 @@ class BleService : Service() {
                 Timber.tag(TAG).w("所有香氛设备都已连接，无需再次连接")
             }
 
+            if (targets.isNotEmpty()) {
+                return reconnectScheduler.reconnect(targets, ignoreBackoff = force)
+            }
 
         } catch (e: Exception) {
             Timber.tag(TAG).e(e, "连接已保存设备时出错")
 //            showToast("连接已保存设备时出错")
 
         }
+        return null
+    }
+
+    /**
+     * 连接妥妥贴设备并等待连接结果
+     * @return 连接成功（含鉴权）返回true
+     */
+    private suspend fun connectTuoTuoTieAndWait(bleDevice: BluetoothDevice): Boolean {
+        if (!deviceRepository.connectDevice(bleDevice)) return false
+        val device = withTimeoutOrNull(CONNECT_WAIT_TIMEOUT_MS) {
+            deviceRepository.getDevice(bleDevice.address)
+                .first { it == null || it.lastConnectionState != ConnectionState.CONNECTING }
+        }
+        return device?.lastConnectionState == ConnectionState.CONNECTED
+    }
+
+    /**
+     * 连接香氛设备并等待连接结果
+     * @return 连接成功返回true
+     */
+    private suspend fun connectFragranceAndWait(bleDevice: BluetoothDevice): Boolean {
+        if (!fragranceRepository.connectDevice(bleDevice)) return false
+        val device = withTimeoutOrNull(CONNECT_WAIT_TIMEOUT_MS) {
+            fragranceRepository.getDevice(bleDevice.address).first {
+                it == null || it.connectionState != com.smartlife.fragrance.data.model.ConnectionState.CONNECTING
+            }
+        }
+        return device?.connectionState == com.smartlife.fragrance.data.model.ConnectionState.CONNECTED
     }
 
     //判断当前妥妥贴设备mac地址是否已经连接
@@ -768,8 +843,13 @@ class BleService : Service() {
             Timber.tag(TAG).w("蓝牙连接状态广播接收器已注销")
         }
         
-        // 取消定期唤醒任务
-        periodicWakeupJob?.cancel()
+        // 停止重连触发器和回连扫描
+        reconnectTrigger.stop()
+        if (reconnectScanJob?.isActive == true) {
+            reconnectScanJob?.cancel()
+            deviceRepository.stopReconnectScan()
+        }
+        knobRotationEngine.stop()
         
         // 释放唤醒锁
         releaseWakeLock()
@@ -848,38 +928,34 @@ class BleService : Service() {
     private suspend fun handleButtonPressed(event: DeviceEvent.ButtonPressed) {
         Timber.tag(TAG).w("收到按键事件: ${event.macAddress}, 按键: ${event.buttonType}")
 
-        // 获取按键对应的功能
-        var function = deviceRepository.getButtonFunction(event.macAddress, event.buttonType)
-
-        // 右旋和左旋使用同样的功能定义
-        if (event.buttonType == ButtonType.RIGHT_ROTATE) {
-            function = deviceRepository.getButtonFunction(event.macAddress, ButtonType.LEFT_ROTATE)
-        }
+        // 获取按键对应的功能和按键音，右旋已解析为左旋的功能定义
+        val dispatch = buttonDispatchCache.get(event.macAddress, event.buttonType)
+        val function = dispatch.function
 
-        val device=deviceRepository.getDeviceByMacAddress(event.macAddress)
-
-        if(device!=null)
-        {
-            if(device.musicCan==1) {
-                when (device.musicName) {
-                    "1" -> soundManager.playSound(R.raw.click_sound)
-                    "2" -> soundManager.playSound(R.raw.dong)
-                    "3" -> soundManager.playSound(R.raw.dack)
-                }
-            }
-        }
+        playClickSound(dispatch)
         // 执行功能
         function?.let {
             // 传入功能和按键类型，特别是对于旋转类型的功能需要知道旋转方向
             functionExecutor.executeFunction(it, event.buttonType, event.macAddress)
         } ?: run {
             Timber.tag(TAG).w("按键未配置功能: ${event.buttonType}")
-            toastNoFunction(event)
+            toastNoFunction(event.buttonType)
+        }
+    }
+
+    /**
+     * 播放设备设置的按键音
+     */
+    private fun playClickSound(dispatch: ButtonDispatch) {
+        when (dispatch.clickSound) {
+            "1" -> soundManager.playSound(R.raw.click_sound)
+            "2" -> soundManager.playSound(R.raw.dong)
+            "3" -> soundManager.playSound(R.raw.dack)
         }
     }
 
-    private fun toastNoFunction(event: DeviceEvent.ButtonPressed) {
-        if (event.buttonType in listOf(
+    private fun toastNoFunction(buttonType: ButtonType) {
+        if (buttonType in listOf(
                 ButtonType.SHORT_PRESS,
                 ButtonType.DOUBLE_CLICK,
                 ButtonType.LEFT_ROTATE,
@@ -887,7 +963,7 @@ class BleService : Service() {
             )
         ) {
             ToastUtilOverApplication().showToast(
-                applicationContext, when (event.buttonType) {
+                applicationContext, when (buttonType) {
                     ButtonType.SHORT_PRESS -> "单击功能尚未设置"
                     ButtonType.DOUBLE_CLICK -> "双击功能尚未设置"
                     ButtonType.LEFT_ROTATE, ButtonType.RIGHT_ROTATE -> "旋钮功能尚未设置"
@@ -897,69 +973,26 @@ class BleService : Service() {
         }
     }
 
-    // 旋转次数
-    private var leftRotate = 0
-
     /**
-     * 处理按键事件
+     * 执行一帧合并后的旋钮旋转
+     * @param steps 带方向的步数，正数为顺时针（右旋）
      */
-    private suspend fun handleButtonPressed2(event: DeviceEvent.ButtonPressed) {
-        Timber.tag(TAG).w("收到按键事件: ${event.macAddress}, 按键: ${event.buttonType}")
-
-        // 获取按键对应的功能
-        var function = deviceRepository.getButtonFunction(event.macAddress, event.buttonType)
-
-        // 右旋和左旋使用同样的功能定义
-        if (event.buttonType == ButtonType.RIGHT_ROTATE) {
-            function = deviceRepository.getButtonFunction(event.macAddress, ButtonType.LEFT_ROTATE)
-        }
-
-        val device=deviceRepository.getDeviceByMacAddress(event.macAddress)
-
-        if(device!=null)
-        {
-            leftRotate++
-
-
-            val targetTime = LocalDateTime.now().plusNanos(250)
-            println("将在 ${targetTime} 发送消息...")
-
-            // 2. 转换为Date类型（Timer需要Date参数）
-            val targetDate = Date.from(targetTime.atZone(java.time.ZoneId.systemDefault()).toInstant())
+    private suspend fun handleKnobRotation(macAddress: String, steps: Int) {
+        val buttonType = if (steps > 0) ButtonType.RIGHT_ROTATE else ButtonType.LEFT_ROTATE
+        Timber.tag(TAG).w("旋钮旋转: $macAddress, 步数: $steps")
 
-            // 3. 创建定时器，到达目标时间执行发送
-            Timer().schedule(object : TimerTask() {
-                override fun run() {
-                    for (i in 1..leftRotate) {
-                       Thread.sleep(50)
-                        if(i<2)
-                        {
-                            if(device.musicCan==1) {
-                                when (device.musicName) {
-                                    "1" -> soundManager.playSound(R.raw.click_sound)
-                                    "2" -> soundManager.playSound(R.raw.dong)
-                                    "3" -> soundManager.playSound(R.raw.dack)
-                                }
-                            }
-                        }else{
-                            if(i==2){
-                                leftRotate=0
-                                break
-                            }
-                        }
-                    }
-                }
-            }, targetDate)
+        // 获取按键对应的功能和按键音，右旋已解析为左旋的功能定义
+        val dispatch = buttonDispatchCache.get(macAddress, buttonType)
 
+        // 每帧只播放一次按键音
+        playClickSound(dispatch)
 
-        }
         // 执行功能
-        function?.let {
-            // 传入功能和按键类型，特别是对于旋转类型的功能需要知道旋转方向
-            functionExecutor.executeFunction(it, event.buttonType, event.macAddress)
+        dispatch.function?.let {
+            functionExecutor.executeFunction(it, buttonType, macAddress, abs(steps))
         } ?: run {
-            toastNoFunction(event = event)
-            Timber.tag(TAG).w("按键未配置功能: ${event.buttonType}")
+            toastNoFunction(buttonType)
+            Timber.tag(TAG).w("按键未配置功能: $buttonType")
         }
     }
 }
\ No newline at end of file
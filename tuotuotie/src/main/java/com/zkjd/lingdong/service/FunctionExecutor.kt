@@ -12,11 +12,13 @@ interface FunctionExecutor {
      * 执行特定功能
      * @param function 要执行的功能
      * @param buttonType 触发的按键类型，对于旋转类功能尤为重要
+     * @param steps 旋转类功能合并后的步数，其他功能忽略
      */
     suspend fun executeFunction(
         function: ButtonFunction,
         buttonType: ButtonType,
-        macAddress: String
+        macAddress: String,
+        steps: Int = 1
     )
     
     /**
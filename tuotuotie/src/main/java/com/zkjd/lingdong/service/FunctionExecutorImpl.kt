@@ -33,14 +33,16 @@ class FunctionExecutorImpl @Inject constructor(
      * 执行特定功能
      * @param function 需要执行的按键功能
      * @param buttonType 触发的按键类型，用于处理旋转功能
+     * @param steps 旋转类功能合并后的步数
      */
     override suspend fun executeFunction(
         function: ButtonFunction,
         buttonType: ButtonType,
-        macAddress: String
+        macAddress: String,
+        steps: Int
     ) {
         Timber.tag(TAG)
-            .d("执行功能: ${function.name}, 代码: ${function.actionCode}, 按键类型: $buttonType")
+            .d("执行功能: ${function.name}, 代码: ${function.actionCode}, 按键类型: $buttonType, 步数: $steps")
 
         try {
             withContext(Dispatchers.IO) {
@@ -50,11 +52,11 @@ class FunctionExecutorImpl @Inject constructor(
                 when (function.category) {
                     FunctionCategory.APP -> appExecutor.executeAppFunction(function, buttonType,macAddress)
                     FunctionCategory.CAR -> {
-                        carFunctionExecutorImp.executeCarFunction(function,buttonType,macAddress)
+                        carFunctionExecutorImp.executeCarFunction(function,buttonType,macAddress,steps)
                     }
                     FunctionCategory.MEDIA -> {
                        // newFunctionExecutor.executeNewFunction(function,buttonType)
-                        carMediaFunctionExecutor.executeMediaFunction(function, buttonType)
+                        carMediaFunctionExecutor.executeMediaFunction(function, buttonType, steps)
                     }
 
                     FunctionCategory.CARTYPE -> TODO()
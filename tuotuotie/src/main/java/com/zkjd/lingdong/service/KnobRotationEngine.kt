@@ -0,0 +1,137 @@
+package com.zkjd.lingdong.service
+
+import android.os.SystemClock
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import timber.log.Timber
+import kotlin.math.abs
+import kotlin.math.sign
+
+private const val TAG = "KnobRotationEngine"
+
+/**
+ * 旋钮旋转合并引擎
+ *
+ * - 每个设备单独累加带方向的刻度数，正数为顺时针
+ * - 空闲后的第一格立即执行，之后每 [frameMs] 合并执行一次，快速旋转时不再每一格都调用车机接口
+ * - 一帧内的刻度数换算成旋转速度，超过 [fastDetentsPerSecond] 视为快速旋转，步长乘以 [fastStepMultiplier]
+ * - 每帧最多执行 [maxStepsPerFrame] 步，超出的步数留到下一帧，快速旋转不会少调
+ * - 所有状态只在一个协程中访问，不需要加锁
+ *
+ * @param onFrame 合并后的回调，steps为带方向的步数，不为0
+ */
+class KnobRotationEngine(
+    private val scope: CoroutineScope,
+    private val frameMs: Long = 100L,
+    private val idleMs: Long = 300L,
+    private val fastDetentsPerSecond: Int = 30,
+    private val fastStepMultiplier: Int = 2,
+    private val maxStepsPerFrame: Int = 5,
+    private val onFrame: suspend (macAddress: String, steps: Int) -> Unit
+) {
+
+    private class Detent(val macAddress: String, val direction: Int, val at: Long)
+
+    /** 单个设备的累加状态 */
+    private class Accumulator {
+        var detents = 0
+        // 超过单帧上限、留到下一帧执行的带方向步数
+        var carrySteps = 0
+        var lastDetentAt = 0L
+
+        val hasPending: Boolean
+            get() = detents != 0 || carrySteps != 0
+    }
+
+    private val detents = Channel<Detent>(Channel.UNLIMITED)
+
+    private var workerJob: Job? = null
+
+    /**
+     * 启动引擎
+     */
+    fun start() {
+        if (workerJob?.isActive == true) return
+        workerJob = scope.launch {
+            val accumulators = HashMap<String, Accumulator>()
+            var nextFrameAt = 0L
+            while (isActive) {
+                val pending = accumulators.values.any { it.hasPending }
+                val detent = if (pending) {
+                    val remaining = nextFrameAt - SystemClock.elapsedRealtime()
+                    if (remaining > 0) withTimeoutOrNull(remaining) { detents.receive() } else null
+                } else {
+                    detents.receive()
+                }
+
+                if (detent != null) {
+                    val accumulator = accumulators.getOrPut(detent.macAddress) { Accumulator() }
+                    val idle = detent.at - accumulator.lastDetentAt > idleMs
+                    accumulator.lastDetentAt = detent.at
+                    if (idle && !accumulator.hasPending) {
+                        // 空闲后的第一格立即响应，后续刻度从下一帧开始合并
+                        dispatch(detent.macAddress, detent.direction)
+                        if (!pending) nextFrameAt = detent.at + frameMs
+                        continue
+                    }
+                    accumulator.detents += detent.direction
+                    if (!pending) nextFrameAt = maxOf(nextFrameAt, detent.at)
+                }
+
+                if (SystemClock.elapsedRealtime() >= nextFrameAt) {
+                    for ((macAddress, accumulator) in accumulators) {
+                        if (!accumulator.hasPending) continue
+                        // 反向旋转会抵消还没执行的步数
+                        val total = accumulator.carrySteps + toSteps(accumulator.detents)
+                        accumulator.detents = 0
+                        val steps = total.coerceIn(-maxStepsPerFrame, maxStepsPerFrame)
+                        accumulator.carrySteps = total - steps
+                        dispatch(macAddress, steps)
+                    }
+                    nextFrameAt = SystemClock.elapsedRealtime() + frameMs
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止引擎，未执行的刻度丢弃
+     */
+    fun stop() {
+        workerJob?.cancel()
+        workerJob = null
+        while (detents.tryReceive().isSuccess) {
+            // 清空队列
+        }
+    }
+
+    /**
+     * 收到一格旋转，不挂起，可在任意线程调用
+     * @param clockwise 是否顺时针
+     */
+    fun onDetent(macAddress: String, clockwise: Boolean) {
+        detents.trySend(Detent(macAddress, if (clockwise) 1 else -1, SystemClock.elapsedRealtime()))
+    }
+
+    /**
+     * 将一帧的净刻度数换算为步数，不限制上限
+     */
+    private fun toSteps(net: Int): Int {
+        val detentsPerSecond = abs(net) * 1000L / frameMs
+        val magnitude = if (detentsPerSecond >= fastDetentsPerSecond) abs(net) * fastStepMultiplier else abs(net)
+        return net.sign * magnitude
+    }
+
+    private suspend fun dispatch(macAddress: String, steps: Int) {
+        if (steps == 0) return
+        try {
+            onFrame(macAddress, steps)
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "执行旋转失败: $macAddress, 步数=$steps")
+        }
+    }
+}
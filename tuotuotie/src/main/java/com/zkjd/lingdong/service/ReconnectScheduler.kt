@@ -0,0 +1,244 @@
+package com.zkjd.lingdong.service
+
+import android.os.SystemClock
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import timber.log.Timber
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+
+private const val TAG = "ReconnectScheduler"
+
+/**
+ * 同时进行中的 connectGatt 数量
+ */
+const val DEFAULT_MAX_IN_FLIGHT = 3
+
+/**
+ * 重连目标
+ * @param macAddress 设备MAC地址
+ * @param lastUsedAt 最近使用时间，越近越先连接
+ * @param connect 发起连接并等待结果，连接成功返回true
+ * @param connectInBackground 本轮重试用完后转为后台连接（autoConnect），发起成功返回true，为null表示不使用后台连接
+ */
+class ReconnectTarget(
+    val macAddress: String,
+    val lastUsedAt: Long,
+    val connectInBackground: (suspend () -> Boolean)? = null,
+    val connect: suspend () -> Boolean
+)
+
+/**
+ * 一轮重连的结果
+ * @param round 轮次
+ * @param connected 本轮连接成功的设备
+ * @param failed 本轮连接失败的设备
+ * @param skipped 处于退避期、后台连接中或正在连接而跳过的设备
+ * @param parked 本轮失败后转为后台连接的设备，包含在 [failed] 中
+ * @param costMs 本轮耗时
+ */
+data class ReconnectRoundResult(
+    val round: Int,
+    val connected: List<String>,
+    val failed: List<String>,
+    val skipped: List<String>,
+    val parked: List<String>,
+    val costMs: Long
+)
+
+/**
+ * 设备重连调度器
+ *
+ * - 按最近使用时间排序，最多 [maxInFlight] 个设备同时连接，其余排队
+ * - 单个设备失败后按指数退避加随机抖动重试，本轮最多尝试 [maxAttemptsPerRound] 次
+ * - 本轮结束后失败设备在退避期内不再被调度，连接成功后清除退避
+ * - 提供了 [ReconnectTarget.connectInBackground] 的设备重试用完后交给系统后台连接，
+ *   非强制的轮次不再调度，直到连接成功或强制重连
+ * - 每轮结束通过 [roundCompleted] 发出完成信号
+ */
+class ReconnectScheduler(
+    private val maxInFlight: Int = DEFAULT_MAX_IN_FLIGHT,
+    private val maxAttemptsPerRound: Int = 3,
+    private val baseBackoffMs: Long = 1000L,
+    private val maxBackoffMs: Long = 60_000L
+) {
+
+    /** 限制同时进行中的连接数，Semaphore 先到先得，保证按优先级顺序获取 */
+    private val connectPermits = Semaphore(maxInFlight)
+
+    /** 每个设备连续失败次数 */
+    private val failureCounts = ConcurrentHashMap<String, Int>()
+
+    /** 每个设备下次允许调度的时间（elapsedRealtime） */
+    private val nextAttemptAt = ConcurrentHashMap<String, Long>()
+
+    /** 正在连接中的设备 */
+    private val inFlight = ConcurrentHashMap.newKeySet<String>()
+
+    /** 已转为后台连接、等待系统自动连上的设备 */
+    private val parkedInBackground = ConcurrentHashMap.newKeySet<String>()
+
+    /** 设备最近使用时间 */
+    private val lastUsedTimes = ConcurrentHashMap<String, Long>()
+
+    private val roundCounter = AtomicInteger()
+
+    private val _roundCompleted = MutableSharedFlow<ReconnectRoundResult>(replay = 1)
+
+    /** 每轮重连完成信号 */
+    val roundCompleted: SharedFlow<ReconnectRoundResult> = _roundCompleted.asSharedFlow()
+
+    /**
+     * 记录设备被使用（按键等），用于重连排序
+     */
+    fun markUsed(macAddress: String) {
+        lastUsedTimes[macAddress] = System.currentTimeMillis()
+    }
+
+    /**
+     * 获取设备最近使用时间
+     * @param fallback 未记录时使用的时间，如设备创建时间
+     */
+    fun lastUsedAt(macAddress: String, fallback: Long): Long = lastUsedTimes[macAddress] ?: fallback
+
+    /**
+     * 设备已连接，清除退避状态
+     */
+    fun onConnected(macAddress: String) {
+        failureCounts.remove(macAddress)
+        nextAttemptAt.remove(macAddress)
+        parkedInBackground.remove(macAddress)
+    }
+
+    /**
+     * 设备是否正在连接中
+     */
+    fun isInFlight(macAddress: String): Boolean = inFlight.contains(macAddress)
+
+    /**
+     * 距离最早一个退避设备可以重试的时间，后台连接中的设备不计入
+     * @return 剩余毫秒数，没有处于退避期的设备返回null
+     */
+    fun nextRetryDelayMs(): Long? {
+        val now = SystemClock.elapsedRealtime()
+        return nextAttemptAt.entries
+            .filter { it.key !in parkedInBackground }
+            .minOfOrNull { it.value }
+            ?.let { (it - now).coerceAtLeast(0L) }
+    }
+
+    /**
+     * 执行一轮重连，所有目标完成后返回
+     * @param targets 需要连接的设备
+     * @param ignoreBackoff 是否忽略退避期，如点火、服务启动时
+     * @return 本轮结果
+     */
+    suspend fun reconnect(
+        targets: List<ReconnectTarget>,
+        ignoreBackoff: Boolean = false
+    ): ReconnectRoundResult = coroutineScope {
+        val round = roundCounter.incrementAndGet()
+        val startTime = SystemClock.elapsedRealtime()
+
+        val skipped = mutableListOf<String>()
+        val scheduled = targets
+            .filter { target ->
+                val allowed = !inFlight.contains(target.macAddress) &&
+                        (ignoreBackoff || (startTime >= (nextAttemptAt[target.macAddress] ?: 0L) &&
+                                target.macAddress !in parkedInBackground))
+                if (!allowed) skipped.add(target.macAddress)
+                allowed
+            }
+            .sortedByDescending { it.lastUsedAt }
+
+        Timber.tag(TAG).w("第${round}轮重连: ${scheduled.size}个设备, 跳过${skipped.size}个, 并发上限$maxInFlight")
+
+        // 重新调度的设备由前台连接接管，disconnectExistingConnection 会关闭挂起的后台连接
+        scheduled.forEach { parkedInBackground.remove(it.macAddress) }
+
+        val results = scheduled.map { target ->
+            async { target.macAddress to connectWithRetry(target) }
+        }.awaitAll()
+
+        val result = ReconnectRoundResult(
+            round = round,
+            connected = results.filter { it.second }.map { it.first },
+            failed = results.filter { !it.second }.map { it.first },
+            skipped = skipped,
+            parked = results.filter { !it.second && it.first in parkedInBackground }.map { it.first },
+            costMs = SystemClock.elapsedRealtime() - startTime
+        )
+        Timber.tag(TAG).w("第${round}轮重连完成: 成功${result.connected.size}, 失败${result.failed.size}, 耗时${result.costMs}ms")
+        _roundCompleted.emit(result)
+        result
+    }
+
+    private suspend fun connectWithRetry(target: ReconnectTarget): Boolean {
+        val macAddress = target.macAddress
+        if (!inFlight.add(macAddress)) return false
+        try {
+            repeat(maxAttemptsPerRound) { attempt ->
+                val success = connectPermits.withPermit {
+                    try {
+                        target.connect()
+                    } catch (e: Exception) {
+                        Timber.tag(TAG).e(e, "连接设备异常: $macAddress")
+                        false
+                    }
+                }
+                if (success) {
+                    onConnected(macAddress)
+                    return true
+                }
+
+                val backoff = recordFailure(macAddress)
+                Timber.tag(TAG).w("连接失败: $macAddress, 第${attempt + 1}次, ${backoff}ms后可重试")
+                if (attempt < maxAttemptsPerRound - 1) {
+                    // 退避等待期间不占用连接名额
+                    delay(backoff)
+                }
+            }
+            parkInBackground(target)
+            return false
+        } finally {
+            inFlight.remove(macAddress)
+        }
+    }
+
+    /**
+     * 重试用完后转为后台连接
+     */
+    private suspend fun parkInBackground(target: ReconnectTarget) {
+        val connectInBackground = target.connectInBackground ?: return
+        val parked = try {
+            connectInBackground()
+        } catch (e: Exception) {
+            Timber.tag(TAG).e(e, "发起后台连接异常: ${target.macAddress}")
+            false
+        }
+        if (parked) {
+            parkedInBackground.add(target.macAddress)
+            Timber.tag(TAG).w("转为后台连接: ${target.macAddress}")
+        }
+    }
+
+    /**
+     * 记录失败并计算退避时间：base * 2^(n-1)，上限 maxBackoffMs，再乘以 [0.5, 1.0) 的随机抖动
+     * @return 退避时间
+     */
+    private fun recordFailure(macAddress: String): Long {
+        val failures = failureCounts.merge(macAddress, 1, Int::plus) ?: 1
+        val exponential = baseBackoffMs shl (failures - 1).coerceAtMost(16)
+        val backoff = (exponential.coerceAtMost(maxBackoffMs) * (0.5 + Random.nextDouble() * 0.5)).toLong()
+        nextAttemptAt[macAddress] = SystemClock.elapsedRealtime() + backoff
+        return backoff
+    }
+}
@@ -0,0 +1,163 @@
+package com.zkjd.lingdong.service
+
+import android.os.SystemClock
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import timber.log.Timber
+import java.util.concurrent.atomic.AtomicBoolean
+
+private const val TAG = "ReconnectTrigger"
+
+/**
+ * 原轮询方案的唤醒间隔，用于统计节省的唤醒次数
+ */
+const val LEGACY_WAKEUP_INTERVAL_MS = 5_000L
+
+/**
+ * 兜底轮询间隔，事件都丢失时仍能最终重连
+ */
+const val FALLBACK_POLL_INTERVAL_MS = 5 * 60_000L
+
+/**
+ * 触发重连的原因
+ */
+enum class ReconnectReason {
+    SERVICE_START,        // 服务启动
+    DEVICE_DISCONNECTED,  // GATT断开
+    ACL_DISCONNECTED,     // 系统ACL断开广播
+    ADAPTER_ON,           // 蓝牙打开
+    IGNITION_ON,          // 车辆点火
+    BACKOFF_EXPIRED,      // 失败设备退避期结束
+    DEVICE_ADVERTISING,   // 回连扫描发现未连接设备的广播
+    FALLBACK_POLL         // 兜底轮询
+}
+
+/**
+ * 唤醒统计
+ * @param eventWakeups 由事件触发的唤醒次数
+ * @param fallbackWakeups 兜底轮询的唤醒次数
+ * @param coalescedTriggers 被合并到同一次唤醒中的触发次数
+ * @param savedWakeups 相比固定间隔轮询节省的唤醒次数
+ */
+data class ReconnectWakeupStats(
+    val eventWakeups: Int = 0,
+    val fallbackWakeups: Int = 0,
+    val coalescedTriggers: Int = 0,
+    val savedWakeups: Long = 0
+)
+
+/**
+ * 事件驱动的重连触发器
+ *
+ * - 断开、ACL、蓝牙打开、点火等事件通过 [request] 触发一次唤醒
+ * - 短时间内的多个触发合并为一次唤醒，避免GATT断开和ACL断开各跑一轮
+ * - 长时间没有事件时按 [fallbackIntervalMs] 兜底轮询
+ * - 统计相对 [legacyIntervalMs] 固定轮询节省的唤醒次数
+ *
+ * @param onWakeup 唤醒回调，参数为触发原因和是否强制（忽略退避期）
+ */
+class ReconnectTrigger(
+    private val scope: CoroutineScope,
+    private val fallbackIntervalMs: Long = FALLBACK_POLL_INTERVAL_MS,
+    private val legacyIntervalMs: Long = LEGACY_WAKEUP_INTERVAL_MS,
+    private val debounceMs: Long = 500L,
+    private val onWakeup: suspend (reason: ReconnectReason, force: Boolean) -> Unit
+) {
+
+    private val requests = Channel<ReconnectReason>(Channel.UNLIMITED)
+
+    /** 合并窗口内是否有强制请求 */
+    private val pendingForce = AtomicBoolean(false)
+
+    private var workerJob: Job? = null
+
+    private var delayedJob: Job? = null
+
+    private var startedAt = 0L
+
+    private val _stats = MutableStateFlow(ReconnectWakeupStats())
+
+    /** 唤醒统计 */
+    val stats: StateFlow<ReconnectWakeupStats> = _stats.asStateFlow()
+
+    /**
+     * 启动触发器
+     */
+    fun start() {
+        if (workerJob?.isActive == true) return
+        startedAt = SystemClock.elapsedRealtime()
+        workerJob = scope.launch {
+            while (isActive) {
+                val reason = withTimeoutOrNull(fallbackIntervalMs) { requests.receive() }
+                    ?: ReconnectReason.FALLBACK_POLL
+                if (reason != ReconnectReason.FALLBACK_POLL) {
+                    // 等待同一次断开引起的其他事件到达后一起处理
+                    delay(debounceMs)
+                }
+                var coalesced = 0
+                while (requests.tryReceive().isSuccess) {
+                    coalesced++
+                }
+                val force = pendingForce.getAndSet(false)
+                record(reason, coalesced)
+                Timber.tag(TAG).w("重连唤醒: $reason, force=$force, 合并触发$coalesced 次")
+                try {
+                    onWakeup(reason, force)
+                } catch (e: Exception) {
+                    Timber.tag(TAG).e(e, "重连唤醒处理异常: $reason")
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止触发器
+     */
+    fun stop() {
+        delayedJob?.cancel()
+        workerJob?.cancel()
+        workerJob = null
+        Timber.tag(TAG).w("重连触发器已停止: ${_stats.value}")
+    }
+
+    /**
+     * 请求一次重连唤醒
+     * @param force 是否忽略退避期
+     */
+    fun request(reason: ReconnectReason, force: Boolean = false) {
+        if (force) pendingForce.set(true)
+        requests.trySend(reason)
+    }
+
+    /**
+     * 延迟请求一次重连唤醒，只保留最后一次延迟请求
+     */
+    fun requestDelayed(reason: ReconnectReason, delayMs: Long) {
+        delayedJob?.cancel()
+        delayedJob = scope.launch {
+            delay(delayMs)
+            request(reason)
+        }
+    }
+
+    private fun record(reason: ReconnectReason, coalesced: Int) {
+        val current = _stats.value
+        val eventWakeups = current.eventWakeups + if (reason == ReconnectReason.FALLBACK_POLL) 0 else 1
+        val fallbackWakeups = current.fallbackWakeups + if (reason == ReconnectReason.FALLBACK_POLL) 1 else 0
+        val legacyWakeups = (SystemClock.elapsedRealtime() - startedAt) / legacyIntervalMs
+        _stats.value = ReconnectWakeupStats(
+            eventWakeups = eventWakeups,
+            fallbackWakeups = fallbackWakeups,
+            coalescedTriggers = current.coalescedTriggers + coalesced,
+            savedWakeups = (legacyWakeups - eventWakeups - fallbackWakeups).coerceAtLeast(0L)
+        )
+    }
+}
@@ -27,10 +27,14 @@ class CarFunctionExecutorImp@Inject constructor(
        const val TAG = "TinnoveCarFunctionExecutor"
     }
 
+    /**
+     * @param steps 旋转合并后的步数，旋转类功能按步数调节
+     */
     suspend fun executeCarFunction(
         function: ButtonFunction,
         buttonType: ButtonType,
-        macAddress: String
+        macAddress: String,
+        steps: Int = 1
     ) {
         try {
             Timber.tag(TAG)
@@ -55,77 +59,42 @@ class CarFunctionExecutorImp@Inject constructor(
             when (function.actionCode) {
                 //单温区
                 "CAR_AC_TEMPERATURE"->{
-                    Timber.tag(TAG).d("执行主驾空调温度调节，旋转方向: $buttonType")
-                    if (buttonType == ButtonType.RIGHT_ROTATE) {
-                        // 顺时针旋转，增加温度
-                        Timber.tag(TAG).d("顺时针旋转，增加主驾空调温度")
-                        increaseACTemperature()
-                    } else {
-                        // 逆时针旋转，降低温度
-                        Timber.tag(TAG).d("逆时针旋转，降低主驾空调温度")
-                        decreaseACTemperature()
-                    }
+                    Timber.tag(TAG).d("执行主驾空调温度调节，旋转方向: $buttonType, 步数: $steps")
+                    // 顺时针旋转增加温度，逆时针旋转降低温度
+                    adjustACTemperature(if (buttonType == ButtonType.RIGHT_ROTATE) steps else -steps)
                     return
                 }
                 //主驾
                 "CAR_AC_TEMPERATURE1" -> {
                     // 空调温度调节
-                    Timber.tag(TAG).d("执行主驾空调温度调节，旋转方向: $buttonType")
-                    if (buttonType == ButtonType.RIGHT_ROTATE) {
-                        // 顺时针旋转，增加温度
-                        Timber.tag(TAG).d("顺时针旋转，增加主驾空调温度")
-                        increaseACTemperature()
-                    } else {
-                        // 逆时针旋转，降低温度
-                        Timber.tag(TAG).d("逆时针旋转，降低主驾空调温度")
-                        decreaseACTemperature()
-                    }
+                    Timber.tag(TAG).d("执行主驾空调温度调节，旋转方向: $buttonType, 步数: $steps")
+                    // 顺时针旋转增加温度，逆时针旋转降低温度
+                    adjustACTemperature(if (buttonType == ButtonType.RIGHT_ROTATE) steps else -steps)
                     return
                 }
 
                 //副驾 l06空调调节没有主副驾之分
                 "CAR_AC_TEMPERATURE2" -> {
                     // 空调温度调节
-                    Timber.tag(TAG).d("执行副驾空调温度调节，旋转方向: $buttonType")
-                    if (buttonType == ButtonType.RIGHT_ROTATE) {
-                        // 顺时针旋转，增加温度
-                        Timber.tag(TAG).d("顺时针旋转，增加副驾空调温度")
-                        increaseACTemperature2()
-                    } else {
-                        // 逆时针旋转，降低温度
-                        Timber.tag(TAG).d("逆时针旋转，降低副驾空调温度")
-                        decreaseACTemperature2()
-                    }
+                    Timber.tag(TAG).d("执行副驾空调温度调节，旋转方向: $buttonType, 步数: $steps")
+                    // 顺时针旋转增加温度，逆时针旋转降低温度
+                    adjustACTemperature2(if (buttonType == ButtonType.RIGHT_ROTATE) steps else -steps)
                     return
                 }
 
                 "CAR_AC_FAN_SPEED" -> {
                     // 空调风量调节
-                    Timber.tag(TAG).d("执行空调风量调节，旋转方向: $buttonType")
-                    if (buttonType == ButtonType.RIGHT_ROTATE) {
-                        // 顺时针旋转，增加风量
-                        Timber.tag(TAG).d("顺时针旋转，增加空调风量")
-                        increaseFanSpeed()
-                    } else {
-                        // 逆时针旋转，降低风量
-                        Timber.tag(TAG).d("逆时针旋转，降低空调风量")
-                        decreaseFanSpeed()
-                    }
+                    Timber.tag(TAG).d("执行空调风量调节，旋转方向: $buttonType, 步数: $steps")
+                    // 顺时针旋转增加风量，逆时针旋转降低风量
+                    adjustFanSpeed(if (buttonType == ButtonType.RIGHT_ROTATE) steps else -steps)
                     return
                 }
 
                 //老板键
                 "CAR_BOSS_KEY" -> {
-                    Timber.tag(TAG).d("执行老板键功能，旋转方向: $buttonType")
-                    if (buttonType == ButtonType.RIGHT_ROTATE) {
-                        // 顺时针旋转，
-                        Timber.tag(TAG).d("顺时针旋转老板键")
-                        increasePassengerPoistion()
-                    } else {
-                        // 逆时针旋转
-                        Timber.tag(TAG).d("逆时针旋转老板键")
-                        decreasePassengerPoistion()
-                    }
+                    Timber.tag(TAG).d("执行老板键功能，旋转方向: $buttonType, 步数: $steps")
+                    // 顺时针旋转后移，逆时针旋转前移
+                    adjustPassengerPosition(if (buttonType == ButtonType.RIGHT_ROTATE) steps else -steps)
                     return
 
                 }
@@ -25,8 +25,9 @@ class CarMediaExecutorImp @Inject constructor(
      * 执行媒体相关功能
      * @param function 要执行的功能
      * @param buttonType 触发的按键类型，用于处理旋转功能
+     * @param steps 旋转合并后的步数，音量按步数调节，切歌每帧只切一首
      */
-    fun executeMediaFunction(function: ButtonFunction, buttonType: ButtonType = ButtonType.SHORT_PRESS) {
+    fun executeMediaFunction(function: ButtonFunction, buttonType: ButtonType = ButtonType.SHORT_PRESS, steps: Int = 1) {
         Timber.tag(TAG)
             .d("执行车载媒体功能: ${function.name}, 代码: ${function.actionCode}, 按键类型: $buttonType")
         
@@ -42,11 +43,8 @@ class CarMediaExecutorImp @Inject constructor(
             when (function.actionCode) {
                 "MEDIA_VOLUME_CONTROL" -> {
                     // 音量控制
-                    if (buttonType == ButtonType.RIGHT_ROTATE) {
-                        volumeUp() // 顺时针旋转，增大音量
-                    } else {
-                        volumeDown() // 逆时针旋转，减小音量
-                    }
+                    // 顺时针旋转增大音量，逆时针旋转减小音量
+                    adjustVolume(if (buttonType == ButtonType.RIGHT_ROTATE) steps else -steps)
                     return
                 }
                 "MEDIA_MUSIC_SWITCH" -> {
@@ -261,12 +261,11 @@ open class FunctionFragment : Fragment() {
 
     private fun updateFunctionsList() {
         val buttonType = viewModel.selectedButtonType.value
-        val carTypeName = viewModel.useCarTypeName.value
         val functionsConfig = FunctionsConfig.getInstance(requireContext())
 
         val functions = when {
-            buttonType in ButtonType.ROTATE_TYPES -> functionsConfig.getRotaryFunctions(carTypeName)
-            else -> functionsConfig.getNonRotaryFunctions(carTypeName)
+            buttonType in ButtonType.ROTATE_TYPES -> functionsConfig.getRotaryFunctions()
+            else -> functionsConfig.getNonRotaryFunctions()
         }
 
         functionGridAdapter.updateFunctions(functions, selectedFunction)
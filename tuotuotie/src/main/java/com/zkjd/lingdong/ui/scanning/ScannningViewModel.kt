@@ -40,6 +40,9 @@ class ScannningViewModel  @Inject constructor(
     private val _newDeviceFound = MutableSharedFlow<List<Device>>()
     val newDeviceFound: SharedFlow<List<Device>> = _newDeviceFound.asSharedFlow()
 
+    // 本次扫描已处理过的设备地址，每个设备只查询一次数据库
+    private val processedAddresses = mutableSetOf<String>()
+
     init {
         Timber.tag(TAG).i("ScannningViewModel initialized")
         // 监听扫描状态
@@ -55,6 +58,14 @@ class ScannningViewModel  @Inject constructor(
                         Timber.tag(TAG).i("ScanResult received, device count: ${state.devices.size}")
                         processScannedDevices(state.devices)
                     }
+                    is ScanState.ScanDelta -> {
+                        // 用快照补齐被StateFlow合并掉的增量，只处理未处理过的设备
+                        val newDevices = state.devices.filter { processedAddresses.add(it.address) }
+                        Timber.tag(TAG).i("ScanDelta received, added: ${state.added.size}, unprocessed: ${newDevices.size}")
+                        if (newDevices.isNotEmpty()) {
+                            processScannedDevices(newDevices)
+                        }
+                    }
                     is ScanState.Scanning -> {
                         Timber.tag(TAG).i("Scanning in progress...")
                     }
@@ -138,6 +149,7 @@ class ScannningViewModel  @Inject constructor(
      */
     fun startScan() {
         Timber.tag(TAG).i("Starting scan...")
+        processedAddresses.clear()
         deviceRepository.startScan()
     }
 
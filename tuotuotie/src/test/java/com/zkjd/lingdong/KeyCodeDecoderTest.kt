@@ -0,0 +1,64 @@
+package com.zkjd.lingdong
+
+import com.zkjd.lingdong.bluetooth.BleConstants
+import com.zkjd.lingdong.bluetooth.KeyCodeDecoder
+import com.zkjd.lingdong.bluetooth.KeyDedupeRing
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class KeyCodeDecoderTest {
+
+    @Test
+    fun testDecodeButtons() {
+        val short = KeyCodeDecoder.decode(BleConstants.KeyCode.KEY_SHORT_PRESS)
+        assertEquals(KeyCodeDecoder.KIND_BUTTON, KeyCodeDecoder.kind(short))
+        assertEquals(KeyCodeDecoder.PRESS_SHORT, KeyCodeDecoder.pressType(short))
+        assertEquals(1, KeyCodeDecoder.key(short))
+
+        val long = KeyCodeDecoder.decode(BleConstants.KeyCode.KEY_LONG_PRESS)
+        assertEquals(KeyCodeDecoder.KIND_BUTTON, KeyCodeDecoder.kind(long))
+        assertEquals(KeyCodeDecoder.PRESS_LONG, KeyCodeDecoder.pressType(long))
+
+        val double = KeyCodeDecoder.decode(BleConstants.KeyCode.KEY_DOUBLE_CLICK)
+        assertEquals(KeyCodeDecoder.KIND_BUTTON, KeyCodeDecoder.kind(double))
+        assertEquals(KeyCodeDecoder.PRESS_DOUBLE, KeyCodeDecoder.pressType(double))
+        assertEquals(0x81, KeyCodeDecoder.rawCode(double))
+    }
+
+    @Test
+    fun testDecodeKnobAndReverseControl() {
+        assertEquals(KeyCodeDecoder.KIND_KNOB_CLOCKWISE,
+            KeyCodeDecoder.kind(KeyCodeDecoder.decode(BleConstants.KeyCode.KNOB_CLOCKWISE)))
+        assertEquals(KeyCodeDecoder.KIND_KNOB_ANTICLOCKWISE,
+            KeyCodeDecoder.kind(KeyCodeDecoder.decode(BleConstants.KeyCode.KNOB_ANTICLOCKWISE)))
+
+        val enter = KeyCodeDecoder.decode(BleConstants.KeyCode.REVERSE_CONTROL_ENTER)
+        assertEquals(KeyCodeDecoder.KIND_REVERSE_ENTER, KeyCodeDecoder.kind(enter))
+        assertEquals(3, KeyCodeDecoder.flag(enter))
+        assertEquals(KeyCodeDecoder.KIND_REVERSE_EXIT,
+            KeyCodeDecoder.kind(KeyCodeDecoder.decode(BleConstants.KeyCode.REVERSE_CONTROL_EXIT)))
+
+        assertEquals(KeyCodeDecoder.KIND_NONE,
+            KeyCodeDecoder.kind(KeyCodeDecoder.decode(BleConstants.KeyCode.KEY_NONE)))
+        // 标志位非0的普通按键无法识别
+        assertEquals(KeyCodeDecoder.KIND_UNKNOWN, KeyCodeDecoder.kind(KeyCodeDecoder.decode(0x11)))
+    }
+
+    @Test
+    fun testDedupeRing() {
+        val ring = KeyDedupeRing(buttonWindowMs = 100L, knobWindowMs = 5L)
+        val press = KeyCodeDecoder.decode(BleConstants.KeyCode.KEY_SHORT_PRESS)
+        assertFalse(ring.isDuplicate(press, 1000L))
+        assertTrue(ring.isDuplicate(press, 1050L))
+        assertFalse(ring.isDuplicate(press, 1200L))
+
+        // 快速旋转的每一格都保留
+        val knob = KeyCodeDecoder.decode(BleConstants.KeyCode.KNOB_CLOCKWISE)
+        assertFalse(ring.isDuplicate(knob, 2000L))
+        assertFalse(ring.isDuplicate(knob, 2020L))
+        assertFalse(ring.isDuplicate(knob, 2040L))
+        assertTrue(ring.isDuplicate(knob, 2042L))
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.tuotuotie_car_interface_library
+
+import android.os.SystemClock
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 属性变化监听
+ */
+fun interface CarPropertyListener {
+    fun onPropertyChanged(propertyId: Int, areaId: Int, value: Any?)
+}
+
+/**
+ * 车机属性数据源，由各平台实现
+ */
+interface CarPropertySource {
+    /**
+     * 同步读取，失败返回 null
+     */
+    fun readInt(propertyId: Int, areaId: Int): Int?
+
+    fun readFloat(propertyId: Int, areaId: Int): Float?
+
+    /**
+     * 向车机服务订阅属性变化，每个属性ID只会订阅一次
+     */
+    fun subscribe(propertyId: Int, listener: CarPropertyListener)
+
+    fun unsubscribe(propertyId: Int)
+}
+
+/**
+ * 车机属性缓存
+ *
+ * - 有订阅者的属性由变化回调更新，读取直接返回内存中的值；
+ *   超过 maxSubscribedAgeMs 没有收到回调时重新读取，避免回调丢失后一直返回旧值
+ * - 没有订阅者的属性读取后缓存 maxStalenessMs，超过后重新读取
+ * - 多个使用方订阅同一属性时，只向车机服务订阅一次
+ * - 设置属性后调用 [invalidate]，回调到达前的读取会重新读一次车机服务
+ * - 每个条目有代数，回调和 [invalidate] 都会加一；读取车机服务期间代数变了，读到的值不写入缓存，
+ *   避免读到的旧值覆盖回调刚写入的新值
+ * - 车机服务重连后调用 [invalidateAll]
+ * - 同一平台只应有一个实例，由依赖注入提供给各使用方
+ *
+ * @param source 平台数据源
+ * @param maxStalenessMs 没有订阅者的属性的缓存时间（毫秒）
+ * @param maxSubscribedAgeMs 有订阅者的属性的最长缓存时间（毫秒）
+ */
+class CarPropertyCache(
+    private val source: CarPropertySource,
+    private val maxStalenessMs: Long = DEFAULT_MAX_STALENESS_MS,
+    private val maxSubscribedAgeMs: Long = DEFAULT_MAX_SUBSCRIBED_AGE_MS
+) {
+    /**
+     * @param hasValue 为false时是 [invalidate] 留下的空条目，只记录代数
+     */
+    private class Entry(val value: Any?, val updatedAt: Long, val generation: Long, val hasValue: Boolean = true)
+
+    private val entries = ConcurrentHashMap<Long, Entry>()
+    // invalidateAll 时加一，清空前开始的读取不再写入
+    private val epoch = AtomicLong()
+    // 每个属性ID的订阅者，增删用 this 同步
+    private val listeners = ConcurrentHashMap<Int, CopyOnWriteArrayList<CarPropertyListener>>()
+    private val sourceListener = CarPropertyListener { propertyId, areaId, value ->
+        onPropertyChanged(propertyId, areaId, value)
+    }
+
+    fun getInt(propertyId: Int, areaId: Int = 0): Int? {
+        val cached = cached(propertyId, areaId)
+        if (cached is Int) {
+            return cached
+        }
+        val key = key(propertyId, areaId)
+        val readEpoch = epoch.get()
+        val generation = generation(key)
+        return source.readInt(propertyId, areaId)?.also { storeIfUnchanged(key, readEpoch, generation, it) }
+    }
+
+    fun getFloat(propertyId: Int, areaId: Int = 0): Float? {
+        val cached = cached(propertyId, areaId)
+        if (cached is Float) {
+            return cached
+        }
+        val key = key(propertyId, areaId)
+        val readEpoch = epoch.get()
+        val generation = generation(key)
+        return source.readFloat(propertyId, areaId)?.also { storeIfUnchanged(key, readEpoch, generation, it) }
+    }
+
+    /**
+     * 订阅属性变化，第一个订阅者会向车机服务订阅
+     */
+    @Synchronized
+    fun subscribe(propertyId: Int, listener: CarPropertyListener) {
+        val list = listeners[propertyId] ?: CopyOnWriteArrayList<CarPropertyListener>().also {
+            listeners[propertyId] = it
+            source.subscribe(propertyId, sourceListener)
+        }
+        list.addIfAbsent(listener)
+    }
+
+    /**
+     * 取消订阅，最后一个订阅者取消时向车机服务取消订阅
+     */
+    @Synchronized
+    fun unsubscribe(propertyId: Int, listener: CarPropertyListener) {
+        val list = listeners[propertyId] ?: return
+        list.remove(listener)
+        if (list.isEmpty()) {
+            listeners.remove(propertyId)
+            source.unsubscribe(propertyId)
+        }
+    }
+
+    /**
+     * 属性已被设置，缓存的旧值不再可信
+     */
+    fun invalidate(propertyId: Int, areaId: Int = 0) {
+        entries.compute(key(propertyId, areaId)) { _, old ->
+            Entry(null, 0L, (old?.generation ?: 0L) + 1, hasValue = false)
+        }
+    }
+
+    fun invalidateAll() {
+        epoch.incrementAndGet()
+        entries.clear()
+    }
+
+    private fun onPropertyChanged(propertyId: Int, areaId: Int, value: Any?) {
+        entries.compute(key(propertyId, areaId)) { _, old ->
+            Entry(value, SystemClock.elapsedRealtime(), (old?.generation ?: 0L) + 1)
+        }
+        listeners[propertyId]?.forEach { it.onPropertyChanged(propertyId, areaId, value) }
+    }
+
+    private fun cached(propertyId: Int, areaId: Int): Any? {
+        val entry = entries[key(propertyId, areaId)]?.takeIf { it.hasValue } ?: return null
+        val maxAgeMs = if (listeners.containsKey(propertyId)) maxSubscribedAgeMs else maxStalenessMs
+        if (SystemClock.elapsedRealtime() - entry.updatedAt <= maxAgeMs) {
+            return entry.value
+        }
+        return null
+    }
+
+    private fun generation(key: Long): Long = entries[key]?.generation ?: 0L
+
+    /**
+     * 写入读取车机服务得到的值，读取期间有回调、invalidate 或 invalidateAll 时放弃
+     */
+    private fun storeIfUnchanged(key: Long, readEpoch: Long, generation: Long, value: Any?) {
+        entries.compute(key) { _, old ->
+            if ((old?.generation ?: 0L) == generation && epoch.get() == readEpoch) {
+                Entry(value, SystemClock.elapsedRealtime(), generation)
+            } else {
+                old
+            }
+        }
+    }
+
+    private fun key(propertyId: Int, areaId: Int): Long =
+        (propertyId.toLong() shl 32) or (areaId.toLong() and 0xFFFFFFFFL)
+
+    companion object {
+        const val DEFAULT_MAX_STALENESS_MS = 2000L
+        const val DEFAULT_MAX_SUBSCRIBED_AGE_MS = 30_000L
+    }
+}
@@ -11,12 +11,42 @@ interface ICarFunctionExecutor {
     suspend fun increaseACTemperature()
     suspend fun decreaseACTemperature()
 
+    /**
+     * 按步数调节主驾空调温度，旋钮快速旋转时一帧合并为一次调用
+     * @param steps 正数升温，负数降温
+     */
+    suspend fun adjustACTemperature(steps: Int) {
+        repeat(kotlin.math.abs(steps)) {
+            if (steps > 0) increaseACTemperature() else decreaseACTemperature()
+        }
+    }
+
     fun increaseACTemperature2()
 
     fun decreaseACTemperature2()
 
+    /**
+     * 按步数调节副驾空调温度
+     * @param steps 正数升温，负数降温
+     */
+    suspend fun adjustACTemperature2(steps: Int) {
+        repeat(kotlin.math.abs(steps)) {
+            if (steps > 0) increaseACTemperature2() else decreaseACTemperature2()
+        }
+    }
+
     suspend fun increaseFanSpeed()
     suspend fun decreaseFanSpeed()
+
+    /**
+     * 按步数调节空调风量
+     * @param steps 正数加风，负数减风
+     */
+    suspend fun adjustFanSpeed(steps: Int) {
+        repeat(kotlin.math.abs(steps)) {
+            if (steps > 0) increaseFanSpeed() else decreaseFanSpeed()
+        }
+    }
     fun adjustAcWindDirection()
     suspend fun toggleDefrost1()
     suspend fun toggleDefrost2()
@@ -57,6 +87,16 @@ interface ICarFunctionExecutor {
     suspend fun increasePassengerPoistion()
     suspend fun decreasePassengerPoistion()
 
+    /**
+     * 按步数移动副驾座椅
+     * @param steps 正数后移，负数前移
+     */
+    suspend fun adjustPassengerPosition(steps: Int) {
+        repeat(kotlin.math.abs(steps)) {
+            if (steps > 0) increasePassengerPoistion() else decreasePassengerPoistion()
+        }
+    }
+
     // 按摩控制
     suspend fun adjustMassageIntensity()
     suspend fun adjustMassageMode()
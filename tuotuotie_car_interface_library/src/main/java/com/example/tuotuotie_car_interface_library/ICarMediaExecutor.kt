@@ -25,6 +25,17 @@ interface ICarMediaExecutor {
      */
     fun volumeDown()
 
+    /**
+     * 按步数调节音量，旋钮快速旋转时一帧合并为一次调用
+     * 默认逐步调用 [volumeUp]/[volumeDown]，能一次设置音量的平台应覆盖
+     * @param steps 正数增大，负数减小
+     */
+    fun adjustVolume(steps: Int) {
+        repeat(kotlin.math.abs(steps)) {
+            if (steps > 0) volumeUp() else volumeDown()
+        }
+    }
+
     /**
      * 播放下一首音乐
      * 通过发送媒体按键事件实现